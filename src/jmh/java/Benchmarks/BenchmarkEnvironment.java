@@ -0,0 +1,97 @@
+package Benchmarks;
+
+import Indexing.Indexer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/*
+ * Shared setup of the benchmarks: every benchmark works on its own synthetic
+ * collection and index under target/bench, never on the real CollectionIndex
+ */
+public class BenchmarkEnvironment {
+
+    /*
+     * Frequency classes of query terms, given as ranges of vocabulary ranks
+     */
+    public enum TermClass {
+        HIGH(0, 20), MEDIUM(300, 600), LOW(10000, 11000), MIXED(0, 0);
+
+        final int fromRank, toRank;
+
+        TermClass(int fromRank, int toRank) {
+            this.fromRank = fromRank;
+            this.toRank = toRank;
+        }
+    }
+
+    public static final long SEED = 42L;
+
+    /*
+     * Point PathManager to a synthetic collection of docsNum articles (generating it if needed)
+     * and to the index directory indexDirName next to it.
+     * Must be called before the first PathManager.getInstance() of the JVM
+     */
+    public static File setUp(int docsNum, String indexDirName) throws IOException {
+        File base = new File("target/bench/" + docsNum + "-" + SEED).getAbsoluteFile();
+        File collection = new File(base, "MedicalCollection");
+        new SyntheticCorpus(docsNum, SEED).generate(collection);
+        File wordNet = new File(base, "wn_s.pl");
+        if(!wordNet.exists())
+            writeWordNet(wordNet);
+        System.setProperty("hippocrates.collection", collection.getPath());
+        System.setProperty("hippocrates.indexDir", new File(base, indexDirName).getPath());
+        System.setProperty("hippocrates.wordNet", wordNet.getPath());
+        return base;
+    }
+
+    /*
+     * Build the final index of the collection, unless a previous fork has already
+     * built it with the current Indexer (the index format may have changed since)
+     */
+    public static void buildIndex(File base) throws IOException {
+        File marker = new File(System.getProperty("hippocrates.indexDir"), ".complete");
+        long indexerModified = Indexer.class.getResource("Indexer.class").openConnection().getLastModified();
+        if(marker.exists() && marker.lastModified() >= indexerModified)
+            return;
+        marker.delete();
+        new Indexer().index(new File(base, "MedicalCollection").getPath());
+        marker.createNewFile();
+    }
+
+    /*
+     * Return n reproducible queries of 3 terms each, taken from the given frequency class
+     */
+    public static String[] queries(TermClass termClass, int n) {
+        Random rnd = new Random(SEED);
+        String[] ret = new String[n];
+        TermClass[] classes = {TermClass.HIGH, TermClass.MEDIUM, TermClass.LOW};
+        for(int i = 0; i < n; i++) {
+            StringBuilder sb = new StringBuilder();
+            for(int t = 0; t < 3; t++) {
+                TermClass c = termClass == TermClass.MIXED ? classes[t] : termClass;
+                if(t > 0)
+                    sb.append(' ');
+                sb.append(SyntheticCorpus.word(c.fromRank + rnd.nextInt(c.toRank - c.fromRank)));
+            }
+            ret[i] = sb.toString();
+        }
+        return ret;
+    }
+
+    /*
+     * A tiny WordNet prolog file, so that synonyms can be compiled without the real one
+     */
+    private static void writeWordNet(File f) throws IOException {
+        f.getParentFile().mkdirs();
+        try(Writer w = new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8)) {
+            for(int i = 0; i < 100; i++) {
+                String synsetId = String.valueOf(100000000 + i);
+                w.write("s(" + synsetId + ",1,'" + SyntheticCorpus.word(300 + i) + "',n,1,0).\n");
+                w.write("s(" + synsetId + ",2,'" + SyntheticCorpus.word(10000 + i) + "',n,1,0).\n");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package Benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * A class that generates a reproducible collection of NXML articles.
+ * Words follow a Zipf distribution over a synthetic vocabulary, so that
+ * the same (docsNum, seed) pair always gives byte-identical files
+ */
+public class SyntheticCorpus {
+
+    // Fields
+
+    /*
+     * Syllables used to build the synthetic words (rank -> surface form)
+     */
+    private static final String[] SYLLABLES = {
+            "ka", "ro", "mi", "te", "lu", "san", "po", "dri", "ve", "no", "thi", "gal", "zu", "pen", "cor", "bam"
+    };
+
+    /*
+     * Vocabulary size and Zipf exponent
+     */
+    public static final int VOCABULARY_SIZE = 50000;
+    private static final double ZIPF_EXPONENT = 1.0;
+
+    /*
+     * Sizes of the (small) sets where journals, publishers and categories are taken from
+     */
+    private static final int JOURNALS_NUM = 20, PUBLISHERS_NUM = 5, CATEGORIES_NUM = 30;
+
+    /*
+     * First PMCID of the collection
+     */
+    private static final int FIRST_PMCID = 1000000;
+
+    private final int docsNum;
+    private final long seed;
+
+    /*
+     * Cumulative probabilities of every vocabulary rank
+     */
+    private final double[] cdf;
+
+    // Constructor
+
+    public SyntheticCorpus(int docsNum, long seed) {
+        this.docsNum = docsNum;
+        this.seed = seed;
+        cdf = new double[VOCABULARY_SIZE];
+        double sum = 0.0;
+        for(int r = 0; r < VOCABULARY_SIZE; r++) {
+            sum += 1.0 / Math.pow(r + 1, ZIPF_EXPONENT);
+            cdf[r] = sum;
+        }
+        for(int r = 0; r < VOCABULARY_SIZE; r++)
+            cdf[r] /= sum;
+    }
+
+    // Methods
+
+    /*
+     * Return the surface form of the word with the given frequency rank (0 = most frequent)
+     */
+    public static String word(int rank) {
+        StringBuilder sb = new StringBuilder();
+        int r = rank;
+        do {
+            sb.append(SYLLABLES[r % SYLLABLES.length]);
+            r /= SYLLABLES.length;
+        } while(r > 0);
+        if(sb.length() < 5)
+            sb.append("x"); // keep short words away from stopwords
+        return sb.toString();
+    }
+
+    /*
+     * Write the collection inside dir (one .nxml file per article).
+     * Does nothing if dir already holds a complete collection for the same parameters
+     */
+    public void generate(File dir) throws IOException {
+        File marker = new File(dir, ".complete-" + docsNum + "-" + seed);
+        if(marker.exists())
+            return;
+        dir.mkdirs();
+        Random rnd = new Random(seed);
+        for(int i = 0; i < docsNum; i++) {
+            int pmcid = FIRST_PMCID + i;
+            try(Writer w = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(dir, pmcid + ".nxml")), StandardCharsets.UTF_8))) {
+                writeArticle(w, pmcid, rnd);
+            }
+        }
+        marker.createNewFile();
+    }
+
+    /*
+     * Write a single article in the NXML layout that NXMLFileReader understands
+     */
+    private void writeArticle(Writer w, int pmcid, Random rnd) throws IOException {
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<article>\n<front>\n");
+        w.write("<journal-meta><journal-title>Journal of " + word(1000 + rnd.nextInt(JOURNALS_NUM))
+                + "</journal-title>");
+        w.write("<publisher><publisher-name>" + word(2000 + rnd.nextInt(PUBLISHERS_NUM))
+                + " Press</publisher-name></publisher></journal-meta>\n");
+        w.write("<article-meta>\n<article-id pub-id-type=\"pmc\">" + pmcid + "</article-id>\n");
+        w.write("<article-categories><subj-group><subject>" + word(3000 + rnd.nextInt(CATEGORIES_NUM))
+                + "</subject></subj-group></article-categories>\n");
+        w.write("<title-group><article-title>" + sentence(rnd, 8 + rnd.nextInt(8))
+                + "</article-title></title-group>\n");
+        w.write("<contrib-group>");
+        int authors = 1 + rnd.nextInt(5);
+        for(int a = 0; a < authors; a++) {
+            w.write("<contrib contrib-type=\"author\"><name><surname>" + word(4000 + rnd.nextInt(500))
+                    + "</surname><given-names>" + word(5000 + rnd.nextInt(100)) + "</given-names></name></contrib>");
+        }
+        w.write("</contrib-group>\n");
+        w.write("<abstract><p>" + sentence(rnd, 100 + rnd.nextInt(100)) + "</p></abstract>\n");
+        w.write("</article-meta>\n</front>\n<body>\n");
+        int paragraphs = 4 + rnd.nextInt(8);
+        for(int p = 0; p < paragraphs; p++)
+            w.write("<sec><p>" + sentence(rnd, 80 + rnd.nextInt(120)) + "</p></sec>\n");
+        w.write("</body>\n</article>\n");
+    }
+
+    /*
+     * A sequence of Zipf distributed words with some punctuation
+     */
+    private String sentence(Random rnd, int words) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < words; i++) {
+            if(i > 0)
+                sb.append(i % 13 == 0 ? ". " : " ");
+            sb.append(word(nextRank(rnd)));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Sample a vocabulary rank
+     */
+    private int nextRank(Random rnd) {
+        int pos = Arrays.binarySearch(cdf, rnd.nextDouble());
+        return Math.min(pos >= 0 ? pos : -pos - 1, VOCABULARY_SIZE - 1);
+    }
+
+    /*
+     * Generate a collection from the command line: <dir> <docsNum> [seed]
+     */
+    public static void main(String[] args) throws IOException {
+        int docs = Integer.parseInt(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+        new SyntheticCorpus(docs, seed).generate(new File(args[0]));
+        System.out.println("Generated " + docs + " articles in " + args[0]);
+    }
+
+}
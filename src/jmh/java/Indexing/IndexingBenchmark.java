@@ -0,0 +1,161 @@
+package Indexing;
+
+import Benchmarks.BenchmarkEnvironment;
+import Utilities.Field;
+import Utilities.PathManager;
+import gr.uoc.csd.hy463.NXMLFileReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Benchmarks of the indexing phases: analysis (tokenization, stopwords, stemming),
+ * partial index spilling and merging of partial indexes
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class IndexingBenchmark {
+
+    /*
+     * Documents analyzed or spilled by a single invocation
+     */
+    private static final int BATCH = 500;
+
+    @Param({"2000"})
+    public int docsNum;
+
+    /*
+     * Max terms of a partial index in the merge benchmark (small, to get several partial indexes)
+     */
+    @Param({"20000"})
+    public int piThreshold;
+
+    private File collection;
+    private ArrayList<String> paths;
+    private ArrayList<NXMLFileReader> articles;
+    private Indexer indexer;
+
+    @Setup(Level.Trial)
+    public void setUpCollection() throws IOException {
+        File base = BenchmarkEnvironment.setUp(docsNum, "ScratchIndex");
+        collection = new File(base, "MedicalCollection");
+        paths = new ArrayList<>();
+        File[] files = collection.listFiles((dir, name) -> name.endsWith(".nxml"));
+        Arrays.sort(files);
+        for(File f : files)
+            paths.add(f.getAbsolutePath());
+
+        /* Read the XML up front, so that the analysis benchmark measures only our own code */
+        articles = new ArrayList<>();
+        for(int i = 0; i < BATCH; i++)
+            articles.add(new NXMLFileReader(new File(paths.get(i))));
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIndexer() {
+        indexer = new Indexer(Integer.MAX_VALUE);
+    }
+
+    /*
+     * Lexical analysis, tokenization, stopword removal, stemming and tokenInfo population
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public double analysis() throws IOException {
+        double sum = 0;
+        for(int i = 0; i < articles.size(); i++) {
+            HashMap<String, String> tagPairs = indexer.makeTagPairs(articles.get(i));
+            sum += indexer.populateTokenInfo(tagPairs, i, new int[Field.values().length]);
+        }
+        return sum;
+    }
+
+    /*
+     * State of the spill benchmark: an indexer holding BATCH parsed documents
+     */
+    @State(Scope.Thread)
+    public static class SpillState {
+        Indexer indexer;
+
+        @Setup(Level.Invocation)
+        public void fill(IndexingBenchmark b) throws IOException {
+            indexer = new Indexer(Integer.MAX_VALUE);
+            indexer.prepareIndexDir();
+            for(int i = 0; i < BATCH; i++)
+                indexer.parseTags(b.paths.get(i));
+        }
+
+        @TearDown(Level.Invocation)
+        public void clean() {
+            deletePartialFiles();
+        }
+    }
+
+    /*
+     * Writing a partial vocabulary and posting file from tokenInfo
+     * (waiting for the spill writer, so the write itself is measured)
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public void spill(SpillState state) throws IOException {
+        state.indexer.flushTokenInfo();
+    }
+
+    /*
+     * State of the merge benchmark: the whole collection spilled into partial indexes
+     */
+    @State(Scope.Thread)
+    public static class MergeState {
+        Indexer indexer;
+
+        @Setup(Level.Invocation)
+        public void spillAll(IndexingBenchmark b) throws IOException {
+            indexer = new Indexer(b.piThreshold);
+            indexer.prepareIndexDir();
+            for(String path : b.paths)
+                indexer.parseTags(path);
+            indexer.flushTokenInfo();
+        }
+
+        @TearDown(Level.Invocation)
+        public void clean() {
+            deletePartialFiles();
+        }
+    }
+
+    /*
+     * Merging all partial indexes into the final index (including document norms)
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void merge(MergeState state) throws IOException {
+        state.indexer.createFinalIndex();
+    }
+
+    /*
+     * Delete every file in the benchmark's (scratch) index directory
+     */
+    private static void deletePartialFiles() {
+        File[] files = new File(PathManager.getInstance().getIndexDirPath()).listFiles();
+        if(files == null)
+            return;
+        for(File f : files)
+            f.delete();
+    }
+
+}
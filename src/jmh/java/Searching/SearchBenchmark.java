@@ -0,0 +1,75 @@
+package Searching;
+
+import Benchmarks.BenchmarkEnvironment;
+import Benchmarks.BenchmarkEnvironment.TermClass;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Benchmarks of query processing over a synthetic collection:
+ * single query latency for every term frequency class and multi-threaded throughput
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SearchBenchmark {
+
+    private static final int QUERIES_NUM = 64;
+
+    /*
+     * The collection, its index, the Searcher and the queries, shared by all threads
+     */
+    @State(Scope.Benchmark)
+    public static class Collection {
+
+        @Param({"2000"})
+        public int docsNum;
+
+        @Param({"HIGH", "MEDIUM", "LOW", "MIXED"})
+        public TermClass termClass;
+
+        String[] queries;
+        Searcher searcher;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            File base = BenchmarkEnvironment.setUp(docsNum, "CollectionIndex");
+            BenchmarkEnvironment.buildIndex(base);
+            queries = BenchmarkEnvironment.queries(termClass, QUERIES_NUM);
+            searcher = new Searcher();
+        }
+    }
+
+    /*
+     * Every thread walks through the queries on its own
+     */
+    @State(Scope.Thread)
+    public static class Client {
+
+        int next;
+
+        String nextQuery(Collection c) {
+            next = (next + 1) % c.queries.length;
+            return c.queries[next];
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object latency(Collection c, Client client) throws IOException {
+        return c.searcher.search(client.nextQuery(c), "type", 10);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(4)
+    public Object throughput(Collection c, Client client) throws IOException {
+        return c.searcher.search(client.nextQuery(c), "type", 10);
+    }
+
+}
@@ -1,10 +1,31 @@
 package Evaluation;
 
+import java.util.Arrays;
+
 public class EvaluationMain {
 
+    /*
+     * Usage: EvaluationMain (search the topics and evaluate the results)
+     *        EvaluationMain compare <results1> <results2> ... (compare runs, see IRQueryEvaluator.compare)
+     *        EvaluationMain tradeoff <budget1> <budget2> ... (search within budgets, see IRQueryEvaluator.tradeoff)
+     *        EvaluationMain pruning <setting1> <setting2> ... (prune query terms, see IRQueryEvaluator.pruning)
+     *        EvaluationMain rerank <depth1> <depth2> ... (two-phase ranking, see IRQueryEvaluator.rerank)
+     */
     public static void main(String[] args) throws Exception {
         IRQueryEvaluator qe = new IRQueryEvaluator();
-        qe.evaluate(false); // set this to 'true' to use existing results.txt file
+        if (args.length > 0 && args[0].equals("compare")) {
+            if (args.length < 3)
+                throw new IllegalArgumentException("At least two results files are needed to compare runs");
+            qe.compare(Arrays.asList(args).subList(1, args.length));
+        } else if (args.length > 0 && args[0].equals("tradeoff")) {
+            qe.tradeoff(Arrays.asList(args).subList(1, args.length));
+        } else if (args.length > 0 && args[0].equals("pruning")) {
+            qe.pruning(Arrays.asList(args).subList(1, args.length));
+        } else if (args.length > 0 && args[0].equals("rerank")) {
+            qe.rerank(Arrays.asList(args).subList(1, args.length));
+        } else {
+            qe.evaluate(false); // set this to 'true' to use existing results.txt file
+        }
     }
 
 }
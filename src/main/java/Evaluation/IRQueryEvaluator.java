@@ -1,15 +1,22 @@
 package Evaluation;
 
+import Searching.SearchBudget;
+import Searching.SearchConfig;
+import Searching.SearchResult;
 import Searching.Searcher;
+import Utilities.IndexGenerations;
 import Utilities.PathManager;
 import Utilities.SharedUtilities;
 import gr.uoc.csd.hy463.Topic;
 import gr.uoc.csd.hy463.TopicsReader;
 import org.apache.commons.lang3.tuple.MutablePair;
-import org.json.JSONObject;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
 public class IRQueryEvaluator {
 
@@ -41,6 +48,11 @@ public class IRQueryEvaluator {
      */
     private Integer maxRank;
 
+    /*
+     * Number of threads used to search the topics
+     */
+    private int threadsNum;
+
     // Constructor
 
     /*
@@ -53,10 +65,350 @@ public class IRQueryEvaluator {
         resultsHm = new HashMap<>();
         qrelsHm = new HashMap<>();
         maxRank = 1000;
+        threadsNum = Runtime.getRuntime().availableProcessors();
     }
 
     // Methods
 
+    /*
+     * Compare runs (results files in the format of results.txt, e.g. of different ranking
+     * variants): compute the three measures of every run, write the per-topic differences of
+     * every pair of runs to eval_compare.txt and print, for every pair and measure, the mean
+     * difference, the p-values of the paired randomization and bootstrap tests and the
+     * bootstrap 95% confidence interval of the difference
+     */
+    public void compare(List<String> runFiles) throws Exception {
+        int samples = Integer.getInteger("hippocrates.resamples", 20000);
+        long seed = Long.getLong("hippocrates.seed", 1L);
+
+        System.out.println("Loading qrels.txt");
+        loadQrels();
+
+        /* Measures of every run */
+        ArrayList<ArrayList<HashMap<Integer, Double>>> runMeasures = new ArrayList<>();
+        for (String runFile : runFiles) {
+            System.out.println("Loading " + runFile);
+            resultsHm = new HashMap<>();
+            loadResults(runFile);
+            bprefHm = new HashMap<>();
+            avepHm = new HashMap<>();
+            ndcgHm = new HashMap<>();
+            computeBpref();
+            computeAvep();
+            computeNdcg();
+            runMeasures.add(new ArrayList<>(Arrays.asList(bprefHm, avepHm, ndcgHm)));
+        }
+
+        /* Topics with a value of every measure (no value without relevant documents in the corpus) */
+        ArrayList<Integer> topicNums = new ArrayList<>();
+        for (Integer topicNo : new TreeSet<>(qrelsHm.keySet())) {
+            boolean measured = true;
+            for (ArrayList<HashMap<Integer, Double>> measures : runMeasures) {
+                for (HashMap<Integer, Double> measure : measures)
+                    measured &= Double.isFinite(measure.get(topicNo));
+            }
+            if (measured)
+                topicNums.add(topicNo);
+        }
+        System.out.println("Comparing " + runFiles.size() + " runs on " + topicNums.size() + " topics ("
+                + samples + " resamples)");
+        if (topicNums.isEmpty())
+            return;
+
+        /* [run][measure][topic] */
+        String[] measureNames = {"bpref", "AveP'", "nDCG'"};
+        double[][][] values = new double[runFiles.size()][measureNames.length][topicNums.size()];
+        for (int r = 0; r < runFiles.size(); r++) {
+            for (int m = 0; m < measureNames.length; m++) {
+                for (int t = 0; t < topicNums.size(); t++)
+                    values[r][m][t] = runMeasures.get(r).get(m).get(topicNums.get(t));
+            }
+        }
+
+        BufferedWriter ec = new BufferedWriter(
+                new FileWriter(
+                        PathManager.getInstance().getEvalFilesPath() + "/eval_compare.txt"
+                )
+        );
+        long start = System.nanoTime();
+        SignificanceTests tests = new SignificanceTests(topicNums.size(), samples, seed);
+        System.out.println("=== Run Comparison (* both tests p < 0.05) ===");
+        for (int r1 = 0; r1 < runFiles.size(); r1++) {
+            for (int r2 = r1 + 1; r2 < runFiles.size(); r2++) {
+                String name1 = new File(runFiles.get(r1)).getName(), name2 = new File(runFiles.get(r2)).getName();
+                double[][] deltas = new double[measureNames.length][topicNums.size()];
+                for (int m = 0; m < measureNames.length; m++) {
+                    for (int t = 0; t < topicNums.size(); t++)
+                        deltas[m][t] = values[r2][m][t] - values[r1][m][t];
+                }
+
+                /* Per-topic differences: run1, run2, topic, bpref, AveP', nDCG' (run2 - run1) */
+                for (int t = 0; t < topicNums.size(); t++) {
+                    ec.write(name1 + "\t" + name2 + "\t" + topicNums.get(t));
+                    for (double[] delta : deltas)
+                        ec.write("\t" + delta[t]);
+                    ec.write("\n");
+                }
+
+                for (int m = 0; m < measureNames.length; m++) {
+                    double randomizationP = tests.randomization(deltas[m]);
+                    SignificanceTests.Bootstrap bootstrap = tests.bootstrap(deltas[m]);
+                    System.out.println(String.format(Locale.ROOT,
+                            "%s vs %s %-5s %.4f -> %.4f delta=%+.4f randomization p=%.5f bootstrap p=%.5f"
+                                    + " 95%% CI [%+.4f, %+.4f]%s",
+                            name1, name2, measureNames[m], mean(values[r1][m]), mean(values[r2][m]),
+                            mean(deltas[m]), randomizationP, bootstrap.p, bootstrap.low, bootstrap.high,
+                            randomizationP < 0.05 && bootstrap.p < 0.05 ? " *" : ""));
+                }
+            }
+        }
+        ec.close();
+        System.out.println("Tests computed in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        System.out.println("=============================");
+    }
+
+    private static double mean(double[] values) {
+        double ret = 0.0;
+        for (double v : values)
+            ret += v;
+        return values.length == 0 ? 0.0 : ret / values.length;
+    }
+
+    /*
+     * Measure the quality/latency trade-off of searching within a budget (see Searching.SearchBudget):
+     * search the topics without a budget and then with every given budget ("<n>ms" for a time budget,
+     * "<n>" for a postings budget), one topic at a time, and print and write to eval_tradeoff.txt,
+     * for every budget, the mean and 95th percentile latency, the fraction of exact answers, the
+     * mean of the three measures and the overlap of the top 10 results with the ones without a budget
+     */
+    public void tradeoff(List<String> budgets) throws Exception {
+
+        Searcher s = new Searcher();
+        ArrayList<Topic> topics = TopicsReader.readTopics(
+                PathManager.getInstance().getEvalFilesPath() + "/topics.xml"
+        );
+        System.out.println("Loading qrels.txt");
+        loadQrels();
+
+        /* A round with and without a budget, that warms up the JIT and the page cache */
+        for (Topic topic : topics) {
+            s.search(topic.getDescription(), topic.getType().toString(), maxRank);
+            s.search(topic.getDescription(), topic.getType().toString(), maxRank, null, null, new SearchBudget(0, 0));
+        }
+        ArrayList<String> labels = new ArrayList<>(Collections.singletonList("none"));
+        labels.addAll(budgets);
+        ArrayList<ArrayList<SearchResult>> exactAnswers = null;
+
+        BufferedWriter et = new BufferedWriter(
+                new FileWriter(
+                        PathManager.getInstance().getEvalFilesPath() + "/eval_tradeoff.txt"
+                )
+        );
+        System.out.println("=== Quality/Latency Trade-off (" + topics.size() + " topics) ===");
+        System.out.println(String.format(Locale.ROOT, "%-10s %7s %9s %9s %7s %7s %7s %9s",
+                "budget", "exact", "mean ms", "p95 ms", "bpref", "AveP'", "nDCG'", "overlap@10"));
+        for (String label : labels) {
+            long millis = 0, postings = 0;
+            if (label.endsWith("ms"))
+                millis = Long.parseLong(label.substring(0, label.length() - 2));
+            else if (!label.equals("none"))
+                postings = Long.parseLong(label);
+
+            ArrayList<ArrayList<SearchResult>> answers = new ArrayList<>();
+            double[] latencies = new double[topics.size()];
+            int exact = 0;
+            for (int t = 0; t < topics.size(); t++) {
+                Topic topic = topics.get(t);
+                SearchBudget budget = label.equals("none") ? null : new SearchBudget(millis, postings);
+                long start = System.nanoTime();
+                answers.add(s.search(topic.getDescription(), topic.getType().toString(), maxRank, null, null, budget));
+                latencies[t] = (System.nanoTime() - start) / 1e6;
+                if (budget == null || budget.isExact())
+                    exact++;
+            }
+            if (exactAnswers == null)
+                exactAnswers = answers;
+
+            double[] measures = measure(topics, answers, exactAnswers);
+
+            Arrays.sort(latencies);
+            double[] row = {exact / (double) topics.size(), mean(latencies),
+                    latencies[(int) Math.ceil(0.95 * latencies.length) - 1],
+                    measures[0], measures[1], measures[2], measures[3]};
+            System.out.println(String.format(Locale.ROOT, "%-10s %7.2f %9.3f %9.3f %7.4f %7.4f %7.4f %9.4f",
+                    label, row[0], row[1], row[2], row[3], row[4], row[5], row[6]));
+            et.write(label);
+            for (double value : row) {
+                et.write('\t');
+                et.write(String.valueOf(value));
+            }
+            et.write("\n");
+        }
+        et.close();
+        s.close();
+        System.out.println("=============================");
+    }
+
+    /*
+     * Measure the effect of query term pruning (see Searching.QueryPlanner): search the topics without
+     * pruning and then with every given setting (comma separated options: "df=<share>" for pruning.maxDf,
+     * "loss=<share>" for pruning.maxLoss, "drop" to drop pruned terms instead of deferring them) and
+     * write the results to eval_pruning.txt (see compareSettings)
+     */
+    public void pruning(List<String> settings) throws Exception {
+        compareSettings("Query Term Pruning", "pruning", "eval_pruning.txt", settings, IRQueryEvaluator::setPruning);
+    }
+
+    /*
+     * Measure the effect of two-phase ranking (see Searching.Reranker): search the topics without
+     * reranking and then reranking every given number (rerank.depth) of the best results of the
+     * first phase, and write the results to eval_rerank.txt (see compareSettings)
+     */
+    public void rerank(List<String> depths) throws Exception {
+        compareSettings("Two-phase Ranking", "depth", "eval_rerank.txt", depths, (config, depth) -> {
+            config.set("rerank.enabled", String.valueOf(!depth.equals("none")));
+            if (!depth.equals("none"))
+                config.set("rerank.depth", String.valueOf(Integer.parseInt(depth)));
+        });
+    }
+
+    /*
+     * Search the topics one at a time with the search config changed by every setting, the first one being
+     * "none" (the reference), and print and write to the given file of EvalFiles, for every setting, the mean
+     * and 95th percentile latency, the mean of the three measures and the overlap of the top 10 results with
+     * the ones of the reference
+     */
+    private void compareSettings(String title, String header, String fileName, List<String> settings,
+                                 BiConsumer<SearchConfig, String> apply) throws Exception {
+
+        Searcher s = new Searcher();
+        ArrayList<Topic> topics = TopicsReader.readTopics(
+                PathManager.getInstance().getEvalFilesPath() + "/topics.xml"
+        );
+        System.out.println("Loading qrels.txt");
+        loadQrels();
+        ArrayList<String> labels = new ArrayList<>(Collections.singletonList("none"));
+        labels.addAll(settings);
+
+        /* A round with every setting, that warms up the JIT and the page cache */
+        for (String label : labels) {
+            apply.accept(s.getConfig(), label);
+            for (Topic topic : topics)
+                s.search(topic.getDescription(), topic.getType().toString(), maxRank);
+        }
+        ArrayList<ArrayList<SearchResult>> referenceAnswers = null;
+
+        BufferedWriter ef = new BufferedWriter(
+                new FileWriter(
+                        PathManager.getInstance().getEvalFilesPath() + "/" + fileName
+                )
+        );
+        System.out.println("=== " + title + " (" + topics.size() + " topics) ===");
+        System.out.println(String.format(Locale.ROOT, "%-20s %9s %9s %7s %7s %7s %9s",
+                header, "mean ms", "p95 ms", "bpref", "AveP'", "nDCG'", "overlap@10"));
+        for (String label : labels) {
+            apply.accept(s.getConfig(), label);
+            ArrayList<ArrayList<SearchResult>> answers = new ArrayList<>();
+            double[] latencies = new double[topics.size()];
+            for (int t = 0; t < topics.size(); t++) {
+                Topic topic = topics.get(t);
+                long start = System.nanoTime();
+                answers.add(s.search(topic.getDescription(), topic.getType().toString(), maxRank));
+                latencies[t] = (System.nanoTime() - start) / 1e6;
+            }
+            if (referenceAnswers == null)
+                referenceAnswers = answers;
+            double[] measures = measure(topics, answers, referenceAnswers);
+
+            Arrays.sort(latencies);
+            double[] row = {mean(latencies), latencies[(int) Math.ceil(0.95 * latencies.length) - 1],
+                    measures[0], measures[1], measures[2], measures[3]};
+            System.out.println(String.format(Locale.ROOT, "%-20s %9.3f %9.3f %7.4f %7.4f %7.4f %9.4f",
+                    label, row[0], row[1], row[2], row[3], row[4], row[5]));
+            ef.write(label);
+            for (double value : row) {
+                ef.write('\t');
+                ef.write(String.valueOf(value));
+            }
+            ef.write("\n");
+        }
+        ef.close();
+        s.close();
+        System.out.println("=============================");
+    }
+
+    /*
+     * Set the pruning options of a setting of pruning() ("none" for no pruning)
+     */
+    private static void setPruning(SearchConfig config, String setting) {
+        config.set("pruning.enabled", String.valueOf(!setting.equals("none")));
+        config.set("pruning.maxDf", "1.0");
+        config.set("pruning.maxLoss", "0.0");
+        config.set("pruning.defer", "true");
+        for (String option : setting.split(",")) {
+            if (option.startsWith("df="))
+                config.set("pruning.maxDf", option.substring(3));
+            else if (option.startsWith("loss="))
+                config.set("pruning.maxLoss", option.substring(5));
+            else if (option.equals("drop"))
+                config.set("pruning.defer", "false");
+            else if (!option.equals("none"))
+                throw new IllegalArgumentException("Unknown pruning option: " + option);
+        }
+    }
+
+    /*
+     * The mean bpref, AveP' and nDCG' of the answers to the topics, and the mean share of the
+     * top 10 of the reference answers (e.g. without a budget) that is in their top 10
+     */
+    private double[] measure(List<Topic> topics, List<ArrayList<SearchResult>> answers,
+                             List<ArrayList<SearchResult>> referenceAnswers) {
+
+        resultsHm = new HashMap<>();
+        bprefHm = new HashMap<>();
+        avepHm = new HashMap<>();
+        ndcgHm = new HashMap<>();
+        for (int t = 0; t < topics.size(); t++) {
+            TreeMap<Integer, MutablePair<String, Double>> tm = new TreeMap<>();
+            for (SearchResult result : answers.get(t))
+                tm.put(tm.size() + 1, new MutablePair<>(result.getPmcid(), result.getScore()));
+            resultsHm.put(topics.get(t).getNumber(), tm);
+        }
+        computeBpref();
+        computeAvep();
+        computeNdcg();
+
+        double overlap = 0.0;
+        for (int t = 0; t < topics.size(); t++) {
+            HashSet<String> top = new HashSet<>();
+            List<SearchResult> referenceTop = referenceAnswers.get(t).subList(0, Math.min(10, referenceAnswers.get(t).size()));
+            for (SearchResult result : referenceTop)
+                top.add(result.getPmcid());
+            int common = 0;
+            for (SearchResult result : answers.get(t).subList(0, Math.min(10, answers.get(t).size())))
+                common += top.contains(result.getPmcid()) ? 1 : 0;
+            overlap += referenceTop.isEmpty() ? 1.0 : common / (double) referenceTop.size();
+        }
+        overlap /= topics.size();
+
+        return new double[] {finiteMean(bprefHm), finiteMean(avepHm), finiteMean(ndcgHm), overlap};
+    }
+
+    /*
+     * Mean of the values of a measure (topics without relevant documents have none)
+     */
+    private static double finiteMean(HashMap<Integer, Double> measure) {
+        double sum = 0.0;
+        int n = 0;
+        for (double value : measure.values()) {
+            if (Double.isFinite(value)) {
+                sum += value;
+                n++;
+            }
+        }
+        return n == 0 ? 0.0 : sum / n;
+    }
+
     /*
      * Produce results to topic queries, compare them with judged results,
      * compute the three measures and produce statistics
@@ -64,7 +416,7 @@ public class IRQueryEvaluator {
     public void evaluate(boolean isResultsFileCreated) throws Exception {
         if (isResultsFileCreated) {
             System.out.println("Loading results.txt");
-            loadResults();
+            loadResults(PathManager.getInstance().getEvalFilesPath() + "/results.txt");
         } else {
             System.out.println("Creating results.txt");
             produceResults();
@@ -89,39 +441,43 @@ public class IRQueryEvaluator {
 
     /*
      * Makes a -processed like in B9, phase A- query
-     * and produces results.txt file with top 1000 results for every topic in topics.xml
+     * and produces results.txt file with top 1000 results for every topic in topics.xml.
+     * Topics are searched in parallel, all threads sharing the same (read-only) Searcher
      */
     private void produceResults() throws Exception {
 
-        BufferedWriter res = new BufferedWriter(
-                new FileWriter(
-                        PathManager.getInstance().getEvalFilesPath() + "/results.txt"
-                )
-        );
         Searcher s = new Searcher();
         ArrayList<Topic> topics = TopicsReader.readTopics(
                 PathManager.getInstance().getEvalFilesPath() + "/topics.xml"
         );
 
-        String runName = "R0";
+        ExecutorService pool = Executors.newFixedThreadPool(threadsNum);
+        ArrayList<Future<ArrayList<SearchResult>>> answers = new ArrayList<>();
         for (Topic topic : topics) {
-            JSONObject answer = s.search(
-                    topic.getDescription(), topic.getType().toString()
-            );
+            answers.add(pool.submit(
+                    () -> s.search(topic.getDescription(), topic.getType().toString(), maxRank)
+            ));
+        }
+        pool.shutdown();
+
+        BufferedWriter res = new BufferedWriter(
+                new FileWriter(
+                        PathManager.getInstance().getEvalFilesPath() + "/results.txt"
+                )
+        );
+        String runName = "R0";
+        for (int t = 0; t < topics.size(); t++) {
+            ArrayList<SearchResult> answer = answers.get(t).get();
             TreeMap<Integer, MutablePair<String, Double>> tm = new TreeMap<>();
-            Integer topicNo = topic.getNumber();
+            Integer topicNo = topics.get(t).getNumber();
 
             Integer rank = 0;
-            int results = Integer.parseInt(answer.get("results").toString());
-            int lastDoc = Math.max(results - maxRank, 0);
-            for (int j = results - 1; j >= lastDoc; j--) {
+            for (SearchResult result : answer) { // best result first
 
                 /* The result values */
-                JSONObject obj = (JSONObject) answer.get("doc" + j);
-                String pmcid =
-                        obj.get("name").toString().substring(0, obj.get("name").toString().lastIndexOf("."));
+                String pmcid = result.getPmcid();
                 rank++;
-                Double score = Double.valueOf(obj.get("score").toString());
+                Double score = result.getScore();
 
                 /* Write them to disk */
                 res.write(topicNo.toString());
@@ -148,24 +504,24 @@ public class IRQueryEvaluator {
     }
 
     /*
-     * Returns a hashset with all document ids from DocumentsFile.txt
+     * Returns a hashset with all document ids from DocumentsFile.txt (of every shard)
      */
     private HashSet<String> findAllDocIds() throws IOException {
 
         HashSet<String> ret = new HashSet<>();
 
-        RandomAccessFile doc = new RandomAccessFile(
-                PathManager.getInstance().getIndexDirPath() + "/DocumentsFile.txt", "rw"
-        );
-        doc.readLong(); // skip docs number
+        for (String indexDir : IndexGenerations.shardDirs(IndexGenerations.currentDir())) {
+            RandomAccessFile doc = new RandomAccessFile(indexDir + "/DocumentsFile.txt", "r");
+            doc.readLong(); // skip docs number
 
-        while (!SharedUtilities.getInstance().isEOFReached(doc)) {
-            ret.add(doc.readUTF()); // doc id
-            doc.readUTF(); // path
-            doc.readDouble(); // vec length
-        }
+            while (!SharedUtilities.getInstance().isEOFReached(doc)) {
+                ret.add(doc.readUTF()); // doc id
+                doc.readUTF(); // path
+                doc.readInt(); // near-duplicates cluster
+            }
 
-        doc.close();
+            doc.close();
+        }
 
         return ret;
     }
@@ -204,13 +560,11 @@ public class IRQueryEvaluator {
     }
 
     /*
-     * Loads information from results.txt into memory
+     * Loads information from a results file (results.txt or a run to compare) into memory
      */
-    private void loadResults() throws Exception {
+    private void loadResults(String path) throws Exception {
         BufferedReader br = new BufferedReader(
-                new FileReader(
-                        PathManager.getInstance().getEvalFilesPath() + "/results.txt"
-                )
+                new FileReader(path)
         );
         String line;
         TreeMap<Integer, MutablePair<String, Double>> tm = new TreeMap<>();
@@ -240,7 +594,7 @@ public class IRQueryEvaluator {
 
         for (Integer topicNo : qrelsHm.keySet()) {
             HashMap<String, Integer> judged = qrelsHm.get(topicNo);
-            TreeMap<Integer, MutablePair<String, Double>> retrieved = resultsHm.get(topicNo);
+            TreeMap<Integer, MutablePair<String, Double>> retrieved = resultsHm.getOrDefault(topicNo, new TreeMap<>());
 
             /* Compute R (# relevant judged), N (# non-relevant judged) */
             int R = 0;
@@ -279,7 +633,7 @@ public class IRQueryEvaluator {
 
         for (Integer topicNo : qrelsHm.keySet()) {
             HashMap<String, Integer> judged = qrelsHm.get(topicNo);
-            TreeMap<Integer, MutablePair<String, Double>> retrieved = resultsHm.get(topicNo);
+            TreeMap<Integer, MutablePair<String, Double>> retrieved = resultsHm.getOrDefault(topicNo, new TreeMap<>());
 
             /* Compute R (# relevant judged) */
             int R = 0;
@@ -326,7 +680,7 @@ public class IRQueryEvaluator {
     private void computeNdcg() {
         for (Integer topicNo : qrelsHm.keySet()) {
             HashMap<String, Integer> judged = qrelsHm.get(topicNo);
-            TreeMap<Integer, MutablePair<String, Double>> retrieved = resultsHm.get(topicNo);
+            TreeMap<Integer, MutablePair<String, Double>> retrieved = resultsHm.getOrDefault(topicNo, new TreeMap<>());
 
             /* Create condensed list (exclude unjudged docs) */
             int condensedRank = 1;
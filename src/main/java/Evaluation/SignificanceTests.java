@@ -0,0 +1,197 @@
+package Evaluation;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Paired significance tests of the per-topic differences (deltas) of a measure between two runs.
+ * The resamples (sign flips of the randomization test, topic multiplicities of the bootstrap) are
+ * drawn once, in primitive arrays, and shared by the tests of every pair of runs and measure, so
+ * a test is a dot product of the deltas with every resample. Resamples are split into fixed blocks,
+ * each drawn with its own random generator seeded from the block's number, and fork-join tasks
+ * compute the blocks in parallel, so the results depend only on the seed
+ */
+class SignificanceTests {
+
+    // Fields
+
+    /*
+     * Resamples of a block (computed by a single task)
+     */
+    private static final int BLOCK = 1024;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final int topicsNum, samples;
+
+    /*
+     * Sign of every topic's delta in every randomization sample (+1 or -1)
+     * and number of times every topic is drawn in every bootstrap sample
+     */
+    private final byte[] signs;
+    private final short[] multiplicities;
+
+    /*
+     * Result of the bootstrap test: p-value and 95% confidence interval of the mean delta
+     */
+    static class Bootstrap {
+        final double p, low, high;
+
+        Bootstrap(double p, double low, double high) {
+            this.p = p;
+            this.low = low;
+            this.high = high;
+        }
+    }
+
+    // Constructor
+
+    /*
+     * Draw the resamples of the tests of topicsNum topics (fewer than 32768)
+     */
+    SignificanceTests(int topicsNum, int samples, long seed) {
+        this.topicsNum = topicsNum;
+        this.samples = samples;
+        signs = new byte[samples * topicsNum];
+        multiplicities = new short[samples * topicsNum];
+        forEachBlock(block -> {
+            SplittableRandom random = new SplittableRandom(seed + block * GOLDEN_GAMMA);
+            for (int s = block * BLOCK; s < Math.min(samples, (block + 1) * BLOCK); s++) {
+                for (int t = 0; t < topicsNum; t++) {
+                    signs[s * topicsNum + t] = (byte) (random.nextBoolean() ? 1 : -1);
+                    multiplicities[s * topicsNum + random.nextInt(topicsNum)]++;
+                }
+            }
+        });
+    }
+
+    // Methods
+
+    /*
+     * Two-sided p-value of the paired randomization (permutation) test: under the null
+     * hypothesis the two runs are exchangeable for every topic, so the sign of every delta
+     * is flipped at random and the p-value is the fraction of the samples whose mean delta
+     * is at least as far from 0 as the observed one
+     */
+    double randomization(double[] deltas) {
+        double observed = Math.abs(sum(deltas)) - 1e-12; // rounding errors of sums of the same values
+        long[] counts = new long[blocks()];
+        forEachBlock(block -> {
+            long count = 0;
+            for (int s = block * BLOCK; s < Math.min(samples, (block + 1) * BLOCK); s++) {
+                double sum = 0.0;
+                for (int t = 0, i = s * topicsNum; t < topicsNum; t++, i++)
+                    sum += signs[i] * deltas[t];
+                if (Math.abs(sum) >= observed)
+                    count++;
+            }
+            counts[block] = count;
+        });
+        return pValue(counts);
+    }
+
+    /*
+     * Paired bootstrap test: topics are resampled with replacement. The p-value (two-sided) is
+     * the fraction of the samples, shifted to mean 0 (the null hypothesis), whose mean is at least
+     * as far from 0 as the observed mean, and the confidence interval is given by the percentiles
+     * of the means of the samples
+     */
+    Bootstrap bootstrap(double[] deltas) {
+        double mean = sum(deltas) / topicsNum;
+        double observed = Math.abs(mean) - 1e-12;
+        double[] means = new double[samples];
+        long[] counts = new long[blocks()];
+        forEachBlock(block -> {
+            long count = 0;
+            for (int s = block * BLOCK; s < Math.min(samples, (block + 1) * BLOCK); s++) {
+                double sum = 0.0;
+                for (int t = 0, i = s * topicsNum; t < topicsNum; t++, i++)
+                    sum += multiplicities[i] * deltas[t];
+                means[s] = sum / topicsNum;
+                if (Math.abs(means[s] - mean) >= observed)
+                    count++;
+            }
+            counts[block] = count;
+        });
+        int low = (int) (0.025 * (samples - 1)), high = (int) Math.ceil(0.975 * (samples - 1));
+        select(means, 0, samples - 1, low);
+        select(means, low, samples - 1, high);
+        return new Bootstrap(pValue(counts), means[low], means[high]);
+    }
+
+    /*
+     * Move the k-th smallest of values[from..to] to values[k], the smaller ones before it and the
+     * larger ones after it (quickselect: expected linear time, instead of sorting the samples)
+     */
+    private static void select(double[] values, int from, int to, int k) {
+        while (from < to) {
+            double pivot = median(values[from], values[(from + to) >>> 1], values[to]);
+            int i = from, j = to;
+            while (i <= j) {
+                while (values[i] < pivot)
+                    i++;
+                while (values[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    double tmp = values[i];
+                    values[i++] = values[j];
+                    values[j--] = tmp;
+                }
+            }
+            if (k <= j)
+                to = j;
+            else if (k >= i)
+                from = i;
+            else
+                return;
+        }
+    }
+
+    private static double median(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private int blocks() { return (samples + BLOCK - 1) / BLOCK; }
+
+    /*
+     * p-value from the number of samples at least as extreme as the observation in every block
+     * (counting the observation itself as one, so it's never 0)
+     */
+    private double pValue(long[] counts) {
+        long count = 0;
+        for (long c : counts)
+            count += c;
+        return (count + 1) / (double) (samples + 1);
+    }
+
+    private interface BlockTask {
+        void run(int block);
+    }
+
+    /*
+     * Run task for every block, in parallel
+     */
+    private void forEachBlock(BlockTask task) {
+        RecursiveAction[] tasks = new RecursiveAction[blocks()];
+        for (int b = 0; b < tasks.length; b++) {
+            final int block = b;
+            tasks[b] = new RecursiveAction() {
+                @Override
+                protected void compute() { task.run(block); }
+            };
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() { invokeAll(tasks); }
+        });
+    }
+
+    private static double sum(double[] values) {
+        double ret = 0.0;
+        for (double v : values)
+            ret += v;
+        return ret;
+    }
+
+}
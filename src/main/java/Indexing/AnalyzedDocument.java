@@ -0,0 +1,109 @@
+package Indexing;
+
+import java.util.Map;
+
+/*
+ * A document analyzed like the indexer analyzes the documents of a build (see Indexer.analyze),
+ * with everything an index keeps about it, for documents that are searched before they are
+ * in an index (see Searching.DocumentIngester)
+ */
+public class AnalyzedDocument {
+
+    // Fields
+
+    private final String docId, path;
+
+    /*
+     * Stemmed terms of the document -> tf in every field (in the order of the Field enum)
+     */
+    private final Map<String, int[]> terms;
+
+    /*
+     * Number of indexed tokens of every field
+     */
+    private final int[] fieldLens;
+
+    /*
+     * Max (weighted with the default field weights) tf of the document's terms
+     */
+    private final double maxTF;
+
+    /*
+     * The text kept in the document store
+     */
+    private final String title, abstr, excerpt;
+
+    /*
+     * Values of every Facet (in the order of the Facet enum)
+     */
+    private final String[][] facetValues;
+
+    /*
+     * MinHash signature of the document's text (see DuplicateDetector)
+     */
+    private final int[] minHash;
+
+    /*
+     * Publication year (0 if it has none)
+     */
+    private final int year;
+
+    /*
+     * Static features, in the order of Indexer.getFeatureNames
+     */
+    private final float[] features;
+
+    // Constructor
+
+    AnalyzedDocument(String docId, String path, Map<String, int[]> terms, int[] fieldLens, double maxTF,
+                     String title, String abstr, String excerpt, String[][] facetValues, int[] minHash, int year,
+                     float[] features) {
+        this.docId = docId;
+        this.path = path;
+        this.terms = terms;
+        this.fieldLens = fieldLens;
+        this.maxTF = maxTF;
+        this.title = title;
+        this.abstr = abstr;
+        this.excerpt = excerpt;
+        this.facetValues = facetValues;
+        this.minHash = minHash;
+        this.year = year;
+        this.features = features;
+    }
+
+    // Methods
+
+    public String getDocId() { return docId; }
+
+    public String getPath() { return path; }
+
+    public Map<String, int[]> getTerms() { return terms; }
+
+    public int[] getFieldLens() { return fieldLens; }
+
+    public double getMaxTF() { return maxTF; }
+
+    public String getTitle() { return title; }
+
+    public String getAbstract() { return abstr; }
+
+    public String getExcerpt() { return excerpt; }
+
+    public String[][] getFacetValues() { return facetValues; }
+
+    int[] getMinHash() { return minHash; }
+
+    int getYear() { return year; }
+
+    public float[] getFeatures() { return features; }
+
+    /*
+     * The same document without its terms (null), to keep it after its postings were taken
+     */
+    public AnalyzedDocument withoutTerms() {
+        return new AnalyzedDocument(docId, path, null, fieldLens, maxTF, title, abstr, excerpt, facetValues, minHash,
+                year, features);
+    }
+
+}
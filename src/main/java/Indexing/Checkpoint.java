@@ -0,0 +1,44 @@
+package Indexing;
+
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * The state of an index build that a checkpoint records (see Indexer.writeCheckpoint), taken
+ * when a partial index is handed over to the spill writer, since parsing goes on while it's written
+ */
+class Checkpoint {
+
+    // Fields
+
+    /*
+     * Whether the whole collection had been parsed
+     */
+    boolean parsed;
+
+    /*
+     * Current partial index number and number of merged partial indexes
+     */
+    int piCurrentNum, piMergedNum;
+
+    /*
+     * Suffixes of the partial indexes that are complete at the checkpoint
+     */
+    List<String> suffixes;
+
+    /*
+     * Length of the document table (see DocumentTable.flush)
+     */
+    long tableLength;
+
+    /*
+     * Word dfs added since the last checkpoint
+     */
+    HashMap<String, Integer> wordDfs;
+
+    /*
+     * State of the document store (see DocumentStoreWriter.writeState), null without a store
+     */
+    byte[] storeState;
+
+}
@@ -0,0 +1,120 @@
+package Indexing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/*
+ * The record of a document in the document table of an index build (see DocumentTable)
+ */
+class DocInfo {
+
+    // Fields
+
+    /*
+     * Id (PMCID) of the document
+     */
+    String docId;
+
+    /*
+     * Full path of the document's file
+     */
+    String path;
+
+    /*
+     * Max (weighted with the default field weights) tf of the document's terms
+     */
+    double maxTF;
+
+    /*
+     * Number of indexed tokens of every Field
+     */
+    int[] fieldLens;
+
+    /*
+     * Locator of the document in the document store
+     */
+    long storeLocator;
+
+    /*
+     * Values of every Facet (in the order of the Facet enum)
+     */
+    String[][] facetValues;
+
+    /*
+     * MinHash signature of the document's text (see DuplicateDetector)
+     */
+    int[] minHash;
+
+    /*
+     * Publication year of the document (0 if it has none)
+     */
+    int year;
+
+    // Constructor
+
+    DocInfo(String docId, String path, double maxTF, int[] fieldLens, long storeLocator,
+            String[][] facetValues, int[] minHash, int year) {
+        this.docId = docId;
+        this.path = path;
+        this.maxTF = maxTF;
+        this.fieldLens = fieldLens;
+        this.storeLocator = storeLocator;
+        this.facetValues = facetValues;
+        this.minHash = minHash;
+        this.year = year;
+    }
+
+    // Methods
+
+    /*
+     * Write the record: <docId, path, maxTF, fieldLens, storeLocator, facetValues, minHash, year>
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeUTF(docId);
+        out.writeUTF(path);
+        out.writeDouble(maxTF);
+        out.writeInt(fieldLens.length);
+        for (int len : fieldLens)
+            out.writeInt(len);
+        out.writeLong(storeLocator);
+        out.writeInt(facetValues.length);
+        for (String[] values : facetValues) {
+            out.writeInt(values.length);
+            for (String value : values)
+                out.writeUTF(value);
+        }
+        out.writeInt(minHash == null ? -1 : minHash.length);
+        if (minHash != null) {
+            for (int value : minHash)
+                out.writeInt(value);
+        }
+        out.writeShort(year);
+    }
+
+    /*
+     * Read a record written by write
+     */
+    static DocInfo read(DataInputStream in) throws IOException {
+        String docId = in.readUTF();
+        String path = in.readUTF();
+        double maxTF = in.readDouble();
+        int[] fieldLens = new int[in.readInt()];
+        for (int f = 0; f < fieldLens.length; f++)
+            fieldLens[f] = in.readInt();
+        long storeLocator = in.readLong();
+        String[][] facetValues = new String[in.readInt()][];
+        for (int f = 0; f < facetValues.length; f++) {
+            facetValues[f] = new String[in.readInt()];
+            for (int v = 0; v < facetValues[f].length; v++)
+                facetValues[f][v] = in.readUTF();
+        }
+        int minHashLength = in.readInt();
+        int[] minHash = minHashLength < 0 ? null : new int[minHashLength];
+        for (int i = 0; i < minHashLength; i++)
+            minHash[i] = in.readInt();
+        int year = in.readShort();
+        return new DocInfo(docId, path, maxTF, fieldLens, storeLocator, facetValues, minHash, year);
+    }
+
+}
@@ -0,0 +1,233 @@
+package Indexing;
+
+import java.io.*;
+import java.util.zip.Deflater;
+
+/*
+ * Writes the document store (StoreFile.txt): the text that is shown for every
+ * document in search results (title, abstract and the beginning of the body),
+ * in blocks of BLOCK_DOCS documents, each block compressed on its own:
+ * <uncompressed size, compressed size, compressed <title1, abstract1, excerpt1, title2, ...>> ...
+ * A document is found by its locator: (pointer to its block << 8) | position in the block.
+ * The NXML files of the documents that can't be read again from where they were indexed (inside
+ * a tar.gz archive, see Utilities.ArchiveReader.isReadable) are kept too, each compressed on its
+ * own, in SourceFile.txt (created with the first of them): <document number, size, compressed size,
+ * compressed file> ..., and SourceIndexFile.txt lists them: <document number, pointer> ...
+ */
+class DocumentStoreWriter implements Closeable {
+
+    // Fields
+
+    static final String SOURCE_FILE = "SourceFile.txt", SOURCE_INDEX_FILE = "SourceIndexFile.txt";
+
+    /*
+     * Documents per block. Small blocks keep the cost of reading one document low
+     */
+    static final int BLOCK_DOCS = 4;
+
+    /*
+     * Max characters kept of every stored field
+     */
+    static final int MAX_TITLE = 500, MAX_ABSTRACT = 3000, MAX_EXCERPT = 1500;
+
+    /*
+     * The file, open for appending until the writer is closed
+     */
+    private final DataOutputStream out;
+
+    /*
+     * The block being filled, and the number of documents in it
+     */
+    private ByteArrayOutputStream block;
+    private DataOutputStream blockOut;
+    private int blockDocs;
+
+    /*
+     * SourceFile.txt, open for appending once it has a file (null until then), and its length
+     */
+    private final File sourceFile;
+    private DataOutputStream sources;
+    private long sourcesLength;
+
+    /*
+     * Compresses every block and source, into compressed (through buf)
+     */
+    private final Deflater deflater = new Deflater();
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    private final byte[] buf = new byte[8192];
+
+    /*
+     * Bytes written to the file
+     */
+    private long fileLength;
+
+    // Constructor
+
+    DocumentStoreWriter(String path) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path))); // an empty file
+        sourceFile = new File(new File(path).getParentFile(), SOURCE_FILE);
+        sourceFile.delete();
+        sourcesLength = 0;
+        block = new ByteArrayOutputStream();
+        blockOut = new DataOutputStream(block);
+        blockDocs = 0;
+        fileLength = 0;
+    }
+
+    /*
+     * Reopen a document store at a checkpoint of the build (see writeState): the file
+     * is cut back to the length it had and the block that was being filled is restored
+     */
+    DocumentStoreWriter(String path, DataInputStream state) throws IOException {
+        File file = new File(path);
+        fileLength = state.readLong();
+        blockDocs = state.readInt();
+        byte[] pending = new byte[state.readInt()];
+        state.readFully(pending);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(fileLength);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        block = new ByteArrayOutputStream();
+        block.write(pending);
+        blockOut = new DataOutputStream(block);
+        sourceFile = new File(file.getParentFile(), SOURCE_FILE);
+        sourcesLength = state.readLong();
+        if(sourcesLength > 0) {
+            try (RandomAccessFile raf = new RandomAccessFile(sourceFile, "rw")) {
+                raf.setLength(sourcesLength);
+            }
+            sources = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sourceFile, true)));
+        } else
+            sourceFile.delete();
+    }
+
+    // Methods
+
+    /*
+     * Write the state of the store (file length, the block being filled and the length of SourceFile.txt), so that it
+     * can be reopened at this point once the file is on disk (see Indexer.writeCheckpoint)
+     */
+    void writeState(DataOutputStream state) throws IOException {
+        out.flush(); // the blocks up to fileLength
+        if (sources != null)
+            sources.flush();
+        state.writeLong(fileLength);
+        state.writeInt(blockDocs);
+        state.writeInt(block.size());
+        block.writeTo(state);
+        state.writeLong(sourcesLength);
+    }
+
+    /*
+     * Add a document and return its locator
+     */
+    long add(String title, String abstr, String body) throws IOException {
+        long locator = (fileLength << 8) | blockDocs;
+        blockOut.writeUTF(clean(title, MAX_TITLE));
+        blockOut.writeUTF(clean(abstr, MAX_ABSTRACT));
+        blockOut.writeUTF(clean(body, MAX_EXCERPT));
+        if (++blockDocs == BLOCK_DOCS)
+            writeBlock();
+        return locator;
+    }
+
+    /*
+     * Keep the NXML file of a document (its number in the index), which is read back with
+     * Searching.DocumentStore.getSource
+     */
+    void addSource(int doc, byte[] content) throws IOException {
+        if (sources == null)
+            sources = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sourceFile)));
+        compress(content);
+        sources.writeInt(doc);
+        sources.writeInt(content.length);
+        sources.writeInt(compressed.size());
+        compressed.writeTo(sources);
+        sourcesLength += 12 + compressed.size();
+    }
+
+    /*
+     * Compress and append the current block to the file (if it has documents), so that
+     * the file has every document added so far
+     */
+    void flush() throws IOException {
+        writeBlock();
+        out.flush();
+        if (sources != null)
+            sources.flush();
+    }
+
+    /*
+     * Write SourceIndexFile.txt (in dir) from the records of SourceFile.txt, if the store has one
+     */
+    void writeSourceIndex(String dir) throws IOException {
+        File index = new File(dir, SOURCE_INDEX_FILE);
+        if (sources == null) {
+            index.delete();
+            return;
+        }
+        sources.flush();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sourceFile)));
+             DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index)))) {
+            for (long pointer = 0; pointer < sourcesLength; ) {
+                indexOut.writeInt(in.readInt());
+                indexOut.writeLong(pointer);
+                in.readInt(); // size
+                int compressedSize = in.readInt();
+                in.skipBytes(compressedSize);
+                pointer += 12 + compressedSize;
+            }
+        }
+    }
+
+    /*
+     * Compress the current block (if it has documents) and append it to the file's stream
+     */
+    private void writeBlock() throws IOException {
+        if (blockDocs == 0)
+            return;
+        compress(block.toByteArray());
+        out.writeInt(block.size());
+        out.writeInt(compressed.size());
+        compressed.writeTo(out);
+        fileLength += 8 + compressed.size();
+        block.reset();
+        blockDocs = 0;
+    }
+
+    /*
+     * Compress data into compressed
+     */
+    private void compress(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        compressed.reset();
+        while (!deflater.finished())
+            compressed.write(buf, 0, deflater.deflate(buf));
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+        if (sources != null)
+            sources.close();
+        deflater.end();
+    }
+
+    /*
+     * Collapse white space and cut the text to max characters (at a word boundary if possible)
+     */
+    static String clean(String text, int max) {
+        if (text == null)
+            return "";
+        text = text.replaceAll("\\s+", " ").trim();
+        if (text.length() <= max)
+            return text;
+        int cut = text.lastIndexOf(' ', max);
+        return text.substring(0, cut > max / 2 ? cut : max);
+    }
+
+}
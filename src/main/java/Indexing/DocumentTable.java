@@ -0,0 +1,172 @@
+package Indexing;
+
+import Utilities.Field;
+import Utilities.NormCodec;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+
+/*
+ * The documents of an index build, numbered in the order they are parsed. The record of every
+ * document (see DocInfo) is appended to DocTableFile.txt as soon as it's parsed, and read back
+ * sequentially for the files that need the strings (documents, facets) or the MinHash signatures.
+ * Only what the store index and the norms need is kept in memory, in arrays of primitives
+ * indexed by document number, so no per-document objects are kept during the build
+ */
+class DocumentTable {
+
+    // Fields
+
+    static final String FILE_NAME = "DocTableFile.txt";
+
+    private static final int FIELDS = Field.values().length;
+
+    private final File file;
+    private final DataOutputStream out;
+
+    /*
+     * Buffer of the record being added
+     */
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+    /*
+     * Bytes of the records added, and number of documents
+     */
+    private long length;
+    private int size;
+
+    /*
+     * Max tf and store locator of every document, its field lengths (encoded
+     * with NormCodec, FIELDS per document) and the total length of every field
+     */
+    private double[] maxTFs = new double[1024];
+    private long[] storeLocators = new long[1024];
+    private byte[] fieldLens = new byte[1024 * FIELDS];
+    private final long[] totalFieldLens = new long[FIELDS];
+
+    /*
+     * Cluster of near-duplicates of every document (see Indexer.setClusters), null until set
+     */
+    private int[] clusters;
+
+    // Constructor
+
+    /*
+     * Start an empty table in dir
+     */
+    DocumentTable(String dir) throws IOException {
+        file = new File(dir, FILE_NAME);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /*
+     * Reopen the table of dir at a checkpoint of the build (see flush): the file is cut back to
+     * the length it had and its records are read back. The paths of the documents are added to paths
+     */
+    DocumentTable(String dir, long length, Set<String> paths) throws IOException {
+        file = new File(dir, FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (in.available() > 0) {
+                DocInfo doc = DocInfo.read(in);
+                addState(doc);
+                paths.add(doc.path);
+            }
+        }
+        this.length = length;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    // Methods
+
+    /*
+     * Append a document and return its number
+     */
+    int add(DocInfo doc) throws IOException {
+        record.reset();
+        doc.write(new DataOutputStream(record));
+        record.writeTo(out);
+        length += record.size();
+        return addState(doc);
+    }
+
+    private int addState(DocInfo doc) {
+        if (size == maxTFs.length) {
+            maxTFs = Arrays.copyOf(maxTFs, size * 2);
+            storeLocators = Arrays.copyOf(storeLocators, size * 2);
+            fieldLens = Arrays.copyOf(fieldLens, size * 2 * FIELDS);
+        }
+        maxTFs[size] = doc.maxTF;
+        storeLocators[size] = doc.storeLocator;
+        for (int f = 0; f < FIELDS; f++) {
+            fieldLens[size * FIELDS + f] = NormCodec.encodeLength(doc.fieldLens[f]);
+            totalFieldLens[f] += doc.fieldLens[f];
+        }
+        return size++;
+    }
+
+    /*
+     * Write the buffered records to the file and return its length, which a checkpoint
+     * can reopen the table at once the file is on disk (see force)
+     */
+    long flush() throws IOException {
+        out.flush();
+        return length;
+    }
+
+    /*
+     * Force the file to disk
+     */
+    void force() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /*
+     * Open the records (size() of them, in document number order) for reading with DocInfo.read
+     */
+    DataInputStream read() throws IOException {
+        out.flush();
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    /*
+     * Close and delete the file, when the index is complete
+     */
+    void delete() throws IOException {
+        out.close();
+        file.delete();
+    }
+
+    int size() { return size; }
+
+    double getMaxTF(int doc) { return maxTFs[doc]; }
+
+    long getStoreLocator(int doc) { return storeLocators[doc]; }
+
+    /*
+     * Length of a field of a document, encoded with NormCodec.encodeLength
+     */
+    byte getFieldLength(int doc, int field) { return fieldLens[doc * FIELDS + field]; }
+
+    long getTotalFieldLength(int field) { return totalFieldLens[field]; }
+
+    void setCluster(int doc, int cluster) {
+        if (clusters == null)
+            clusters = new int[size];
+        clusters[doc] = cluster;
+    }
+
+    /*
+     * Number of the first document of a document's cluster (counting the documents
+     * of every shard), -1 if it has no near-duplicates
+     */
+    int getCluster(int doc) { return clusters == null ? -1 : clusters[doc]; }
+
+}
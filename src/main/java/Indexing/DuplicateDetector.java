@@ -0,0 +1,242 @@
+package Indexing;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+import java.util.function.Consumer;
+
+/*
+ * Finds near-duplicate documents (errata, reprints, versions of the same article) with MinHash
+ * signatures of their word shingles and banded locality sensitive hashing: two documents are
+ * compared only when all the minimums of some band of their signatures are the same, so there's
+ * no all-pairs comparison. Documents whose signatures agree in at least THRESHOLD of their
+ * minimums (the estimated Jaccard similarity of their shingles) end up in the same cluster.
+ * The signatures are read as a stream, twice: first to find the candidate pairs, keeping only the
+ * hashes of the bands, then to compare the candidates, keeping only the signatures they need
+ */
+class DuplicateDetector {
+
+    // Fields
+
+    /*
+     * Words of every shingle
+     */
+    private static final int SHINGLE_WORDS = 3;
+
+    /*
+     * The signature has BANDS * ROWS minimums. A pair with similarity s becomes a candidate with
+     * probability 1 - (1 - s^ROWS)^BANDS: 0.9998 for s = 0.8, 0.12 for s = 0.3
+     */
+    private static final int BANDS = 16, ROWS = 4;
+
+    private static final double THRESHOLD = 0.8;
+
+    /*
+     * Multipliers (odd) and increments of the hash functions of the signature
+     */
+    private static final long[] MULTIPLIERS = new long[BANDS * ROWS], INCREMENTS = new long[BANDS * ROWS];
+
+    static {
+        long seed = 0x5DEECE66DL;
+        for (int i = 0; i < MULTIPLIERS.length; i++) {
+            seed = mix(seed + i);
+            MULTIPLIERS[i] = seed | 1;
+            seed = mix(seed);
+            INCREMENTS[i] = seed;
+        }
+    }
+
+    /*
+     * The signatures of the documents to cluster, which forEach gives in document number order
+     * (null for documents that can't be compared), every time it's called
+     */
+    interface Signatures {
+        void forEach(Consumer<int[]> action) throws IOException;
+    }
+
+    // Methods
+
+    /*
+     * MinHash signature of a text (after lexical analysis) with the shingles of its words.
+     * Texts shorter than a shingle are a single shingle. Returns null for a text without words
+     */
+    static int[] signature(String text) {
+        StringTokenizer tokenizer = new StringTokenizer(text, "\t\n\r\f ");
+        if (!tokenizer.hasMoreTokens())
+            return null;
+        int[] signature = new int[MULTIPLIERS.length];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        long[] window = new long[SHINGLE_WORDS]; // hashes of the last words
+        int words = 0;
+        while (tokenizer.hasMoreTokens()) {
+            window[words++ % SHINGLE_WORDS] = tokenizer.nextToken().hashCode();
+            if (words >= SHINGLE_WORDS)
+                addShingle(signature, window, words);
+        }
+        if (words < SHINGLE_WORDS)
+            addShingle(signature, window, words);
+        return signature;
+    }
+
+    /*
+     * Cluster the documents of the given signatures. Returns the number of the first document
+     * of every document's cluster, or -1 for documents without near-duplicates
+     */
+    static int[] cluster(Signatures signatures) throws IOException {
+        BandKeys bandKeys = new BandKeys();
+        signatures.forEach(bandKeys);
+        int n = bandKeys.docsNum;
+
+        /* Pair every document with the first one that has the same minimums in a band: <document, first> */
+        long[] candidates = new long[16];
+        int candidatesNum = 0;
+        for (int b = 0; b < BANDS; b++) {
+            HashMap<Long, Integer> buckets = new HashMap<>();
+            for (int d = 0; d < n; d++) {
+                if (bandKeys.missing.get(d))
+                    continue;
+                Integer first = buckets.putIfAbsent(bandKeys.keys[d * BANDS + b], d);
+                if (first != null) {
+                    if (candidatesNum == candidates.length)
+                        candidates = Arrays.copyOf(candidates, candidatesNum * 2);
+                    candidates[candidatesNum++] = ((long) d << 32) | first;
+                }
+            }
+        }
+        Arrays.sort(candidates, 0, candidatesNum); // by document, then by first
+
+        /* Compare the candidates, in the order of their second document */
+        Comparer comparer = new Comparer(n, candidates, candidatesNum);
+        signatures.forEach(comparer);
+
+        int[] clusterSizes = new int[n];
+        for (int d = 0; d < n; d++)
+            clusterSizes[find(comparer.parents, d)]++;
+        int[] ret = new int[n];
+        for (int d = 0; d < n; d++) {
+            int root = find(comparer.parents, d);
+            ret[d] = clusterSizes[root] > 1 ? root : -1;
+        }
+        return ret;
+    }
+
+    /*
+     * The first pass: the hashes of the minimums of every band of every signature
+     */
+    private static class BandKeys implements Consumer<int[]> {
+
+        long[] keys = new long[1024 * BANDS];
+        final BitSet missing = new BitSet();
+        int docsNum;
+
+        @Override
+        public void accept(int[] signature) {
+            if (signature == null) {
+                missing.set(docsNum++);
+                return;
+            }
+            if ((docsNum + 1) * BANDS > keys.length)
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            for (int b = 0; b < BANDS; b++) {
+                long key = 0;
+                for (int r = b * ROWS; r < (b + 1) * ROWS; r++)
+                    key = mix(key ^ signature[r]);
+                keys[docsNum * BANDS + b] = key;
+            }
+            docsNum++;
+        }
+    }
+
+    /*
+     * The second pass: the signatures of the first documents of the candidate pairs are kept until
+     * their second document comes, and the pairs whose documents are similar enough are joined
+     */
+    private static class Comparer implements Consumer<int[]> {
+
+        final int[] parents;
+        private final long[] candidates;
+        private final int candidatesNum;
+        private final HashMap<Integer, int[]> firsts = new HashMap<>();
+        private final BitSet isFirst = new BitSet();
+        private int doc, next;
+
+        Comparer(int docsNum, long[] candidates, int candidatesNum) {
+            parents = new int[docsNum];
+            for (int d = 0; d < docsNum; d++)
+                parents[d] = d;
+            this.candidates = candidates;
+            this.candidatesNum = candidatesNum;
+            for (int c = 0; c < candidatesNum; c++)
+                isFirst.set((int) candidates[c]);
+        }
+
+        @Override
+        public void accept(int[] signature) {
+            for (; next < candidatesNum && (int) (candidates[next] >>> 32) == doc; next++) {
+                int first = (int) candidates[next];
+                if (find(parents, first) != find(parents, doc) && similarity(firsts.get(first), signature) >= THRESHOLD)
+                    union(parents, first, doc);
+            }
+            if (isFirst.get(doc))
+                firsts.put(doc, signature);
+            doc++;
+        }
+    }
+
+    /*
+     * Estimated Jaccard similarity of the shingles of two documents
+     */
+    private static double similarity(int[] signature1, int[] signature2) {
+        int same = 0;
+        for (int i = 0; i < signature1.length; i++) {
+            if (signature1[i] == signature2[i])
+                same++;
+        }
+        return same / (double) signature1.length;
+    }
+
+    private static void addShingle(int[] signature, long[] window, int words) {
+        long hash = 0;
+        for (int w = Math.max(0, words - SHINGLE_WORDS); w < words; w++) // words in text order
+            hash = mix(hash * 31 + window[w % SHINGLE_WORDS]);
+        for (int i = 0; i < signature.length; i++) {
+            int value = (int) ((hash * MULTIPLIERS[i] + INCREMENTS[i]) >>> 32);
+            if (value < signature[i])
+                signature[i] = value;
+        }
+    }
+
+    /*
+     * Root of a document's cluster (the smallest document number in it)
+     */
+    private static int find(int[] parents, int d) {
+        while (parents[d] != d) {
+            parents[d] = parents[parents[d]]; // path halving
+            d = parents[d];
+        }
+        return d;
+    }
+
+    private static void union(int[] parents, int d1, int d2) {
+        int root1 = find(parents, d1), root2 = find(parents, d2);
+        if (root1 < root2)
+            parents[root2] = root1;
+        else
+            parents[root1] = root2;
+    }
+
+    /*
+     * Mixes the bits of a value (the finalizer of MurmurHash3)
+     */
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB93E1A85EC53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+}
@@ -1,14 +1,35 @@
 package Indexing;
 
+import Utilities.ArchiveReader;
+import Utilities.DocSet;
+import Utilities.Facet;
+import Utilities.Field;
+import Utilities.IndexGenerations;
+import Utilities.NXMLParser;
+import Utilities.NormCodec;
 import Utilities.PathManager;
 import Utilities.SharedUtilities;
 import gr.uoc.csd.hy463.NXMLFileReader;
 import mitos.stemmer.Stemmer;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import org.apache.commons.lang3.tuple.MutablePair;
-import org.apache.commons.lang3.tuple.MutableTriple;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /*
  * A class that provides the appropriate fields and methods to
@@ -19,20 +40,23 @@ public class Indexer {
     // Fields
 
     /* The tokenInfo TreeMap holds information like this:
-     * token1 -> {doc1, nonNormalizedTF1, tfMul1} -> { [tagName1, occurencesInTag1], [tagName2, occurencesInTag2], ... }
-     *        -> {doc2, nonNormalizedTF2, tfMul2} -> { [tagName1, occurencesInTag1], [tagName2, occurencesInTag2], ... }
+     * token1 -> docNum1 -> [tfInField1, tfInField2, ...]
+     *        -> docNum2 -> [tfInField1, tfInField2, ...]
      *        -> ...
      * token2 ...
+     * (fields in the order of the Field enum)
      */
-    private TreeMap<String, HashMap<String, MutableTriple<Integer, Integer, HashMap<String, Integer>>>> tokenInfo;
+    private TreeMap<String, HashMap<Integer, int[]>> tokenInfo;
 
     /*
-     * The docInfo TreeMap holds information like this:
-     * <docId1, docFullPath1, docMaxTF1, docVecLen1>
-     * <docId2, docFullPath2, docMaxTF2, docVecLen2>
-     * ...
+     * Number of <token, doc> entries of tokenInfo
      */
-    private TreeMap<String, MutableTriple<String, Integer, Double>> docInfo;
+    private long tokenInfoPostings;
+
+    /*
+     * The documents parsed so far, numbered in parsing order (see DocumentTable)
+     */
+    private DocumentTable table;
 
     /*
      * Max terms of a partial index
@@ -51,11 +75,109 @@ public class Indexer {
     private LinkedList<String> piFileSuffixes;
 
     /*
-     * TF multipliers HashMap
-     * To give different weight to terms that appear in
-     * different sections (tags) of a document
+     * Number of merged partial indexes written so far (e.g. VocabularyFile_m3.txt -> 3)
+     */
+    private int piMergedNum;
+
+    /*
+     * Directory where the index files are written
+     * (a new index generation when the whole collection is indexed)
+     */
+    private String indexDir;
+
+    /*
+     * The document store of the index, created with the first document
+     */
+    private DocumentStoreWriter store;
+
+    /*
+     * Number of documents that contain every (not stemmed) word, for the suggestions
+     * of the index (see SuggestCompiler)
+     */
+    private HashMap<String, Integer> wordDfs;
+
+    /*
+     * Files of the checkpoints of a build (see saveCheckpoint)
+     */
+    private static final String CHECKPOINT_FILE = "Checkpoint.txt", CHECKPOINT_LOG_FILE = "CheckpointLog.txt";
+
+    /*
+     * Format of Checkpoint.txt, so that the checkpoint of a build with another format isn't resumed
+     */
+    private static final int CHECKPOINT_VERSION = 4;
+
+    /*
+     * Whether the build saves checkpoints (see saveCheckpoint), the collection it indexes and
+     * whether the whole collection has been parsed (only merging is left)
+     */
+    private boolean checkpointing;
+    private String collectionPath;
+    private boolean parsed;
+
+    /*
+     * Word dfs added since the last checkpoint
+     */
+    private HashMap<String, Integer> newWordDfs;
+
+    /*
+     * Files of the documents that a resumed build already has (null if it isn't resumed,
+     * and once the collection is parsed)
+     */
+    private HashSet<String> checkpointedPaths;
+
+    /*
+     * Progress of the build (shared by the indexers of a sharded build)
+     */
+    private IndexingStats stats;
+
+    /*
+     * Max number of full tokenInfos that wait for the spill writer or are being written
+     * (so parsing goes on while a partial index is written). With 0, parsing stops while
+     * every partial index is written
+     */
+    private final int spillBuffers;
+
+    /*
+     * The thread that writes partial indexes (see createPartialIndex), a permit for every
+     * tokenInfo it may hold and the partial indexes (in order) that it hasn't finished
+     */
+    private ExecutorService spillWriter;
+    private final Semaphore spillSlots;
+    private final LinkedList<Future<Void>> pendingSpills;
+    private volatile boolean spillFailed;
+
+    /*
+     * Impacts of the postings of ImpactFile.txt (see createImpactFile): BM25F with the
+     * default k1, b and field weights of the search config, quantized into IMPACT_LEVELS
+     */
+    private static final double IMPACT_K1 = 1.2, IMPACT_B = 0.75;
+    private static final int IMPACT_LEVELS = 16;
+
+    /*
+     * The publication year of an NXML file: the first <year> of a <pub-date>, in the
+     * first FRONT_BYTES of the file (its front matter)
+     */
+    private static final Pattern PUB_YEAR = Pattern.compile(
+            "<pub-date[^>]*>(?:(?!</pub-date>).)*?<year>\\s*(\\d{4})\\s*</year>", Pattern.DOTALL);
+    private static final int FRONT_BYTES = 1 << 16;
+
+    /*
+     * Files of an archive that are read and decompressed ahead of the one being parsed (see parseArchive)
+     */
+    private static final int ARCHIVE_READ_AHEAD = 256;
+
+    /*
+     * Names of the static features of every document in FeaturesFile.txt (see createDocumentsFile)
+     */
+    private static final String[] FEATURES = {"year", "titleLength", "abstractLength", "bodyLength", "categories"};
+
+    /*
+     * Stems of the tokens seen so far, up to STEM_CACHE_SIZE of them: the frequent tokens come
+     * early, and most tokens of a document are frequent ones. Concurrent, as the analysis of
+     * documents for the search service (see analyze) runs in many threads
      */
-    private HashMap<String, Integer> tfMul;
+    private final ConcurrentHashMap<String, String> stems = new ConcurrentHashMap<>();
+    private static final int STEM_CACHE_SIZE = 1 << 16;
 
     // Constructor
 
@@ -63,52 +185,162 @@ public class Indexer {
      * Initialize things (stemmer, stopword lists etc.)
      */
     public Indexer() {
+        this(50000);
+    }
+
+    /*
+     * Same as above, but with a custom max number of terms per partial index
+     */
+    public Indexer(int piThreshold) {
         tokenInfo = new TreeMap<>();
-        docInfo = new TreeMap<>();
-        tfMul = new HashMap<>();
+        wordDfs = new HashMap<>();
+        newWordDfs = new HashMap<>();
         piFileSuffixes = new LinkedList<>();
+        stats = new IndexingStats();
+        spillBuffers = Integer.getInteger("hippocrates.spillBuffers", 1);
+        spillSlots = new Semaphore(Math.max(spillBuffers, 0));
+        pendingSpills = new LinkedList<>();
         Stemmer.Initialize();
-        piThreshold = 50000;
+        this.piThreshold = piThreshold;
         piCurrentNum = -1;
-
-        /* Weighting (tf multipliers) depending on tags */
-        tfMul.put("title", 10);
-        tfMul.put("pmcid", 50);
-        tfMul.put("abstract", 5);
-        tfMul.put("journal", 3);
-        tfMul.put("body", 1);
-        tfMul.put("publisher", 3);
-        tfMul.put("authors", 4);
-        tfMul.put("categories", 3);
+        indexDir = PathManager.getInstance().getIndexDirPath();
     }
 
     // Methods
 
     /*
      * Perform all the necessary actions to produce the index
-     * from the collection given by path (it may be a single file or a directory)
+     * from the collection given by path (it may be a single file or a directory).
+     * The index is built in a new index generation, which becomes the current one
+     * only when it's complete, so running searchers can keep using the old one.
+     * If the last build of the same collection didn't finish, it's resumed from
+     * its last checkpoint (see saveCheckpoint) and gives the same index
      */
     public void index(String path) throws IOException {
-        new File(PathManager.getInstance().getIndexDirPath()).mkdir();
-        new File(PathManager.getInstance().getIndexDirPath() + "/DocumentsFile.txt").delete();
-        new File(PathManager.getInstance().getIndexDirPath() + "/VocabularyFile.txt").delete();
-        new File(PathManager.getInstance().getIndexDirPath() + "/PostingFile.txt").delete();
-        File f = new File(path);
-        System.out.println("Indexing " + path + " ...");
-        parseRecursively(f);
-        if(tokenInfo.size() > 0)
-            createPartialIndex(); // Create the last partial index
+        stats.start(Integer.getInteger("hippocrates.progressInterval", 30));
+        checkpointing = true;
+        collectionPath = new File(path).getAbsolutePath();
+        indexDir = IndexGenerations.unpublishedDir();
+        if(indexDir != null && loadCheckpoint()) {
+            System.out.println("Resuming the build of " + indexDir + " (" + table.size() + " documents, "
+                    + piFileSuffixes.size() + " partial indexes) ...");
+        } else {
+            indexDir = IndexGenerations.newGeneration();
+            prepareIndexDir();
+            System.out.println("Indexing " + path + " into " + indexDir + " ...");
+        }
+        if(!parsed) {
+            parseRecursively(new File(path));
+            flushTokenInfo();
+            parsed = true;
+            saveCheckpoint();
+        }
+        checkpointedPaths = null; // not needed by the merging
         createFinalIndex(); // Finalize index (do merging etc.)
+        new SuggestCompiler().compile(indexDir, wordDfs);
+
+        /* Compile the synonyms used for query expansion, if there's a WordNet dictionary */
+        if(new File(PathManager.getInstance().getWordNetPath()).exists())
+            new SynonymCompiler().compile(indexDir);
+
+        new File(indexDir, CHECKPOINT_FILE).delete();
+        new File(indexDir, CHECKPOINT_LOG_FILE).delete();
+        table.delete();
+        IndexGenerations.publish(indexDir);
+        stats.stop();
         System.out.println("Files Indexed: " + PathManager.getInstance().fileNames);
     }
 
+    /*
+     * Create the last partial index from whatever is left in tokenInfo
+     * and wait until every partial index has been written
+     */
+    void flushTokenInfo() throws IOException {
+        if(tokenInfo.size() > 0) {
+            createPartialIndex();
+        }
+        awaitSpills();
+    }
+
+    /*
+     * Create the index directory if needed, delete any previous final index files
+     * and start the document table
+     */
+    void prepareIndexDir() throws IOException {
+        new File(indexDir).mkdirs();
+        new File(indexDir + "/DocumentsFile.txt").delete();
+        new File(indexDir + "/FeaturesFile.txt").delete();
+        new File(indexDir + "/VocabularyFile.txt").delete();
+        new File(indexDir + "/PostingFile.txt").delete();
+        new File(indexDir + "/NormsFile.txt").delete();
+        new File(indexDir + "/SynonymsFile.txt").delete();
+        new File(indexDir + "/SuggestFile.txt").delete();
+        new File(indexDir + "/StoreFile.txt").delete();
+        new File(indexDir + "/StoreIndexFile.txt").delete();
+        new File(indexDir, DocumentStoreWriter.SOURCE_FILE).delete();
+        new File(indexDir, DocumentStoreWriter.SOURCE_INDEX_FILE).delete();
+        new File(indexDir + "/FacetsFile.txt").delete();
+        new File(indexDir + "/ImpactFile.txt").delete();
+        new File(indexDir + "/ImpactVocabularyFile.txt").delete();
+        table = new DocumentTable(indexDir);
+    }
+
     /*
      * For a given file with path = path, parse its tag contents
      */
-    private void parseTags(String path) throws IOException {
+    void parseTags(String path) throws IOException {
+        parseTags(path, null);
+    }
+
+    /*
+     * Same as above, for a file whose content is given (a file inside an archive, path being its
+     * location, see parseArchive), or read from path if content is null
+     */
+    void parseTags(String path, byte[] content) throws IOException {
+        if(checkpointedPaths != null && checkpointedPaths.contains(path))
+            return; // in a partial index of the resumed build
+        String name;
+        if(content == null) {
+            content = Files.readAllBytes(new File(path).toPath());
+            name = new File(path).getName();
+        } else
+            name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('!')) + 1);
+        NXMLFileReader xmlFile = NXMLParser.parse(content, name); // the file is read once, for the year too
+        long length = content.length;
+        int year = publicationYear(content);
+        HashMap<String, String> tagPairs = makeTagPairs(xmlFile);
+        int[] fieldLens = new int[Field.values().length];
+        int termsBefore = tokenInfo.size();
+        long postingsBefore = tokenInfoPostings;
+        Integer docNum = table.size(); // the number the document gets
+        double maxTF = populateTokenInfo(tagPairs, docNum, fieldLens);
+        long tokens = 0;
+        for(int len : fieldLens)
+            tokens += len;
+        stats.documentParsed(length, tokens, tokenInfo.size() - termsBefore, tokenInfoPostings - postingsBefore);
+        if(store == null)
+            store = new DocumentStoreWriter(indexDir + "/StoreFile.txt");
+        long storeLocator = store.add(xmlFile.getTitle(), xmlFile.getAbstr(), xmlFile.getBody());
+        if(!ArchiveReader.isReadable(path))
+            store.addSource(docNum, content); // inside a tar.gz, the file can only be served from the store
+        int[] minHash = DuplicateDetector.signature(tagPairs.get("title") + " " + tagPairs.get("abstract")
+                + " " + tagPairs.get("body"));
+        populateDocInfo(xmlFile.getPMCID(), path, maxTF, fieldLens, storeLocator, makeFacetValues(xmlFile), minHash,
+                year);
+
+        /* Is it time to write a partial index to disk? */
+        if(tokenInfo.size() >= piThreshold) {
+            createPartialIndex(); // and go on with a new (empty) tokenInfo
+        }
+
+    }
+
+    /*
+     * Return a HashMap of pairs of type <tagName, tagContent> for an already read file,
+     * with lexical analysis done on every tag content
+     */
+    HashMap<String, String> makeTagPairs(NXMLFileReader xmlFile) throws IOException {
         HashMap<String, String> tagPairs =  new HashMap<>();
-        File f = new File(path);
-        NXMLFileReader xmlFile =  new NXMLFileReader(f);
         tagPairs.put("title", SharedUtilities.getInstance().doLexicalAnalysis(xmlFile.getTitle()));
         tagPairs.put("pmcid", xmlFile.getPMCID()); // no lexical analysis needed on id
         tagPairs.put("abstract", SharedUtilities.getInstance().doLexicalAnalysis(xmlFile.getAbstr()));
@@ -123,98 +355,199 @@ public class Indexer {
         for(String entry : xmlFile.getCategories()) {
             tagPairs.put("categories" + counter++, SharedUtilities.getInstance().doLexicalAnalysis(entry));
         }
-        int maxTF = populateTokenInfo(tagPairs, xmlFile.getPMCID());
-        populateDocInfo(xmlFile.getPMCID(), path, maxTF);
+        return tagPairs;
+    }
 
-        /* Is it time to write a partial index to disk? */
-        if(tokenInfo.size() >= piThreshold) {
-            createPartialIndex();
-            tokenInfo = new TreeMap<>(); // Prepare (clear) tokenInfo for the new partial index
+    /*
+     * Return the values of every Facet (in the order of the Facet enum) of an already read file.
+     * Values are kept as they are, apart from white space, as they are matched exactly
+     */
+    String[][] makeFacetValues(NXMLFileReader xmlFile) {
+        String[][] facetValues = new String[Facet.values().length][];
+        facetValues[Facet.JOURNAL.ordinal()] = cleanFacetValues(Collections.singletonList(xmlFile.getJournal()));
+        facetValues[Facet.PUBLISHER.ordinal()] = cleanFacetValues(Collections.singletonList(xmlFile.getPublisher()));
+        facetValues[Facet.CATEGORIES.ordinal()] = cleanFacetValues(xmlFile.getCategories());
+        return facetValues;
+    }
+
+    private String[] cleanFacetValues(Collection<String> values) {
+        LinkedHashSet<String> ret = new LinkedHashSet<>();
+        for(String value : values) {
+            if(value != null) {
+                value = value.replaceAll("\\s+", " ").trim();
+                if(!value.isEmpty())
+                    ret.add(value);
+            }
         }
+        return ret.toArray(new String[0]);
+    }
 
+    /*
+     * Append a new record <docId, docFullPath, docMaxTF, docFieldLengths, docStoreLocator,
+     * docFacetValues, docMinHash> to the document table
+     */
+    void populateDocInfo(String docId, String fullPath, double maxTF, int[] fieldLens, long storeLocator,
+                         String[][] facetValues, int[] minHash, int year) throws IOException {
+        table.add(new DocInfo(docId, fullPath, maxTF, fieldLens, storeLocator, facetValues, minHash, year));
     }
 
     /*
-     * Put a new record <docId, docFullPath, docMaxTF, docVecLen (currently = 0)> inside docInfo TreeMap
+     * The publication year of an NXML file, given its content (0 if it has none), see PUB_YEAR
      */
-    private void populateDocInfo(String docId, String fullPath, Integer maxTF) {
-        MutableTriple<String, Integer, Double> p = new MutableTriple<>(fullPath, maxTF, 0.0);
-        docInfo.put(docId, p);
+    private int publicationYear(byte[] content) throws IOException {
+        Matcher m = PUB_YEAR.matcher(new String(content, 0, Math.min(content.length, FRONT_BYTES), "UTF-8"));
+        return m.find() ? Integer.parseInt(m.group(1)) : 0;
     }
 
     /*
      * Read a HashMap of pairs of type <tagName, tagContent> coming from a file in path = path,
-     * do tokenization, stopword removal, stemming and populate tokenInfo TreeMap with new tokens.
-     * Also, decide the appropriate tf multiplier depending on tags. Return the max tf of the document.
+     * do tokenization, stopword removal, stemming and populate tokenInfo TreeMap with new tokens,
+     * counting the occurrences of every token in every field of document docNum separately.
+     * Also, count the tokens of every field into fieldLens. Return the max tf of the document,
+     * weighting every field with its default weight (used only for tf normalization in the
+     * vector space model)
      */
-    private int populateTokenInfo(HashMap<String, String> tagPairs, String docId) throws IOException {
+    double populateTokenInfo(HashMap<String, String> tagPairs, Integer docNum, int[] fieldLens) throws IOException {
+
+        HashSet<String> docWords = new HashSet<>(); // this document's words, before stemming
+        HashMap<String, int[]> docTokens = analyzeTokens(tagPairs, fieldLens, docWords);
+        for(Map.Entry<String, int[]> token : docTokens.entrySet()) {
+            HashMap<Integer, int[]> docHm = tokenInfo.get(token.getKey());
+            if (docHm == null) {
+                docHm = new HashMap<>();
+                tokenInfo.put(token.getKey(), docHm);
+            }
+            docHm.put(docNum, token.getValue());
+            tokenInfoPostings++;
+        }
+
+        for(String word : docWords) {
+            wordDfs.merge(word, 1, Integer::sum);
+            if(checkpointing)
+                newWordDfs.merge(word, 1, Integer::sum);
+        }
+        return maxTF(docTokens);
+    }
+
+    /*
+     * Stem of a token (see SharedUtilities.stem), from the cache if it's there
+     */
+    private String stem(String token) throws IOException {
+        String ret = stems.get(token);
+        if(ret == null) {
+            ret = SharedUtilities.getInstance().stem(token);
+            if(stems.size() < STEM_CACHE_SIZE)
+                stems.put(token, ret);
+        }
+        return ret;
+    }
+
+    /*
+     * Do tokenization, stopword removal and stemming on the tag contents of a document and
+     * return its tokens with their tf in every field, counting the tokens of every field into
+     * fieldLens and adding the document's words (before stemming) to docWords
+     */
+    private HashMap<String, int[]> analyzeTokens(HashMap<String, String> tagPairs, int[] fieldLens,
+                                                 HashSet<String> docWords) throws IOException {
 
-        int maxTF = 1;
         String delimiter = "\t\n\r\f ";
+        HashMap<String, int[]> docTokens = new HashMap<>(); // this document's tokens -> tf in every field
         for(String tagName : tagPairs.keySet()) {
-            int tfMultiplier = tfMul.get(tagName.replaceAll("\\d", ""));
+            int field = Field.fromTag(tagName).ordinal();
             StringTokenizer tokenizer = new StringTokenizer(tagPairs.get(tagName), delimiter);
             while (tokenizer.hasMoreTokens()) {
                 String currentToken = tokenizer.nextToken();
                 if(!SharedUtilities.getInstance().enSwSet.contains(currentToken)
                         && !SharedUtilities.getInstance().grSwSet.contains(currentToken)) { // Accept only non-stopwords
-                    currentToken = Stemmer.Stem(currentToken); // Do stemming
-                    if (tokenInfo.containsKey(currentToken)) {
-                        if (tokenInfo.get(currentToken).containsKey(docId)) {
-                            int nonNormTF = tokenInfo.get(currentToken).get(docId).getLeft() + 1;
-                            tokenInfo.get(currentToken).get(docId).setLeft(nonNormTF); // Increase non-normalized tf
-                            /* Always keep the greatest multiplier. This has a meaning in the case where a term appears
-                             * inside different kinds of tags, each other having a different multiplier */
-                            if(tfMultiplier > tokenInfo.get(currentToken).get(docId).getMiddle())
-                                tokenInfo.get(currentToken).get(docId).setMiddle(tfMultiplier);
-                            if (tokenInfo.get(currentToken).get(docId).getRight().containsKey(tagName)) {
-                                int newValue = tokenInfo.get(currentToken).get(docId).getRight().get(tagName) + 1;
-                                tokenInfo.get(currentToken).get(docId).getRight().put(tagName, newValue);
-                            } else {
-                                tokenInfo.get(currentToken).get(docId).getRight().put(tagName, 1);
-                            }
-                        } else {
-                            HashMap<String, Integer> tagHm = new HashMap<>();
-                            tagHm.put(tagName, 1);
-                            MutableTriple<Integer, Integer, HashMap<String, Integer>> p =
-                                    new MutableTriple<>(1, tfMultiplier, tagHm);
-                            tokenInfo.get(currentToken).put(docId, p);
-                        }
-                    } else {
-                        HashMap<String, Integer> tagHm = new HashMap<>();
-                        tagHm.put(tagName, 1);
-                        MutableTriple<Integer, Integer, HashMap<String, Integer>> p =
-                                new MutableTriple<>(1, tfMultiplier, tagHm);
-                        HashMap<String, MutableTriple<Integer, Integer, HashMap<String, Integer>>> docHm =
-                                new HashMap<>();
-                        docHm.put(docId, p);
-                        tokenInfo.put(currentToken, docHm);
+                    docWords.add(currentToken);
+                    currentToken = stem(currentToken); // Do stemming
+                    int[] fieldTFs = docTokens.get(currentToken);
+                    if (fieldTFs == null) { // first occurrence of the token in this document
+                        fieldTFs = new int[Field.values().length];
+                        docTokens.put(currentToken, fieldTFs);
                     }
-                    /* Update max tf considering the weighting using the tf multiplier */
-                    int multipliedTF = tokenInfo.get(currentToken).get(docId).getLeft() *
-                            tokenInfo.get(currentToken).get(docId).getMiddle();
-                    if(multipliedTF > maxTF)
-                        maxTF = multipliedTF;
+                    fieldTFs[field]++;
+                    fieldLens[field]++;
                 }
             }
         }
+        return docTokens;
+    }
+
+    /*
+     * Max tf of a document's tokens, weighting the tf of every field with the field's default weight
+     */
+    private double maxTF(HashMap<String, int[]> docTokens) {
+        double maxTF = 1.0;
+        for(int[] fieldTFs : docTokens.values()) {
+            double weightedTF = weightedTF(fieldTFs);
+            if(weightedTF > maxTF)
+                maxTF = weightedTF;
+        }
         return maxTF;
     }
 
+    /*
+     * Analyze the NXML file in path like parseTags does, without adding it to this index, for
+     * near-real-time search (see Searching.DocumentIngester)
+     */
+    public AnalyzedDocument analyze(String path) throws IOException {
+        File f = new File(path);
+        byte[] content = Files.readAllBytes(f.toPath());
+        NXMLFileReader xmlFile = NXMLParser.parse(content, f.getName());
+        HashMap<String, String> tagPairs = makeTagPairs(xmlFile);
+        int[] fieldLens = new int[Field.values().length];
+        HashMap<String, int[]> docTokens = analyzeTokens(tagPairs, fieldLens, new HashSet<>());
+        int[] minHash = DuplicateDetector.signature(tagPairs.get("title") + " " + tagPairs.get("abstract")
+                + " " + tagPairs.get("body"));
+        String[][] facetValues = makeFacetValues(xmlFile);
+        int year = publicationYear(content);
+        return new AnalyzedDocument(xmlFile.getPMCID(), path, docTokens, fieldLens, maxTF(docTokens),
+                DocumentStoreWriter.clean(xmlFile.getTitle(), DocumentStoreWriter.MAX_TITLE),
+                DocumentStoreWriter.clean(xmlFile.getAbstr(), DocumentStoreWriter.MAX_ABSTRACT),
+                DocumentStoreWriter.clean(xmlFile.getBody(), DocumentStoreWriter.MAX_EXCERPT),
+                facetValues, minHash, year, features(year, fieldLens, facetValues));
+    }
+
+    /*
+     * Names of the static features of FeaturesFile.txt (see createDocumentsFile)
+     */
+    public static List<String> getFeatureNames() { return Collections.unmodifiableList(Arrays.asList(FEATURES)); }
+
+    /*
+     * Values of the static features (FEATURES) of a document
+     */
+    private static float[] features(int year, int[] fieldLens, String[][] facetValues) {
+        return new float[] {year, fieldLens[Field.TITLE.ordinal()], fieldLens[Field.ABSTRACT.ordinal()],
+                fieldLens[Field.BODY.ordinal()], facetValues[Facet.CATEGORIES.ordinal()].length};
+    }
+
+    /*
+     * Sum of the tf of every field, weighted with the field's default weight
+     */
+    private double weightedTF(int[] fieldTFs) {
+        double ret = 0.0;
+        for(Field f : Field.values())
+            ret += fieldTFs[f.ordinal()] * f.getDefaultWeight();
+        return ret;
+    }
+
     /*
      * Recursively parse all documents inside dir.
-     * If dir is a file, just parse it
+     * If dir is a file, just parse it (or the documents inside it, if it's an archive)
      */
     private void parseRecursively(File dir) throws IOException {
 
-        if(dir.listFiles() == null) {
+        File[] entries = dir.listFiles();
+        if(entries == null) {
             PathManager.getInstance().fileNames.add(dir.getName());
-            this.parseTags(dir.getAbsolutePath());
+            parseFile(dir);
             return;
         }
+        Arrays.sort(entries); // documents are numbered in parsing order, so a resumed build numbers them the same
 
         int fileCounter = 0;
-        for (File fileEntry : dir.listFiles()) {
+        for (File fileEntry : entries) {
 
             if (PathManager.getInstance().getNumOfFiles() != -1){
                 if (fileCounter > PathManager.getInstance().getNumOfFiles() - 1)
@@ -225,7 +558,7 @@ public class Indexer {
                 PathManager.getInstance().fileNames.add(fileEntry.getName());
                 parseRecursively(fileEntry);
             } else {
-                this.parseTags(fileEntry.getAbsolutePath());
+                parseFile(fileEntry);
                 PathManager.getInstance().fileNames.add(fileEntry.getName());
             }
 
@@ -235,20 +568,156 @@ public class Indexer {
     }
 
     /*
-     * Produce partial index files: VocabularyFile<Num>.txt, PostingFile<Num>.txt
+     * Parse a file of the collection: an NXML file, or every NXML file inside an archive
      */
-    private void createPartialIndex() throws IOException {
+    private void parseFile(File f) throws IOException {
+        if(ArchiveReader.isArchive(f.getName()))
+            parseArchive(f);
+        else
+            parseTags(f.getAbsolutePath());
+    }
 
-        int sizeBefore;
+    /*
+     * Parse the NXML files (.nxml or .xml) inside a tar, tar.gz or zip archive, in the order
+     * they are stored, without extracting them. A reader thread decompresses the archive and
+     * reads up to ARCHIVE_READ_AHEAD files ahead of the one being parsed, so reading (one
+     * sequential pass over the archive) and parsing overlap. Every document is located by
+     * "<archive path>!<entry name>" (see ArchiveReader.location)
+     */
+    private void parseArchive(File archive) throws IOException {
+        final Object[] end = new Object[0];
+        BlockingQueue<Object[]> entries = new ArrayBlockingQueue<>(ARCHIVE_READ_AHEAD);
+        ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "archive-reader");
+            t.setDaemon(true);
+            return t;
+        });
+        Future<Void> reading = reader.submit(() -> {
+            try(ArchiveReader in = new ArchiveReader(archive)) {
+                for(String name; (name = in.nextEntry()) != null; ) {
+                    String lower = name.toLowerCase();
+                    if(lower.endsWith(".nxml") || lower.endsWith(".xml"))
+                        entries.put(new Object[] {ArchiveReader.location(archive, name), in.readEntry()});
+                }
+            } finally {
+                entries.put(end);
+            }
+            return null;
+        });
+        try {
+            for(Object[] entry = entries.take(); entry != end; entry = entries.take())
+                parseTags((String) entry[0], (byte[]) entry[1]);
+            reading.get(); // the reader's failure, if any
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Indexing was interrupted");
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Reading " + archive + " failed", e.getCause());
+        } finally {
+            reader.shutdownNow(); // stops the reader if parsing failed
+        }
+    }
 
+    /*
+     * Hand tokenInfo over to the spill writer, which produces the partial index files
+     * VocabularyFile<Num>.txt, PostingFile<Num>.txt and then saves a checkpoint, and go on
+     * parsing with a new tokenInfo. When spillBuffers tokenInfos are already waiting or
+     * being written, wait for the oldest one first
+     */
+    void createPartialIndex() throws IOException {
         piCurrentNum++;
         piFileSuffixes.add(piCurrentNum.toString());
 
+        final TreeMap<String, HashMap<Integer, int[]>> terms = tokenInfo;
+        final long postings = tokenInfoPostings;
+        final int num = piCurrentNum;
+        final Checkpoint checkpoint = takeCheckpoint();
+        tokenInfo = new TreeMap<>();
+        tokenInfoPostings = 0;
+
+        if(spillBuffers <= 0) {
+            writePartialIndex(terms, postings, num, checkpoint);
+            return;
+        }
+
+        /* Report a failed spill as soon as possible */
+        while(!pendingSpills.isEmpty() && pendingSpills.peek().isDone())
+            waitFor(pendingSpills.poll());
+
+        try {
+            spillSlots.acquire();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Indexing was interrupted");
+        }
+        if(spillWriter == null) {
+            spillWriter = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "spill-writer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        pendingSpills.add(spillWriter.submit(() -> {
+            try {
+                if(!spillFailed) // a later checkpoint would refer to the failed partial index
+                    writePartialIndex(terms, postings, num, checkpoint);
+                return null;
+            } catch(IOException | RuntimeException e) {
+                spillFailed = true;
+                throw e;
+            } finally {
+                spillSlots.release();
+            }
+        }));
+    }
+
+    /*
+     * Wait until every tokenInfo handed over to the spill writer has been written
+     */
+    private void awaitSpills() throws IOException {
+        try {
+            while(!pendingSpills.isEmpty())
+                waitFor(pendingSpills.poll());
+        } finally {
+            pendingSpills.clear();
+            if(spillWriter != null) {
+                spillWriter.shutdown();
+                spillWriter = null;
+            }
+        }
+    }
+
+    private void waitFor(Future<Void> spill) throws IOException {
+        try {
+            spill.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Indexing was interrupted");
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Writing a partial index failed", e.getCause());
+        }
+    }
+
+    /*
+     * Produce partial index files: VocabularyFile<Num>.txt, PostingFile<Num>.txt
+     * from the given tokenInfo (with the given postings) and save the checkpoint
+     * that was taken when it was handed over
+     */
+    private void writePartialIndex(TreeMap<String, HashMap<Integer, int[]>> tokenInfo, long postings,
+                                   int num, Checkpoint checkpoint) throws IOException {
+
+        int sizeBefore;
+        long start = System.nanoTime();
+
         DataOutputStream voc = new DataOutputStream(
                 new BufferedOutputStream(
                         new FileOutputStream(
-                                PathManager.getInstance().getIndexDirPath()
-                                        + "/VocabularyFile" + piCurrentNum + ".txt"
+                                indexDir
+                                        + "/VocabularyFile" + num + ".txt"
                         )
                 )
         );
@@ -256,136 +725,481 @@ public class Indexer {
         DataOutputStream post = new DataOutputStream(
                 new BufferedOutputStream(
                         new FileOutputStream(
-                                PathManager.getInstance().getIndexDirPath()
-                                        + "/PostingFile" + piCurrentNum + ".txt"
+                                indexDir
+                                        + "/PostingFile" + num + ".txt"
                         )
                 )
         );
 
-        /* Create a partial vocabulary and a partial posting file using current tokenInfo's state */
-        for(String term : tokenInfo.keySet()) {
-            voc.writeUTF(term);
-            voc.writeLong(tokenInfo.get(term).size());
+        /* Create a partial vocabulary and a partial posting file using the tokenInfo's state */
+        for(Map.Entry<String, HashMap<Integer, int[]>> term : tokenInfo.entrySet()) {
+            voc.writeUTF(term.getKey());
+            voc.writeLong(term.getValue().size());
             sizeBefore = post.size();
-            for(String docId : tokenInfo.get(term).keySet()) {
-                post.writeUTF(docId);
-                post.writeDouble(
-                        (tokenInfo.get(term).get(docId).getLeft() * tokenInfo.get(term).get(docId).getMiddle())
-                                / (double)docInfo.get(docId).getMiddle()
-                ); // normalized and weighted tf
-            }
+            ArrayList<Integer> docNums = new ArrayList<>(term.getValue().keySet());
+            Collections.sort(docNums); // postings in document number order
+            for(Integer docNum : docNums)
+                writePosting(docNum, term.getValue().get(docNum), post); // tf in every field
             voc.writeInt(computeInterval(post.size(), sizeBefore)); // Byte length of term's posting data
         }
 
         /* Close files */
         voc.close();
         post.close();
+
+        if(checkpoint != null) {
+            forceToDisk(indexDir + "/VocabularyFile" + num + ".txt");
+            forceToDisk(indexDir + "/PostingFile" + num + ".txt");
+        }
+        writeCheckpoint(checkpoint);
+        stats.spilled(tokenInfo.size(), postings, System.nanoTime() - start);
+    }
+
+    /*
+     * Save a checkpoint of the build, after a partial index has been written or merged,
+     * from which a crashed build can be resumed (see loadCheckpoint) without parsing the
+     * documents of the partial indexes again
+     */
+    private void saveCheckpoint() throws IOException {
+        writeCheckpoint(takeCheckpoint());
+    }
+
+    /*
+     * The state of the build that a checkpoint records (see writeCheckpoint), taken on the
+     * parsing thread: the word dfs added since the last checkpoint are moved into it.
+     * Returns null if the build doesn't save checkpoints
+     */
+    private Checkpoint takeCheckpoint() throws IOException {
+        if(!checkpointing) {
+            newWordDfs.clear();
+            return null;
+        }
+        Checkpoint ret = new Checkpoint();
+        ret.parsed = parsed;
+        ret.piCurrentNum = piCurrentNum;
+        ret.piMergedNum = piMergedNum;
+        ret.suffixes = new ArrayList<>(piFileSuffixes);
+        ret.tableLength = table.flush();
+        ret.wordDfs = newWordDfs;
+        if(store != null) {
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            store.writeState(new DataOutputStream(state));
+            ret.storeState = state.toByteArray();
+        }
+        newWordDfs = new HashMap<>();
+        return ret;
+    }
+
+    /*
+     * Write a checkpoint (nothing if it's null). The word dfs added since the last checkpoint
+     * are appended to CheckpointLog.txt, and Checkpoint.txt is replaced (atomically) by the
+     * partial indexes that are complete, the length of the document table, the state of the
+     * document store and the length of CheckpointLog.txt:
+     * <CHECKPOINT_VERSION, collectionPath, piThreshold, parsed, piCurrentNum, piMergedNum,
+     * <suffix1, suffix2, ...>, tableLength, logLength, hasStore, storeState>
+     */
+    private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+        if(checkpoint == null)
+            return;
+
+        File log = new File(indexDir, CHECKPOINT_LOG_FILE);
+        try(FileOutputStream logFile = new FileOutputStream(log, true)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(logFile));
+            out.writeInt(checkpoint.wordDfs.size());
+            for(Map.Entry<String, Integer> word : checkpoint.wordDfs.entrySet()) {
+                out.writeUTF(word.getKey());
+                out.writeInt(word.getValue());
+            }
+            out.flush();
+            logFile.getFD().sync();
+        }
+        table.force(); // at least as long as the checkpoint says
+        if(checkpoint.storeState != null) {
+            forceToDisk(indexDir + "/StoreFile.txt");
+            if(new File(indexDir, DocumentStoreWriter.SOURCE_FILE).exists())
+                forceToDisk(indexDir + "/" + DocumentStoreWriter.SOURCE_FILE);
+        }
+
+        File tmp = new File(indexDir, CHECKPOINT_FILE + ".tmp");
+        try(FileOutputStream checkpointFile = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checkpointFile));
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeUTF(collectionPath);
+            out.writeInt(piThreshold);
+            out.writeBoolean(checkpoint.parsed);
+            out.writeInt(checkpoint.piCurrentNum);
+            out.writeInt(checkpoint.piMergedNum);
+            out.writeInt(checkpoint.suffixes.size());
+            for(String suffix : checkpoint.suffixes)
+                out.writeUTF(suffix);
+            out.writeLong(checkpoint.tableLength);
+            out.writeLong(log.length());
+            out.writeBoolean(checkpoint.storeState != null);
+            if(checkpoint.storeState != null)
+                out.write(checkpoint.storeState);
+            out.flush();
+            checkpointFile.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(indexDir, CHECKPOINT_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     /*
-     * Produce the DocumentsFile.txt using the docInfo data structure and
-     * return a hashmap with the file pointer values for each record
+     * Restore the state of the build of indexDir from its last checkpoint (see saveCheckpoint).
+     * Returns false if there's no checkpoint of a build of the same collection with the same settings
      */
-    private HashMap<String, Long> createDocumentsFile() throws IOException {
+    private boolean loadCheckpoint() throws IOException {
+        File checkpointFile = new File(indexDir, CHECKPOINT_FILE);
+        if(!checkpointFile.exists())
+            return false;
+
+        long tableLength, logLength;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            if(in.readInt() != CHECKPOINT_VERSION || !in.readUTF().equals(collectionPath)
+                    || in.readInt() != piThreshold)
+                return false;
+            parsed = in.readBoolean();
+            piCurrentNum = in.readInt();
+            piMergedNum = in.readInt();
+            int suffixesNum = in.readInt();
+            for(int i = 0; i < suffixesNum; i++)
+                piFileSuffixes.add(in.readUTF());
+            tableLength = in.readLong();
+            logLength = in.readLong();
+            if(in.readBoolean())
+                store = new DocumentStoreWriter(indexDir + "/StoreFile.txt", in);
+        }
+
+        /* Reopen the document table and replay the log, dropping whatever was written after the checkpoint */
+        checkpointedPaths = new HashSet<>();
+        table = new DocumentTable(indexDir, tableLength, checkpointedPaths);
+        File log = new File(indexDir, CHECKPOINT_LOG_FILE);
+        try(RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.setLength(logLength);
+        }
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)))) {
+            while(in.available() > 0) {
+                int wordsNum = in.readInt();
+                for(int i = 0; i < wordsNum; i++)
+                    wordDfs.merge(in.readUTF(), in.readInt(), Integer::sum);
+            }
+        }
+
+        /* Delete partial index files that aren't part of the checkpoint */
+        File[] files = new File(indexDir).listFiles();
+        for(File f : files == null ? new File[0] : files) {
+            String name = f.getName();
+            for(String prefix : new String[] {"VocabularyFile", "PostingFile"}) {
+                String suffix = name.startsWith(prefix) && name.endsWith(".txt") ?
+                        name.substring(prefix.length(), name.length() - 4) : "";
+                if(!suffix.isEmpty() && (suffix.matches("\\d+") || suffix.matches("_m\\d+"))
+                        && !piFileSuffixes.contains(suffix))
+                    f.delete();
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Force a written file to disk, before a checkpoint refers to it
+     */
+    private void forceToDisk(String path) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
 
-        HashMap<String, Long> docBytes = new HashMap<>();
+    /*
+     * Produce the DocumentsFile.txt from the document table (after the near-duplicates
+     * have been clustered, see setClusters): <docsNum, <docId1, fullPath1, cluster1>, ...>,
+     * and the FeaturesFile.txt, the static features of every document for re-ranking (see
+     * Searching.FeatureStore): <featuresNum, <name> ..., docsNum, <value1 (float), ...> ...>
+     */
+    void createDocumentsFile() throws IOException {
 
-        RandomAccessFile docRAF = new RandomAccessFile(
-                PathManager.getInstance().getIndexDirPath() + "/DocumentsFile.txt", "rw"
+        DataOutputStream features = new DataOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(
+                                indexDir + "/FeaturesFile.txt"
+                        )
+                )
         );
+        features.writeInt(FEATURES.length);
+        for(String name : FEATURES)
+            features.writeUTF(name);
+        features.writeInt(table.size());
+
         DataOutputStream doc = new DataOutputStream(
                 new BufferedOutputStream(
                         new FileOutputStream(
-                                docRAF.getFD()
+                                indexDir + "/DocumentsFile.txt"
+                        )
+                )
+        );
+        doc.writeLong(table.size()); // write doc num at the start of the file
+        try(DataInputStream in = table.read()) {
+            for(int docNum = 0; docNum < table.size(); docNum++) {
+                DocInfo d = DocInfo.read(in);
+                doc.writeUTF(d.docId);
+                doc.writeUTF(d.path);
+                doc.writeInt(table.getCluster(docNum));
+                for(float value : features(d.year, d.fieldLens, d.facetValues))
+                    features.writeFloat(value);
+            }
+        }
+        doc.close();
+        features.close();
+    }
+
+    /*
+     * Finish the document store and write StoreIndexFile.txt, with the
+     * locator of every document in the store, in document number order
+     * (and SourceIndexFile.txt, if the store keeps NXML files)
+     */
+    private void createStoreIndexFile() throws IOException {
+
+        DataOutputStream storeIndex = new DataOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(
+                                indexDir + "/StoreIndexFile.txt"
+                        )
+                )
+        );
+        if(store == null)
+            store = new DocumentStoreWriter(indexDir + "/StoreFile.txt"); // no documents
+        store.flush();
+        store.writeSourceIndex(indexDir);
+
+        for(int docNum = 0; docNum < table.size(); docNum++)
+            storeIndex.writeLong(table.getStoreLocator(docNum));
+
+        storeIndex.close(); // the store stays open (and complete) for the checkpoints of the merging
+    }
+
+    /*
+     * Produce the FacetsFile.txt from the document table: for every Facet (in the order
+     * of the Facet enum), the number of its values and the values (sorted) with the DocSet of the
+     * documents that have them: <valuesNum, <value1, docSet1>, <value2, docSet2>, ...> ...
+     */
+    private void createFacetsFile() throws IOException {
+
+        ArrayList<TreeMap<String, DocSet>> facetDocs = new ArrayList<>();
+        for(Facet facet : Facet.values())
+            facetDocs.add(new TreeMap<>());
+        try(DataInputStream in = table.read()) {
+            for(int docNum = 0; docNum < table.size(); docNum++) {
+                DocInfo doc = DocInfo.read(in);
+                for(int f = 0; f < facetDocs.size(); f++) {
+                    for(String value : doc.facetValues[f])
+                        facetDocs.get(f).computeIfAbsent(value, v -> new DocSet()).add(docNum);
+                }
+            }
+        }
+
+        DataOutputStream facets = new DataOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(
+                                indexDir + "/FacetsFile.txt"
                         )
                 )
         );
+        for(TreeMap<String, DocSet> values : facetDocs) {
+            facets.writeInt(values.size());
+            for(Map.Entry<String, DocSet> value : values.entrySet()) {
+                facets.writeUTF(value.getKey());
+                value.getValue().write(facets);
+            }
+        }
+        facets.close();
+    }
+
+    /*
+     * Share the progress counters of another build (see ShardedIndexer)
+     */
+    void setStats(IndexingStats stats) { this.stats = stats; }
+
+    /*
+     * Number of documents that contain every (not stemmed) word of the documents indexed so far
+     */
+    HashMap<String, Integer> getWordDfs() { return wordDfs; }
+
+    /*
+     * Merge partial index files, cluster the near-duplicate documents
+     * and create DocumentsFile.txt, NormsFile.txt and the impact ordered postings
+     */
+    void createFinalIndex() throws IOException {
+        mergePartialIndexes();
+        stats.setPhase("finishing");
+        setClusters(DuplicateDetector.cluster(this::forEachMinHash), 0);
+        createDocumentsFile();
+        createNormsFile(null, table.size());
+        createImpactFile();
+    }
+
+    int getDocsNum() { return table.size(); }
 
-        doc.writeLong(docInfo.size()); // write doc num at the start of the file
-        doc.flush();
-        for(String docId : docInfo.keySet()) {
-            docBytes.put(docId, docRAF.getFilePointer());
-            doc.writeUTF(docId);
-            doc.writeUTF(docInfo.get(docId).getLeft());
-            doc.writeDouble(docInfo.get(docId).getRight()); // At this moment, this must be equal to 0.0
-            doc.flush();
+    /*
+     * Give the MinHash signatures of the documents to action, in document number order,
+     * as they are read from the document table (see DuplicateDetector.Signatures)
+     */
+    void forEachMinHash(Consumer<int[]> action) throws IOException {
+        try(DataInputStream in = table.read()) {
+            for(int docNum = 0; docNum < table.size(); docNum++)
+                action.accept(DocInfo.read(in).minHash);
         }
+    }
 
-        doc.close();
+    /*
+     * Set the near-duplicates cluster of every document from clusters, where the clusters
+     * of this index's documents start at docBase (see DuplicateDetector.cluster)
+     */
+    void setClusters(int[] clusters, int docBase) {
+        for(int docNum = 0; docNum < table.size(); docNum++)
+            table.setCluster(docNum, clusters[docBase + docNum]);
+    }
 
-        return docBytes;
+    /*
+     * Delete the document table of a shard, when the index is complete (see ShardedIndexer)
+     */
+    void deleteDocumentTable() throws IOException { table.delete(); }
+
+    /*
+     * Build the index of a shard (part of the collection) in dir, except for its
+     * DocumentsFile.txt and NormsFile.txt, which need the near-duplicates and
+     * the statistics of every shard
+     */
+    void buildShard(List<File> files, String dir) throws IOException {
+        indexDir = dir;
+        prepareIndexDir();
+        for(File f : files)
+            parseFile(f);
+        flushTokenInfo();
+        mergePartialIndexes();
+        createImpactFile();
     }
 
     /*
-     * Merge partial index files and create DocumentsFile.txt
+     * Build the index of a shard in dir (except for its DocumentsFile.txt and NormsFile.txt, see
+     * buildShard) from documents that were analyzed already (see analyze) and the postings of
+     * every term, in the format of PostingFile.txt, e.g. the ones of an in-memory segment of the
+     * search service, without parsing any file. The postings become the only partial index
      */
-    private void createFinalIndex() throws IOException {
+    void buildShard(List<AnalyzedDocument> docs, SortedMap<String, byte[]> postings, String dir) throws IOException {
+        indexDir = dir;
+        prepareIndexDir();
+        store = new DocumentStoreWriter(indexDir + "/StoreFile.txt");
+        for(AnalyzedDocument doc : docs) {
+            long storeLocator = store.add(doc.getTitle(), doc.getAbstract(), doc.getExcerpt());
+            populateDocInfo(doc.getDocId(), doc.getPath(), doc.getMaxTF(), doc.getFieldLens(), storeLocator,
+                    doc.getFacetValues(), doc.getMinHash(), doc.getYear());
+        }
+
+        piCurrentNum++;
+        piFileSuffixes.add(piCurrentNum.toString());
+        try(DataOutputStream voc = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexDir + "/VocabularyFile" + piCurrentNum + ".txt")));
+            DataOutputStream post = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexDir + "/PostingFile" + piCurrentNum + ".txt")))) {
+            for(Map.Entry<String, byte[]> term : postings.entrySet()) {
+                long df = 0;
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(term.getValue()));
+                while(in.available() > 0) {
+                    SharedUtilities.getInstance().readVInt(in);
+                    SharedUtilities.getInstance().readFieldTFs(in);
+                    df++;
+                }
+                voc.writeUTF(term.getKey());
+                voc.writeLong(df);
+                post.write(term.getValue());
+                voc.writeInt(term.getValue().length); // Byte length of term's posting data
+            }
+        }
+        mergePartialIndexes();
+        createImpactFile();
+    }
 
-        RandomAccessFile voc1, voc2, post1, post2;
+    /*
+     * Merge partial index files and create StoreIndexFile.txt and FacetsFile.txt.
+     * Every term's record in the final vocabulary gets a pointer to its posting
+     * data and the term's collection frequency (sum of its tf in every field and document)
+     */
+    void mergePartialIndexes() throws IOException {
+
+        RandomAccessFile voc1, voc2;
+        DataInputStream post1, post2;
         DataOutputStream vocMerged, postMerged;
-        RandomAccessFile vocMergedRAF, postMergedRAF;
-        String suffix1, suffix2, mergedSuffix = "", w1, w2, docId;
-        long voc1fp, voc2fp, ptr;
-        int pdSz, mergedFilesCounter = 0, wordComparison, sizeBefore, longSize = 8, newPtrsSum = 0;
-        int interval;
+        RandomAccessFile postMergedRAF;
+        String suffix1, suffix2, mergedSuffix = "", w1, w2;
+        long voc1fp, voc2fp, cf;
+        int wordComparison, sizeBefore;
         boolean isLastMerging = false;
 
-        TreeMap<String, MutablePair<Double, Long>> postData = new TreeMap<>();
+        TreeMap<Integer, int[]> postData = new TreeMap<>();
 
-        HashMap<String, Long> docBytes = createDocumentsFile(); // use this in merging
+        createStoreIndexFile();
+        createFacetsFile();
 
         /*
          * In case there's only one partial index, create an empty - dummy partial index
          * for the algorithm to be generic.
          */
-        if(piFileSuffixes.size() == 1) {
+        if(piFileSuffixes.isEmpty()) {
+            piFileSuffixes.add("0"); // no documents at all (e.g. an empty shard)
+        }
+        if(piFileSuffixes.size() == 1 && !piFileSuffixes.peek().isEmpty()) { // not merged yet
             piFileSuffixes.add("1");
         }
 
+        /* Posting bytes that merging will read (merges before the last one copy postings as they are) */
+        stats.setPhase("merging");
+        LinkedList<Long> sizes = new LinkedList<>();
+        for(String suffix : piFileSuffixes)
+            sizes.add(new File(indexDir + "/PostingFile" + suffix + ".txt").length());
+        long mergeBytes = 0;
+        while(sizes.size() >= 2) {
+            long merged = sizes.remove() + sizes.remove();
+            mergeBytes += merged;
+            sizes.add(merged);
+        }
+        stats.mergeStarted(mergeBytes);
+
         /* Merge partial indices */
         while(piFileSuffixes.size() >= 2) {
 
             suffix1 = piFileSuffixes.remove();
             voc1 = new RandomAccessFile(
-                    PathManager.getInstance().getIndexDirPath()
+                    indexDir
                             + "/VocabularyFile" + suffix1 + ".txt", "rw"
             );
-            post1 = new RandomAccessFile(
-                    PathManager.getInstance().getIndexDirPath()
-                            + "/PostingFile" + suffix1 + ".txt", "rw"
-            );
-
+            post1 = openPartialPostings(suffix1);
 
             suffix2 = piFileSuffixes.remove();
             voc2 = new RandomAccessFile(
-                    PathManager.getInstance().getIndexDirPath()
+                    indexDir
                             + "/VocabularyFile" + suffix2 + ".txt", "rw"
             );
-            post2 = new RandomAccessFile(
-                    PathManager.getInstance().getIndexDirPath()
-                            + "/PostingFile" + suffix2 + ".txt", "rw"
-            );
+            post2 = openPartialPostings(suffix2);
 
             if(piFileSuffixes.isEmpty()) {
                 isLastMerging = true;
                 mergedSuffix = "";
             } else {
-                mergedSuffix = "_m" + mergedFilesCounter++;
+                mergedSuffix = "_m" + piMergedNum++;
             }
 
-            vocMergedRAF = new RandomAccessFile(
-                    PathManager.getInstance().getIndexDirPath()
-                            + "/VocabularyFile" + mergedSuffix + ".txt", "rw"
-            );
             vocMerged = new DataOutputStream(
                     new BufferedOutputStream(
-                            new FileOutputStream(vocMergedRAF.getFD())
+                            new FileOutputStream(
+                                    indexDir
+                                            + "/VocabularyFile" + mergedSuffix + ".txt"
+                            )
                     )
             );
             postMergedRAF = new RandomAccessFile(
-                    PathManager.getInstance().getIndexDirPath()
+                    indexDir
                             + "/PostingFile" + mergedSuffix + ".txt", "rw"
             );
+            postMergedRAF.setLength(0);
             postMerged = new DataOutputStream(
                     new BufferedOutputStream(
                             new FileOutputStream(postMergedRAF.getFD())
@@ -406,71 +1220,28 @@ public class Indexer {
 
                 if (wordComparison < 0) { // w1 < w2
 
-                    vocMerged.writeUTF(w1); // copy term
-                    vocMerged.writeLong(voc1.readLong()); // copy df
-                    pdSz = voc1.readInt();
-                    if(isLastMerging) {
-                        newPtrsSum = 0;
-                        postMerged.flush();
-                        vocMerged.writeLong(postMergedRAF.getFilePointer());
-                    }
-                    sizeBefore = postMerged.size();
-                    do {
-                        postMerged.writeUTF(docId = post1.readUTF());
-                        postMerged.writeDouble(post1.readDouble());
-                        if(isLastMerging) {
-                            postMerged.writeLong(docBytes.get(docId));
-                            newPtrsSum++; // add an extra pointer
-                        }
-                        interval = computeInterval(postMerged.size(), sizeBefore);
-                    } while(interval != pdSz + (newPtrsSum * longSize));
-                    vocMerged.writeInt(interval); // posting data size
+                    copyTerm(w1, voc1, post1, vocMerged, postMerged, postMergedRAF, isLastMerging);
 
                     /* Don't move voc2 file pointer */
                     voc2.seek(voc2fp);
 
                 } else if (wordComparison > 0) { // w1 > w2
 
-                    vocMerged.writeUTF(w2); // copy term
-                    vocMerged.writeLong(voc2.readLong()); // copy df
-                    pdSz = voc2.readInt();
-                    if(isLastMerging) {
-                        newPtrsSum = 0;
-                        postMerged.flush();
-                        vocMerged.writeLong(postMergedRAF.getFilePointer());
-                    }
-                    sizeBefore = postMerged.size();
-                    do {
-                        postMerged.writeUTF(docId = post2.readUTF());
-                        postMerged.writeDouble(post2.readDouble());
-                        if(isLastMerging) {
-                            postMerged.writeLong(docBytes.get(docId));
-                            newPtrsSum++;
-                        }
-                        interval = computeInterval(postMerged.size(), sizeBefore);
-                    } while(interval != pdSz + (newPtrsSum * longSize));
-                    vocMerged.writeInt(interval); // posting data size
+                    copyTerm(w2, voc2, post2, vocMerged, postMerged, postMergedRAF, isLastMerging);
 
                     /* Don't move voc1 file pointer */
                     voc1.seek(voc1fp);
 
                 } else {
 
-                    /* Save post1's data for w1 to a structure */
+                    /* Save post1's and post2's data for w1 (= w2) to a structure */
                     voc1.readLong(); // skip df
-                    pdSz = voc1.readInt();
-                    ptr = post1.getFilePointer();
-                    do {
-                        postData.put(docId = post1.readUTF(), new MutablePair<>(post1.readDouble(), docBytes.get(docId)));
-                    } while(post1.getFilePointer() != ptr + pdSz);
-
-                    /* Save post2's data for w2 to a structure */
+                    int size1 = voc1.readInt();
+                    readPostings(post1, size1, postData);
                     voc2.readLong(); // skip df
-                    pdSz = voc2.readInt();
-                    ptr = post2.getFilePointer();
-                    do {
-                        postData.put(docId = post2.readUTF(), new MutablePair<>(post2.readDouble(), docBytes.get(docId)));
-                    } while(post2.getFilePointer() != ptr + pdSz);
+                    int size2 = voc2.readInt();
+                    readPostings(post2, size2, postData);
+                    stats.merged(size1 + size2);
 
                     /* Write merged files */
                     vocMerged.writeUTF(w1);
@@ -480,134 +1251,286 @@ public class Indexer {
                         vocMerged.writeLong(postMergedRAF.getFilePointer());
                     }
                     sizeBefore = postMerged.size();
-                    for(String id : postData.keySet()) {
-                        postMerged.writeUTF(id);
-                        postMerged.writeDouble(postData.get(id).getLeft());
-                        if(isLastMerging)
-                            postMerged.writeLong(docBytes.get(id));
-                    }
+                    cf = 0;
+                    for(Map.Entry<Integer, int[]> posting : postData.entrySet())
+                        cf += writePosting(posting.getKey(), posting.getValue(), postMerged);
                     vocMerged.writeInt(computeInterval(postMerged.size(), sizeBefore));
+                    if(isLastMerging)
+                        vocMerged.writeLong(cf);
 
                     postData = new TreeMap<>(); // clear posting data structure
                 }
             }
 
             /* In case voc2 has finished, but not voc1 */
-            while(!SharedUtilities.getInstance().isEOFReached(voc1)) {
-                vocMerged.writeUTF(voc1.readUTF()); // copy term
-                vocMerged.writeLong(voc1.readLong()); // copy df
-                pdSz = voc1.readInt();
-                if(isLastMerging) {
-                    newPtrsSum = 0;
-                    postMerged.flush();
-                    vocMerged.writeLong(postMergedRAF.getFilePointer());
-                }
-                sizeBefore = postMerged.size();
-                do {
-                    postMerged.writeUTF(docId = post1.readUTF()); // write doc id
-                    postMerged.writeDouble(post1.readDouble()); // write tf
-                    if(isLastMerging) {
-                        postMerged.writeLong(docBytes.get(docId));
-                        newPtrsSum++;
-                    }
-                    interval = computeInterval(postMerged.size(), sizeBefore);
-                } while (interval != pdSz + (newPtrsSum * longSize));
-                vocMerged.writeInt(interval); // posting data size
-            }
+            while(!SharedUtilities.getInstance().isEOFReached(voc1))
+                copyTerm(voc1.readUTF(), voc1, post1, vocMerged, postMerged, postMergedRAF, isLastMerging);
 
             /* In case voc1 has finished, but not voc2 */
-            while(!SharedUtilities.getInstance().isEOFReached(voc2)) {
-                vocMerged.writeUTF(voc2.readUTF()); // copy term
-                vocMerged.writeLong(voc2.readLong()); // copy df
-                pdSz = voc2.readInt();
-                if(isLastMerging) {
-                    newPtrsSum = 0;
-                    postMerged.flush();
-                    vocMerged.writeLong(postMergedRAF.getFilePointer());
-                }
-                sizeBefore = postMerged.size();
-                do {
-                    postMerged.writeUTF(docId = post2.readUTF()); // write doc id
-                    postMerged.writeDouble(post2.readDouble()); // write tf
-                    if(isLastMerging) {
-                        postMerged.writeLong(docBytes.get(docId));
-                        newPtrsSum++;
-                    }
-                    interval = computeInterval(postMerged.size(), sizeBefore);
-                } while (interval != pdSz + (newPtrsSum * longSize));
-                vocMerged.writeInt(interval); // posting data size
-            }
+            while(!SharedUtilities.getInstance().isEOFReached(voc2))
+                copyTerm(voc2.readUTF(), voc2, post2, vocMerged, postMerged, postMergedRAF, isLastMerging);
 
             voc1.close(); voc2.close();
             post1.close(); post2.close();
             vocMerged.close(); postMerged.close();
 
+            /* Add merged file suffix to queue */
+            piFileSuffixes.add(mergedSuffix);
+            if(checkpointing) {
+                forceToDisk(indexDir + "/VocabularyFile" + mergedSuffix + ".txt");
+                forceToDisk(indexDir + "/PostingFile" + mergedSuffix + ".txt");
+            }
+            saveCheckpoint();
+
             /* Delete merged files */
-            new File(PathManager.getInstance().getIndexDirPath()
+            new File(indexDir
                     + "/VocabularyFile" + suffix1 + ".txt").delete();
-            new File(PathManager.getInstance().getIndexDirPath()
+            new File(indexDir
                     + "/PostingFile" + suffix1 + ".txt").delete();
-            new File(PathManager.getInstance().getIndexDirPath()
+            new File(indexDir
                     + "/VocabularyFile" + suffix2 + ".txt").delete();
-            new File(PathManager.getInstance().getIndexDirPath()
+            new File(indexDir
                     + "/PostingFile" + suffix2 + ".txt").delete();
+        }
+        store.close(); // no checkpoint needs its state any more
+    }
 
-            /* Add merged file suffix to queue */
-            piFileSuffixes.add(mergedSuffix);
+    /*
+     * Open a partial posting file for sequential reading
+     */
+    private DataInputStream openPartialPostings(String suffix) throws IOException {
+        File f = new File(indexDir + "/PostingFile" + suffix + ".txt");
+        f.createNewFile(); // the dummy partial index has no files
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+    }
+
+    /*
+     * Copy the vocabulary record (after the term, which is already read) and the
+     * posting data of a term that exists in only one of the merged partial indexes
+     */
+    private void copyTerm(String term, RandomAccessFile voc, DataInputStream post,
+                          DataOutputStream vocMerged, DataOutputStream postMerged, RandomAccessFile postMergedRAF,
+                          boolean isLastMerging) throws IOException {
+
+        vocMerged.writeUTF(term); // copy term
+        vocMerged.writeLong(voc.readLong()); // copy df
+        byte[] postings = new byte[voc.readInt()];
+        post.readFully(postings);
+        stats.merged(postings.length);
+        if(isLastMerging) {
+            postMerged.flush();
+            vocMerged.writeLong(postMergedRAF.getFilePointer());
+        }
+        postMerged.write(postings); // partial and final postings are the same: <docNum, tf in every field>
+        vocMerged.writeInt(postings.length); // posting data size
+        if(isLastMerging) {
+            long cf = 0;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(postings));
+            while(in.available() > 0) {
+                SharedUtilities.getInstance().readVInt(in);
+                for(int tf : SharedUtilities.getInstance().readFieldTFs(in))
+                    cf += tf;
+            }
+            vocMerged.writeLong(cf);
         }
+    }
 
-        fillDocumentVectorLengths();
+    /*
+     * Read pdSz bytes of posting data from a partial posting file into postData (docNum -> tf in every field)
+     */
+    private void readPostings(DataInputStream post, int pdSz, TreeMap<Integer, int[]> postData) throws IOException {
+        byte[] postings = new byte[pdSz];
+        post.readFully(postings);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(postings));
+        while(in.available() > 0)
+            postData.put(SharedUtilities.getInstance().readVInt(in), SharedUtilities.getInstance().readFieldTFs(in));
     }
 
     /*
-     * Compute document vector lengths and fill the empty fields in DocumentsFile.txt
+     * Write a posting: <docNum, tf in every field> to a partial or the final posting file.
+     * Return the sum of the tfs
      */
-    private void fillDocumentVectorLengths() throws IOException {
+    private long writePosting(int docNum, int[] fieldTFs, DataOutputStream post) throws IOException {
+        SharedUtilities.getInstance().writeVInt(post, docNum);
+        SharedUtilities.getInstance().writeFieldTFs(post, fieldTFs);
+        long sum = 0;
+        for(int tf : fieldTFs)
+            sum += tf;
+        return sum;
+    }
 
-        int pdSz;
-        double idf, tf;
-        long df, ptr;
-        String docId;
+    /*
+     * Compute the statistics that ranking models need for every document and write
+     * them to NormsFile.txt, each one encoded in a single byte (see NormCodec):
+     * <docsNum, fieldsNum, totalLengthOfField1, totalLengthOfField2, ...>
+     * <lengthOfField1 of doc1, lengthOfField2 of doc1, ..., lengthOfField1 of doc2, ...>
+     * <vector length of doc1, vector length of doc2, ...>
+     * <max tf of doc1, max tf of doc2, ...>
+     * Vector lengths are computed using the default field weights and the idf given by
+     * the df of every term (globalDfs, null to use the df of this index) and docsNum
+     */
+    void createNormsFile(HashMap<String, Long> globalDfs, long docsNum) throws IOException {
 
-        RandomAccessFile voc = new RandomAccessFile(
-                PathManager.getInstance().getIndexDirPath() + "/VocabularyFile.txt", "rw"
+        double idf, tf;
+        long df;
+        int docNum;
+        String term;
+        int fieldsNum = Field.values().length;
+        double[] vecLens = new double[table.size()];
+
+        DataInputStream voc = new DataInputStream(
+                new BufferedInputStream(
+                        new FileInputStream(indexDir + "/VocabularyFile.txt")
+                )
         );
-
-        RandomAccessFile post = new RandomAccessFile(
-                PathManager.getInstance().getIndexDirPath() + "/PostingFile.txt", "rw"
+        DataInputStream post = new DataInputStream(
+                new BufferedInputStream(
+                        new FileInputStream(indexDir + "/PostingFile.txt")
+                )
         );
 
-        RandomAccessFile doc = new RandomAccessFile(
-                PathManager.getInstance().getIndexDirPath() + "/DocumentsFile.txt", "rw"
-        );
+        /* Sum the squares of the document vectors' weights */
+        while(voc.available() > 0) {
+            term = voc.readUTF();
+            df = voc.readLong(); // df
+            voc.readLong(); // ptr
+            voc.readInt(); // record's posting data size
+            voc.readLong(); // cf
+            idf = Math.log(docsNum / (double)(globalDfs == null ? df : globalDfs.get(term))) / Math.log(2.0);
+            for(long i = 0; i < df; i++) {
+                docNum = SharedUtilities.getInstance().readVInt(post);
+                tf = weightedTF(SharedUtilities.getInstance().readFieldTFs(post)) / table.getMaxTF(docNum);
+                vecLens[docNum] += (tf * idf) * (tf * idf);
+            }
+        }
+        voc.close();
+        post.close();
 
-        SharedUtilities.getInstance().docsNum = doc.readLong();
+        DataOutputStream norms = new DataOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(indexDir + "/NormsFile.txt")
+                )
+        );
+        norms.writeLong(table.size());
+        norms.writeInt(fieldsNum);
+        for(int f = 0; f < fieldsNum; f++)
+            norms.writeLong(table.getTotalFieldLength(f));
+        for(int d = 0; d < table.size(); d++) {
+            for(int f = 0; f < fieldsNum; f++)
+                norms.writeByte(table.getFieldLength(d, f));
+        }
+        for(double vecLen : vecLens)
+            norms.writeByte(NormCodec.encodeValue(Math.sqrt(vecLen))); // square root when sum computation is finished
+        for(int d = 0; d < table.size(); d++)
+            norms.writeByte(NormCodec.encodeValue(table.getMaxTF(d)));
+        norms.close();
+    }
 
-        while(!SharedUtilities.getInstance().isEOFReached(voc)) {
-            voc.readUTF(); // term
-            df = voc.readLong(); // df
-            ptr = voc.readLong(); // ptr
-            pdSz = voc.readInt(); // record's posting data size
-            do {
-                docId = post.readUTF();
-                tf = post.readDouble();
-                post.readLong();
-                idf = Math.log(SharedUtilities.getInstance().docsNum / (double)df) / Math.log(2.0);
-                docInfo.get(docId).setRight(docInfo.get(docId).getRight() + Math.sqrt(tf * idf));
-            } while(post.getFilePointer() != ptr + pdSz);
+    /*
+     * Write the postings of every term again, in impact order, for searches with a budget
+     * (see Searching.SearchBudget). The impact of a posting is its BM25F tf component (without
+     * the idf), computed with the default settings, and the postings of a term are split into
+     * segments of the same (quantized) impact, the highest first, each in docNum order:
+     * ImpactFile.txt: <segmentsNum (vint), <max impact (float), postingsNum (vint), size (vint)> ...,
+     *                  postings of segment 1, postings of segment 2, ...> for every term
+     * ImpactVocabularyFile.txt: <ptr to the term's impact data, size of it> for every term,
+     *                  in the order of VocabularyFile.txt
+     */
+    void createImpactFile() throws IOException {
+
+        int fieldsNum = Field.values().length;
+        double[][] fieldFactors = new double[fieldsNum][256]; // field weight / length normalization
+        for(Field f : Field.values()) {
+            double avg = table.size() == 0 ? 0 : table.getTotalFieldLength(f.ordinal()) / (double) table.size();
+            for(int code = 0; code < 256; code++) {
+                double lenNorm = avg > 0 ? 1.0 - IMPACT_B + IMPACT_B * NormCodec.decodeLength((byte) code) / avg : 1.0;
+                fieldFactors[f.ordinal()][code] = f.getDefaultWeight() / lenNorm;
+            }
         }
 
-        /* Square the results when sum computation is finished and write them to DocumentsFile.txt */
-        for(String id : docInfo.keySet()) {
-            docInfo.get(id).setRight(Math.sqrt(docInfo.get(id).getRight()));
-            doc.readUTF();
-            doc.readUTF();
-            doc.writeDouble(docInfo.get(id).getRight());
+        DataInputStream voc = new DataInputStream(
+                new BufferedInputStream(
+                        new FileInputStream(indexDir + "/VocabularyFile.txt")
+                )
+        );
+        DataInputStream post = new DataInputStream(
+                new BufferedInputStream(
+                        new FileInputStream(indexDir + "/PostingFile.txt")
+                )
+        );
+        DataOutputStream impacts = new DataOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(indexDir + "/ImpactFile.txt")
+                )
+        );
+        DataOutputStream impactVoc = new DataOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(indexDir + "/ImpactVocabularyFile.txt")
+                )
+        );
+
+        ByteArrayOutputStream[] segments = new ByteArrayOutputStream[IMPACT_LEVELS];
+        DataOutputStream[] segmentOuts = new DataOutputStream[IMPACT_LEVELS];
+        for(int level = 0; level < IMPACT_LEVELS; level++) {
+            segments[level] = new ByteArrayOutputStream();
+            segmentOuts[level] = new DataOutputStream(segments[level]);
         }
+        int[] segmentPostings = new int[IMPACT_LEVELS];
+        float[] maxImpacts = new float[IMPACT_LEVELS];
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        long ptr = 0;
+        while(voc.available() > 0) {
+            voc.readUTF(); // term
+            long df = voc.readLong();
+            voc.readLong(); // ptr
+            voc.readInt(); // record's posting data size
+            voc.readLong(); // cf
+
+            /* Put every posting in the segment of its impact */
+            for(long i = 0; i < df; i++) {
+                int docNum = SharedUtilities.getInstance().readVInt(post);
+                int[] fieldTFs = SharedUtilities.getInstance().readFieldTFs(post);
+                double tf = 0.0;
+                for(int f = 0; f < fieldsNum; f++)
+                    tf += fieldTFs[f] * fieldFactors[f][table.getFieldLength(docNum, f) & 0xFF];
+                float impact = (float) (tf / (IMPACT_K1 + tf));
+                int level = Math.min((int) (impact * IMPACT_LEVELS), IMPACT_LEVELS - 1);
+                writePosting(docNum, fieldTFs, segmentOuts[level]);
+                segmentPostings[level]++;
+                maxImpacts[level] = Math.max(maxImpacts[level], impact);
+            }
 
+            /* Write the segments, the highest impact first */
+            header.reset();
+            DataOutputStream headerOut = new DataOutputStream(header);
+            int segmentsNum = 0;
+            for(int postings : segmentPostings)
+                segmentsNum += postings > 0 ? 1 : 0;
+            SharedUtilities.getInstance().writeVInt(headerOut, segmentsNum);
+            for(int level = IMPACT_LEVELS - 1; level >= 0; level--) {
+                if(segmentPostings[level] > 0) {
+                    headerOut.writeFloat(maxImpacts[level]);
+                    SharedUtilities.getInstance().writeVInt(headerOut, segmentPostings[level]);
+                    SharedUtilities.getInstance().writeVInt(headerOut, segments[level].size());
+                }
+            }
+            int size = header.size();
+            header.writeTo(impacts);
+            for(int level = IMPACT_LEVELS - 1; level >= 0; level--) {
+                size += segments[level].size();
+                segments[level].writeTo(impacts);
+                segments[level].reset();
+                segmentPostings[level] = 0;
+                maxImpacts[level] = 0f;
+            }
+            impactVoc.writeLong(ptr);
+            impactVoc.writeInt(size);
+            ptr += size;
+        }
         voc.close();
         post.close();
-        doc.close();
+        impacts.close();
+        impactVoc.close();
     }
 
     /*
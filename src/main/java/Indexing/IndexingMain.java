@@ -6,10 +6,18 @@ import java.io.*;
 
 public class IndexingMain {
 
+    /*
+     * Usage: IndexingMain [shardsNum] (a single, not sharded index by default)
+     */
     public static void main(String[] args) throws IOException {
-        Indexer i = new Indexer();
         String path = PathManager.getInstance().getCollectionPath();
-        i.index(path);
+        int shardsNum = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        if(shardsNum > 1) {
+            new ShardedIndexer(shardsNum).index(path);
+        } else {
+            Indexer i = new Indexer();
+            i.index(path);
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,258 @@
+package Indexing;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Counters of an index build (shared by the indexers of the shards of a sharded build):
+ * documents, bytes and tokens parsed, the size of the in-memory tokenInfo of every
+ * indexer, partial index spills and merging. While the build runs they are registered
+ * as an MBean and a progress line (key=value pairs) is printed every interval seconds,
+ * with the rates of the last interval, heap use and GC time
+ */
+public class IndexingStats implements IndexingStatsMBean {
+
+    // Fields
+
+    private static final String OBJECT_NAME = "Hippocrates:type=Indexing";
+
+    /*
+     * Rough heap use of tokenInfo: a term costs a TreeMap entry, its String and a HashMap,
+     * a posting a HashMap entry and an int array of the tf of every field
+     */
+    private static final long TERM_BYTES = 160, POSTING_BYTES = 112;
+
+    private final long startNanos;
+    private final long gcStartMillis, gcStartCount;
+
+    private volatile String phase = "parsing";
+
+    private final LongAdder documents = new LongAdder(), bytes = new LongAdder(), tokens = new LongAdder();
+
+    private final AtomicLong tokenInfoTerms = new AtomicLong(), tokenInfoPostings = new AtomicLong();
+
+    private final AtomicLong spills = new AtomicLong(), totalSpillNanos = new AtomicLong(),
+            maxSpillNanos = new AtomicLong();
+    private volatile long lastSpillNanos;
+
+    /*
+     * Posting bytes written by merging, and the (estimated) total
+     */
+    private final AtomicLong mergedBytes = new AtomicLong(), mergeTotalBytes = new AtomicLong();
+
+    private ScheduledExecutorService reporter;
+
+    /*
+     * Counters at the last report, for the rates of the interval
+     */
+    private long lastReportNanos, lastDocuments, lastBytes, lastTokens;
+
+    // Constructor
+
+    public IndexingStats() {
+        startNanos = System.nanoTime();
+        lastReportNanos = startNanos;
+        long gcMillis = 0, gcCount = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcMillis += Math.max(gc.getCollectionTime(), 0);
+            gcCount += Math.max(gc.getCollectionCount(), 0);
+        }
+        gcStartMillis = gcMillis;
+        gcStartCount = gcCount;
+    }
+
+    // Methods
+
+    /*
+     * Register the MBean and print a progress line every interval seconds (never if interval <= 0)
+     */
+    void start(int interval) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name); // left by an earlier build of this JVM
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Indexing stats aren't available through JMX: " + e.getMessage());
+        }
+        if (interval > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "indexing-progress");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleAtFixedRate(() -> System.out.println(report()), interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /*
+     * Print the last progress line and unregister the MBean
+     */
+    void stop() {
+        phase = "done";
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        System.out.println(report());
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            // not registered
+        }
+    }
+
+    void setPhase(String phase) { this.phase = phase; }
+
+    /*
+     * A document has been parsed: the size of its file, its indexed tokens and
+     * the terms and postings it added to the tokenInfo of its indexer
+     */
+    void documentParsed(long fileBytes, long docTokens, long newTerms, long newPostings) {
+        documents.increment();
+        bytes.add(fileBytes);
+        tokens.add(docTokens);
+        tokenInfoTerms.addAndGet(newTerms);
+        tokenInfoPostings.addAndGet(newPostings);
+    }
+
+    /*
+     * A tokenInfo (with the given terms and postings) has been written to a partial index
+     */
+    void spilled(long terms, long postings, long nanos) {
+        tokenInfoTerms.addAndGet(-terms);
+        tokenInfoPostings.addAndGet(-postings);
+        spills.incrementAndGet();
+        totalSpillNanos.addAndGet(nanos);
+        maxSpillNanos.accumulateAndGet(nanos, Math::max);
+        lastSpillNanos = nanos;
+    }
+
+    /*
+     * Merging is about to write totalBytes of posting data (added up over the shards)
+     */
+    void mergeStarted(long totalBytes) { mergeTotalBytes.addAndGet(totalBytes); }
+
+    void merged(long postingBytes) { mergedBytes.addAndGet(postingBytes); }
+
+    /*
+     * A progress line with the rates of the interval since the last one
+     */
+    synchronized String report() {
+        long now = System.nanoTime();
+        double seconds = Math.max((now - lastReportNanos) / 1e9, 1e-9);
+        long docs = documents.sum(), parsedBytes = bytes.sum(), parsedTokens = tokens.sum();
+        String ret = String.format(Locale.ROOT,
+                "progress phase=%s elapsed=%ds docs=%d docs/s=%.1f MB/s=%.2f tokens/s=%.0f"
+                        + " tokenInfo.terms=%d tokenInfo.postings=%d tokenInfo.estMB=%d"
+                        + " spills=%d spill.lastMs=%d spill.maxMs=%d spill.totalMs=%d"
+                        + " merge=%.1f%% heap.usedMB=%d heap.maxMB=%d gc.ms=%d gc.count=%d",
+                phase, getElapsedSeconds(), docs, (docs - lastDocuments) / seconds,
+                (parsedBytes - lastBytes) / seconds / (1 << 20), (parsedTokens - lastTokens) / seconds,
+                getTokenInfoTerms(), getTokenInfoPostings(), getTokenInfoEstimatedBytes() >> 20,
+                getSpills(), getLastSpillMillis(), getMaxSpillMillis(), getTotalSpillMillis(),
+                getMergeProgress() * 100, getHeapUsedBytes() >> 20, getHeapMaxBytes() >> 20,
+                getGcMillis(), getGcCount());
+        lastReportNanos = now;
+        lastDocuments = docs;
+        lastBytes = parsedBytes;
+        lastTokens = parsedTokens;
+        return ret;
+    }
+
+    @Override
+    public String getPhase() { return phase; }
+
+    @Override
+    public long getElapsedSeconds() { return (System.nanoTime() - startNanos) / 1_000_000_000L; }
+
+    @Override
+    public long getDocuments() { return documents.sum(); }
+
+    @Override
+    public long getBytes() { return bytes.sum(); }
+
+    @Override
+    public long getTokens() { return tokens.sum(); }
+
+    @Override
+    public double getDocumentsPerSecond() { return perSecond(getDocuments()); }
+
+    @Override
+    public double getBytesPerSecond() { return perSecond(getBytes()); }
+
+    @Override
+    public double getTokensPerSecond() { return perSecond(getTokens()); }
+
+    @Override
+    public long getTokenInfoTerms() { return tokenInfoTerms.get(); }
+
+    @Override
+    public long getTokenInfoPostings() { return tokenInfoPostings.get(); }
+
+    @Override
+    public long getTokenInfoEstimatedBytes() {
+        return getTokenInfoTerms() * TERM_BYTES + getTokenInfoPostings() * POSTING_BYTES;
+    }
+
+    @Override
+    public long getSpills() { return spills.get(); }
+
+    @Override
+    public long getLastSpillMillis() { return lastSpillNanos / 1_000_000; }
+
+    @Override
+    public long getMaxSpillMillis() { return maxSpillNanos.get() / 1_000_000; }
+
+    @Override
+    public long getTotalSpillMillis() { return totalSpillNanos.get() / 1_000_000; }
+
+    @Override
+    public long getMergedBytes() { return mergedBytes.get(); }
+
+    @Override
+    public double getMergeProgress() {
+        long total = mergeTotalBytes.get();
+        return total == 0 ? 0.0 : Math.min(1.0, mergedBytes.get() / (double) total);
+    }
+
+    @Override
+    public long getHeapUsedBytes() { return heapUsage().getUsed(); }
+
+    @Override
+    public long getHeapMaxBytes() { return heapUsage().getMax(); }
+
+    @Override
+    public long getGcMillis() {
+        long ret = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            ret += Math.max(gc.getCollectionTime(), 0);
+        return ret - gcStartMillis;
+    }
+
+    @Override
+    public long getGcCount() {
+        long ret = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            ret += Math.max(gc.getCollectionCount(), 0);
+        return ret - gcStartCount;
+    }
+
+    private MemoryUsage heapUsage() { return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage(); }
+
+    private double perSecond(long count) {
+        return count / Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+    }
+
+}
@@ -0,0 +1,52 @@
+package Indexing;
+
+/*
+ * The progress and resource use of a running index build, as seen through JMX
+ * (e.g. with jconsole, under Hippocrates:type=Indexing). Rates are averages
+ * since the start of the build
+ */
+public interface IndexingStatsMBean {
+
+    String getPhase();
+
+    long getElapsedSeconds();
+
+    long getDocuments();
+
+    long getBytes();
+
+    long getTokens();
+
+    double getDocumentsPerSecond();
+
+    double getBytesPerSecond();
+
+    double getTokensPerSecond();
+
+    long getTokenInfoTerms();
+
+    long getTokenInfoPostings();
+
+    long getTokenInfoEstimatedBytes();
+
+    long getSpills();
+
+    long getLastSpillMillis();
+
+    long getMaxSpillMillis();
+
+    long getTotalSpillMillis();
+
+    long getMergedBytes();
+
+    double getMergeProgress();
+
+    long getHeapUsedBytes();
+
+    long getHeapMaxBytes();
+
+    long getGcMillis();
+
+    long getGcCount();
+
+}
@@ -0,0 +1,245 @@
+package Indexing;
+
+import Utilities.IndexGenerations;
+import Utilities.PathManager;
+import Utilities.SharedUtilities;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Builds a document partitioned index: the collection is split into shards
+ * that are indexed concurrently, each one by its own Indexer, in the shard
+ * directories of a new index generation. Document norms are computed with the
+ * df of the terms in the whole collection, so that the shards score documents
+ * exactly like a single index would, and near-duplicates are found across shards
+ */
+public class ShardedIndexer {
+
+    // Fields
+
+    private final int shardsNum;
+
+    /*
+     * Files of the index of a shard
+     */
+    private static final String[] SHARD_FILES = {"VocabularyFile.txt", "PostingFile.txt", "DocumentsFile.txt",
+            "NormsFile.txt", "StoreFile.txt", "StoreIndexFile.txt", "FacetsFile.txt", "FeaturesFile.txt",
+            "ImpactFile.txt", "ImpactVocabularyFile.txt", DocumentStoreWriter.SOURCE_FILE,
+            DocumentStoreWriter.SOURCE_INDEX_FILE};
+
+    // Constructor
+
+    public ShardedIndexer(int shardsNum) {
+        this.shardsNum = shardsNum;
+    }
+
+    // Methods
+
+    /*
+     * Index the collection given by path (a single file or a directory)
+     */
+    public void index(String path) throws IOException {
+
+        String genDir = IndexGenerations.newGeneration();
+        System.out.println("Indexing " + path + " into " + shardsNum + " shards of " + genDir + " ...");
+
+        /* Split the documents into contiguous parts of the (sorted) file list */
+        ArrayList<File> files = new ArrayList<>();
+        listFiles(new File(path), files);
+        files.sort(Comparator.comparing(File::getPath));
+        ArrayList<List<File>> parts = new ArrayList<>();
+        for (int i = 0; i < shardsNum; i++)
+            parts.add(files.subList(files.size() * i / shardsNum, files.size() * (i + 1) / shardsNum));
+
+        SharedUtilities.getInstance(); // create the singleton before the threads use it
+        IndexingStats stats = new IndexingStats();
+        stats.start(Integer.getInteger("hippocrates.progressInterval", 30));
+        ArrayList<Indexer> indexers = new ArrayList<>();
+        for (int i = 0; i < shardsNum; i++) {
+            indexers.add(new Indexer());
+            indexers.get(i).setStats(stats);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(shardsNum);
+        try {
+            /* Build the shards */
+            ArrayList<Future<?>> builds = new ArrayList<>();
+            for (int i = 0; i < shardsNum; i++) {
+                final int shard = i;
+                builds.add(pool.submit(() -> {
+                    indexers.get(shard).buildShard(parts.get(shard), IndexGenerations.shardDir(genDir, shard));
+                    return null;
+                }));
+            }
+            waitFor(builds);
+            stats.setPhase("finishing");
+
+            /* Collection statistics */
+            HashMap<String, Long> dfs = new HashMap<>();
+            long docsNum = 0;
+            for (int i = 0; i < shardsNum; i++) {
+                addDfs(IndexGenerations.shardDir(genDir, i), dfs);
+                docsNum += indexers.get(i).getDocsNum();
+            }
+
+            /* Near-duplicates of the whole collection, numbering the documents shard after shard */
+            int[] clusters = DuplicateDetector.cluster(action -> {
+                for (Indexer indexer : indexers)
+                    indexer.forEachMinHash(action);
+            });
+            int docBase = 0;
+            for (Indexer indexer : indexers) {
+                indexer.setClusters(clusters, docBase);
+                docBase += indexer.getDocsNum();
+            }
+
+            /* Documents and norms of every shard */
+            final long totalDocs = docsNum;
+            ArrayList<Future<?>> norms = new ArrayList<>();
+            for (Indexer indexer : indexers) {
+                norms.add(pool.submit(() -> {
+                    indexer.createDocumentsFile();
+                    indexer.createNormsFile(dfs, totalDocs);
+                    indexer.deleteDocumentTable();
+                    return null;
+                }));
+            }
+            waitFor(norms);
+        } finally {
+            pool.shutdown();
+        }
+
+        /* Suggestions of the whole collection */
+        HashMap<String, Integer> wordDfs = new HashMap<>();
+        for (Indexer indexer : indexers) {
+            for (Map.Entry<String, Integer> word : indexer.getWordDfs().entrySet())
+                wordDfs.merge(word.getKey(), word.getValue(), Integer::sum);
+        }
+        new SuggestCompiler().compile(genDir, wordDfs);
+
+        /* Compile the synonyms used for query expansion, if there's a WordNet dictionary */
+        if (new File(PathManager.getInstance().getWordNetPath()).exists())
+            new SynonymCompiler().compile(genDir);
+
+        IndexGenerations.publish(genDir);
+        stats.stop();
+        for (File f : files)
+            PathManager.getInstance().fileNames.add(f.getName());
+        System.out.println("Files Indexed: " + PathManager.getInstance().fileNames);
+    }
+
+    /*
+     * Add analyzed documents and their postings (see Indexer.buildShard(docs, postings, dir)) as one
+     * new shard of a new generation that has the shards of the current one too, and publish it
+     * (the shards of the current generation are linked, not copied, as the files of an index never
+     * change). The norms of the new shard are computed with the df of the terms in every shard, the
+     * ones of the old shards stay as they are, and near-duplicates are only found among the new
+     * documents. Returns the new generation's directory
+     */
+    public String addShard(List<AnalyzedDocument> docs, SortedMap<String, byte[]> postings) throws IOException {
+
+        String currentDir = IndexGenerations.currentDir();
+        ArrayList<String> oldShards = IndexGenerations.shardDirs(currentDir);
+        String genDir = IndexGenerations.newGeneration();
+        int docBase = 0;
+        for (int i = 0; i < oldShards.size(); i++) {
+            String shardDir = IndexGenerations.shardDir(genDir, i);
+            new File(shardDir).mkdir();
+            for (String name : SHARD_FILES)
+                link(new File(oldShards.get(i), name), new File(shardDir, name));
+            docBase += docsNum(oldShards.get(i));
+        }
+        for (String name : new String[] {"SuggestFile.txt", "SynonymsFile.txt"})
+            link(new File(currentDir, name), new File(genDir, name));
+
+        Indexer indexer = new Indexer();
+        indexer.buildShard(docs, postings, IndexGenerations.shardDir(genDir, oldShards.size()));
+        HashMap<String, Long> dfs = new HashMap<>();
+        for (int i = 0; i <= oldShards.size(); i++)
+            addDfs(IndexGenerations.shardDir(genDir, i), dfs);
+        int[] clusters = DuplicateDetector.cluster(indexer::forEachMinHash);
+        for (int d = 0; d < clusters.length; d++) {
+            if (clusters[d] >= 0)
+                clusters[d] += docBase; // numbers of the documents in the whole index
+        }
+        indexer.setClusters(clusters, 0);
+        indexer.createDocumentsFile();
+        indexer.createNormsFile(dfs, docBase + indexer.getDocsNum());
+        indexer.deleteDocumentTable();
+
+        IndexGenerations.publish(genDir);
+        return genDir;
+    }
+
+    /*
+     * Hard link a file of an index (if it exists) to another name, copying it where links aren't supported
+     */
+    private void link(File from, File to) throws IOException {
+        if (!from.exists())
+            return;
+        try {
+            Files.createLink(to.toPath(), from.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(from.toPath(), to.toPath());
+        }
+    }
+
+    /*
+     * Number of documents of the index of a shard
+     */
+    private long docsNum(String shardDir) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(shardDir + "/DocumentsFile.txt"))) {
+            return in.readLong();
+        }
+    }
+
+    /*
+     * All the files inside dir (or dir itself if it is a file)
+     */
+    private void listFiles(File dir, List<File> files) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            files.add(dir);
+            return;
+        }
+        for (File entry : entries)
+            listFiles(entry, files);
+    }
+
+    /*
+     * Add the df of every term of the shard's vocabulary to dfs
+     */
+    private void addDfs(String shardDir, HashMap<String, Long> dfs) throws IOException {
+        DataInputStream voc = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(shardDir + "/VocabularyFile.txt"))
+        );
+        while (voc.available() > 0) {
+            String term = voc.readUTF();
+            dfs.merge(term, voc.readLong(), Long::sum);
+            voc.skipBytes(8 + 4 + 8); // ptr, posting data size, cf
+        }
+        voc.close();
+    }
+
+    /*
+     * Wait for every task, rethrowing the first failure
+     */
+    private void waitFor(List<Future<?>> tasks) throws IOException {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Indexing was interrupted");
+            } catch (Exception e) {
+                throw new IOException("Building a shard failed", e.getCause());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package Indexing;
+
+import Utilities.SharedUtilities;
+import mitos.stemmer.Stemmer;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Writes the dictionary of the query suggestions of an index (SuggestFile.txt): every
+ * (not stemmed) word of the collection with its stem and the number of documents that
+ * contain it, sorted by word and front coded in blocks of BLOCK_SIZE words (every word
+ * keeps only what differs from the previous word of its block). File format:
+ * <wordsNum, blocksNum, <offset of block1, max df of block1>, <offset of block2, ...> ...> (offsets after the header)
+ * <<prefix length shared with the previous word (vint), rest of the word, prefix length
+ *   shared by the stem and the word (vint), rest of the stem, df (vint)> ...> (block1)
+ * <...> (block2) ...
+ */
+public class SuggestCompiler {
+
+    // Fields
+
+    static final int BLOCK_SIZE = 16;
+
+    // Methods
+
+    /*
+     * Write the suggestions of the index in indexDir, given the df of every word of its documents
+     */
+    public void compile(String indexDir, Map<String, Integer> wordDfs) throws IOException {
+
+        Stemmer.Initialize();
+        ArrayList<String> words = new ArrayList<>();
+        for (String word : wordDfs.keySet()) {
+            if (word.length() > 1 && !word.chars().allMatch(Character::isDigit)) // numbers are no use as suggestions
+                words.add(word);
+        }
+        Collections.sort(words);
+
+        /* Blocks first, to know their offsets */
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(blocks);
+        int blocksNum = (words.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] offsets = new int[blocksNum], maxDfs = new int[blocksNum];
+        String previous = "";
+        for (int i = 0; i < words.size(); i++) {
+            int block = i / BLOCK_SIZE;
+            if (i % BLOCK_SIZE == 0) {
+                offsets[block] = out.size();
+                previous = "";
+            }
+            String word = words.get(i);
+            String stem = SharedUtilities.getInstance().stem(word);
+            int df = wordDfs.get(word);
+
+            int shared = sharedPrefix(previous, word);
+            SharedUtilities.getInstance().writeVInt(out, shared);
+            out.writeUTF(word.substring(shared));
+            int stemShared = sharedPrefix(word, stem);
+            SharedUtilities.getInstance().writeVInt(out, stemShared);
+            out.writeUTF(stem.substring(stemShared));
+            SharedUtilities.getInstance().writeVInt(out, df);
+
+            maxDfs[block] = Math.max(maxDfs[block], df);
+            previous = word;
+        }
+        out.close();
+
+        DataOutputStream suggest = new DataOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(indexDir + "/SuggestFile.txt")
+                )
+        );
+        suggest.writeInt(words.size());
+        suggest.writeInt(blocksNum);
+        for (int b = 0; b < blocksNum; b++) {
+            suggest.writeInt(offsets[b]);
+            suggest.writeInt(maxDfs[b]);
+        }
+        blocks.writeTo(suggest);
+        suggest.close();
+        System.out.println("Suggestions compiled for " + words.size() + " words");
+    }
+
+    private int sharedPrefix(String s1, String s2) {
+        int n = Math.min(s1.length(), s2.length()), i = 0;
+        while (i < n && s1.charAt(i) == s2.charAt(i))
+            i++;
+        return i;
+    }
+
+}
@@ -0,0 +1,157 @@
+package Indexing;
+
+import Utilities.IndexGenerations;
+import Utilities.PathManager;
+import Utilities.SharedUtilities;
+import mitos.stemmer.Stemmer;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Compiles the synonyms of a WordNet prolog file (wn_s.pl) into SynonymsFile.txt
+ * of an index, so that the Searcher doesn't have to parse WordNet.
+ * Words are stemmed like the indexed tokens and only synonyms that exist in the
+ * index's vocabulary are kept. The synonyms of a term t get the weight
+ * (synsets containing both t and the synonym) / (synsets containing t).
+ * File format:
+ * <termsNum, offset of term1's record, offset of term2's record, ...> (offsets after the header)
+ * <term1, synonymsNum, synonym1, weight1, synonym2, weight2, ...>
+ * <term2, ...> (terms sorted)
+ */
+public class SynonymCompiler {
+
+    // Fields
+
+    /*
+     * Most synonyms kept for every term (the best ones)
+     */
+    static final int MAX_SYNONYMS = 16;
+
+    // Methods
+
+    /*
+     * Compile the WordNet file given by PathManager for the index in indexDir
+     * (the index of every shard, if it's sharded)
+     */
+    public void compile(String indexDir) throws IOException {
+
+        Stemmer.Initialize();
+        HashSet<String> vocabulary = new HashSet<>();
+        for (String dir : IndexGenerations.shardDirs(indexDir))
+            vocabulary.addAll(loadVocabulary(dir));
+
+        /* Stemmed words of every synset and synsets of every stemmed word */
+        HashMap<String, HashSet<String>> synsetTerms = new HashMap<>();
+        HashMap<String, HashSet<String>> termSynsets = new HashMap<>();
+
+        BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(PathManager.getInstance().getWordNetPath()), "UTF-8")
+        );
+        String line;
+        while ((line = br.readLine()) != null) {
+            /* s(synset_id,w_num,'word',ss_type,sense_number,tag_count). */
+            if (!line.startsWith("s("))
+                continue;
+            int comma = line.indexOf(',');
+            int wordStart = line.indexOf('\'');
+            int wordEnd = line.lastIndexOf('\'');
+            if (comma < 0 || wordStart < 0 || wordEnd <= wordStart)
+                continue;
+            String synset = line.substring(2, comma);
+            String word = SharedUtilities.getInstance().doLexicalAnalysis(
+                    line.substring(wordStart + 1, wordEnd).replace("''", "'")
+            );
+            if (word.isEmpty() || word.contains(" ") // multi-word expressions can't be query terms
+                    || SharedUtilities.getInstance().enSwSet.contains(word))
+                continue;
+            String term = SharedUtilities.getInstance().stem(word);
+            synsetTerms.computeIfAbsent(synset, s -> new HashSet<>()).add(term);
+            termSynsets.computeIfAbsent(term, t -> new HashSet<>()).add(synset);
+        }
+        br.close();
+
+        /* Weighted synonyms of every term */
+        TreeMap<String, List<Map.Entry<String, Float>>> synonyms = new TreeMap<>();
+        for (Map.Entry<String, HashSet<String>> entry : termSynsets.entrySet()) {
+            String term = entry.getKey();
+            HashMap<String, Integer> shared = new HashMap<>(); // synonym -> synsets shared with term
+            for (String synset : entry.getValue()) {
+                for (String synonym : synsetTerms.get(synset)) {
+                    if (!synonym.equals(term) && vocabulary.contains(synonym))
+                        shared.merge(synonym, 1, Integer::sum);
+                }
+            }
+            if (shared.isEmpty())
+                continue;
+            List<Map.Entry<String, Float>> weighted = new ArrayList<>();
+            for (Map.Entry<String, Integer> s : shared.entrySet())
+                weighted.add(new AbstractMap.SimpleEntry<>(s.getKey(), s.getValue() / (float) entry.getValue().size()));
+            weighted.sort((s1, s2) -> {
+                int c = Float.compare(s2.getValue(), s1.getValue());
+                return c != 0 ? c : s1.getKey().compareTo(s2.getKey());
+            });
+            synonyms.put(term, weighted.subList(0, Math.min(weighted.size(), MAX_SYNONYMS)));
+        }
+
+        write(synonyms, indexDir);
+        System.out.println("Synonyms compiled for " + synonyms.size() + " terms");
+    }
+
+    /*
+     * Terms of VocabularyFile.txt of the index in indexDir
+     */
+    private HashSet<String> loadVocabulary(String indexDir) throws IOException {
+        HashSet<String> ret = new HashSet<>();
+        DataInputStream voc = new DataInputStream(
+                new BufferedInputStream(
+                        new FileInputStream(indexDir + "/VocabularyFile.txt")
+                )
+        );
+        while (voc.available() > 0) {
+            ret.add(voc.readUTF());
+            voc.skipBytes(8 + 8 + 4 + 8); // df, ptr, posting data size, cf
+        }
+        voc.close();
+        return ret;
+    }
+
+    private void write(TreeMap<String, List<Map.Entry<String, Float>>> synonyms, String indexDir) throws IOException {
+
+        /* Records first, to know their offsets */
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        int[] offsets = new int[synonyms.size()];
+        int i = 0;
+        for (Map.Entry<String, List<Map.Entry<String, Float>>> entry : synonyms.entrySet()) {
+            offsets[i++] = out.size();
+            out.writeUTF(entry.getKey());
+            out.writeByte(entry.getValue().size());
+            for (Map.Entry<String, Float> synonym : entry.getValue()) {
+                out.writeUTF(synonym.getKey());
+                out.writeFloat(synonym.getValue());
+            }
+        }
+        out.close();
+
+        DataOutputStream syn = new DataOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(indexDir + "/SynonymsFile.txt")
+                )
+        );
+        syn.writeInt(offsets.length);
+        for (int offset : offsets)
+            syn.writeInt(offset);
+        records.writeTo(syn);
+        syn.close();
+    }
+
+    /*
+     * Compile the synonyms of the current index generation (e.g. after the WordNet file changed).
+     * Searchers that have already opened the synonyms need a reload to see the new ones
+     */
+    public static void main(String[] args) throws IOException {
+        new SynonymCompiler().compile(IndexGenerations.currentDir());
+    }
+
+}
@@ -0,0 +1,71 @@
+package LoadTesting;
+
+import java.util.Arrays;
+
+/*
+ * A class that collects request latencies (in nanoseconds) and errors
+ * of a load test run and computes throughput and latency percentiles
+ */
+public class LatencyRecorder {
+
+    // Fields
+
+    /*
+     * Recorded latencies (only the first 'count' values are used)
+     */
+    private long[] latencies;
+    private int count;
+
+    /*
+     * Number of failed requests (connection errors, non 200 responses, timeouts)
+     */
+    private int errors;
+
+    // Constructor
+
+    public LatencyRecorder() {
+        latencies = new long[1024];
+        count = 0;
+        errors = 0;
+    }
+
+    // Methods
+
+    /*
+     * Record the latency of a successful request
+     */
+    public synchronized void record(long latencyNanos) {
+        if(count == latencies.length)
+            latencies = Arrays.copyOf(latencies, count * 2);
+        latencies[count++] = latencyNanos;
+    }
+
+    /*
+     * Record a failed request
+     */
+    public synchronized void recordError() {
+        errors++;
+    }
+
+    public synchronized int getCount() { return count; }
+
+    public synchronized int getErrors() { return errors; }
+
+    /*
+     * Return the latency percentiles (in milliseconds) for the given
+     * quantiles (e.g. 0.5, 0.99), using the nearest-rank method
+     */
+    public synchronized double[] percentiles(double... quantiles) {
+        double[] ret = new double[quantiles.length];
+        if(count == 0)
+            return ret;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        for(int i = 0; i < quantiles.length; i++) {
+            int rank = (int) Math.ceil(quantiles[i] * count);
+            ret[i] = sorted[Math.max(0, Math.min(count - 1, rank - 1))] / 1000000.0;
+        }
+        return ret;
+    }
+
+}
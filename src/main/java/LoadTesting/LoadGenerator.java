@@ -0,0 +1,187 @@
+package LoadTesting;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * A class that replays queries against a running search service (Controller),
+ * either in closed-loop (fixed number of clients, each sending its next request
+ * when the previous one returns) or in open-loop (requests sent at a fixed rate,
+ * no matter how fast the service answers) mode
+ */
+public class LoadGenerator {
+
+    // Fields
+
+    /*
+     * Base url of the service (e.g. http://localhost:4567)
+     */
+    private final String baseUrl;
+
+    /*
+     * Queries to replay, as pairs of <query, type>
+     */
+    private final ArrayList<MutablePair<String, String>> queries;
+
+    /*
+     * Connect and read timeout of every request (ms)
+     */
+    private final int timeoutMs;
+
+    /*
+     * Used to pick queries in a round robin way
+     */
+    private final AtomicLong nextQuery;
+
+    // Constructor
+
+    public LoadGenerator(String baseUrl, ArrayList<MutablePair<String, String>> queries, int timeoutMs) {
+        this.baseUrl = baseUrl;
+        this.queries = queries;
+        this.timeoutMs = timeoutMs;
+        nextQuery = new AtomicLong();
+    }
+
+    // Methods
+
+    /*
+     * Run 'clients' threads that send requests back to back for warmupSec + durationSec seconds.
+     * Only requests that start after the warmup period are recorded
+     */
+    public LatencyRecorder runClosedLoop(int clients, int warmupSec, int durationSec, int thinkMs)
+            throws InterruptedException {
+
+        LatencyRecorder recorder = new LatencyRecorder();
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSec);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(durationSec);
+
+        Thread[] threads = new Thread[clients];
+        for(int i = 0; i < clients; i++) {
+            threads[i] = new Thread(() -> {
+                long now;
+                while((now = System.nanoTime()) < end) {
+                    boolean ok = send(next());
+                    if(now >= measureStart) {
+                        if(ok)
+                            recorder.record(System.nanoTime() - now);
+                        else
+                            recorder.recordError();
+                    }
+                    if(thinkMs > 0)
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(thinkMs));
+                }
+            }, "load-client-" + i);
+            threads[i].start();
+        }
+        for(Thread t : threads)
+            t.join();
+
+        return recorder;
+    }
+
+    /*
+     * Send requests at a fixed rate (requests/sec) for warmupSec + durationSec seconds,
+     * using up to 'connections' concurrent connections. The latency of a request is measured
+     * from the time it was scheduled to be sent, not from the time it was actually sent,
+     * so that a slow service can't hide its queueing delay (coordinated omission). Measured
+     * requests that aren't answered when the run gives up waiting for them (still queued
+     * or in flight) are errors, for the same reason
+     */
+    public LatencyRecorder runOpenLoop(double rate, int connections, int warmupSec, int durationSec)
+            throws InterruptedException {
+
+        LatencyRecorder recorder = new LatencyRecorder();
+        ExecutorService pool = Executors.newFixedThreadPool(connections);
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSec);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(durationSec);
+
+        /* Measured requests not recorded yet: each is recorded once, by its task or as an error at the end */
+        Set<Long> unrecorded = ConcurrentHashMap.newKeySet();
+
+        for(long i = 0; ; i++) {
+            long intended = start + i * interval;
+            if(intended >= end)
+                break;
+            long delay;
+            while((delay = intended - System.nanoTime()) > 0)
+                LockSupport.parkNanos(delay);
+
+            MutablePair<String, String> query = next();
+            Long request = i;
+            boolean measured = intended >= measureStart && unrecorded.add(request);
+            pool.execute(() -> {
+                boolean ok = send(query);
+                if(measured && unrecorded.remove(request)) {
+                    if(ok)
+                        recorder.record(System.nanoTime() - intended);
+                    else
+                        recorder.recordError();
+                }
+            });
+        }
+
+        /* Let the requests in flight finish */
+        pool.shutdown();
+        if(!pool.awaitTermination(Math.max(timeoutMs, 1000) * 10L, TimeUnit.MILLISECONDS))
+            pool.shutdownNow(); // drops the queued requests
+        for(Long request : new ArrayList<>(unrecorded)) {
+            if(unrecorded.remove(request))
+                recorder.recordError(); // never answered
+        }
+
+        return recorder;
+    }
+
+    /*
+     * Next query to send (round robin)
+     */
+    private MutablePair<String, String> next() {
+        return queries.get((int) (nextQuery.getAndIncrement() % queries.size()));
+    }
+
+    /*
+     * Send a query request and read the whole answer. Return false on failure
+     */
+    private boolean send(MutablePair<String, String> query) {
+        HttpURLConnection con = null;
+        try {
+            URL url = new URL(baseUrl + "/api/queries/" + encode(query.getLeft()) + "/type/" + encode(query.getRight()));
+            con = (HttpURLConnection) url.openConnection();
+            con.setConnectTimeout(timeoutMs);
+            con.setReadTimeout(timeoutMs);
+            int status = con.getResponseCode();
+            InputStream in = status < 400 ? con.getInputStream() : con.getErrorStream();
+            if(in != null) {
+                byte[] buf = new byte[8192];
+                while(in.read(buf) != -1); // drain, so that the connection can be reused
+                in.close();
+            }
+            return status == 200;
+        } catch (IOException e) {
+            if(con != null)
+                con.disconnect();
+            return false;
+        }
+    }
+
+    /*
+     * Encode a path parameter the way the web UI does (encodeURIComponent)
+     */
+    private static String encode(String s) throws IOException {
+        return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+    }
+
+}
@@ -0,0 +1,114 @@
+package LoadTesting;
+
+import Utilities.PathManager;
+import Utilities.SharedUtilities;
+import gr.uoc.csd.hy463.Topic;
+import gr.uoc.csd.hy463.TopicsReader;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/*
+ * Replays queries against a running Controller and reports throughput and latency percentiles.
+ * Options (all optional):
+ *   --url <http://localhost:4567>
+ *   --queries <topics | path of a query log, one "query[TAB type]" per line>
+ *   --mode <open | closed>        open: fixed request rate, closed: fixed number of clients
+ *   --rate <requests/sec>         open mode only
+ *   --concurrency <n>             clients (closed mode) or max connections (open mode)
+ *   --sweep <n1,n2,...>           run once for every rate (open) or concurrency (closed),
+ *                                 to produce a saturation curve
+ *   --warmup <sec> --duration <sec> --think <ms> --timeout <ms>
+ *   --out <csv file>
+ */
+public class LoadTestingMain {
+
+    public static void main(String[] args) throws Exception {
+
+        HashMap<String, String> opts = new HashMap<>();
+        opts.put("url", "http://localhost:4567");
+        opts.put("queries", "topics");
+        opts.put("mode", "open");
+        opts.put("rate", "10");
+        opts.put("concurrency", "8");
+        opts.put("warmup", "5");
+        opts.put("duration", "30");
+        opts.put("think", "0");
+        opts.put("timeout", "10000");
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            if(!args[i].startsWith("--") || !opts.containsKey(args[i].substring(2))
+                    && !args[i].equals("--sweep") && !args[i].equals("--out"))
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            opts.put(args[i].substring(2), args[i + 1]);
+        }
+
+        boolean isOpenLoop = opts.get("mode").equals("open");
+        ArrayList<MutablePair<String, String>> queries = loadQueries(opts.get("queries"));
+        LoadGenerator gen = new LoadGenerator(opts.get("url"), queries, Integer.parseInt(opts.get("timeout")));
+        int warmup = Integer.parseInt(opts.get("warmup"));
+        int duration = Integer.parseInt(opts.get("duration"));
+        int concurrency = Integer.parseInt(opts.get("concurrency"));
+
+        /* Without --sweep, run a single step using --rate or --concurrency */
+        String steps = opts.containsKey("sweep") ? opts.get("sweep")
+                : (isOpenLoop ? opts.get("rate") : opts.get("concurrency"));
+
+        System.out.println("Replaying " + queries.size() + " queries against " + opts.get("url")
+                + " (" + (isOpenLoop ? "open" : "closed") + "-loop)");
+        String header = (isOpenLoop ? "rate" : "clients")
+                + ",requests,errors,throughput,p50_ms,p95_ms,p99_ms,p999_ms,max_ms";
+        System.out.println(header);
+        StringBuilder csv = new StringBuilder(header).append('\n');
+
+        for(String step : steps.split(",")) {
+            LatencyRecorder rec;
+            if(isOpenLoop)
+                rec = gen.runOpenLoop(Double.parseDouble(step), concurrency, warmup, duration);
+            else
+                rec = gen.runClosedLoop(Integer.parseInt(step), warmup, duration, Integer.parseInt(opts.get("think")));
+
+            double[] p = rec.percentiles(0.5, 0.95, 0.99, 0.999, 1.0);
+            String row = String.format(Locale.ROOT, "%s,%d,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                    step, rec.getCount(), rec.getErrors(), rec.getCount() / (double) duration,
+                    p[0], p[1], p[2], p[3], p[4]);
+            System.out.println(row);
+            csv.append(row).append('\n');
+        }
+
+        if(opts.containsKey("out")) {
+            BufferedWriter out = new BufferedWriter(new FileWriter(opts.get("out")));
+            out.write(csv.toString());
+            out.close();
+        }
+    }
+
+    /*
+     * Load the queries to replay: descriptions and summaries of topics.xml,
+     * or the lines of a query log ("query" or "query<TAB>type")
+     */
+    private static ArrayList<MutablePair<String, String>> loadQueries(String source) throws Exception {
+        ArrayList<MutablePair<String, String>> ret = new ArrayList<>();
+        if(source.equals("topics")) {
+            ArrayList<Topic> topics = TopicsReader.readTopics(
+                    PathManager.getInstance().getEvalFilesPath() + "/topics.xml"
+            );
+            for(Topic topic : topics) {
+                ret.add(new MutablePair<>(topic.getDescription(), topic.getType().toString()));
+                ret.add(new MutablePair<>(topic.getSummary(), topic.getType().toString()));
+            }
+        } else {
+            for(String line : SharedUtilities.getInstance().parseWords(source)) {
+                if(line.trim().isEmpty())
+                    continue;
+                String[] parts = line.split("\t");
+                ret.add(new MutablePair<>(parts[0], parts.length > 1 ? parts[1] : "Type"));
+            }
+        }
+        return ret;
+    }
+
+}
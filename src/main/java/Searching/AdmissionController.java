@@ -0,0 +1,264 @@
+package Searching;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Admission control of the search service: at most admission.maxConcurrent queries run at a
+ * time and at most admission.queueSize wait for their turn, each for up to admission.queueTimeout
+ * ms. The cost of a query is estimated before it runs, as the postings of its terms (the sum of
+ * their df). An expensive query (cost >= admission.expensivePostings) runs at full cost only if
+ * one of the admission.maxExpensive expensive slots is free and no query is waiting. Otherwise it
+ * is degraded, searched within a budget of admission.degradedPostings postings (see SearchBudget),
+ * or rejected with 429 if there's no such budget. Queries that find the queue full or wait too long
+ * are rejected with 503. The counters are registered as an MBean (Hippocrates:type=Admission)
+ */
+public class AdmissionController implements AdmissionControllerMBean {
+
+    // Fields
+
+    private static final String OBJECT_NAME = "Hippocrates:type=Admission";
+
+    /*
+     * Queue times kept for the percentiles
+     */
+    private static final int RECENT_NUM = 1024;
+
+    private final boolean enabled;
+    private final int queueSize;
+    private final long queueTimeoutMillis;
+    private final long expensivePostings;
+    private final long degradedPostings;
+
+    /*
+     * Running queries (fair, so that waiting queries are admitted in arrival order)
+     * and expensive queries running at full cost
+     */
+    private final Semaphore slots, expensiveSlots;
+    private final int maxConcurrent, maxExpensive;
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAdder admitted = new LongAdder(), degraded = new LongAdder(),
+            rejectedQueueFull = new LongAdder(), rejectedTimeout = new LongAdder(),
+            rejectedExpensive = new LongAdder();
+
+    private final AtomicLong totalQueueNanos = new AtomicLong(), maxQueueNanos = new AtomicLong();
+
+    /*
+     * Queue times of the latest admitted queries (a ring buffer)
+     */
+    private final long[] recentQueueNanos = new long[RECENT_NUM];
+    private int recentNext, recentCount;
+
+    // Constructor
+
+    public AdmissionController(SearchConfig config) {
+        enabled = config.getBoolean("admission.enabled", true);
+        int processors = Runtime.getRuntime().availableProcessors();
+        maxConcurrent = config.getInt("admission.maxConcurrent", 0) > 0 ? config.getInt("admission.maxConcurrent", 0)
+                : processors;
+        maxExpensive = config.getInt("admission.maxExpensive", 0) > 0 ? config.getInt("admission.maxExpensive", 0)
+                : Math.max(1, maxConcurrent / 2);
+        queueSize = Math.max(config.getInt("admission.queueSize", 64), 0);
+        queueTimeoutMillis = config.getInt("admission.queueTimeout", 500);
+        expensivePostings = config.getInt("admission.expensivePostings", 500000);
+        degradedPostings = config.getInt("admission.degradedPostings", 100000);
+        slots = new Semaphore(maxConcurrent, true);
+        expensiveSlots = new Semaphore(maxExpensive);
+    }
+
+    // Methods
+
+    /*
+     * The result of admit: the query may run (status 0, perhaps degraded) or was
+     * rejected with the given HTTP status. An admitted query must be released
+     */
+    public static class Permit {
+
+        private final int status;
+        private final boolean slot, expensiveSlot, degraded;
+        private final long queueNanos;
+
+        private Permit(int status, boolean slot, boolean expensiveSlot, boolean degraded, long queueNanos) {
+            this.status = status;
+            this.slot = slot;
+            this.expensiveSlot = expensiveSlot;
+            this.degraded = degraded;
+            this.queueNanos = queueNanos;
+        }
+
+        public boolean isAdmitted() { return status == 0; }
+
+        /*
+         * 429 (an expensive query while expensive queries can't run) or 503 (overloaded)
+         */
+        public int getStatus() { return status; }
+
+        /*
+         * Whether the query must be searched within the degraded budget (see budget)
+         */
+        public boolean isDegraded() { return degraded; }
+
+        public double getQueueMillis() { return queueNanos / 1e6; }
+    }
+
+    /*
+     * Register the MBean
+     */
+    public void start() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Admission stats aren't available through JMX: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Admit a query of the given cost (postings), waiting in the queue if every slot is taken
+     */
+    public Permit admit(long cost) throws InterruptedException {
+        if (!enabled)
+            return new Permit(0, false, false, false, 0);
+
+        /* An expensive query gets an expensive slot only while nothing waits, else it's degraded or rejected */
+        boolean expensive = expensivePostings > 0 && cost >= expensivePostings;
+        boolean expensiveSlot = expensive && queued.get() == 0 && slots.availablePermits() > 0
+                && expensiveSlots.tryAcquire();
+        if (expensive && !expensiveSlot && degradedPostings <= 0) {
+            rejectedExpensive.increment();
+            return new Permit(429, false, false, false, 0);
+        }
+
+        long start = System.nanoTime();
+        boolean acquired = slots.tryAcquire(0, TimeUnit.MILLISECONDS); // unlike tryAcquire(), doesn't jump the queue
+        if (!acquired) {
+            if (queued.incrementAndGet() > queueSize) {
+                queued.decrementAndGet();
+                rejectedQueueFull.increment();
+                return reject(expensiveSlot, System.nanoTime() - start);
+            }
+            try {
+                acquired = slots.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                if (expensiveSlot)
+                    expensiveSlots.release();
+                throw e;
+            } finally {
+                queued.decrementAndGet();
+            }
+            if (!acquired) {
+                rejectedTimeout.increment();
+                return reject(expensiveSlot, System.nanoTime() - start);
+            }
+        }
+        long queueNanos = System.nanoTime() - start;
+
+        admitted.increment();
+        if (expensive && !expensiveSlot)
+            degraded.increment();
+        totalQueueNanos.addAndGet(queueNanos);
+        maxQueueNanos.accumulateAndGet(queueNanos, Math::max);
+        synchronized (recentQueueNanos) {
+            recentQueueNanos[recentNext] = queueNanos;
+            recentNext = (recentNext + 1) % RECENT_NUM;
+            recentCount = Math.min(recentCount + 1, RECENT_NUM);
+        }
+        return new Permit(0, true, expensiveSlot, expensive && !expensiveSlot, queueNanos);
+    }
+
+    /*
+     * A rejection for an overloaded service, giving back the expensive slot (if taken)
+     */
+    private Permit reject(boolean expensiveSlot, long queueNanos) {
+        if (expensiveSlot)
+            expensiveSlots.release();
+        return new Permit(503, false, false, false, queueNanos);
+    }
+
+    /*
+     * The query of an admitted permit is done
+     */
+    public void release(Permit permit) {
+        if (permit.slot)
+            slots.release();
+        if (permit.expensiveSlot)
+            expensiveSlots.release();
+    }
+
+    /*
+     * The budget of an admitted query that asks for millis ms and postings postings (no limit if <= 0):
+     * a degraded query gets at most admission.degradedPostings postings. null if there's no limit
+     */
+    public SearchBudget budget(Permit permit, long millis, long postings) {
+        if (permit.isDegraded())
+            postings = postings > 0 ? Math.min(postings, degradedPostings) : degradedPostings;
+        return millis > 0 || postings > 0 ? new SearchBudget(millis, postings) : null;
+    }
+
+    @Override
+    public int getRunning() { return maxConcurrent - slots.availablePermits(); }
+
+    @Override
+    public int getQueued() { return queued.get(); }
+
+    @Override
+    public int getRunningExpensive() { return maxExpensive - expensiveSlots.availablePermits(); }
+
+    @Override
+    public long getAdmitted() { return admitted.sum(); }
+
+    @Override
+    public long getDegraded() { return degraded.sum(); }
+
+    @Override
+    public long getRejectedQueueFull() { return rejectedQueueFull.sum(); }
+
+    @Override
+    public long getRejectedTimeout() { return rejectedTimeout.sum(); }
+
+    @Override
+    public long getRejectedExpensive() { return rejectedExpensive.sum(); }
+
+    @Override
+    public double getMeanQueueMillis() {
+        long n = admitted.sum();
+        return n == 0 ? 0 : totalQueueNanos.get() / 1e6 / n;
+    }
+
+    @Override
+    public double getP50QueueMillis() { return recentQueueMillis(0.5); }
+
+    @Override
+    public double getP99QueueMillis() { return recentQueueMillis(0.99); }
+
+    @Override
+    public double getMaxQueueMillis() { return maxQueueNanos.get() / 1e6; }
+
+    /*
+     * The given quantile of the queue times of the latest admitted queries (nearest rank)
+     */
+    private double recentQueueMillis(double quantile) {
+        long[] recent;
+        synchronized (recentQueueNanos) {
+            recent = Arrays.copyOf(recentQueueNanos, recentCount);
+        }
+        if (recent.length == 0)
+            return 0;
+        Arrays.sort(recent);
+        return recent[Math.max((int) Math.ceil(quantile * recent.length) - 1, 0)] / 1e6;
+    }
+
+}
@@ -0,0 +1,34 @@
+package Searching;
+
+/*
+ * The load of the search service and the requests it shed, as seen through JMX
+ * (e.g. with jconsole, under Hippocrates:type=Admission). Counts are since the start
+ * of the service, queue time percentiles are over the latest admitted queries
+ */
+public interface AdmissionControllerMBean {
+
+    int getRunning();
+
+    int getQueued();
+
+    int getRunningExpensive();
+
+    long getAdmitted();
+
+    long getDegraded();
+
+    long getRejectedQueueFull();
+
+    long getRejectedTimeout();
+
+    long getRejectedExpensive();
+
+    double getMeanQueueMillis();
+
+    double getP50QueueMillis();
+
+    double getP99QueueMillis();
+
+    double getMaxQueueMillis();
+
+}
@@ -0,0 +1,81 @@
+package Searching;
+
+import Utilities.NormCodec;
+
+import java.util.List;
+
+/*
+ * BM25F: the tf of every field is weighted with the field's weight and normalized
+ * with the field's length (relative to the average length of the field), the sum
+ * of them is saturated like in BM25 and multiplied by the term's idf
+ */
+class BM25FSimilarity implements Similarity {
+
+    // Fields
+
+    private final double k1;
+    private final DocumentNorms norms;
+    private final CollectionStats stats;
+
+    /*
+     * fieldFactors[f][code]: weight of field f divided by the length normalization
+     * of a field f with length code code, so that a posting needs only table lookups
+     */
+    private final double[][] fieldFactors;
+
+    // Constructor
+
+    BM25FSimilarity(SearchConfig config, DocumentNorms norms, CollectionStats stats) {
+        this.k1 = config.getK1();
+        this.norms = norms;
+        this.stats = stats;
+        double[] fieldWeights = config.getFieldWeights();
+        double[] fieldB = config.getFieldB();
+        fieldFactors = new double[norms.getFieldsNum()][256];
+        for (int f = 0; f < norms.getFieldsNum(); f++) {
+            double avg = stats.getAvgFieldLength(f);
+            for (int code = 0; code < 256; code++) {
+                double lenNorm = 1.0;
+                if (avg > 0)
+                    lenNorm = 1.0 - fieldB[f] + fieldB[f] * NormCodec.decodeLength((byte) code) / avg;
+                fieldFactors[f][code] = fieldWeights[f] / lenNorm;
+            }
+        }
+    }
+
+    // Methods
+
+    @Override
+    public Scorer scorer(List<TermInfo> terms, double[] queryWeights) {
+
+        double[] termWeights = new double[terms.size()]; // query weight * idf
+        long docsNum = stats.getDocsNum();
+        for (int t = 0; t < terms.size(); t++) {
+            long df = terms.get(t).getDf();
+            termWeights[t] = queryWeights[t] * Math.log(1.0 + (docsNum - df + 0.5) / (df + 0.5));
+        }
+
+        return new Scorer() {
+            @Override
+            public double score(int term, int doc, int[] fieldTFs) {
+                double tf = 0.0;
+                for (int f = 0; f < fieldTFs.length; f++) {
+                    if (fieldTFs[f] != 0)
+                        tf += fieldTFs[f] * fieldFactors[f][norms.getFieldLengthCode(doc, f) & 0xFF];
+                }
+                return termWeights[term] * tf / (k1 + tf);
+            }
+
+            @Override
+            public double weight(int term) {
+                return termWeights[term];
+            }
+
+            @Override
+            public double finish(int doc, double score) {
+                return score;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,77 @@
+package Searching;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Statistics of the whole collection that ranking models use (documents number
+ * and field lengths). When the index is sharded, they are the sums of the
+ * statistics of every shard, so that every shard scores its documents
+ * like an index of the whole collection would
+ */
+public class CollectionStats {
+
+    // Fields
+
+    private final long docsNum;
+
+    /*
+     * Total length of every field in the collection
+     */
+    private final long[] totalFieldLens;
+
+    // Constructor
+
+    public CollectionStats(long docsNum, long[] totalFieldLens) {
+        this.docsNum = docsNum;
+        this.totalFieldLens = totalFieldLens;
+    }
+
+    // Methods
+
+    /*
+     * Statistics of the collection made of the documents of every shard
+     */
+    public static CollectionStats of(List<DocumentNorms> shards) {
+        long docsNum = 0;
+        long[] totalFieldLens = new long[shards.get(0).getFieldsNum()];
+        for (DocumentNorms norms : shards) {
+            docsNum += norms.getDocsNum();
+            for (int f = 0; f < totalFieldLens.length; f++)
+                totalFieldLens[f] += norms.getTotalFieldLength(f);
+        }
+        return new CollectionStats(docsNum, totalFieldLens);
+    }
+
+    public long getDocsNum() { return docsNum; }
+
+    public int getFieldsNum() { return totalFieldLens.length; }
+
+    public long getTotalFieldLength(int field) { return totalFieldLens[field]; }
+
+    public double getAvgFieldLength(int field) { return totalFieldLens[field] / (double) Math.max(docsNum, 1); }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CollectionStats))
+            return false;
+        CollectionStats other = (CollectionStats) o;
+        return docsNum == other.docsNum && Arrays.equals(totalFieldLens, other.totalFieldLens);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(docsNum) + Arrays.hashCode(totalFieldLens);
+    }
+
+    /*
+     * Total number of indexed tokens in the collection
+     */
+    public long getTotalLength() {
+        long total = 0;
+        for (long len : totalFieldLens)
+            total += len;
+        return total;
+    }
+
+}
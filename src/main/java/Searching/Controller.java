@@ -1,24 +1,101 @@
 package Searching;
 
+import Utilities.ArchiveReader;
+import Utilities.Facet;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 import static spark.Spark.*;
 
+/*
+ * The search service. It runs in one of these roles:
+ *   single:      searches the local index (default), which documents can be added to (see DocumentIngester)
+ *   shard:       serves the local index (a part of the collection) to a coordinator
+ *   coordinator: searches the shard servers given by --shards, has no index of its own
+ * Options (all optional):
+ *   --role <single | shard | coordinator>
+ *   --port <port>                  (4567 by default)
+ *   --shards <url1,url2,...>       base urls of the shard servers, e.g. http://localhost:4601
+ *   --timeout <ms>                 how long the coordinator waits for a shard (distributed.timeout)
+ */
 public class Controller {
 
-    public static Searcher s;
+    public static SearcherManager searchers;
 
-    static {
-        try {
-            s = new Searcher();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public static DistributedSearcher distributed;
+
+    public static AdmissionController admission;
+
+    /*
+     * Near-real-time ingestion of documents (single role only, null otherwise)
+     */
+    public static DocumentIngester ingester;
+
+    /*
+     * Number of the best results that get a title and snippet
+     */
+    private static int snippetsNum;
+
+    /*
+     * Number of the most frequent values of every facet in answers
+     */
+    private static int facetValuesNum;
+
+    /*
+     * Number of suggestions of /api/suggest (unless the request gives it), and the most a request gets
+     */
+    private static int suggestionsNum;
+    private static final int MAX_SUGGESTIONS = 100;
+
+    public static void main(String[] args) throws IOException {
+
+        HashMap<String, String> opts = new HashMap<>();
+        SearchConfig config = new SearchConfig();
+        opts.put("role", "single");
+        opts.put("port", "4567");
+        opts.put("shards", "");
+        opts.put("timeout", String.valueOf(config.getInt("distributed.timeout", 500)));
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            if(!args[i].startsWith("--") || !opts.containsKey(args[i].substring(2)))
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            opts.put(args[i].substring(2), args[i + 1]);
         }
-    }
+        String role = opts.get("role");
+        snippetsNum = config.getInt("snippets.count", 10);
+        facetValuesNum = config.getInt("facets.count", 10);
+        suggestionsNum = config.getInt("suggest.count", 8);
+        port(Integer.parseInt(opts.get("port")));
+        admission = new AdmissionController(config);
+        admission.start();
 
-    public static void main(String[] args) {
+        if (role.equals("coordinator")) {
+            distributed = new DistributedSearcher(
+                    Arrays.asList(opts.get("shards").split(",")), Integer.parseInt(opts.get("timeout"))
+            );
+        } else {
+            searchers = new SearcherManager();
+            long reloadInterval = config.getInt("reload.interval", 0);
+            if (reloadInterval > 0)
+                searchers.startWatching(reloadInterval); // pick up new index generations on its own
+            if (role.equals("shard"))
+                new ShardServer(searchers, admission).start();
+            else if (config.getBoolean("ingest.enabled", false)) {
+                ingester = new DocumentIngester(config, searchers);
+                ingester.start(config.getInt("ingest.refreshMs", 500), config.getInt("ingest.flushInterval", 300));
+            }
+        }
+        int maxResults = config.getInt("distributed.maxResults", 1000);
+        long budgetMillis = config.getInt("budget.ms", 0), budgetPostings = config.getInt("budget.postings", 0);
 
         /*
          * Put files in 'src/main/resources/public'
@@ -31,17 +108,343 @@ public class Controller {
         path("/api", () -> {
 
             /*
-             * Query search get request
+             * Query search get request. Results can be filtered by facet values given as
+             * query parameters, e.g. ?journal=<journal>&categories=<category1>&categories=<category2>
+             * (one of the values of every given facet). ?budget_ms=<ms>&budget_postings=<postings>
+             * (budget.ms and budget.postings of the config by default, 0 for no limit) limit the
+             * work of the search (see SearchBudget), and the answer tells whether it's exact.
+             * The search goes through admission control (see AdmissionController): it may wait in
+             * the queue (queue_time), be degraded to a smaller budget or be rejected with 429/503.
+             * A coordinator doesn't know the cost of a query, its shards check it
              */
             get("/queries/:query/type/:type", (req, res) -> {
                 System.out.println(req.params(":query"));
                 System.out.println(req.params(":type"));
-                JSONObject answer = s.search(req.params(":query"),req.params(":type"));
+                long startTime = System.nanoTime();
+                FacetFilter filter = new FacetFilter();
+                for (Facet facet : Facet.values()) {
+                    String[] values = req.queryParamsValues(facet.getName());
+                    if (values != null) {
+                        for (String value : values)
+                            filter.add(facet, value);
+                    }
+                }
+                long millis = nonNegative(req, "budget_ms", budgetMillis);
+                if (millis < 0)
+                    return badParameter(res, "budget_ms");
+                long postings = nonNegative(req, "budget_postings", budgetPostings);
+                if (postings < 0)
+                    return badParameter(res, "budget_postings");
+                JSONObject answer;
+                AdmissionController.Permit permit;
+                if (distributed != null) {
+                    permit = admission.admit(0);
+                    if (!permit.isAdmitted())
+                        return reject(res, permit);
+                    DistributedSearcher.Answer a;
+                    try {
+                        a = distributed.search(req.params(":query"), req.params(":type"), maxResults, filter, millis,
+                                postings);
+                    } finally {
+                        admission.release(permit);
+                    }
+                    answer = makeAnswer(a.getResults(), null, (System.nanoTime() - startTime) / 1000000.0);
+                    answer.put("facets", ShardServer.countsToJSON(a.getFacetCounts(), facetValuesNum));
+                    answer.put("partial", a.isPartial()); // some shards didn't answer in time
+                    answer.put("failed_shards", a.getFailedShards());
+                    answer.put("exact", a.isExact());
+                } else {
+                    searchers.recordQuery(req.params(":query"), req.params(":type"));
+                    Searcher s = searchers.acquire(); // snippets must come from the index of the results
+                    try {
+                        permit = admission.admit(s.cost(req.params(":query"), req.params(":type")));
+                        if (!permit.isAdmitted())
+                            return reject(res, permit);
+                        try {
+                            FacetCounts counts = new FacetCounts();
+                            SearchBudget budget = admission.budget(permit, millis, postings);
+                            List<SearchResult> results = s.search(req.params(":query"), req.params(":type"), 0, filter,
+                                    counts, budget);
+                            List<Snippet> snippets = s.snippets(
+                                    results.subList(0, Math.min(snippetsNum, results.size())), req.params(":query"),
+                                    req.params(":type")
+                            );
+                            answer = makeAnswer(results, snippets, (System.nanoTime() - startTime) / 1000000.0);
+                            answer.put("facets", ShardServer.countsToJSON(counts, facetValuesNum));
+                            answer.put("exact", budget == null || budget.isExact()); // every posting was scored
+                        } finally {
+                            admission.release(permit);
+                        }
+                    } finally {
+                        searchers.release(s);
+                    }
+                }
+                answer.put("degraded", permit.isDegraded()); // searched within a smaller budget
+                answer.put("queue_time", BigDecimal.valueOf(permit.getQueueMillis())
+                        .setScale(3, RoundingMode.HALF_UP).doubleValue());
                 System.out.println(answer);
                 return answer;
             });
 
+            /*
+             * Completions of a query that is being typed: /suggest?q=<query>&n=<number of suggestions>
+             * -> { suggestions: [{ text: completed query, word, stem, df }, ...], time }
+             * (at most MAX_SUGGESTIONS of them)
+             */
+            get("/suggest", (req, res) -> {
+                long startTime = System.nanoTime();
+                String query = req.queryParams("q") == null ? "" : req.queryParams("q");
+                long number = nonNegative(req, "n", suggestionsNum);
+                if (number < 0)
+                    return badParameter(res, "n");
+                int n = (int) Math.min(number, MAX_SUGGESTIONS);
+                List<Suggestion> suggestions;
+                if (distributed != null) {
+                    suggestions = distributed.suggest(query, n);
+                } else {
+                    Searcher s = searchers.acquire();
+                    try {
+                        suggestions = s.suggest(query, n);
+                    } finally {
+                        searchers.release(s);
+                    }
+                }
+                JSONArray suggestionsJSON = new JSONArray();
+                for (Suggestion suggestion : suggestions) {
+                    JSONObject suggestionJSON = new JSONObject();
+                    suggestionJSON.put("text", suggestion.getText());
+                    suggestionJSON.put("word", suggestion.getWord());
+                    suggestionJSON.put("stem", suggestion.getStem());
+                    suggestionJSON.put("df", suggestion.getDf());
+                    suggestionsJSON.put(suggestionJSON);
+                }
+                JSONObject answer = new JSONObject();
+                answer.put("suggestions", suggestionsJSON);
+                answer.put("time", BigDecimal.valueOf((System.nanoTime() - startTime) / 1000000.0)
+                        .setScale(3, RoundingMode.HALF_UP).doubleValue());
+                res.type("application/json");
+                return answer;
+            });
+
+            /*
+             * The counters of admission control (see AdmissionControllerMBean), queue times in ms
+             */
+            get("/admission", (req, res) -> {
+                JSONObject answer = new JSONObject();
+                answer.put("running", admission.getRunning());
+                answer.put("queued", admission.getQueued());
+                answer.put("running_expensive", admission.getRunningExpensive());
+                answer.put("admitted", admission.getAdmitted());
+                answer.put("degraded", admission.getDegraded());
+                answer.put("rejected_queue_full", admission.getRejectedQueueFull());
+                answer.put("rejected_timeout", admission.getRejectedTimeout());
+                answer.put("rejected_expensive", admission.getRejectedExpensive());
+                answer.put("queue_time_mean", admission.getMeanQueueMillis());
+                answer.put("queue_time_p50", admission.getP50QueueMillis());
+                answer.put("queue_time_p99", admission.getP99QueueMillis());
+                answer.put("queue_time_max", admission.getMaxQueueMillis());
+                res.type("application/json");
+                return answer;
+            });
+
+            /*
+             * Switch to the latest index generation (if it isn't in use already),
+             * without stopping the service
+             */
+            post("/reload", (req, res) -> {
+                if (searchers == null) {
+                    res.status(400);
+                    return new JSONObject().put("error", "a coordinator has no index, reload its shards");
+                }
+                long startTime = System.nanoTime();
+                boolean reloaded = searchers.maybeReload();
+                long endTime = System.nanoTime();
+                JSONObject answer = new JSONObject();
+                answer.put("reloaded", reloaded);
+                answer.put("index", searchers.getIndexDir());
+                answer.put("time", BigDecimal.valueOf((endTime - startTime) / 1000000.0)
+                        .setScale(3, RoundingMode.HALF_UP).doubleValue());
+                return answer;
+            });
+
+            /*
+             * The NXML file of a document of the index, by its path, for documents that aren't
+             * served as static files (e.g. the ones indexed inside an archive, see ArchiveReader).
+             * A file inside a tar.gz comes from the index's copy (see DocumentStore.getSource)
+             */
+            get("/document", (req, res) -> {
+                String path = req.queryParams("path");
+                if (searchers == null || path == null) {
+                    res.status(400);
+                    res.type("application/json");
+                    return new JSONObject().put("error", searchers == null ? "a coordinator has no documents"
+                            : "no path given");
+                }
+                byte[] content = null;
+                Searcher s = searchers.acquire();
+                try {
+                    if (!s.hasDocument(path)) { // only the documents of the index, not any file
+                        res.status(404);
+                        res.type("application/json");
+                        return new JSONObject().put("error", "no such document");
+                    }
+                    if (!ArchiveReader.isReadable(path)) {
+                        content = s.getSource(path);
+                        if (content == null) { // an index built before the store kept the files
+                            res.status(404);
+                            res.type("application/json");
+                            return new JSONObject().put("error", "the index has no copy of the document, rebuild it");
+                        }
+                    }
+                } finally {
+                    searchers.release(s);
+                }
+                res.type("application/xml");
+                return new String(content != null ? content : ArchiveReader.read(path), StandardCharsets.UTF_8);
+            });
+
+            /*
+             * Add a document (the body is its NXML file). It's searchable within ingest.refreshMs ms,
+             * and becomes part of the index at the next flush (see DocumentIngester)
+             */
+            post("/documents", (req, res) -> {
+                res.type("application/json");
+                if (ingester == null) {
+                    res.status(400);
+                    return new JSONObject().put("error", "ingestion is off (ingest.enabled) or not in this role");
+                }
+                long startTime = System.nanoTime();
+                DocumentIngester.Receipt receipt = ingester.ingest(req.body());
+                long endTime = System.nanoTime();
+                res.status(receipt.getStatus());
+                JSONObject answer = new JSONObject();
+                if (!receipt.isAdded())
+                    answer.put("error", receipt.getError());
+                if (receipt.getPmcid() != null)
+                    answer.put("pmcid", receipt.getPmcid());
+                if (receipt.getPath() != null)
+                    answer.put("path", receipt.getPath());
+                answer.put("pending", ingester.getPendingDocs());
+                answer.put("time", BigDecimal.valueOf((endTime - startTime) / 1000000.0)
+                        .setScale(3, RoundingMode.HALF_UP).doubleValue());
+                return answer;
+            });
+
+            /*
+             * The counters of ingestion
+             */
+            get("/ingest", (req, res) -> {
+                res.type("application/json");
+                if (ingester == null) {
+                    res.status(400);
+                    return new JSONObject().put("error", "ingestion is off (ingest.enabled) or not in this role");
+                }
+                JSONObject answer = new JSONObject();
+                answer.put("ingested", ingester.getIngested());
+                answer.put("rejected", ingester.getRejected());
+                answer.put("pending", ingester.getPendingDocs());
+                answer.put("segments", ingester.getSegments());
+                answer.put("flushes", ingester.getFlushes());
+                answer.put("flushed_docs", ingester.getFlushedDocs());
+                answer.put("failed_flushes", ingester.getFailedFlushes());
+                answer.put("last_flush", ingester.getLastFlushMillis());
+                answer.put("index", searchers.getIndexDir());
+                return answer;
+            });
+
+            /*
+             * Add the ingested documents to the index now, as a new index generation
+             */
+            post("/ingest/flush", (req, res) -> {
+                res.type("application/json");
+                if (ingester == null) {
+                    res.status(400);
+                    return new JSONObject().put("error", "ingestion is off (ingest.enabled) or not in this role");
+                }
+                long startTime = System.nanoTime();
+                ingester.flush();
+                long endTime = System.nanoTime();
+                JSONObject answer = new JSONObject();
+                answer.put("index", searchers.getIndexDir());
+                answer.put("pending", ingester.getPendingDocs());
+                answer.put("failed_flushes", ingester.getFailedFlushes());
+                answer.put("time", BigDecimal.valueOf((endTime - startTime) / 1000000.0)
+                        .setScale(3, RoundingMode.HALF_UP).doubleValue());
+                return answer;
+            });
+
         });
 
     }
-}
\ No newline at end of file
+
+    /*
+     * The answer to a query that admission control rejected
+     */
+    static JSONObject reject(spark.Response res, AdmissionController.Permit permit) {
+        res.status(permit.getStatus());
+        res.header("Retry-After", "1");
+        return new JSONObject().put("error", permit.getStatus() == 429 ? "too many expensive queries" : "overloaded");
+    }
+
+    /*
+     * The value of a query parameter that must be a number from 0 on, def if it isn't given,
+     * or -1 if it isn't such a number
+     */
+    static long nonNegative(spark.Request req, String name, long def) {
+        String value = req.queryParams(name);
+        if (value == null)
+            return def;
+        try {
+            long ret = Long.parseLong(value.trim());
+            return ret >= 0 ? ret : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static JSONObject badParameter(spark.Response res, String name) {
+        res.status(400);
+        res.type("application/json");
+        return new JSONObject().put("error", name + " must be a number from 0 on");
+    }
+
+    /*
+     * Put the results (best first) in a JSON object like this:
+     * { doc0: worst result, ..., doc<n-1>: best result, time: search time (ms), results: n }
+     * The best results get the title and snippet (HTML) of snippets (if given)
+     */
+    private static JSONObject makeAnswer(List<SearchResult> results, List<Snippet> snippets, double searchTime) {
+        JSONObject answer = new JSONObject();
+        int counter = 0;
+        for (int i = results.size() - 1; i >= 0; i--) {
+            SearchResult r = results.get(i);
+            JSONObject docObj = new JSONObject();
+            docObj.put("name", r.getName());
+            docObj.put("full_path", r.getPath());
+            int collection = r.getPath().lastIndexOf("/MedicalCollection"); // served as a static file
+            if (ArchiveReader.split(r.getPath()) != null)
+                docObj.put("short_path", "/api/document?path=" + urlEncode(r.getPath()));
+            else
+                docObj.put("short_path", collection < 0 ? r.getPath() : r.getPath().substring(collection));
+            docObj.put("score", r.getScore());
+            if (snippets != null && i < snippets.size()) {
+                docObj.put("title", snippets.get(i).getTitle());
+                docObj.put("snippet", snippets.get(i).getText());
+            }
+            answer.put("doc" + counter++, docObj);
+        }
+
+        searchTime = BigDecimal.valueOf(searchTime).setScale(3, RoundingMode.HALF_UP).doubleValue();
+        answer.put("time", searchTime);
+        answer.put("results", results.size());
+        return answer;
+    }
+
+    private static String urlEncode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // every JVM has UTF-8
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package Searching;
+
+import java.util.List;
+
+/*
+ * Vector space model: cosine similarity of the query and document tf-idf vectors.
+ * The tf of a term in a document is the sum of its tf in every field, weighted with
+ * the configured field weights and normalized with the document's max tf
+ */
+class CosineSimilarity implements Similarity {
+
+    // Fields
+
+    private final double[] fieldWeights;
+    private final DocumentNorms norms;
+    private final CollectionStats stats;
+
+    // Constructor
+
+    CosineSimilarity(SearchConfig config, DocumentNorms norms, CollectionStats stats) {
+        this.fieldWeights = config.getFieldWeights();
+        this.norms = norms;
+        this.stats = stats;
+    }
+
+    // Methods
+
+    @Override
+    public Scorer scorer(List<TermInfo> terms, double[] queryWeights) {
+
+        /* Put weights (idf * query weight) in the query vector and compute its length */
+        double maxTF = 0.0;
+        for (double tf : queryWeights)
+            maxTF = Math.max(maxTF, tf);
+        double[] termWeights = new double[terms.size()];
+        double queryVecLen = 0.0;
+        for (int t = 0; t < terms.size(); t++) {
+            double idf = Math.log(stats.getDocsNum() / (double) terms.get(t).getDf()) / Math.log(2.0);
+            double queryWeight = queryWeights[t] / maxTF * idf;
+            queryVecLen += queryWeight * queryWeight;
+            termWeights[t] = queryWeight * idf;
+        }
+        final double queryLen = Math.sqrt(queryVecLen);
+
+        return new Scorer() {
+            @Override
+            public double score(int term, int doc, int[] fieldTFs) {
+                double tf = 0.0;
+                for (int f = 0; f < fieldTFs.length; f++)
+                    tf += fieldWeights[f] * fieldTFs[f];
+                return termWeights[term] * tf / norms.getMaxTF(doc);
+            }
+
+            @Override
+            public double weight(int term) {
+                return termWeights[term];
+            }
+
+            @Override
+            public double finish(int doc, double score) {
+                double docLen = norms.getVecLen(doc);
+                return queryLen == 0 || docLen == 0 ? 0.0 : score / (docLen * queryLen);
+            }
+        };
+    }
+
+}
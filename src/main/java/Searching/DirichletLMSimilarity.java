@@ -0,0 +1,81 @@
+package Searching;
+
+import Utilities.NormCodec;
+
+import java.util.List;
+
+/*
+ * Query likelihood language model with Dirichlet smoothing:
+ * score(q, d) = sum over query terms of qtf * log((tf + mu * p(t|C)) / (|d| + mu)),
+ * where p(t|C) = cf / (tokens in the collection). Term frequencies and document
+ * lengths are weighted with the field weights. Terms that don't appear in a document
+ * contribute qtf * log(mu * p(t|C) / (|d| + mu)), so that only the matching terms
+ * need to be visited, the score is rewritten (keeping the same ranking) as
+ * sum over matching terms of qtf * log(1 + tf / (mu * p(t|C))) + |q| * log(mu / (|d| + mu))
+ */
+class DirichletLMSimilarity implements Similarity {
+
+    // Fields
+
+    private final double mu;
+    private final double[] fieldWeights;
+    private final DocumentNorms norms;
+    private final long totalLength;
+
+    /*
+     * weightedLens[f][code]: weight of field f multiplied by the length of a field f with length code code
+     */
+    private final double[][] weightedLens;
+
+    // Constructor
+
+    DirichletLMSimilarity(SearchConfig config, DocumentNorms norms, CollectionStats stats) {
+        this.mu = config.getDouble("lm.mu", 2000.0);
+        this.fieldWeights = config.getFieldWeights();
+        this.norms = norms;
+        this.totalLength = Math.max(stats.getTotalLength(), 1);
+        weightedLens = new double[norms.getFieldsNum()][256];
+        for (int f = 0; f < norms.getFieldsNum(); f++) {
+            for (int code = 0; code < 256; code++)
+                weightedLens[f][code] = fieldWeights[f] * NormCodec.decodeLength((byte) code);
+        }
+    }
+
+    // Methods
+
+    @Override
+    public Scorer scorer(List<TermInfo> terms, double[] queryWeights) {
+
+        double[] smoothing = new double[terms.size()]; // mu * p(t|C)
+        double queryLen = 0.0;
+        for (int t = 0; t < terms.size(); t++) {
+            smoothing[t] = mu * Math.max(terms.get(t).getCf(), 1) / (double) totalLength;
+            queryLen += queryWeights[t];
+        }
+        final double qLen = queryLen;
+
+        return new Scorer() {
+            @Override
+            public double score(int term, int doc, int[] fieldTFs) {
+                double tf = 0.0;
+                for (int f = 0; f < fieldTFs.length; f++)
+                    tf += fieldWeights[f] * fieldTFs[f];
+                return queryWeights[term] * Math.log(1.0 + tf / smoothing[term]);
+            }
+
+            @Override
+            public double weight(int term) {
+                return queryWeights[term] * Math.log(1.0 + 1.0 / smoothing[term]);
+            }
+
+            @Override
+            public double finish(int doc, double score) {
+                double docLen = 0.0;
+                for (int f = 0; f < weightedLens.length; f++)
+                    docLen += weightedLens[f][norms.getFieldLengthCode(doc, f) & 0xFF];
+                return score + qLen * Math.log(mu / (docLen + mu));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,263 @@
+package Searching;
+
+import Utilities.IndexGenerations;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Searches a collection that is split over shard servers (see ShardServer), running on
+ * other nodes. Every query takes two rounds: the statistics of the query terms are
+ * gathered from every shard and summed, then every shard scores its documents with
+ * them and returns its k best, which are merged. A shard that doesn't answer in time
+ * (or fails) is left out, and the answer is marked as partial
+ */
+public class DistributedSearcher {
+
+    // Fields
+
+    /*
+     * Base urls of the shard servers (e.g. http://node1:4601)
+     */
+    private final List<String> shardUrls;
+
+    /*
+     * How long to wait for the shards in every round (ms)
+     */
+    private final int timeout;
+
+    private final QueryBuilder queryBuilder;
+
+    /*
+     * Query suggestions of the collection (null if there are none on this node)
+     */
+    private final SuggestIndex suggestions;
+
+    /*
+     * Whether near-duplicates of different shards are collapsed into one result
+     */
+    private final boolean collapse;
+
+    private final ExecutorService pool;
+
+    // Constructor
+
+    public DistributedSearcher(List<String> shardUrls, int timeout) throws IOException {
+        this.shardUrls = shardUrls;
+        this.timeout = timeout;
+        SearchConfig config = new SearchConfig();
+        queryBuilder = new QueryBuilder(config, IndexGenerations.currentDir() + "/SynonymsFile.txt");
+        collapse = config.getBoolean("collapse.enabled", true);
+        File suggestFile = new File(IndexGenerations.currentDir() + "/SuggestFile.txt");
+        suggestions = suggestFile.exists() ? new SuggestIndex(suggestFile.getPath()) : null;
+        pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-client");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Methods
+
+    /*
+     * The answer of a distributed search: the k best documents (best first),
+     * the facet counts of the matching documents and the shards that didn't take part in it
+     */
+    public static class Answer {
+
+        private final List<SearchResult> results;
+        private final FacetCounts facetCounts;
+        private final List<String> failedShards;
+        private final boolean exact;
+
+        Answer(List<SearchResult> results, FacetCounts facetCounts, List<String> failedShards, boolean exact) {
+            this.results = results;
+            this.facetCounts = facetCounts;
+            this.failedShards = failedShards;
+            this.exact = exact;
+        }
+
+        public List<SearchResult> getResults() { return results; }
+
+        public FacetCounts getFacetCounts() { return facetCounts; }
+
+        public List<String> getFailedShards() { return failedShards; }
+
+        /*
+         * True if some documents may be missing, because a shard failed
+         */
+        public boolean isPartial() { return !failedShards.isEmpty(); }
+
+        /*
+         * False if a shard ran out of the search budget before scoring every posting
+         */
+        public boolean isExact() { return exact; }
+    }
+
+    /*
+     * Search every shard for a query and return the k best documents (all if k <= 0)
+     * that pass the filter (if given), with the facet counts of every matching document
+     */
+    public Answer search(String query, String type, int k, FacetFilter filter) throws IOException {
+        return search(query, type, k, filter, 0, 0);
+    }
+
+    /*
+     * Search (see above) within a budget of millis ms and maxPostings postings (no limit if <= 0)
+     * for every shard (see SearchBudget). The time the first round took is taken off the budget
+     */
+    public Answer search(String query, String type, int k, FacetFilter filter, long millis,
+                         long maxPostings) throws IOException {
+
+        long start = System.nanoTime();
+        ArrayList<String> failedShards = new ArrayList<>();
+        FacetCounts counts = new FacetCounts();
+        LinkedHashMap<String, Double> queryWeights = queryBuilder.build(query, type);
+        if (queryWeights.isEmpty())
+            return new Answer(new ArrayList<>(), counts, failedShards, true);
+        ArrayList<String> queryTerms = new ArrayList<>(queryWeights.keySet());
+
+        /* Round 1: statistics of every shard */
+        JSONObject statsRequest = new JSONObject().put("terms", new JSONArray(queryTerms));
+        List<JSONObject> stats = fanOut("/internal/stats", Collections.nCopies(shardUrls.size(), statsRequest), failedShards);
+        long docsNum = 0;
+        long[] fieldLens = null;
+        long[] df = new long[queryTerms.size()], cf = new long[queryTerms.size()];
+        for (JSONObject shardStats : stats) {
+            if (shardStats == null)
+                continue;
+            CollectionStats s = ShardServer.statsFromJSON(shardStats);
+            docsNum += s.getDocsNum();
+            if (fieldLens == null)
+                fieldLens = new long[s.getFieldsNum()];
+            for (int f = 0; f < fieldLens.length; f++)
+                fieldLens[f] += s.getTotalFieldLength(f);
+            for (int t = 0; t < queryTerms.size(); t++) {
+                df[t] += shardStats.getJSONArray("df").getLong(t);
+                cf[t] += shardStats.getJSONArray("cf").getLong(t);
+            }
+        }
+
+        /* Round 2: the k best documents of every shard that answered, for the terms that exist somewhere */
+        JSONObject searchRequest = ShardServer.statsToJSON(new CollectionStats(docsNum, fieldLens == null ? new long[0] : fieldLens));
+        JSONArray terms = new JSONArray(), weights = new JSONArray(), dfs = new JSONArray(), cfs = new JSONArray();
+        for (int t = 0; t < queryTerms.size(); t++) {
+            if (df[t] == 0)
+                continue;
+            terms.put(queryTerms.get(t));
+            weights.put(queryWeights.get(queryTerms.get(t)));
+            dfs.put(df[t]);
+            cfs.put(cf[t]);
+        }
+        if (terms.length() == 0)
+            return new Answer(new ArrayList<>(), counts, failedShards, true);
+        searchRequest.put("terms", terms).put("weights", weights).put("df", dfs).put("cf", cfs).put("k", k);
+        if (filter != null && !filter.isEmpty())
+            searchRequest.put("filter", ShardServer.filterToJSON(filter));
+        if (millis > 0 || maxPostings > 0) {
+            long left = millis <= 0 ? 0 : Math.max(1, millis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            searchRequest.put("budget", new JSONObject().put("ms", left).put("postings", maxPostings));
+        }
+        ArrayList<JSONObject> requests = new ArrayList<>();
+        for (JSONObject shardStats : stats)
+            requests.add(shardStats == null ? null : searchRequest); // shards that failed are skipped
+        List<JSONObject> answers = fanOut("/internal/search", requests, failedShards);
+
+        /* Merge the k best and the facet counts of every shard */
+        TopResults best = new TopResults(k, collapse);
+        boolean exact = true;
+        for (JSONObject answer : answers) {
+            if (answer == null)
+                continue;
+            exact &= answer.optBoolean("exact", true);
+            if (answer.has("facets"))
+                ShardServer.addCountsFromJSON(answer.getJSONObject("facets"), counts);
+            JSONArray results = answer.getJSONArray("results");
+            for (int i = 0; i < results.length(); i++) {
+                JSONObject r = results.getJSONObject(i);
+                best.add(new SearchResult(r.getInt("docId"), r.getString("pmcid"), r.getString("path"),
+                        r.getDouble("score"), r.optInt("cluster", -1)));
+            }
+        }
+        return new Answer(best.getResults(), counts, failedShards, exact);
+    }
+
+    /*
+     * The n best completions of a query that is being typed, from the suggestions of the collection
+     * on this node (the SuggestFile.txt of a sharded build, copied to the coordinator)
+     */
+    public List<Suggestion> suggest(String query, int n) throws IOException {
+        return suggestions == null ? new ArrayList<>() : suggestions.suggest(query, n);
+    }
+
+    /*
+     * Send requests.get(i) to the i-th shard (none if it's null), all of them at the same time,
+     * and return their answers. Shards that fail or don't answer within the timeout get a null
+     * answer and are added to failedShards
+     */
+    private List<JSONObject> fanOut(String path, List<JSONObject> requests, List<String> failedShards) {
+        ArrayList<Future<JSONObject>> futures = new ArrayList<>();
+        for (int i = 0; i < shardUrls.size(); i++) {
+            String url = shardUrls.get(i) + path;
+            JSONObject request = requests.get(i);
+            futures.add(request == null ? null : pool.submit(() -> post(url, request)));
+        }
+
+        ArrayList<JSONObject> ret = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (int i = 0; i < futures.size(); i++) {
+            Future<JSONObject> future = futures.get(i);
+            JSONObject answer = null;
+            if (future != null) {
+                try {
+                    answer = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | TimeoutException e) {
+                    future.cancel(true);
+                    System.err.println("Shard " + shardUrls.get(i) + " failed: "
+                            + (e instanceof TimeoutException ? "timeout" : e.getCause()));
+                }
+                if (answer == null)
+                    failedShards.add(shardUrls.get(i));
+            }
+            ret.add(answer);
+        }
+        return ret;
+    }
+
+    /*
+     * POST a JSON object to url and return the JSON answer
+     */
+    private JSONObject post(String url, JSONObject request) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (conn.getResponseCode() != 200)
+                throw new IOException("HTTP " + conn.getResponseCode());
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = conn.getInputStream()) {
+                byte[] buf = new byte[8192];
+                for (int n; (n = in.read(buf)) > 0; )
+                    body.write(buf, 0, n);
+            }
+            return new JSONObject(new String(body.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+}
@@ -0,0 +1,398 @@
+package Searching;
+
+import Indexing.AnalyzedDocument;
+import Indexing.Indexer;
+import Indexing.ShardedIndexer;
+import Utilities.Field;
+import Utilities.IndexGenerations;
+import Utilities.PathManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Near-real-time ingestion: documents (NXML) sent to the service are analyzed like the indexer
+ * does and added to an in-memory segment (see MemorySegment), which every ingest.refreshMs ms is
+ * made searchable by the current searcher as one more shard. When the segment has ingest.flushDocs
+ * documents, or every ingest.flushInterval seconds, it's frozen and flushed: its documents become
+ * a new shard of a new index generation (see ShardedIndexer.addShard), and the segment is dropped
+ * once a searcher of that generation is in use. The NXML files are kept in a directory of every
+ * segment (segment-<n> of ingest.dir), where they stay as the documents of the index. At startup,
+ * the files that aren't in the index (because the service stopped before they were flushed) are
+ * ingested again. There's no update or delete: a pmcid that's in the index or waiting to be flushed
+ * is rejected
+ */
+public class DocumentIngester {
+
+    // Fields
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private final SearcherManager searchers;
+
+    /*
+     * Analyzes the documents (it never builds an index itself)
+     */
+    private final Indexer analyzer = new Indexer();
+
+    private final File dir;
+    private final int flushDocs, maxPending;
+
+    /*
+     * Adding a document to the active segment holds the read lock, replacing the
+     * active segment (see freeze) the write lock, so that a frozen segment never changes
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /*
+     * The segments whose documents the current searcher's index doesn't have yet, oldest first:
+     * the frozen ones, then the active one, where documents are added. Guarded by this
+     */
+    private final ArrayList<MemorySegment> segments = new ArrayList<>();
+    private volatile MemorySegment active;
+    private int nextSegment;
+
+    /*
+     * pmcids of the documents of the segments. Guarded by this
+     */
+    private final HashSet<String> pendingIds = new HashSet<>();
+
+    /*
+     * Segments that a searcher's index has (see attach), whose pmcids stay pending until a
+     * searcher of their generation is the current one (see add). Guarded by this
+     */
+    private final ArrayList<MemorySegment> flushed = new ArrayList<>();
+
+    private final AtomicLong nextFile = new AtomicLong();
+    private final AtomicLong ingested = new AtomicLong(), rejected = new AtomicLong(),
+            flushes = new AtomicLong(), flushedDocs = new AtomicLong(), failedFlushes = new AtomicLong();
+    private volatile long lastFlushMillis;
+
+    private final Object flushLock = new Object();
+
+    private ScheduledExecutorService refresher, flusher;
+
+    // Constructor
+
+    public DocumentIngester(SearchConfig config, SearcherManager searchers) {
+        this.searchers = searchers;
+        dir = new File(config.getString("ingest.dir", PathManager.getInstance().getCollectionPath() + "/ingested"))
+                .getAbsoluteFile();
+        flushDocs = Math.max(config.getInt("ingest.flushDocs", 10000), 1);
+        maxPending = config.getInt("ingest.maxPending", 50000);
+    }
+
+    // Methods
+
+    /*
+     * The result of ingest: the HTTP status (201 if the document was added, 400 if it isn't a
+     * valid document, 409 if its pmcid is in the index or pending, 503 if too many are pending)
+     */
+    public static class Receipt {
+
+        private final int status;
+        private final String pmcid, path, error;
+
+        private Receipt(int status, String pmcid, String path, String error) {
+            this.status = status;
+            this.pmcid = pmcid;
+            this.path = path;
+            this.error = error;
+        }
+
+        public boolean isAdded() { return status == 201; }
+
+        public int getStatus() { return status; }
+
+        public String getPmcid() { return pmcid; }
+
+        public String getPath() { return path; }
+
+        public String getError() { return error; }
+    }
+
+    /*
+     * Ingest the documents that the index doesn't have yet, make the searchers search the
+     * segments and start refreshing them every refreshMs ms and flushing them every
+     * flushSeconds seconds (0 for flushing only when a segment is full)
+     */
+    public void start(long refreshMs, long flushSeconds) throws IOException {
+        dir.mkdirs();
+        recover();
+        searchers.setIngester(this);
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "ingest-refresher"));
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                searchers.refreshMemory();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "ingest-flusher"));
+        if (flushSeconds > 0)
+            flusher.scheduleWithFixedDelay(this::flush, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /*
+     * Add a document, given as the text of its NXML file. It's searchable after the next refresh
+     */
+    public Receipt ingest(String nxml) throws IOException {
+        if (!nxml.contains("<article") || !nxml.contains("pub-id-type=\"pmc\"")) { // the reader accepts anything
+            rejected.incrementAndGet();
+            return new Receipt(400, null, null, "not an NXML article with a pmc article-id");
+        }
+        synchronized (this) {
+            if (maxPending > 0 && pendingIds.size() >= maxPending) {
+                rejected.incrementAndGet();
+                return new Receipt(503, null, null, "too many documents are waiting to be indexed");
+            }
+        }
+        lock.readLock().lock();
+        File file;
+        try {
+            file = new File(active.getDir(), nextFile.incrementAndGet() + ".nxml");
+        } finally {
+            lock.readLock().unlock();
+        }
+        file.getParentFile().mkdirs(); // made by the segment's first document
+        Files.write(file.toPath(), nxml.getBytes(StandardCharsets.UTF_8));
+        Receipt receipt = add(file);
+        if (!receipt.isAdded())
+            file.delete();
+        return receipt;
+    }
+
+    /*
+     * Analyze an NXML file and add it to the active segment
+     */
+    private Receipt add(File file) throws IOException {
+        AnalyzedDocument doc;
+        try {
+            doc = analyzer.analyze(file.getPath());
+        } catch (Exception e) {
+            rejected.incrementAndGet();
+            return new Receipt(400, null, null, "not a valid NXML document: " + e.getMessage());
+        }
+        if (doc.getDocId() == null || doc.getDocId().isEmpty()) {
+            rejected.incrementAndGet();
+            return new Receipt(400, null, null, "the document has no pmcid");
+        }
+        Searcher s = searchers.acquire();
+        try {
+            synchronized (this) {
+                forgetFlushed(IndexGenerations.number(s.getIndexDir()));
+                if (s.hasPmcid(doc.getDocId())) {
+                    rejected.incrementAndGet();
+                    return new Receipt(409, doc.getDocId(), null, "the index has a document with this pmcid already");
+                }
+                if (!pendingIds.add(doc.getDocId())) {
+                    rejected.incrementAndGet();
+                    return new Receipt(409, doc.getDocId(), null, "the document is waiting to be indexed already");
+                }
+            }
+        } finally {
+            searchers.release(s);
+        }
+
+        double vecLen = vectorLength(doc);
+        boolean full;
+        lock.readLock().lock();
+        try {
+            active.add(doc, vecLen);
+            full = active.getDocsNum() >= flushDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+        ingested.incrementAndGet();
+        if (full)
+            flusher.execute(this::flush);
+        return new Receipt(201, doc.getDocId(), doc.getPath(), null);
+    }
+
+    /*
+     * Length of the tf-idf vector of a document (see Indexer.createNormsFile), with the df of
+     * its terms in the current searcher's collection. It stays as it is when later documents
+     * change the df, so it's an approximation until the document is in a full index build
+     */
+    private double vectorLength(AnalyzedDocument doc) throws IOException {
+        Searcher s = searchers.acquire();
+        try {
+            double docsNum = s.getStats().getDocsNum() + 1, vecLen = 0.0;
+            for (Map.Entry<String, int[]> term : doc.getTerms().entrySet()) {
+                TermInfo info = s.getTermStats(term.getKey());
+                double idf = Math.log(docsNum / ((info == null ? 0 : info.getDf()) + 1)) / Math.log(2.0);
+                double tf = 0.0;
+                for (Field f : Field.values())
+                    tf += term.getValue()[f.ordinal()] * f.getDefaultWeight();
+                tf /= doc.getMaxTF();
+                vecLen += (tf * idf) * (tf * idf);
+            }
+            return Math.sqrt(vecLen);
+        } finally {
+            searchers.release(s);
+        }
+    }
+
+    /*
+     * Make a searcher search the segments whose documents its index doesn't have, as shards after
+     * the ones of its index. Segments that an index generation up to the searcher's has are dropped,
+     * so it must be the current searcher or the one that replaces it (see SearcherManager)
+     */
+    synchronized void attach(Searcher s) {
+        int generation = IndexGenerations.number(s.getIndexDir());
+        for (Iterator<MemorySegment> it = segments.iterator(); it.hasNext(); ) {
+            MemorySegment segment = it.next();
+            if (segment.getGeneration() > 0 && segment.getGeneration() <= generation) {
+                flushed.add(segment); // s may not be the current searcher yet
+                it.remove();
+            }
+        }
+        forgetFlushed(IndexGenerations.number(searchers.getIndexDir()));
+
+        ArrayList<IndexShard> memoryShards = new ArrayList<>();
+        int docBase = s.getIndexDocsNum();
+        for (MemorySegment segment : segments) {
+            if (segment.getGeneration() > 0 && segment.getGeneration() <= generation || segment.getDocsNum() == 0)
+                continue;
+            IndexShard shard = segment.shard(docBase);
+            memoryShards.add(shard);
+            docBase += shard.getDocsNum();
+        }
+        s.setMemoryShards(memoryShards);
+    }
+
+    /*
+     * Drop the pmcids of the flushed segments that the index of the given generation has from the
+     * pending ones, once a searcher of that generation is the current one, which then finds them
+     */
+    private synchronized void forgetFlushed(int generation) {
+        for (Iterator<MemorySegment> it = flushed.iterator(); it.hasNext(); ) {
+            MemorySegment segment = it.next();
+            if (segment.getGeneration() <= generation) {
+                for (AnalyzedDocument doc : segment.getDocs())
+                    pendingIds.remove(doc.getDocId());
+                it.remove();
+            }
+        }
+    }
+
+    /*
+     * Freeze the active segment (if it has documents) and add the frozen segments that aren't in
+     * the index yet to it, each as a new shard, then switch to the new index. A failed flush is
+     * logged and tried again by the next one, its documents stay searchable in the meantime
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            freeze();
+            ArrayList<MemorySegment> frozen;
+            synchronized (this) {
+                frozen = new ArrayList<>(segments.subList(0, segments.size() - 1));
+            }
+            try {
+                for (MemorySegment segment : frozen) {
+                    if (segment.getGeneration() > 0)
+                        continue;
+                    String genDir = new ShardedIndexer(1).addShard(segment.getDocs(), segment.getPostings());
+                    segment.setGeneration(IndexGenerations.number(genDir));
+                    flushes.incrementAndGet();
+                    flushedDocs.addAndGet(segment.getDocsNum());
+                }
+                searchers.maybeReload();
+                lastFlushMillis = System.currentTimeMillis();
+            } catch (Exception e) {
+                failedFlushes.incrementAndGet();
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /*
+     * Replace the active segment with a new one, unless it has no documents
+     */
+    private void freeze() {
+        lock.writeLock().lock();
+        try {
+            if (active.getDocsNum() > 0)
+                newSegment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private synchronized void newSegment() {
+        active = new MemorySegment(new File(dir, SEGMENT_PREFIX + nextSegment++), Indexer.getFeatureNames());
+        segments.add(active);
+    }
+
+    /*
+     * Ingest the files of the segment directories that aren't in the current index
+     */
+    private void recover() throws IOException {
+        String[] names = dir.list();
+        ArrayList<Integer> numbers = new ArrayList<>();
+        for (String name : names == null ? new String[0] : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.substring(SEGMENT_PREFIX.length()).matches("\\d+"))
+                numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length())));
+        }
+        numbers.sort(Integer::compare);
+        nextSegment = numbers.isEmpty() ? 0 : numbers.get(numbers.size() - 1) + 1;
+        newSegment();
+
+        HashSet<String> indexed = new HashSet<>(); // paths of the index's documents inside dir
+        Searcher s = searchers.acquire();
+        try {
+            for (IndexShard shard : s.getShards()) {
+                for (int d = 0; d < shard.getDocsNum(); d++) {
+                    if (shard.getPath(d).startsWith(dir.getPath()))
+                        indexed.add(shard.getPath(d));
+                }
+            }
+        } finally {
+            searchers.release(s);
+        }
+        int recovered = 0;
+        for (int number : numbers) {
+            File[] files = new File(dir, SEGMENT_PREFIX + number).listFiles((d, name) -> name.endsWith(".nxml"));
+            if (files == null)
+                continue;
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!indexed.contains(file.getPath()) && add(file).isAdded())
+                    recovered++;
+            }
+        }
+        if (recovered > 0)
+            System.out.println("Documents ingested again: " + recovered);
+    }
+
+    public synchronized int getPendingDocs() { return pendingIds.size(); }
+
+    public synchronized int getSegments() { return segments.size(); }
+
+    public long getIngested() { return ingested.get(); }
+
+    public long getRejected() { return rejected.get(); }
+
+    public long getFlushes() { return flushes.get(); }
+
+    public long getFlushedDocs() { return flushedDocs.get(); }
+
+    public long getFailedFlushes() { return failedFlushes.get(); }
+
+    public long getLastFlushMillis() { return lastFlushMillis; }
+
+}
@@ -0,0 +1,82 @@
+package Searching;
+
+import Utilities.NormCodec;
+
+import java.io.*;
+
+/*
+ * The per document statistics of NormsFile.txt, loaded in memory.
+ * Every statistic takes one byte per document (see NormCodec), so even
+ * large collections need only a few bytes per document
+ */
+public class DocumentNorms {
+
+    // Fields
+
+    private final int docsNum, fieldsNum;
+
+    /*
+     * Total length of every field in the documents of this index
+     */
+    private final long[] totalFieldLens;
+
+    /*
+     * Length codes of document i's fields are at positions i * fieldsNum ... (i + 1) * fieldsNum - 1
+     */
+    private final byte[] fieldLens;
+
+    private final byte[] vecLens, maxTFs;
+
+    // Constructor
+
+    public DocumentNorms(String path) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            docsNum = (int) in.readLong();
+            fieldsNum = in.readInt();
+            totalFieldLens = new long[fieldsNum];
+            for(int f = 0; f < fieldsNum; f++)
+                totalFieldLens[f] = in.readLong();
+            fieldLens = new byte[docsNum * fieldsNum];
+            in.readFully(fieldLens);
+            vecLens = new byte[docsNum];
+            in.readFully(vecLens);
+            maxTFs = new byte[docsNum];
+            in.readFully(maxTFs);
+        }
+    }
+
+    /*
+     * Norms of documents that aren't in an index yet (see MemorySegment), already encoded (see NormCodec)
+     */
+    DocumentNorms(int docsNum, long[] totalFieldLens, byte[] fieldLens, byte[] vecLens, byte[] maxTFs) {
+        this.docsNum = docsNum;
+        this.fieldsNum = totalFieldLens.length;
+        this.totalFieldLens = totalFieldLens;
+        this.fieldLens = fieldLens;
+        this.vecLens = vecLens;
+        this.maxTFs = maxTFs;
+    }
+
+    // Methods
+
+    public int getDocsNum() { return docsNum; }
+
+    public int getFieldsNum() { return fieldsNum; }
+
+    /*
+     * Length code of a document's field (decode it with NormCodec.decodeLength)
+     */
+    public byte getFieldLengthCode(int doc, int field) { return fieldLens[doc * fieldsNum + field]; }
+
+    public double getFieldLength(int doc, int field) { return NormCodec.decodeLength(getFieldLengthCode(doc, field)); }
+
+    /*
+     * Total length of a field in the documents of this index
+     */
+    public long getTotalFieldLength(int field) { return totalFieldLens[field]; }
+
+    public double getVecLen(int doc) { return NormCodec.decodeValue(vecLens[doc]); }
+
+    public double getMaxTF(int doc) { return NormCodec.decodeValue(maxTFs[doc]); }
+
+}
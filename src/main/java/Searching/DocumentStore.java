@@ -0,0 +1,161 @@
+package Searching;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/*
+ * Reads documents from the document store of an index (StoreFile.txt), finding
+ * them with the locators of StoreIndexFile.txt, which are kept in memory.
+ * Reading a document decompresses its block up to the document only.
+ * The NXML files that the store keeps (SourceFile.txt, of the documents inside tar.gz archives)
+ * are found with SourceIndexFile.txt, which is kept in memory too.
+ * The documents of a MemorySegment are kept as they are instead
+ */
+class DocumentStore {
+
+    // Fields
+
+    /*
+     * Locator of every document: (pointer to its block << 8) | position in the block
+     */
+    private final long[] locators;
+
+    private final FileChannel store;
+
+    /*
+     * The documents whose NXML file the store keeps (sorted), where their files start in
+     * SourceFile.txt, and the file (null if the store keeps no NXML file)
+     */
+    private final int[] sourceDocs;
+    private final long[] sourcePointers;
+    private final FileChannel sources;
+
+    /*
+     * The documents, if they are kept in memory (null otherwise)
+     */
+    private final StoredDocument[] docs;
+
+    /*
+     * Inflater of every reading thread (creating one for every document costs more than decompressing it)
+     */
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    // Constructor
+
+    DocumentStore(String indexDir, int docsNum) throws IOException {
+        locators = new long[docsNum];
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexDir + "/StoreIndexFile.txt")))) {
+            for (int i = 0; i < docsNum; i++)
+                locators[i] = in.readLong();
+        }
+        store = new RandomAccessFile(indexDir + "/StoreFile.txt", "r").getChannel();
+        docs = null;
+
+        File sourceIndex = new File(indexDir, "SourceIndexFile.txt");
+        if (!sourceIndex.exists()) {
+            sourceDocs = null;
+            sourcePointers = null;
+            sources = null;
+            return;
+        }
+        int sourcesNum = (int) (sourceIndex.length() / 12);
+        sourceDocs = new int[sourcesNum];
+        sourcePointers = new long[sourcesNum];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sourceIndex)))) {
+            for (int i = 0; i < sourcesNum; i++) {
+                sourceDocs[i] = in.readInt();
+                sourcePointers[i] = in.readLong();
+            }
+        }
+        sources = new RandomAccessFile(indexDir + "/SourceFile.txt", "r").getChannel();
+    }
+
+    DocumentStore(StoredDocument[] docs) {
+        locators = null;
+        store = null;
+        this.docs = docs;
+        sourceDocs = null;
+        sourcePointers = null;
+        sources = null;
+    }
+
+    // Methods
+
+    StoredDocument get(int doc) throws IOException {
+        if (docs != null)
+            return docs[doc];
+        long blockPtr = locators[doc] >>> 8;
+        int slot = (int) (locators[doc] & 0xFF);
+
+        ByteBuffer header = read(store, blockPtr, 8);
+        int rawSize = header.getInt(), compressedSize = header.getInt();
+        ByteBuffer compressed = read(store, blockPtr + 8, compressedSize);
+
+        /* Decompress only up to the document */
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(compressed.array()), inflater, Math.min(rawSize, 4096)))) {
+            for (int i = 0; i < slot * 3; i++)
+                in.skipBytes(in.readUnsignedShort()); // skip the fields of the previous documents of the block
+            return new StoredDocument(in.readUTF(), in.readUTF(), in.readUTF());
+        } catch (ZipException e) {
+            throw new IOException("Corrupted document store block", e);
+        }
+    }
+
+    /*
+     * The NXML file of a document, if the store keeps it (see Indexing.DocumentStoreWriter.addSource),
+     * null otherwise
+     */
+    byte[] getSource(int doc) throws IOException {
+        int i = sourceDocs == null ? -1 : Arrays.binarySearch(sourceDocs, doc);
+        if (i < 0)
+            return null;
+        ByteBuffer header = read(sources, sourcePointers[i], 12);
+        header.getInt(); // the document
+        int rawSize = header.getInt(), compressedSize = header.getInt();
+        ByteBuffer compressed = read(sources, sourcePointers[i] + 12, compressedSize);
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(compressed.array());
+        byte[] ret = new byte[rawSize];
+        try {
+            for (int n = 0; n < rawSize; ) {
+                int inflated = inflater.inflate(ret, n, rawSize - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+                    throw new IOException("Corrupted document store source");
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted document store source", e);
+        }
+        return ret;
+    }
+
+    private static ByteBuffer read(FileChannel file, long position, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        while (buf.hasRemaining()) {
+            if (file.read(buf, position + buf.position()) < 0)
+                throw new EOFException("Document store is truncated");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    void close() throws IOException {
+        if (store != null)
+            store.close();
+        if (sources != null)
+            sources.close();
+    }
+
+}
@@ -0,0 +1,49 @@
+package Searching;
+
+import Utilities.Facet;
+
+import java.util.*;
+
+/*
+ * How many of the documents that match a query have every value of every facet.
+ * It's filled while searching (by every shard, at the same time)
+ */
+public class FacetCounts {
+
+    // Fields
+
+    private final EnumMap<Facet, HashMap<String, Integer>> counts = new EnumMap<>(Facet.class);
+
+    // Constructor
+
+    public FacetCounts() {
+        for (Facet facet : Facet.values())
+            counts.put(facet, new HashMap<>());
+    }
+
+    // Methods
+
+    public synchronized void add(Facet facet, String value, int count) {
+        counts.get(facet).merge(value, count, Integer::sum);
+    }
+
+    /*
+     * The values of a facet with their counts, most frequent first
+     * (at most n values, all of them if n <= 0)
+     */
+    public synchronized LinkedHashMap<String, Integer> getTop(Facet facet, int n) {
+        ArrayList<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.get(facet).entrySet());
+        entries.sort((e1, e2) -> {
+            int c = Integer.compare(e2.getValue(), e1.getValue());
+            return c != 0 ? c : e1.getKey().compareTo(e2.getKey());
+        });
+        LinkedHashMap<String, Integer> ret = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> e : entries) {
+            if (n > 0 && ret.size() == n)
+                break;
+            ret.put(e.getKey(), e.getValue());
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,37 @@
+package Searching;
+
+import Utilities.Facet;
+
+import java.util.*;
+
+/*
+ * Facet values that the results of a query must have: a result must have
+ * one of the given values of every facet that has values in the filter
+ */
+public class FacetFilter {
+
+    // Fields
+
+    private final EnumMap<Facet, LinkedHashSet<String>> values = new EnumMap<>(Facet.class);
+
+    // Methods
+
+    /*
+     * Accept the documents with this value of the facet too
+     */
+    public FacetFilter add(Facet facet, String value) {
+        values.computeIfAbsent(facet, f -> new LinkedHashSet<>()).add(value);
+        return this;
+    }
+
+    /*
+     * The accepted values of a facet (empty if the facet isn't filtered)
+     */
+    public Set<String> getValues(Facet facet) {
+        Set<String> ret = values.get(facet);
+        return ret == null ? Collections.emptySet() : ret;
+    }
+
+    public boolean isEmpty() { return values.isEmpty(); }
+
+}
@@ -0,0 +1,197 @@
+package Searching;
+
+import Utilities.DocSet;
+import Utilities.Facet;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The facets of an index (FacetsFile.txt), loaded in memory: the DocSet of every
+ * value of every facet, to filter documents, and the values of every document
+ * (as numbers of values, built from the DocSets), to count them
+ */
+class FacetIndex {
+
+    // Fields
+
+    /*
+     * Values of every facet (sorted) and the documents that have them
+     */
+    private final String[][] values;
+    private final DocSet[][] docSets;
+
+    /*
+     * Number of every value of every facet, if the values aren't sorted (null otherwise, see MemorySegment)
+     */
+    private final List<Map<String, Integer>> valueNumbers;
+
+    /*
+     * Values of every document, for every facet: the numbers of the values of
+     * document d are valueNums[f][valueStarts[f][d]] ... valueNums[f][valueStarts[f][d + 1] - 1]
+     */
+    private final int[][] valueStarts, valueNums;
+
+    // Constructor
+
+    /*
+     * Load the facets of the index in indexDir (none if the index has no facets file)
+     */
+    FacetIndex(String indexDir, int docsNum) throws IOException {
+        int facetsNum = Facet.values().length;
+        values = new String[facetsNum][];
+        docSets = new DocSet[facetsNum][];
+        valueStarts = new int[facetsNum][];
+        valueNums = new int[facetsNum][];
+        valueNumbers = null;
+
+        File f = new File(indexDir + "/FacetsFile.txt");
+        DataInputStream in = f.exists()
+                ? new DataInputStream(new BufferedInputStream(new FileInputStream(f)))
+                : null;
+        try {
+            for (int facet = 0; facet < facetsNum; facet++) {
+                int n = in == null ? 0 : in.readInt();
+                values[facet] = new String[n];
+                docSets[facet] = new DocSet[n];
+                for (int v = 0; v < n; v++) {
+                    values[facet][v] = in.readUTF();
+                    docSets[facet][v] = DocSet.read(in);
+                }
+                invert(facet, docsNum);
+            }
+        } finally {
+            if (in != null)
+                in.close();
+        }
+    }
+
+    /*
+     * The facets of documents that aren't in an index yet (see MemorySegment), which keeps them as
+     * they are added: the values of every facet in the order they came, found by valueNumbers, and
+     * the values of every document (the arrays may have room for more documents)
+     */
+    FacetIndex(String[][] values, DocSet[][] docSets, List<Map<String, Integer>> valueNumbers,
+               int[][] valueStarts, int[][] valueNums) {
+        this.values = values;
+        this.docSets = docSets;
+        this.valueNumbers = valueNumbers;
+        this.valueStarts = valueStarts;
+        this.valueNums = valueNums;
+    }
+
+    // Methods
+
+    /*
+     * Fill valueStarts and valueNums of a facet from the DocSets of its values
+     */
+    private void invert(int facet, int docsNum) {
+        int[] starts = new int[docsNum + 1];
+        int[][] docs = new int[docSets[facet].length][];
+        for (int v = 0; v < docs.length; v++) {
+            docs[v] = docSets[facet][v].toArray();
+            for (int d : docs[v])
+                starts[d + 1]++;
+        }
+        for (int d = 0; d < docsNum; d++)
+            starts[d + 1] += starts[d];
+        int[] nums = new int[starts[docsNum]];
+        int[] next = new int[docsNum];
+        for (int v = 0; v < docs.length; v++) {
+            for (int d : docs[v])
+                nums[starts[d] + next[d]++] = v;
+        }
+        valueStarts[facet] = starts;
+        valueNums[facet] = nums;
+    }
+
+    /*
+     * The documents that pass a filter: the ones with one of the given values of every filtered
+     * facet. Returns null if the filter accepts every document
+     */
+    DocSet filter(FacetFilter filter) {
+        if (filter == null || filter.isEmpty())
+            return null;
+        DocSet ret = null;
+        for (Facet facet : Facet.values()) {
+            if (filter.getValues(facet).isEmpty())
+                continue;
+            DocSet docs = new DocSet();
+            for (String value : filter.getValues(facet)) {
+                int v = valueNumber(facet.ordinal(), value);
+                if (v >= 0)
+                    docs = docs.isEmpty() ? docSets[facet.ordinal()][v] : docs.or(docSets[facet.ordinal()][v]);
+            }
+            ret = ret == null ? docs : ret.and(docs);
+        }
+        return ret;
+    }
+
+    /*
+     * Number of a value of a facet, negative if no document has it
+     */
+    private int valueNumber(int facet, String value) {
+        if (valueNumbers == null)
+            return Arrays.binarySearch(values[facet], value);
+        Integer ret = valueNumbers.get(facet).get(value);
+        return ret == null ? -1 : ret;
+    }
+
+    /*
+     * Count the values of a document into counts[facet][value number]
+     */
+    void count(int doc, int[][] counts) {
+        for (int f = 0; f < counts.length; f++) {
+            for (int i = valueStarts[f][doc]; i < valueStarts[f][doc + 1]; i++)
+                counts[f][valueNums[f][i]]++;
+        }
+    }
+
+    /*
+     * Values of a facet of a document
+     */
+    String[] getValues(Facet facet, int doc) {
+        int f = facet.ordinal();
+        String[] ret = new String[valueStarts[f][doc + 1] - valueStarts[f][doc]];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = values[f][valueNums[f][valueStarts[f][doc] + i]];
+        return ret;
+    }
+
+    /*
+     * Number of documents with every value of a facet
+     */
+    Map<String, Integer> getSizes(Facet facet) {
+        HashMap<String, Integer> ret = new HashMap<>();
+        for (int v = 0; v < values[facet.ordinal()].length; v++)
+            ret.put(values[facet.ordinal()][v], docSets[facet.ordinal()][v].cardinality());
+        return ret;
+    }
+
+    /*
+     * Counters for count (one for every value of every facet)
+     */
+    int[][] newCounts() {
+        int[][] ret = new int[values.length][];
+        for (int f = 0; f < values.length; f++)
+            ret[f] = new int[values[f].length];
+        return ret;
+    }
+
+    /*
+     * Add counts (see count) to the counts of a query
+     */
+    void addCounts(int[][] counts, FacetCounts to) {
+        for (Facet facet : Facet.values()) {
+            int[] c = counts[facet.ordinal()];
+            for (int v = 0; v < c.length; v++) {
+                if (c[v] > 0)
+                    to.add(facet, values[facet.ordinal()][v], c[v]);
+            }
+        }
+    }
+
+}
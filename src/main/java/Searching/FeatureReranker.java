@@ -0,0 +1,163 @@
+package Searching;
+
+import Utilities.Facet;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.regex.Matcher;
+
+/*
+ * Reranks the candidates of a query with a ranking model (rerank.model, see RankingModel)
+ * over features of every candidate:
+ *   score           its first phase score
+ *   titleMatch      share of the query terms in its title
+ *   abstractMatch   share of the query terms in its abstract
+ *   bodyMatch       share of the query terms in the stored beginning of its body
+ *   proximity       how close together the query terms of its abstract and body are: (n - 1) / (w - 1)
+ *                   for the shortest window of w words with all its n distinct query terms (0 if n < 2)
+ *   recency         1 / (1 + its age in years), 0 if its publication year is unknown
+ *   journalPrior    log of the share of the collection's documents in its journal
+ * and its static features in the feature store of the index (see FeatureStore). The text features
+ * are computed from the document store, so reranking costs a document read for every candidate
+ */
+class FeatureReranker implements Reranker {
+
+    // Fields
+
+    private static final List<String> QUERY_FEATURES = Arrays.asList(
+            "score", "titleMatch", "abstractMatch", "bodyMatch", "proximity", "recency", "journalPrior");
+
+    private final Searcher searcher;
+
+    /*
+     * Names of all the features: QUERY_FEATURES and then the features of the feature store
+     */
+    private final List<String> featureNames;
+    private final int storeFeaturesNum;
+
+    /*
+     * Position of the year among the features of the store (-1 if it has none)
+     */
+    private final int yearFeature;
+
+    private final RankingModel model;
+
+    /*
+     * Number of documents of every journal in the whole collection
+     */
+    private final HashMap<String, Integer> journalSizes;
+
+    // Constructor
+
+    FeatureReranker(SearchConfig config, Searcher searcher) throws IOException {
+        this.searcher = searcher;
+        List<String> storeFeatures = searcher.getShards().get(0).getFeatures().getNames();
+        storeFeaturesNum = storeFeatures.size();
+        yearFeature = storeFeatures.indexOf("year");
+        featureNames = new ArrayList<>(QUERY_FEATURES);
+        featureNames.addAll(storeFeatures);
+        model = RankingModel.load(config.getString("rerank.model", "Config/rerank.model"), featureNames);
+        journalSizes = new HashMap<>();
+        for (IndexShard shard : searcher.getShards()) {
+            for (Map.Entry<String, Integer> journal : shard.getFacetSizes(Facet.JOURNAL).entrySet())
+                journalSizes.merge(journal.getKey(), journal.getValue(), Integer::sum);
+        }
+    }
+
+    // Methods
+
+    @Override
+    public ArrayList<SearchResult> rerank(Set<String> queryTerms, List<SearchResult> candidates) throws IOException {
+        HashMap<String, String> stems = new HashMap<>(); // word -> matching query term (or ""), for every candidate
+        int year = LocalDate.now().getYear();
+        long docsNum = searcher.getStats().getDocsNum();
+
+        double[] scores = new double[candidates.size()];
+        double[] features = new double[featureNames.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            SearchResult candidate = candidates.get(i);
+            IndexShard shard = searcher.shardOf(candidate.getDocId());
+            int docNum = candidate.getDocId() - shard.getDocBase();
+            StoredDocument doc = shard.getDocument(docNum);
+
+            Arrays.fill(features, 0.0);
+            features[0] = candidate.getScore();
+            ArrayList<String> matches = new ArrayList<>(); // query terms of the abstract and body, in order
+            features[1] = matchShare(doc.getTitle(), queryTerms, stems, null);
+            features[2] = matchShare(doc.getAbstract(), queryTerms, stems, matches);
+            features[3] = matchShare(doc.getExcerpt(), queryTerms, stems, matches);
+            features[4] = proximity(matches);
+            FeatureStore store = shard.getFeatures();
+            boolean hasFeatures = store.getNames().size() == storeFeaturesNum; // older indexes have none
+            if (yearFeature >= 0 && hasFeatures && store.get(docNum, yearFeature) > 0)
+                features[5] = 1.0 / (1.0 + Math.max(0, year - store.get(docNum, yearFeature)));
+            String[] journals = shard.getFacetValues(Facet.JOURNAL, docNum);
+            int journalSize = journals.length == 0 ? 0 : journalSizes.getOrDefault(journals[0], 0);
+            features[6] = Math.log((journalSize + 1.0) / (docsNum + 1.0));
+            for (int f = 0; hasFeatures && f < storeFeaturesNum; f++)
+                features[QUERY_FEATURES.size() + f] = store.get(docNum, f);
+            scores[i] = model.score(features);
+        }
+
+        /* Best first (the first phase order on ties) */
+        Integer[] order = new Integer[candidates.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (i1, i2) -> Double.compare(scores[i2], scores[i1]));
+        ArrayList<SearchResult> ret = new ArrayList<>();
+        for (int i : order) {
+            SearchResult c = candidates.get(i);
+            ret.add(new SearchResult(c.getDocId(), c.getPmcid(), c.getPath(), scores[i], c.getCluster()));
+        }
+        return ret;
+    }
+
+    /*
+     * Share of the query terms that are in the text, adding the matched terms of its words to matches (if given)
+     */
+    private static double matchShare(String text, Set<String> queryTerms, HashMap<String, String> stems,
+                                     List<String> matches) throws IOException {
+        HashSet<String> found = new HashSet<>();
+        Matcher m = SnippetGenerator.WORD.matcher(text);
+        while (m.find()) {
+            String term = SnippetGenerator.match(m.group(), queryTerms, stems);
+            if (term != null)
+                found.add(term);
+            if (matches != null)
+                matches.add(term);
+        }
+        return queryTerms.isEmpty() ? 0.0 : found.size() / (double) queryTerms.size();
+    }
+
+    /*
+     * (n - 1) / (w - 1) for the shortest window of w words with all the n distinct query
+     * terms of the words (query terms of the words in order, null for other words)
+     */
+    private static double proximity(List<String> matches) {
+        HashMap<String, Integer> counts = new HashMap<>();
+        for (String term : matches) {
+            if (term != null)
+                counts.put(term, 0);
+        }
+        int n = counts.size();
+        if (n < 2)
+            return 0.0;
+        int covered = 0, bestWidth = Integer.MAX_VALUE;
+        for (int start = 0, end = 0; end < matches.size(); end++) {
+            String term = matches.get(end);
+            if (term == null)
+                continue;
+            if (counts.merge(term, 1, Integer::sum) == 1)
+                covered++;
+            for (; covered == n; start++) { // shrink the window from the start while it has every term
+                bestWidth = Math.min(bestWidth, end - start + 1);
+                String first = matches.get(start);
+                if (first != null && counts.merge(first, -1, Integer::sum) == 0)
+                    covered--;
+            }
+        }
+        return (n - 1) / (double) (bestWidth - 1);
+    }
+
+}
@@ -0,0 +1,60 @@
+package Searching;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * The static features of every document of an index (FeaturesFile.txt, see
+ * Indexing.Indexer.createDocumentsFile), loaded in memory, for re-ranking
+ * (see FeatureReranker). An index without the file has no features
+ */
+class FeatureStore {
+
+    // Fields
+
+    private final List<String> names;
+
+    /*
+     * Value of feature f of document d: values[d * names.size() + f]
+     */
+    private final float[] values;
+
+    // Constructor
+
+    FeatureStore(String indexDir, int docsNum) throws IOException {
+        File f = new File(indexDir + "/FeaturesFile.txt");
+        if (!f.exists()) {
+            names = Collections.emptyList();
+            values = new float[0];
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            String[] featureNames = new String[in.readInt()];
+            for (int i = 0; i < featureNames.length; i++)
+                featureNames[i] = in.readUTF();
+            names = Collections.unmodifiableList(Arrays.asList(featureNames));
+            if (in.readInt() != docsNum)
+                throw new IOException("FeaturesFile.txt doesn't match the documents of " + indexDir);
+            values = new float[docsNum * featureNames.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = in.readFloat();
+        }
+    }
+
+    /*
+     * Features of documents that aren't in an index yet (see MemorySegment)
+     */
+    FeatureStore(List<String> names, float[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    // Methods
+
+    List<String> getNames() { return names; }
+
+    float get(int doc, int feature) { return values[doc * names.size() + feature]; }
+
+}
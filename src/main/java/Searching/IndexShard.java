@@ -0,0 +1,509 @@
+package Searching;
+
+import Utilities.DocSet;
+import Utilities.Facet;
+import Utilities.SharedUtilities;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * The index of (a part of) the collection in one directory: its vocabulary,
+ * documents and norms loaded in memory and its posting file, plus the code
+ * that scores the documents of the index for a query
+ */
+class IndexShard {
+
+    // Fields
+
+    /*
+     * Orders results from the worst to the best. Ties are broken by pmcid (the
+     * smaller the better), which is the document number order of a single index
+     */
+    static final Comparator<SearchResult> BY_SCORE = (r1, r2) -> {
+        int c = Double.compare(r1.getScore(), r2.getScore());
+        return c != 0 ? c : r2.getPmcid().compareTo(r1.getPmcid());
+    };
+
+    /*
+     * Will store the whole vocabulary. Holds information like this:
+     * term1 -> [df1, cf1, ptrToPost1, postDataSize1]
+     * term2 -> [df2, cf2, ptrToPost2, postDataSize2]
+     * ...
+     */
+    private final HashMap<String, TermInfo> vocMap;
+
+    /*
+     * The posting file. Postings are read with positional reads,
+     * so that many threads can search at the same time
+     */
+    private final FileChannel post;
+
+    /*
+     * The posting data of a shard that is kept in memory (see MemorySegment), instead of the
+     * posting file: the vocabulary record of a term points to its data in this array
+     */
+    private final byte[][] postings;
+
+    /*
+     * The impact ordered postings (ImpactFile.txt), null if the index has none
+     */
+    private final FileChannel impacts;
+
+    /*
+     * The documents table (DocumentsFile.txt), loaded in memory.
+     * A document's number is its position in the file
+     */
+    private String[] docIds, docPaths;
+
+    private int docsNum;
+
+    /*
+     * The numbers of the documents, sorted by path and by pmcid (built on first use, see findPath and hasPmcid)
+     */
+    private volatile int[] byPath, byPmcid;
+
+    /*
+     * Cluster of near-duplicates of every document (-1 if it has none, null if no document has one)
+     */
+    private int[] clusters;
+
+    /*
+     * Per document statistics used by the ranking models (NormsFile.txt)
+     */
+    private final DocumentNorms norms;
+
+    /*
+     * Text of the documents, for snippets (StoreFile.txt)
+     */
+    private final DocumentStore store;
+
+    /*
+     * Facet values of the documents (FacetsFile.txt)
+     */
+    private final FacetIndex facets;
+
+    /*
+     * Static features of the documents, for re-ranking (FeaturesFile.txt)
+     */
+    private final FeatureStore features;
+
+    /*
+     * Number of the shard's first document in the whole collection
+     */
+    private final int docBase;
+
+    private Similarity similarity;
+
+    /*
+     * Score accumulators that aren't in use. A search takes one (or makes one if there's none)
+     * and gives it back when it's done. At most ACCUMULATORS_KEPT of them are kept, which is
+     * as many as the searches the admission control runs at a time by default: an accumulator
+     * takes 13 bytes per document, so one for every thread that ever searched would never be freed
+     */
+    private final ArrayBlockingQueue<ScoreAccumulator> accumulators;
+
+    static final int ACCUMULATORS_KEPT = Runtime.getRuntime().availableProcessors();
+
+    /*
+     * Postings taken from a search budget at a time
+     */
+    private static final int BUDGET_CHUNK = 256;
+
+    // Constructor
+
+    /*
+     * Load the index in indexDir
+     */
+    IndexShard(String indexDir, int docBase) throws IOException {
+
+        this.docBase = docBase;
+
+        /* Load vocabulary in memory */
+        DataInputStream voc = new DataInputStream(
+                new BufferedInputStream(
+                        new FileInputStream(indexDir + "/VocabularyFile.txt")
+                )
+        );
+        File impactVocFile = new File(indexDir + "/ImpactVocabularyFile.txt");
+        DataInputStream impactVoc = !impactVocFile.exists() ? null : new DataInputStream(
+                new BufferedInputStream(
+                        new FileInputStream(impactVocFile)
+                )
+        );
+        vocMap = new HashMap<>();
+        while(voc.available() > 0) {
+            String term = voc.readUTF();
+            long df = voc.readLong();
+            long ptr = voc.readLong();
+            int size = voc.readInt();
+            long cf = voc.readLong();
+            if(impactVoc != null) // same order as VocabularyFile.txt
+                vocMap.put(term, new TermInfo(df, cf, ptr, size, impactVoc.readLong(), impactVoc.readInt()));
+            else
+                vocMap.put(term, new TermInfo(df, cf, ptr, size));
+        }
+        voc.close();
+        if(impactVoc != null)
+            impactVoc.close();
+
+        post = new RandomAccessFile(indexDir + "/PostingFile.txt", "r").getChannel();
+        postings = null;
+        impacts = impactVoc == null ? null : new RandomAccessFile(indexDir + "/ImpactFile.txt", "r").getChannel();
+        loadDocuments(indexDir);
+        norms = new DocumentNorms(indexDir + "/NormsFile.txt");
+        store = new DocumentStore(indexDir, docsNum);
+        facets = new FacetIndex(indexDir, docsNum);
+        features = new FeatureStore(indexDir, docsNum);
+        accumulators = new ArrayBlockingQueue<>(ACCUMULATORS_KEPT);
+    }
+
+    /*
+     * A shard of documents that are kept in memory (see MemorySegment). It has no impact ordered
+     * postings (searches with a budget score every posting) and no near-duplicates. The arrays of
+     * the documents' data may have room for more documents than docsNum, and so do the score
+     * accumulators, which are shared with the other snapshots of the segment
+     */
+    IndexShard(HashMap<String, TermInfo> vocMap, byte[][] postings, int docsNum, String[] docIds, String[] docPaths,
+               DocumentNorms norms, DocumentStore store, FacetIndex facets, FeatureStore features,
+               ArrayBlockingQueue<ScoreAccumulator> accumulators, int docBase) {
+        this.vocMap = vocMap;
+        this.postings = postings;
+        this.docsNum = docsNum;
+        this.docIds = docIds;
+        this.docPaths = docPaths;
+        this.norms = norms;
+        this.store = store;
+        this.facets = facets;
+        this.features = features;
+        this.accumulators = accumulators;
+        this.docBase = docBase;
+        post = null;
+        impacts = null;
+        clusters = null;
+    }
+
+    // Methods
+
+    /*
+     * Load DocumentsFile.txt records <docId, fullPath, cluster> in memory
+     */
+    private void loadDocuments(String indexDir) throws IOException {
+        DataInputStream doc = new DataInputStream(
+                new BufferedInputStream(
+                        new FileInputStream(indexDir + "/DocumentsFile.txt")
+                )
+        );
+        docsNum = (int) doc.readLong(); // total documents number
+        docIds = new String[docsNum];
+        docPaths = new String[docsNum];
+        clusters = new int[docsNum];
+        for(int i = 0; i < docsNum; i++) {
+            docIds[i] = doc.readUTF();
+            docPaths[i] = doc.readUTF();
+            clusters[i] = doc.readInt();
+        }
+        doc.close();
+    }
+
+    /*
+     * Set the ranking model (it needs the statistics of every shard)
+     */
+    void setSimilarity(Similarity similarity) { this.similarity = similarity; }
+
+    Similarity getSimilarity() { return similarity; }
+
+    DocumentNorms getNorms() { return norms; }
+
+    int getDocsNum() { return docsNum; }
+
+    int getDocBase() { return docBase; }
+
+    /*
+     * Full path of a document's file (docNum is the number in the shard)
+     */
+    String getPath(int docNum) { return docPaths[docNum]; }
+
+    /*
+     * Number of the document of the shard at the given path (or location inside an archive), -1 if there's none
+     */
+    int findPath(String path) {
+        int[] sorted = byPath;
+        if (sorted == null) {
+            sorted = sortedBy(docPaths);
+            byPath = sorted;
+        }
+        return find(sorted, docPaths, path);
+    }
+
+    /*
+     * Whether a document of the shard has the given pmcid
+     */
+    boolean hasPmcid(String pmcid) {
+        int[] sorted = byPmcid;
+        if (sorted == null) {
+            sorted = sortedBy(docIds);
+            byPmcid = sorted;
+        }
+        return find(sorted, docIds, pmcid) >= 0;
+    }
+
+    /*
+     * The numbers of the documents, sorted by a key of every document
+     */
+    private int[] sortedBy(String[] keys) {
+        Integer[] docs = new Integer[docsNum];
+        for (int i = 0; i < docsNum; i++)
+            docs[i] = i;
+        Arrays.sort(docs, Comparator.comparing(d -> keys[d]));
+        int[] ret = new int[docsNum];
+        for (int i = 0; i < docsNum; i++)
+            ret[i] = docs[i];
+        return ret;
+    }
+
+    /*
+     * Binary search of the document with a key in the documents sorted by their keys, -1 if there's none
+     */
+    private static int find(int[] sorted, String[] keys, String key) {
+        int low = 0, high = sorted.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = keys[sorted[mid]].compareTo(key);
+            if (c == 0)
+                return sorted[mid];
+            if (c < 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return -1;
+    }
+
+    /*
+     * Stored text of a document of the shard (docNum is the number in the shard)
+     */
+    StoredDocument getDocument(int docNum) throws IOException { return store.get(docNum); }
+
+    /*
+     * The NXML file of a document of the shard, if its store keeps it (see DocumentStore.getSource)
+     */
+    byte[] getSource(int docNum) throws IOException { return store.getSource(docNum); }
+
+    FeatureStore getFeatures() { return features; }
+
+    /*
+     * Values of a facet of a document of the shard, and the number of the shard's documents with every value
+     */
+    String[] getFacetValues(Facet facet, int docNum) { return facets.getValues(facet, docNum); }
+
+    Map<String, Integer> getFacetSizes(Facet facet) { return facets.getSizes(facet); }
+
+    /*
+     * Vocabulary record of a term (null if the term isn't in this shard)
+     */
+    TermInfo getTermInfo(String term) { return vocMap.get(term); }
+
+    Set<String> getTerms() { return vocMap.keySet(); }
+
+    /*
+     * Score the documents of the shard with the given ranking model for the given query terms,
+     * their collection statistics (globalTerms) and weights, and return the k best, best first
+     * (all matching documents if k <= 0). Only documents that pass the filter (if given) are
+     * scored, and the facet values of the matching documents are counted into counts (if given).
+     * With collapse, near-duplicates get a single result (see TopResults). With a budget (if given)
+     * the postings are scored in impact order until the budget is used up (see scoreByImpact).
+     * The terms from essentialNum on are deferred: they only add to the scores of the documents
+     * that have one of the essential terms (see QueryPlanner)
+     */
+    ArrayList<SearchResult> search(Similarity similarity, List<String> terms, List<TermInfo> globalTerms,
+                                   double[] weights, int essentialNum, int k, FacetFilter filter, FacetCounts counts,
+                                   boolean collapse, SearchBudget budget) throws IOException {
+
+        DocSet accepted = facets.filter(filter);
+        if (accepted != null && accepted.isEmpty())
+            return new ArrayList<>(); // no document of this shard passes the filter
+
+        /* Walk the postings of the terms, accumulating the score of every document (that passes the filter) */
+        Similarity.Scorer scorer = similarity.scorer(globalTerms, weights);
+        ScoreAccumulator acc = accumulators.poll();
+        if (acc == null || acc.getDocsNum() < docIds.length)
+            acc = new ScoreAccumulator(docIds.length);
+        try {
+            if (budget != null && impacts != null)
+                scoreByImpact(scorer, terms, essentialNum, accepted, budget, acc);
+            else
+                scoreByTerm(scorer, terms, essentialNum, accepted, acc);
+
+            /* Keep the k best documents, counting the facet values of every matching document on the way */
+            int[][] shardCounts = counts == null ? null : facets.newCounts();
+            TopResults best = new TopResults(k, collapse);
+            for (int i = 0; i < acc.getTouchedNum(); i++) {
+                int docNum = acc.getTouched(i);
+                if (shardCounts != null)
+                    facets.count(docNum, shardCounts);
+                double score = scorer.finish(docNum, acc.getScore(docNum));
+                if (best.isCompetitive(score, docIds[docNum]))
+                    best.add(new SearchResult(docBase + docNum, docIds[docNum], docPaths[docNum], score,
+                            clusters == null ? -1 : clusters[docNum]));
+            }
+
+            if (shardCounts != null)
+                facets.addCounts(shardCounts, counts);
+
+            return best.getResults(); // best documents first
+        } finally {
+            acc.clear();
+            accumulators.offer(acc); // dropped if enough are kept
+        }
+    }
+
+    /*
+     * Term-at-a-time: accumulate the scores of every posting of every term, term after term
+     * (the essential terms come first)
+     */
+    private void scoreByTerm(Similarity.Scorer scorer, List<String> terms, int essentialNum, DocSet accepted,
+                             ScoreAccumulator acc) throws IOException {
+        for (int t = 0; t < terms.size(); t++) {
+            TermInfo term = vocMap.get(terms.get(t));
+            if (term == null)
+                continue; // no document of this shard has it
+            PostingList postings = readPostings(term);
+            if (t >= essentialNum) {
+                while (postings.next()) {
+                    if (acc.has(postings.doc())) // passed the filter already
+                        acc.add(postings.doc(), scorer.score(t, postings.doc(), postings.fieldTFs()));
+                }
+            } else if (accepted == null) {
+                while (postings.next())
+                    acc.add(postings.doc(), scorer.score(t, postings.doc(), postings.fieldTFs()));
+            } else {
+                DocSet.Matcher matcher = accepted.matcher(); // postings are in document number order
+                while (postings.next()) {
+                    if (matcher.matches(postings.doc()))
+                        acc.add(postings.doc(), scorer.score(t, postings.doc(), postings.fieldTFs()));
+                }
+            }
+        }
+    }
+
+    /*
+     * Score-at-a-time: accumulate the scores of the postings of the terms in impact order, segment
+     * by segment (see Indexer.createImpactFile), the segments with the highest term weight * max
+     * impact first, until every posting is scored or the budget is used up. The documents that
+     * matter most get most of their score first, so stopping early mostly misses small contributions.
+     * The segments of deferred terms come after the ones of the essential terms
+     */
+    private void scoreByImpact(Similarity.Scorer scorer, List<String> terms, int essentialNum, DocSet accepted,
+                               SearchBudget budget, ScoreAccumulator acc) throws IOException {
+
+        /* Segments of every term: {term, first byte, end} with their weight * max impact */
+        ArrayList<byte[]> data = new ArrayList<>();
+        ArrayList<int[]> segments = new ArrayList<>();
+        ArrayList<Double> bounds = new ArrayList<>();
+        for (int t = 0; t < terms.size(); t++) {
+            TermInfo term = vocMap.get(terms.get(t));
+            data.add(term == null ? null : read(impacts, term.getImpactPtr(), term.getImpactSize()));
+            if (term == null)
+                continue; // no document of this shard has it
+            ImpactHeader header = new ImpactHeader(data.get(t));
+            int pos = header.dataStart;
+            for (int i = 0; i < header.maxImpacts.length; i++) {
+                segments.add(new int[] {t, pos, pos + header.sizes[i]});
+                bounds.add(scorer.weight(t) * header.maxImpacts[i]);
+                pos += header.sizes[i];
+            }
+        }
+        Integer[] order = new Integer[segments.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (i1, i2) -> {
+            boolean deferred1 = segments.get(i1)[0] >= essentialNum, deferred2 = segments.get(i2)[0] >= essentialNum;
+            if (deferred1 != deferred2)
+                return deferred1 ? 1 : -1;
+            return Double.compare(bounds.get(i2), bounds.get(i1)); // stable: term order on ties
+        });
+
+        int granted = 0; // postings taken from the budget but not scored yet
+        try {
+            for (int i : order) {
+                int t = segments.get(i)[0];
+                PostingList postings = new PostingList(data.get(t), segments.get(i)[1], segments.get(i)[2]);
+                DocSet.Matcher matcher = accepted == null ? null : accepted.matcher(); // a segment is in docNum order
+                while (postings.next()) {
+                    if (granted == 0 && (granted = budget.take(BUDGET_CHUNK)) == 0)
+                        return; // budget used up
+                    granted--;
+                    if (t >= essentialNum ? acc.has(postings.doc()) : matcher == null || matcher.matches(postings.doc()))
+                        acc.add(postings.doc(), scorer.score(t, postings.doc(), postings.fieldTFs()));
+                }
+            }
+        } finally {
+            budget.giveBack(granted);
+        }
+    }
+
+    /*
+     * The segments of a term's impact ordered postings:
+     * <segmentsNum (vint), <max impact (float), postingsNum (vint), size (vint)> ...>
+     */
+    private static class ImpactHeader {
+
+        final float[] maxImpacts;
+        final int[] sizes;
+
+        /*
+         * Position of the first segment's postings
+         */
+        final int dataStart;
+
+        ImpactHeader(byte[] data) throws IOException {
+            ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+            DataInputStream in = new DataInputStream(bytes);
+            int segmentsNum = SharedUtilities.getInstance().readVInt(in);
+            maxImpacts = new float[segmentsNum];
+            sizes = new int[segmentsNum];
+            for (int i = 0; i < segmentsNum; i++) {
+                maxImpacts[i] = in.readFloat();
+                SharedUtilities.getInstance().readVInt(in); // postings number
+                sizes[i] = SharedUtilities.getInstance().readVInt(in);
+            }
+            dataStart = data.length - bytes.available();
+        }
+    }
+
+    /*
+     * Read the whole posting data of a term with a single positional read
+     */
+    private PostingList readPostings(TermInfo term) throws IOException {
+        if (post == null)
+            return new PostingList(postings[(int) term.getPtr()], 0, term.getSize());
+        return new PostingList(read(post, term.getPtr(), term.getSize()));
+    }
+
+    /*
+     * Read size bytes of a file from ptr on with positional reads
+     */
+    private static byte[] read(FileChannel file, long ptr, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        while (buf.hasRemaining()) {
+            if (file.read(buf, ptr + buf.position()) < 0)
+                throw new EOFException("Posting data is truncated");
+        }
+        return buf.array();
+    }
+
+    void close() throws IOException {
+        if (post == null)
+            return; // nothing to close in memory (and the accumulators are the segment's)
+        accumulators.clear();
+        post.close();
+        if (impacts != null)
+            impacts.close();
+        store.close();
+    }
+
+}
@@ -0,0 +1,165 @@
+package Searching;
+
+import java.util.*;
+
+/*
+ * A deterministic automaton that accepts the words within maxEdits edits (insertions, deletions,
+ * substitutions) of a term. A state is a row of the edit distance table of the term against the
+ * input read so far (values above maxEdits are all the same), so a term has a few hundred states
+ * at most. Every character that isn't in the term behaves the same, so the alphabet of the
+ * automaton is the characters of the term plus one for all the rest. The whole automaton is
+ * built when it's created, and reading a character is a table lookup
+ */
+class LevenshteinAutomaton {
+
+    // Fields
+
+    /*
+     * The characters of the term, without duplicates (the automaton's alphabet, apart from "any other")
+     */
+    private final char[] alphabet;
+
+    /*
+     * transitions[state][alphabet index]: next state (the last index is for any other character)
+     */
+    private final int[][] transitions;
+
+    /*
+     * Edit distance of the term from the input that led to every state (-1 if more than maxEdits)
+     */
+    private final int[] distances;
+
+    /*
+     * States that can't lead to a match, whatever follows
+     */
+    private final boolean[] dead;
+
+    // Constructor
+
+    LevenshteinAutomaton(String term, int maxEdits) {
+        int n = term.length();
+        LinkedHashSet<Character> chars = new LinkedHashSet<>();
+        for (int i = 0; i < n; i++)
+            chars.add(term.charAt(i));
+        alphabet = new char[chars.size()];
+        int a = 0;
+        for (char c : chars)
+            alphabet[a++] = c;
+
+        /* Breadth first construction, from the first row of the table */
+        ArrayList<int[]> rows = new ArrayList<>();
+        HashMap<Object, Integer> stateNums = new HashMap<>();
+        ArrayList<int[]> transitionList = new ArrayList<>();
+        int[] start = new int[n + 1];
+        for (int j = 0; j <= n; j++)
+            start[j] = Math.min(j, maxEdits + 1);
+        rows.add(start);
+        stateNums.put(key(start), 0);
+        for (int s = 0; s < rows.size(); s++) {
+            int[] row = rows.get(s);
+            int[] next = new int[alphabet.length + 1];
+            for (int c = 0; c <= alphabet.length; c++) {
+                int[] nextRow = step(term, row, c < alphabet.length ? alphabet[c] : -1, maxEdits);
+                Object k = key(nextRow);
+                Integer num = stateNums.get(k);
+                if (num == null) {
+                    num = rows.size();
+                    rows.add(nextRow);
+                    stateNums.put(k, num);
+                }
+                next[c] = num;
+            }
+            transitionList.add(next);
+        }
+
+        transitions = transitionList.toArray(new int[0][]);
+        distances = new int[rows.size()];
+        dead = new boolean[rows.size()];
+        for (int s = 0; s < rows.size(); s++) {
+            int[] row = rows.get(s);
+            distances[s] = row[n] <= maxEdits ? row[n] : -1;
+            dead[s] = true;
+            for (int value : row) {
+                if (value <= maxEdits)
+                    dead[s] = false;
+            }
+        }
+    }
+
+    // Methods
+
+    int getStart() { return 0; }
+
+    /*
+     * The state after reading c in state
+     */
+    int step(int state, char c) {
+        int a = indexOf(c);
+        return transitions[state][a < 0 ? alphabet.length : a];
+    }
+
+    boolean isDead(int state) { return dead[state]; }
+
+    /*
+     * The smallest character after c that doesn't lead to a dead state from state (-1 if there's none)
+     */
+    int nextLiveChar(int state, char c) {
+        int ret = -1;
+        for (int a = 0; a < alphabet.length; a++) {
+            if (alphabet[a] > c && !dead[transitions[state][a]] && (ret < 0 || alphabet[a] < ret))
+                ret = alphabet[a];
+        }
+        if (!dead[transitions[state][alphabet.length]]) {
+            /* the smallest character after c that isn't in the term */
+            for (int other = c + 1; other <= Character.MAX_VALUE && (ret < 0 || other < ret); other++) {
+                if (indexOf((char) other) < 0)
+                    return other;
+            }
+        }
+        return ret;
+    }
+
+    /*
+     * Edit distance of the input that led to state from the term (-1 if it's too far)
+     */
+    int getDistance(int state) { return distances[state]; }
+
+    private int indexOf(char c) {
+        for (int a = 0; a < alphabet.length; a++) {
+            if (alphabet[a] == c)
+                return a;
+        }
+        return -1;
+    }
+
+    /*
+     * Next row of the edit distance table after reading c (-1: a character that isn't in the term)
+     */
+    private static int[] step(String term, int[] row, int c, int maxEdits) {
+        int[] next = new int[row.length];
+        next[0] = Math.min(row[0] + 1, maxEdits + 1);
+        for (int j = 1; j < row.length; j++) {
+            int cost = term.charAt(j - 1) == c ? 0 : 1;
+            next[j] = Math.min(Math.min(row[j - 1] + cost, row[j] + 1), next[j - 1] + 1);
+            next[j] = Math.min(next[j], maxEdits + 1);
+        }
+        return next;
+    }
+
+    /*
+     * A key of a row for the map of the states (values are small, so short rows fit in a long)
+     */
+    private static Object key(int[] row) {
+        if (row.length <= 16) {
+            long ret = 0;
+            for (int value : row)
+                ret = (ret << 4) | value;
+            return ret;
+        }
+        char[] chars = new char[row.length];
+        for (int j = 0; j < row.length; j++)
+            chars[j] = (char) row[j];
+        return new String(chars);
+    }
+
+}
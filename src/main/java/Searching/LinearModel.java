@@ -0,0 +1,44 @@
+package Searching;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * A linear ranking model: bias + the weighted sum of the features (see RankingModel)
+ */
+class LinearModel implements RankingModel {
+
+    // Fields
+
+    private double bias;
+
+    /*
+     * Weight of every feature (0 for the features the model doesn't use)
+     */
+    private final double[] weights;
+
+    // Constructor
+
+    LinearModel(List<String[]> lines, List<String> featureNames) throws IOException {
+        weights = new double[featureNames.size()];
+        for (String[] line : lines) {
+            if (line.length != 2)
+                throw new IOException("Bad line in linear ranking model: " + String.join(" ", line));
+            if (line[0].equals("bias"))
+                bias = Double.parseDouble(line[1]);
+            else
+                weights[RankingModel.feature(line[0], featureNames)] += Double.parseDouble(line[1]);
+        }
+    }
+
+    // Methods
+
+    @Override
+    public double score(double[] features) {
+        double ret = bias;
+        for (int f = 0; f < weights.length; f++)
+            ret += weights[f] * features[f];
+        return ret;
+    }
+
+}
@@ -0,0 +1,289 @@
+package Searching;
+
+import Indexing.AnalyzedDocument;
+import Utilities.DocSet;
+import Utilities.Facet;
+import Utilities.Field;
+import Utilities.NormCodec;
+import Utilities.SharedUtilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * Documents added while the service runs (see DocumentIngester), kept in memory until they are
+ * flushed to a new shard of the index. Documents are appended under the segment's lock, and
+ * searches use immutable snapshots of it (see shard), so adding documents never blocks a search.
+ * The posting data of every term is kept in the format of PostingFile.txt, in an array that
+ * only grows by copying: a snapshot keeps the array and its length at the time, and the bytes
+ * up to that length never change. The same goes for the arrays of the documents' data (ids,
+ * norms etc.) and of the facets, which snapshots share, so that a snapshot costs as much as what
+ * changed since the last one (and the vocabulary and the lists of facet values), not as much as
+ * the whole segment
+ */
+class MemorySegment {
+
+    // Fields
+
+    /*
+     * Directory of the segment's NXML files, which become a shard of the index when it's flushed
+     */
+    private final File dir;
+
+    /*
+     * Number of the index generation that has the segment's documents (0 until it's flushed)
+     */
+    private volatile int generation;
+
+    /*
+     * The postings of a term so far, and the term's number (its postings in a snapshot)
+     */
+    private static class Postings {
+        byte[] data = new byte[16];
+        int length;
+        long df, cf;
+        final int id;
+
+        Postings(int id) { this.id = id; }
+    }
+
+    private final HashMap<String, Postings> terms = new HashMap<>();
+
+    /*
+     * Terms whose postings changed since the last snapshot
+     */
+    private final HashSet<String> changedTerms = new HashSet<>();
+
+    /*
+     * The documents (without their terms, which are in the postings), and their data the way a
+     * shard keeps it, in arrays with room for more documents
+     */
+    private final ArrayList<AnalyzedDocument> docs = new ArrayList<>();
+    private String[] docIds = new String[16], docPaths = new String[16];
+    private byte[] fieldLens = new byte[16 * Field.values().length], vecLens = new byte[16], maxTFs = new byte[16];
+    private StoredDocument[] stored = new StoredDocument[16];
+    private float[] features;
+    private final long[] totalFieldLens = new long[Field.values().length];
+
+    /*
+     * The values of a facet and their documents, kept as documents are added (see FacetIndex):
+     * the values in the order they came and their numbers, the DocSet of every value, and the
+     * numbers of the values of every document. A snapshot copies the DocSets that changed since
+     * the last one, and the numbers of the values when a value is added after it took them
+     */
+    private static class FacetValues {
+        String[] values = new String[16];
+        int valuesNum;
+        HashMap<String, Integer> numbers = new HashMap<>();
+        boolean numbersShared;
+        DocSet[] docSets = new DocSet[16];
+        final BitSet changed = new BitSet();
+        int[] starts = new int[17], nums = new int[16];
+        int numsLength;
+
+        /*
+         * The DocSets of the last snapshot
+         */
+        DocSet[] snapshotDocSets = new DocSet[0];
+    }
+
+    private final FacetValues[] facets = new FacetValues[Facet.values().length];
+
+    /*
+     * Posting of the document being added (see add)
+     */
+    private final ByteArrayOutputStream posting = new ByteArrayOutputStream();
+    private final DataOutputStream postingOut = new DataOutputStream(posting);
+
+    private final List<String> featureNames;
+
+    /*
+     * The last snapshot (see shard), with its vocabulary and postings, which the next one starts from
+     */
+    private IndexShard snapshot;
+    private HashMap<String, TermInfo> vocMap = new HashMap<>();
+    private byte[][] postings = new byte[0][];
+
+    /*
+     * Score accumulators of the snapshots, which outlive them (see IndexShard.search): an accumulator
+     * has room for as many documents as the arrays of the segment, so it's dropped only when they grow
+     */
+    private final ArrayBlockingQueue<ScoreAccumulator> accumulators = new ArrayBlockingQueue<>(IndexShard.ACCUMULATORS_KEPT);
+
+    // Constructor
+
+    MemorySegment(File dir, List<String> featureNames) {
+        this.dir = dir;
+        this.featureNames = featureNames;
+        features = new float[16 * featureNames.size()];
+        for (int f = 0; f < facets.length; f++)
+            facets[f] = new FacetValues();
+    }
+
+    // Methods
+
+    File getDir() { return dir; }
+
+    int getGeneration() { return generation; }
+
+    /*
+     * Record that the segment's documents are in the index generation with the given number
+     */
+    void setGeneration(int generation) { this.generation = generation; }
+
+    synchronized int getDocsNum() { return docs.size(); }
+
+    /*
+     * Append an analyzed document, with the length of its tf-idf vector (for the vector space model)
+     */
+    synchronized void add(AnalyzedDocument doc, double vecLen) throws IOException {
+        int docNum = docs.size();
+        for (Map.Entry<String, int[]> term : doc.getTerms().entrySet()) {
+            posting.reset();
+            SharedUtilities.getInstance().writeVInt(postingOut, docNum);
+            SharedUtilities.getInstance().writeFieldTFs(postingOut, term.getValue());
+            Postings p = terms.computeIfAbsent(term.getKey(), t -> new Postings(terms.size()));
+            if (p.length + posting.size() > p.data.length)
+                p.data = Arrays.copyOf(p.data, Math.max(p.data.length * 2, p.length + posting.size()));
+            System.arraycopy(posting.toByteArray(), 0, p.data, p.length, posting.size());
+            p.length += posting.size();
+            p.df++;
+            for (int tf : term.getValue())
+                p.cf += tf;
+            changedTerms.add(term.getKey());
+        }
+
+        int fieldsNum = Field.values().length, featuresNum = featureNames.size();
+        if (docNum == docIds.length) {
+            int capacity = docNum * 2;
+            docIds = Arrays.copyOf(docIds, capacity);
+            docPaths = Arrays.copyOf(docPaths, capacity);
+            fieldLens = Arrays.copyOf(fieldLens, capacity * fieldsNum);
+            vecLens = Arrays.copyOf(vecLens, capacity);
+            maxTFs = Arrays.copyOf(maxTFs, capacity);
+            stored = Arrays.copyOf(stored, capacity);
+            features = Arrays.copyOf(features, capacity * featuresNum);
+        }
+        docIds[docNum] = doc.getDocId();
+        docPaths[docNum] = doc.getPath();
+        for (int f = 0; f < fieldsNum; f++) {
+            totalFieldLens[f] += doc.getFieldLens()[f];
+            fieldLens[docNum * fieldsNum + f] = NormCodec.encodeLength(doc.getFieldLens()[f]);
+        }
+        vecLens[docNum] = NormCodec.encodeValue(vecLen);
+        maxTFs[docNum] = NormCodec.encodeValue(doc.getMaxTF());
+        stored[docNum] = new StoredDocument(doc.getTitle(), doc.getAbstract(), doc.getExcerpt());
+        for (int f = 0; f < facets.length; f++)
+            addFacetValues(facets[f], docNum, doc.getFacetValues()[f]);
+        System.arraycopy(doc.getFeatures(), 0, features, docNum * featuresNum, featuresNum);
+        docs.add(doc.withoutTerms());
+    }
+
+    /*
+     * Add the values of a facet of a document (sorted, like an index has them)
+     */
+    private static void addFacetValues(FacetValues facet, int docNum, String[] docValues) {
+        docValues = docValues.clone();
+        Arrays.sort(docValues);
+        if (docNum + 2 > facet.starts.length)
+            facet.starts = Arrays.copyOf(facet.starts, facet.starts.length * 2);
+        for (String value : docValues) {
+            Integer v = facet.numbers.get(value);
+            if (v == null) {
+                v = facet.valuesNum++;
+                if (v == facet.values.length) {
+                    facet.values = Arrays.copyOf(facet.values, v * 2);
+                    facet.docSets = Arrays.copyOf(facet.docSets, v * 2);
+                }
+                facet.values[v] = value;
+                facet.docSets[v] = new DocSet();
+                if (facet.numbersShared) {
+                    facet.numbers = new HashMap<>(facet.numbers);
+                    facet.numbersShared = false;
+                }
+                facet.numbers.put(value, v);
+            } else if (facet.docSets[v].contains(docNum)) {
+                continue; // the value is given twice
+            }
+            facet.docSets[v].add(docNum);
+            facet.changed.set(v);
+            if (facet.numsLength == facet.nums.length)
+                facet.nums = Arrays.copyOf(facet.nums, facet.numsLength * 2);
+            facet.nums[facet.numsLength++] = v;
+        }
+        facet.starts[docNum + 1] = facet.numsLength;
+    }
+
+    /*
+     * The documents, in document number order (see Indexing.ShardedIndexer.addShard)
+     */
+    synchronized List<AnalyzedDocument> getDocs() { return new ArrayList<>(docs); }
+
+    /*
+     * The posting data of every term, in the format of PostingFile.txt
+     */
+    synchronized SortedMap<String, byte[]> getPostings() {
+        TreeMap<String, byte[]> ret = new TreeMap<>();
+        for (Map.Entry<String, Postings> term : terms.entrySet())
+            ret.put(term.getKey(), Arrays.copyOf(term.getValue().data, term.getValue().length));
+        return ret;
+    }
+
+    /*
+     * The segment's documents so far as a shard whose documents are numbered from docBase on.
+     * A new snapshot is made only if documents were added since the last one (or docBase changed).
+     * It starts from the vocabulary of the last one, with new records for the changed terms only
+     */
+    synchronized IndexShard shard(int docBase) {
+        int docsNum = docs.size();
+        if (snapshot != null && snapshot.getDocsNum() == docsNum && snapshot.getDocBase() == docBase)
+            return snapshot;
+
+        if (!changedTerms.isEmpty()) {
+            vocMap = new HashMap<>(vocMap);
+            postings = Arrays.copyOf(postings, terms.size());
+            for (String term : changedTerms) {
+                Postings p = terms.get(term);
+                postings[p.id] = p.data;
+                vocMap.put(term, new TermInfo(p.df, p.cf, p.id, p.length));
+            }
+            changedTerms.clear();
+        }
+
+        snapshot = new IndexShard(vocMap, postings, docsNum, docIds, docPaths,
+                new DocumentNorms(docsNum, totalFieldLens.clone(), fieldLens, vecLens, maxTFs), new DocumentStore(stored),
+                facetIndex(), new FeatureStore(featureNames, features), accumulators, docBase);
+        return snapshot;
+    }
+
+    /*
+     * The facets of the documents so far, for a snapshot
+     */
+    private FacetIndex facetIndex() {
+        String[][] values = new String[facets.length][];
+        DocSet[][] docSets = new DocSet[facets.length][];
+        List<Map<String, Integer>> numbers = new ArrayList<>();
+        int[][] starts = new int[facets.length][], nums = new int[facets.length][];
+        for (int f = 0; f < facets.length; f++) {
+            FacetValues facet = facets[f];
+            if (!facet.changed.isEmpty()) {
+                facet.snapshotDocSets = Arrays.copyOf(facet.snapshotDocSets, facet.valuesNum);
+                for (int v = facet.changed.nextSetBit(0); v >= 0; v = facet.changed.nextSetBit(v + 1))
+                    facet.snapshotDocSets[v] = facet.docSets[v].copy();
+                facet.changed.clear();
+            }
+            values[f] = Arrays.copyOf(facet.values, facet.valuesNum);
+            docSets[f] = facet.snapshotDocSets;
+            numbers.add(facet.numbers);
+            facet.numbersShared = true;
+            starts[f] = facet.starts;
+            nums[f] = facet.nums;
+        }
+        return new FacetIndex(values, docSets, numbers, starts, nums);
+    }
+
+}
@@ -0,0 +1,72 @@
+package Searching;
+
+import Utilities.Field;
+
+/*
+ * A cursor over the posting data of a term (as read from PostingFile.txt):
+ * <docNum (vint), field mask (byte), tf of every field of the mask (vints)> ... in docNum order.
+ * The term frequencies array is reused from posting to posting
+ */
+class PostingList {
+
+    // Fields
+
+    private final byte[] data;
+    private int pos;
+    private final int end;
+    private int doc;
+    private final int[] fieldTFs;
+
+    // Constructor
+
+    PostingList(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /*
+     * A cursor over the postings of data[from..to) (e.g. a segment of impact ordered postings)
+     */
+    PostingList(byte[] data, int from, int to) {
+        this.data = data;
+        this.pos = from;
+        this.end = to;
+        this.doc = -1;
+        this.fieldTFs = new int[Field.values().length];
+    }
+
+    // Methods
+
+    /*
+     * Move to the next posting. Returns false when there are no more postings
+     */
+    boolean next() {
+        if(pos >= end)
+            return false;
+        doc = readVInt();
+        int mask = data[pos++] & 0xFF;
+        for(int f = 0; f < fieldTFs.length; f++, mask >>>= 1)
+            fieldTFs[f] = (mask & 1) != 0 ? readVInt() : 0;
+        return true;
+    }
+
+    /*
+     * Number of the current posting's document
+     */
+    int doc() { return doc; }
+
+    /*
+     * Term frequency of every field in the current posting's document
+     */
+    int[] fieldTFs() { return fieldTFs; }
+
+    private int readVInt() {
+        int b = data[pos++];
+        int value = b & 0x7F;
+        for(int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = data[pos++];
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+}
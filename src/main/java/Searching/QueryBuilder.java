@@ -0,0 +1,151 @@
+package Searching;
+
+import Utilities.PathManager;
+import Utilities.SharedUtilities;
+import mitos.stemmer.Stemmer;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Turns the text of a query into weighted index terms: lexical analysis,
+ * stopword removal, stemming and (optionally) query expansion with synonyms.
+ * It doesn't need the index itself, so a coordinator of remote shards uses it too
+ */
+public class QueryBuilder {
+
+    // Fields
+
+    /*
+     * Query time settings (expansion etc.)
+     */
+    private final SearchConfig config;
+
+    /*
+     * Important words in topics.xml file
+     */
+    private final HashSet<String> topicImp;
+
+    /*
+     * To use synonyms in query expansion (SynonymsFile.txt), opened on first use
+     */
+    private final String synonymsPath;
+    private SynonymIndex synonyms;
+    private volatile boolean synonymsOpened;
+
+    // Constructor
+
+    public QueryBuilder(SearchConfig config, String synonymsPath) throws IOException {
+        this.config = config;
+        this.synonymsPath = synonymsPath;
+
+        /* Load important words of topics.xml file */
+        topicImp = new HashSet<>(SharedUtilities.getInstance().parseWords(
+                PathManager.getInstance().getWordsPath() + "/importantInTopics.txt")
+        );
+
+        Stemmer.Initialize();
+    }
+
+    // Methods
+
+    /*
+     * Index terms of a query and their weights: their tf in the query,
+     * plus the weights of expansion terms
+     */
+    public LinkedHashMap<String, Double> build(String query, String type) throws IOException {
+        LinkedHashMap<String, Double> queryWeights = new LinkedHashMap<>();
+        for (String token : makeQueryTokens(query, type))
+            queryWeights.merge(token, 1.0, Double::sum);
+        if (config.getBoolean("expansion.enabled", false))
+            expandQuery(queryWeights);
+        return queryWeights;
+    }
+
+    /*
+     * Add synonyms of the query tokens to the query. A synonym gets the weight of its
+     * token multiplied by the synonym's weight and the configured expansion weight,
+     * and only the best expansion.maxTerms synonyms are added, to keep queries short
+     */
+    private void expandQuery(LinkedHashMap<String, Double> queryWeights) throws IOException {
+        SynonymIndex synonyms = getSynonymIndex();
+        if (synonyms == null)
+            return;
+        double expansionWeight = config.getDouble("expansion.weight", 0.3);
+        int maxTerms = config.getInt("expansion.maxTerms", 5);
+
+        HashMap<String, Double> candidates = new HashMap<>();
+        for (Map.Entry<String, Double> token : queryWeights.entrySet()) {
+            for (Map.Entry<String, Float> synonym : synonyms.getSynonyms(token.getKey()).entrySet()) {
+                if (!queryWeights.containsKey(synonym.getKey()))
+                    candidates.merge(synonym.getKey(), expansionWeight * token.getValue() * synonym.getValue(), Double::sum);
+            }
+        }
+
+        ArrayList<Map.Entry<String, Double>> best = new ArrayList<>(candidates.entrySet());
+        best.sort((e1, e2) -> {
+            int c = Double.compare(e2.getValue(), e1.getValue());
+            return c != 0 ? c : e1.getKey().compareTo(e2.getKey());
+        });
+        for (int i = 0; i < Math.min(best.size(), maxTerms); i++)
+            queryWeights.put(best.get(i).getKey(), best.get(i).getValue());
+    }
+
+    /*
+     * The synonym index, opened the first time it's needed.
+     * Returns null if the synonyms haven't been compiled
+     */
+    private SynonymIndex getSynonymIndex() throws IOException {
+        if (!synonymsOpened) {
+            synchronized (this) {
+                if (!synonymsOpened) {
+                    File f = new File(synonymsPath);
+                    if (f.exists())
+                        synonyms = new SynonymIndex(f.getPath());
+                    else
+                        System.err.println("No synonyms in the index, query expansion is disabled");
+                    synonymsOpened = true;
+                }
+            }
+        }
+        return synonyms;
+    }
+
+    /*
+     * Takes a query and the type of the searching, makes the appropriate
+     * processing and returns a collection with the query's tokens
+     */
+    private ArrayList<String> makeQueryTokens(String query, String type) throws IOException {
+
+        String delimiter = "\t\n\r\f ";
+        ArrayList<String> ret = new ArrayList<>();
+        boolean isTypeGiven = false;
+        type = type.toLowerCase();
+        if(type.equals("diagnosis") || type.equals("test") || type.equals("treatment"))
+            isTypeGiven = true;
+
+        query = SharedUtilities.getInstance().doLexicalAnalysis(query); // do lexical analysis
+
+        StringTokenizer tokenizer = new StringTokenizer(query, delimiter);
+        while (tokenizer.hasMoreTokens()) {
+            String currentToken = tokenizer.nextToken();
+            if (!SharedUtilities.getInstance().enSwSet.contains(currentToken)
+                    && !SharedUtilities.getInstance().grSwSet.contains(currentToken)) { // accept only non-stopwords
+
+                if(isTypeGiven) {
+                    if(!topicImp.contains(currentToken))
+                        continue; // keep only topic important words (medical terms, diseases etc.)
+                }
+
+                currentToken = SharedUtilities.getInstance().stem(currentToken); // do stemming
+                ret.add(currentToken);
+            }
+        }
+
+        if(isTypeGiven)
+            ret.add(SharedUtilities.getInstance().stem(type)); // add the type as a word
+
+        return ret;
+    }
+
+}
@@ -0,0 +1,113 @@
+package Searching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Prunes the terms of a query before it is searched. The terms are ordered by their weight
+ * (see Similarity.Scorer.weight, their query weight times their idf or the like, for bm25f the
+ * most a term can add to the score of a document), and the terms in more than pruning.maxDf of the
+ * documents, plus the lowest weight terms whose weights add up to at most pruning.maxLoss of the
+ * weights of the query, are pruned. Frequent terms have the longest posting lists and add the least
+ * to the scores. With pruning.defer a pruned term still adds to the scores of the documents that have
+ * one of the other terms, so only the documents that have nothing but pruned terms are missed (they
+ * score at most the sum of the pruned weights), otherwise pruned terms are dropped and not read at all.
+ * The term with the highest weight is never pruned
+ */
+class QueryPlanner {
+
+    // Fields
+
+    private final SearchConfig config;
+
+    // Constructor
+
+    QueryPlanner(SearchConfig config) {
+        this.config = config;
+    }
+
+    // Methods
+
+    /*
+     * The terms of a query to search for, with their statistics and weights: the essential terms
+     * first, by decreasing weight, then the deferred ones (see IndexShard.search)
+     */
+    static class Plan {
+
+        final List<String> terms;
+        final List<TermInfo> globalTerms;
+        final double[] weights;
+        final int essentialNum;
+
+        Plan(List<String> terms, List<TermInfo> globalTerms, double[] weights, int essentialNum) {
+            this.terms = terms;
+            this.globalTerms = globalTerms;
+            this.weights = weights;
+            this.essentialNum = essentialNum;
+        }
+    }
+
+    /*
+     * Plan the search for the given terms, their statistics in the collection (of docsNum documents),
+     * their query weights and the scorer of the query (for the weights of the terms)
+     */
+    Plan plan(List<String> terms, List<TermInfo> globalTerms, double[] queryWeights, Similarity.Scorer scorer,
+              long docsNum) {
+
+        if (!config.getBoolean("pruning.enabled", false) || terms.size() < 2)
+            return new Plan(terms, globalTerms, queryWeights, terms.size());
+        double maxDf = config.getDouble("pruning.maxDf", 1.0);
+        double maxLoss = config.getDouble("pruning.maxLoss", 0.0);
+        boolean defer = config.getBoolean("pruning.defer", true);
+
+        /* Terms by decreasing weight */
+        Integer[] order = new Integer[terms.size()];
+        double totalWeight = 0.0;
+        for (int t = 0; t < order.length; t++) {
+            order[t] = t;
+            totalWeight += scorer.weight(t);
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer t) -> -scorer.weight(t)));
+
+        /* Prune from the lowest weight up, keeping the best term */
+        boolean[] pruned = new boolean[order.length];
+        double loss = 0.0;
+        boolean withinLoss = true;
+        for (int i = order.length - 1; i > 0; i--) {
+            int t = order[i];
+            double w = scorer.weight(t);
+            if (globalTerms.get(t).getDf() > maxDf * docsNum) {
+                pruned[t] = true;
+                loss += w;
+            } else if (withinLoss && loss + w <= maxLoss * totalWeight) {
+                pruned[t] = true;
+                loss += w;
+            } else {
+                withinLoss = false; // heavier terms don't fit either
+            }
+        }
+
+        ArrayList<String> planTerms = new ArrayList<>();
+        ArrayList<TermInfo> planGlobalTerms = new ArrayList<>();
+        ArrayList<Double> planWeights = new ArrayList<>();
+        int essentialNum = 0;
+        for (int pass = 0; pass < (defer ? 2 : 1); pass++) {
+            for (int t : order) {
+                if (pruned[t] != (pass == 1))
+                    continue;
+                planTerms.add(terms.get(t));
+                planGlobalTerms.add(globalTerms.get(t));
+                planWeights.add(queryWeights[t]);
+            }
+            if (pass == 0)
+                essentialNum = planTerms.size();
+        }
+        double[] weights = new double[planWeights.size()];
+        for (int t = 0; t < weights.length; t++)
+            weights[t] = planWeights.get(t);
+        return new Plan(planTerms, planGlobalTerms, weights, essentialNum);
+    }
+
+}
@@ -0,0 +1,71 @@
+package Searching;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A second phase ranking model (see FeatureReranker): the score of a document from the values
+ * of its features. A model is a text file ('#' starts a comment), either linear:
+ *   linear
+ *   bias <value>
+ *   <feature> <weight>
+ *   ...
+ * or an ensemble of regression trees, whose values (times the weight of their tree) add up:
+ *   trees
+ *   tree <weight>
+ *   <node> <feature> <threshold> <left node> <right node>    (left if the value < threshold)
+ *   <node> leaf <value>
+ *   ...
+ *   tree <weight>
+ *   ...
+ * The nodes of every tree are numbered from 0, the root
+ */
+public interface RankingModel {
+
+    /*
+     * Score of a document with the given feature values (in the order of the feature names the model was loaded with)
+     */
+    double score(double[] features);
+
+    /*
+     * Load a model file for the given features
+     */
+    static RankingModel load(String path, List<String> featureNames) throws IOException {
+        ArrayList<String[]> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+            for (String line; (line = in.readLine()) != null; ) {
+                int comment = line.indexOf('#');
+                line = (comment < 0 ? line : line.substring(0, comment)).trim();
+                if (!line.isEmpty())
+                    lines.add(line.split("\\s+"));
+            }
+        }
+        if (lines.isEmpty())
+            throw new IOException("Empty ranking model: " + path);
+        switch (lines.get(0)[0]) {
+            case "linear":
+                return new LinearModel(lines.subList(1, lines.size()), featureNames);
+            case "trees":
+                return new TreeEnsembleModel(lines.subList(1, lines.size()), featureNames);
+            default:
+                throw new IOException("Unknown ranking model type: " + lines.get(0)[0] + " in " + path);
+        }
+    }
+
+    /*
+     * Number of a feature in featureNames
+     */
+    static int feature(String name, List<String> featureNames) throws IOException {
+        int ret = featureNames.indexOf(name);
+        if (ret < 0)
+            throw new IOException("Unknown feature in ranking model: " + name + " (features: " + featureNames + ")");
+        return ret;
+    }
+
+}
@@ -0,0 +1,33 @@
+package Searching;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * The second phase of a search: reorders the best candidates of the first phase (see
+ * Searcher.search) with signals that cost too much to compute for every posting, so
+ * that its cost depends on the number of candidates and not on the posting lists
+ */
+public interface Reranker {
+
+    /*
+     * Reorder the candidates (best first) of a query with the given (stemmed) terms
+     * and return them best first, with their new scores
+     */
+    ArrayList<SearchResult> rerank(Set<String> queryTerms, List<SearchResult> candidates) throws IOException;
+
+    /*
+     * Create the reranker with the given name (as in the search config file) for the index of a searcher
+     */
+    static Reranker forName(String name, SearchConfig config, Searcher searcher) throws IOException {
+        switch (name) {
+            case "features":
+                return new FeatureReranker(config, searcher);
+            default:
+                throw new IllegalArgumentException("Unknown reranker: " + name);
+        }
+    }
+
+}
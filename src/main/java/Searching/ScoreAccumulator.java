@@ -0,0 +1,66 @@
+package Searching;
+
+/*
+ * Dense per document score accumulators for one query at a time. The documents
+ * touched by the query are kept in a list, so that clearing costs as much as
+ * the query did and not as much as the collection size
+ */
+class ScoreAccumulator {
+
+    // Fields
+
+    private final double[] scores;
+    private final boolean[] seen;
+    private final int[] touched;
+    private int touchedNum;
+
+    // Constructor
+
+    ScoreAccumulator(int docsNum) {
+        scores = new double[docsNum];
+        seen = new boolean[docsNum];
+        touched = new int[docsNum];
+        touchedNum = 0;
+    }
+
+    // Methods
+
+    /*
+     * Number of documents there's room for
+     */
+    int getDocsNum() { return scores.length; }
+
+    void add(int doc, double score) {
+        if (!seen[doc]) {
+            seen[doc] = true;
+            touched[touchedNum++] = doc;
+        }
+        scores[doc] += score;
+    }
+
+    /*
+     * Whether the document has a score (of an earlier term)
+     */
+    boolean has(int doc) { return seen[doc]; }
+
+    int getTouchedNum() { return touchedNum; }
+
+    /*
+     * Number of the i-th touched document
+     */
+    int getTouched(int i) { return touched[i]; }
+
+    double getScore(int doc) { return scores[doc]; }
+
+    /*
+     * Reset the touched documents, to be used by the next query
+     */
+    void clear() {
+        for (int i = 0; i < touchedNum; i++) {
+            scores[touched[i]] = 0.0;
+            seen[touched[i]] = false;
+        }
+        touchedNum = 0;
+    }
+
+}
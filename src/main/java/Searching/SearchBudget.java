@@ -0,0 +1,74 @@
+package Searching;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A limit on the work of one query: a deadline and a max number of postings to score
+ * (shared by the shards of the query). A query with a budget scores the postings of its
+ * terms in impact order (see IndexShard.search) and stops when the budget is used up,
+ * so its results are the best ones found in time. isExact tells whether every posting
+ * was scored, that is whether the results are the same as without a budget
+ */
+public class SearchBudget {
+
+    // Fields
+
+    /*
+     * System.nanoTime() when the time is up (Long.MAX_VALUE if there's no time limit)
+     */
+    private final long deadline;
+
+    /*
+     * Postings that may still be scored (Long.MAX_VALUE if there's no limit)
+     */
+    private final AtomicLong postings;
+
+    private volatile boolean exhausted;
+
+    // Constructor
+
+    /*
+     * A budget of millis ms from now and maxPostings postings (no limit if <= 0)
+     */
+    public SearchBudget(long millis, long maxPostings) {
+        deadline = millis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis) : Long.MAX_VALUE;
+        postings = new AtomicLong(maxPostings > 0 ? maxPostings : Long.MAX_VALUE);
+    }
+
+    // Methods
+
+    /*
+     * Take up to n postings from the budget and return how many were taken
+     * (0 if the time or the postings are up, and the results won't be exact)
+     */
+    int take(int n) {
+        if (System.nanoTime() - deadline > 0) {
+            exhausted = true;
+            return 0;
+        }
+        long left;
+        do {
+            left = postings.get();
+            if (left <= 0) {
+                exhausted = true;
+                return 0;
+            }
+        } while (!postings.compareAndSet(left, left - Math.min(n, left)));
+        return (int) Math.min(n, left);
+    }
+
+    /*
+     * Give back postings that were taken but not scored
+     */
+    void giveBack(int n) {
+        if (n > 0)
+            postings.addAndGet(n);
+    }
+
+    /*
+     * Whether every posting of the query was scored (so far)
+     */
+    public boolean isExact() { return !exhausted; }
+
+}
@@ -0,0 +1,91 @@
+package Searching;
+
+import Utilities.Field;
+import Utilities.PathManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/*
+ * Query time settings of a Searcher (ranking model, field weights etc.),
+ * read from the search config file. Missing settings get their default values
+ */
+public class SearchConfig {
+
+    // Fields
+
+    private final Properties props;
+
+    /*
+     * Weight of every field (in the order of the Field enum)
+     */
+    private final double[] fieldWeights;
+
+    /*
+     * BM25F length normalization of every field
+     */
+    private final double[] fieldB;
+
+    // Constructor
+
+    /*
+     * Load the config file given by PathManager (if it exists)
+     */
+    public SearchConfig() throws IOException {
+        props = new Properties();
+        File f = new File(PathManager.getInstance().getSearchConfigPath());
+        if(f.exists()) {
+            try(InputStream in = new FileInputStream(f)) {
+                props.load(in);
+            }
+        }
+
+        fieldWeights = new double[Field.values().length];
+        fieldB = new double[Field.values().length];
+        double b = getDouble("bm25.b", 0.75);
+        for(Field field : Field.values()) {
+            fieldWeights[field.ordinal()] = getDouble("weight." + field.getTagName(), field.getDefaultWeight());
+            fieldB[field.ordinal()] = getDouble("bm25.b." + field.getTagName(), b);
+        }
+    }
+
+    // Methods
+
+    public String getSimilarity() { return getString("similarity", "bm25f"); }
+
+    public double[] getFieldWeights() { return fieldWeights; }
+
+    public double[] getFieldB() { return fieldB; }
+
+    public double getK1() { return getDouble("bm25.k1", 1.2); }
+
+    public String getString(String key, String defaultValue) {
+        return props.getProperty(key, defaultValue).trim();
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = props.getProperty(key);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = props.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = props.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /*
+     * Change a setting (e.g. to evaluate it). Settings that are read on every query take effect at once
+     */
+    public void set(String key, String value) {
+        props.setProperty(key, value);
+    }
+
+}
@@ -0,0 +1,68 @@
+package Searching;
+
+/*
+ * A single document of a search answer
+ */
+public class SearchResult {
+
+    // Fields
+
+    /*
+     * Document number (position of the document in DocumentsFile.txt, after the documents
+     * of the previous shards; with remote shards, the number in the document's node)
+     */
+    private final int docId;
+
+    /*
+     * PMCID of the article
+     */
+    private final String pmcid;
+
+    /*
+     * Full path of the article's file
+     */
+    private final String path;
+
+    /*
+     * Similarity score of the document to the query
+     */
+    private final double score;
+
+    /*
+     * Cluster of near-duplicates of the document (-1 if it has none). Results
+     * of the same cluster are collapsed into the best one (see TopResults)
+     */
+    private final int cluster;
+
+    // Constructor
+
+    public SearchResult(int docId, String pmcid, String path, double score) {
+        this(docId, pmcid, path, score, -1);
+    }
+
+    public SearchResult(int docId, String pmcid, String path, double score, int cluster) {
+        this.docId = docId;
+        this.pmcid = pmcid;
+        this.path = path;
+        this.score = score;
+        this.cluster = cluster;
+    }
+
+    // Methods
+
+    public int getDocId() { return docId; }
+
+    public String getPmcid() { return pmcid; }
+
+    public String getPath() { return path; }
+
+    public double getScore() { return score; }
+
+    public int getCluster() { return cluster; }
+
+    /*
+     * File name of the article (e.g. 1033658.nxml), also for a file inside an archive (see ArchiveReader)
+     */
+    public String getName() { return path.substring(Math.max(path.lastIndexOf("/"), path.lastIndexOf("!")) + 1); }
+
+}
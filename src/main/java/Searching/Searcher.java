@@ -1,265 +1,595 @@
 package Searching;
 
-import Utilities.PathManager;
+import Utilities.IndexGenerations;
 import Utilities.SharedUtilities;
-import mitos.stemmer.Stemmer;
-import org.apache.commons.lang3.tuple.MutablePair;
-import org.apache.commons.lang3.tuple.MutableTriple;
-import org.apache.lucene.wordnet.SynonymMap;
-import org.json.JSONObject;
-
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
  * A class that provides the appropriate fields and methods to find relevant
- * documents to a query, using an inverted index and vector space model
+ * documents to a query, using an inverted index and a ranking model (see Similarity).
+ * A sharded index is searched shard by shard in parallel, with the statistics of
+ * the whole collection, so results are the same as the ones of a single index
  */
 public class Searcher {
 
     // Fields
 
     /*
-     * Will store the whole vocabulary. Holds information like this:
-     * term1 -> [df1, ptrToPost1, postDataSize1]
-     * term2 -> [df2, ptrToPost2, postDataSize2]
-     * ...
+     * Searches the shards of sharded indexes in parallel (shared by all searchers)
      */
-    private HashMap<String, MutableTriple<Long, Long, Integer>> vocMap;
+    private static final ForkJoinPool SHARD_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
     /*
-     * The documents and posting random access files
+     * Directory of the index (generation) this searcher uses
      */
-    private RandomAccessFile doc, post;
+    private final String indexDir;
 
     /*
-     * Important words in topics.xml file
+     * Users of this searcher (see SearcherManager). The index files
+     * are closed when the last one releases it
      */
-    private HashSet<String> topicImp;
+    private final AtomicInteger refCount = new AtomicInteger(1);
 
     /*
-     * To use synonyms in query expansion, using a WordNet dictionary
+     * The shards of the index (just one if it isn't sharded)
      */
-    private SynonymMap synMap;
+    private ArrayList<IndexShard> shards;
 
-    // Constructor
+    /*
+     * Statistics of the whole collection (of every shard)
+     */
+    private CollectionStats stats;
 
     /*
-     * Initialize things, load vocabulary etc.
+     * Query time settings (ranking model, field weights etc.)
      */
-    public Searcher() throws IOException {
+    private SearchConfig config;
+
+    /*
+     * The shards that searches use, with the statistics of their collection and their ranking
+     * models: the shards of the index, followed by the shards of the documents added since it
+     * was built, if any (see setMemoryShards). A search uses the same view from start to end
+     */
+    private volatile View view;
+
+    private static class View {
+
+        final List<IndexShard> shards;
+        final CollectionStats stats;
+        final List<Similarity> similarities;
 
-        /* Open index files */
-        RandomAccessFile voc = new RandomAccessFile(
-                PathManager.getInstance().getIndexDirPath() + "/VocabularyFile.txt", "rw"
-        );
-        post = new RandomAccessFile(
-                PathManager.getInstance().getIndexDirPath() + "/PostingFile.txt", "rw"
-        );
-        doc = new RandomAccessFile(
-                PathManager.getInstance().getIndexDirPath() + "/DocumentsFile.txt", "rw"
-        );
-
-        /* Load vocabulary in memory */
-        vocMap = new HashMap<>();
-        while(!SharedUtilities.getInstance().isEOFReached(voc)) {
-            String term = voc.readUTF();
-            MutableTriple<Long, Long, Integer> triple = new MutableTriple<>(
-                    voc.readLong(), voc.readLong(), voc.readInt()
-            );
-            vocMap.put(term, triple);
+        /*
+         * Sorted terms of the documents added since the index was built (see getMemoryDictionary)
+         */
+        volatile TermDictionary memoryDictionary;
+
+        View(List<IndexShard> shards, CollectionStats stats, List<Similarity> similarities) {
+            this.shards = shards;
+            this.stats = stats;
+            this.similarities = similarities;
         }
-        voc.close();
+    }
 
-        /* Load important words of topics.xml file */
-        topicImp = new HashSet<>(SharedUtilities.getInstance().parseWords(
-                PathManager.getInstance().getWordsPath() + "/importantInTopics.txt")
-        );
+    /*
+     * Ranking models for the statistics of a bigger collection (see viewFor)
+     */
+    private volatile Map.Entry<CollectionStats, List<Similarity>> foreignSimilarities;
 
-        /* Initialize synonym map using the appropriate WordNet prolog file */
-        synMap = new SynonymMap(new FileInputStream("WordNet/wn_s.pl"));
+    /*
+     * Turns queries into weighted terms
+     */
+    private QueryBuilder queryBuilder;
 
-        Stemmer.Initialize();
+    /*
+     * Prunes the terms of queries (see QueryPlanner)
+     */
+    private QueryPlanner queryPlanner;
 
-        SharedUtilities.getInstance().docsNum = doc.readLong(); // total documents number
+    private SnippetGenerator snippetGenerator;
 
-    }
+    /*
+     * Query suggestions (null if the index has none)
+     */
+    private SuggestIndex suggestions;
 
-    // Methods
+    /*
+     * Sorted terms of every shard of the index, for fuzzy matching of query terms that
+     * aren't in the vocabulary (built on first use, see getTermDictionary)
+     */
+    private volatile TermDictionary termDictionary;
 
     /*
-     * Do searching for a query using vector space model and
-     * return a JSON object with the results
+     * The second phase of searches (see Reranker), created on first use
      */
-    public JSONObject search(String query, String type) throws IOException {
-        JSONObject answer = new JSONObject();
-        double maxTF = 0.0;
-        HashMap<String, MutableTriple<String, HashMap<String, Double>, Double>> docHm = new HashMap<>();
-        HashMap<String, Double> queryHm = new HashMap<>();
+    private volatile Reranker reranker;
 
-        ArrayList<String> queryTokens = makeQueryTokens(query, type);
+    // Constructor
 
-        long startTime = System.nanoTime();
+    /*
+     * Open the current index generation
+     */
+    public Searcher() throws IOException {
+        this(IndexGenerations.currentDir());
+    }
 
-        if(!queryTokens.isEmpty()) {
+    /*
+     * Initialize things, load vocabulary etc. of the index in indexDir
+     */
+    public Searcher(String indexDir) throws IOException {
+
+        this.indexDir = indexDir;
+        config = new SearchConfig();
+
+        /* Load the index of every shard */
+        shards = new ArrayList<>();
+        int docBase = 0;
+        for (String shardDir : IndexGenerations.shardDirs(indexDir)) {
+            IndexShard shard = new IndexShard(shardDir, docBase);
+            shards.add(shard);
+            docBase += shard.getDocsNum();
+        }
+        ArrayList<DocumentNorms> shardNorms = new ArrayList<>();
+        for (IndexShard shard : shards)
+            shardNorms.add(shard.getNorms());
+        stats = CollectionStats.of(shardNorms);
+        SharedUtilities.getInstance().docsNum = stats.getDocsNum();
+        ArrayList<Similarity> similarities = new ArrayList<>();
+        for (IndexShard shard : shards) {
+            shard.setSimilarity(Similarity.forName(config.getSimilarity(), config, shard.getNorms(), stats));
+            similarities.add(shard.getSimilarity());
+        }
+        view = new View(shards, stats, similarities);
+
+        queryBuilder = new QueryBuilder(config, indexDir + "/SynonymsFile.txt");
+        queryPlanner = new QueryPlanner(config);
+        snippetGenerator = new SnippetGenerator(config);
+        if (new File(indexDir + "/SuggestFile.txt").exists())
+            suggestions = new SuggestIndex(indexDir + "/SuggestFile.txt");
+    }
 
-            for (String token : queryTokens) {
+    // Methods
+
+    public String getIndexDir() { return indexDir; }
+
+    /*
+     * The query time settings, read on every query (changing them affects the next queries)
+     */
+    public SearchConfig getConfig() { return config; }
 
-                if (vocMap.containsKey(token)) {
+    /*
+     * Add a user of the searcher, unless it has already been closed
+     */
+    boolean tryIncRef() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0)
+                return false;
+        } while (!refCount.compareAndSet(count, count + 1));
+        return true;
+    }
 
-                    /* For document vector */
-                    long df = vocMap.get(token).getLeft(); // term's df
-                    double idf = Math.log(SharedUtilities.getInstance().docsNum / (double) df) / Math.log(2.0);
-                    long ptrToPost = vocMap.get(token).getMiddle(); // ptr to posting data
-                    int pdSz = vocMap.get(token).getRight(); // posting data size
-                    post.seek(ptrToPost);
-                    do {
-                        String docId = post.readUTF();
-                        double tf = post.readDouble();
-                        long ptrToDoc = post.readLong();
-                        doc.seek(ptrToDoc);
+    /*
+     * Remove a user of the searcher, closing the index files if it was the last one
+     */
+    void decRef() throws IOException {
+        if (refCount.decrementAndGet() == 0) {
+            for (IndexShard shard : shards)
+                shard.close();
+        }
+    }
 
-                        doc.readUTF(); // skip docId, we already have it
-                        String fullPath = doc.readUTF();
-                        double docVecLen = doc.readDouble();
+    /*
+     * Close the index files (for searchers that aren't shared through a SearcherManager)
+     */
+    public void close() throws IOException {
+        decRef();
+    }
 
-                        double weight = tf * idf;
+    /*
+     * Do searching for a query using the configured ranking model and return
+     * the k best documents, best first (all matching documents if k <= 0)
+     */
+    public ArrayList<SearchResult> search(String query, String type, int k) throws IOException {
+        return search(query, type, k, null, null);
+    }
 
-                        if (!docHm.containsKey(docId)) {
-                            HashMap<String, Double> hm = new HashMap<>();
-                            hm.put(token, weight);
-                            MutableTriple<String, HashMap<String, Double>, Double> p =
-                                    new MutableTriple<>(fullPath, hm, docVecLen);
-                            docHm.put(docId, p);
-                        } else {
-                            docHm.get(docId).getMiddle().put(token, weight);
-                        }
-                    } while (post.getFilePointer() != pdSz + ptrToPost);
-                }
+    /*
+     * Search for a query (see search(query, type, k)), keeping only the documents that pass
+     * the filter (if given) and counting the facet values of the matching documents into
+     * counts (if given)
+     */
+    public ArrayList<SearchResult> search(String query, String type, int k, FacetFilter filter,
+                                          FacetCounts counts) throws IOException {
+        return search(query, type, k, filter, counts, null);
+    }
 
-                /* For query vector */
-                double nonNormTF = (double) Collections.frequency(queryTokens, token);
-                if (nonNormTF > maxTF)
-                    maxTF = nonNormTF;
-                queryHm.put(token, nonNormTF); // for now, just store the non-normalized tf values
+    /*
+     * Search for a query (see above) within a budget (if given): the postings are scored in
+     * impact order until the budget is used up, and budget.isExact() tells whether the results
+     * are the same as without it. Indexes without impact ordered postings ignore the budget
+     */
+    public ArrayList<SearchResult> search(String query, String type, int k, FacetFilter filter,
+                                          FacetCounts counts, SearchBudget budget) throws IOException {
+
+        LinkedHashMap<String, Double> queryWeights = queryBuilder.build(query, type);
+        View v = view;
+
+        /* Keep the tokens that exist in the vocabulary, with their statistics in the whole collection */
+        ArrayList<String> terms = new ArrayList<>();
+        ArrayList<TermInfo> globalTerms = new ArrayList<>();
+        ArrayList<Double> weights = new ArrayList<>();
+        LinkedHashMap<String, Double> fuzzyWeights = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> entry : queryWeights.entrySet()) {
+            TermInfo info = getTermStats(v, entry.getKey());
+            if (info != null) {
+                terms.add(entry.getKey());
+                globalTerms.add(info);
+                weights.add(entry.getValue());
             }
-
-            /* Put final weights in query vector and compute its length */
-            double queryVecLen = 0.0;
-            for (String token : queryTokens) {
-                double weight = 0.0;
-                if (vocMap.containsKey(token)) {
-                    double normTF = queryHm.get(token) / maxTF; // normalize tf
-                    long df = vocMap.get(token).getLeft();
-                    double idf = Math.log(SharedUtilities.getInstance().docsNum / (double) df) / Math.log(2.0);
-                    weight = normTF * idf;
-                    queryVecLen += weight * weight;
-                }
-                queryHm.put(token, weight);
+            else if (config.getBoolean("fuzzy.enabled", false))
+                addFuzzyTerms(v, entry.getKey(), entry.getValue(), fuzzyWeights);
+        }
+        for (Map.Entry<String, Double> entry : fuzzyWeights.entrySet()) {
+            if (!queryWeights.containsKey(entry.getKey())) {
+                terms.add(entry.getKey());
+                globalTerms.add(getTermStats(v, entry.getKey()));
+                weights.add(entry.getValue());
             }
-            queryVecLen = Math.sqrt(queryVecLen);
-
-            /* Compute the score (cosine similarity) for each document */
-            List<MutablePair<String, Double>> docList = new ArrayList<>();
-            for (String docId : docHm.keySet()) {
-                Double docVecLen = docHm.get(docId).getRight();
-                double cross = 0.0;
-                for (String term : queryHm.keySet()) {
-                    if (docHm.get(docId).getMiddle().containsKey(term))
-                        cross += queryHm.get(term) * docHm.get(docId).getMiddle().get(term);
-                }
+        }
+        if(terms.isEmpty())
+            return new ArrayList<>();
+        double[] termWeights = new double[weights.size()];
+        for (int t = 0; t < termWeights.length; t++)
+            termWeights[t] = weights.get(t);
+
+        int depth = config.getBoolean("rerank.enabled", false) ? config.getInt("rerank.depth", 100) : 0;
+        if (depth <= 0)
+            return search(v, terms, globalTerms, termWeights, k, filter, counts, budget);
+
+        /* Two phases: the rerank.depth best documents of the first phase (or the k best, if more) are reranked */
+        ArrayList<SearchResult> results = search(v, terms, globalTerms, termWeights, k <= 0 ? 0 : Math.max(k, depth),
+                filter, counts, budget);
+        int candidatesNum = Math.min(depth, results.size());
+        ArrayList<SearchResult> ret = getReranker().rerank(new HashSet<>(terms), results.subList(0, candidatesNum));
+        ret.addAll(results.subList(candidatesNum, results.size())); // with their first phase scores
+        return k <= 0 || ret.size() <= k ? ret : new ArrayList<>(ret.subList(0, k));
+    }
 
-                double score = 0.0;
-                if (queryVecLen != 0) {
-                    score = cross / (docVecLen * queryVecLen);
-                }
+    /*
+     * Estimated cost of a query, before searching for it: the postings of its terms
+     * in this searcher's index (the sum of their df). Fuzzy terms aren't counted
+     */
+    public long cost(String query, String type) throws IOException {
+        long ret = 0;
+        for (String term : queryBuilder.build(query, type).keySet()) {
+            TermInfo info = getTermStats(term);
+            if (info != null)
+                ret += info.getDf();
+        }
+        return ret;
+    }
 
-                docList.add(new MutablePair<>(docHm.get(docId).getLeft(), score));
+    /*
+     * Search for already built query terms, with their weights and their statistics
+     * (df, cf) in the collection, given the statistics of the collection. The collection
+     * may be bigger than this searcher's index, e.g. when other nodes hold the rest of it
+     */
+    public ArrayList<SearchResult> search(List<String> terms, List<TermInfo> globalTerms, double[] termWeights,
+                                          CollectionStats stats, int k) throws IOException {
+        return search(terms, globalTerms, termWeights, stats, k, null, null);
+    }
 
-            }
+    /*
+     * Search for already built query terms (see above), with a facet filter
+     * and facet counts (see search(query, type, k, filter, counts))
+     */
+    public ArrayList<SearchResult> search(List<String> terms, List<TermInfo> globalTerms, double[] termWeights,
+                                          CollectionStats stats, int k, FacetFilter filter,
+                                          FacetCounts counts) throws IOException {
+        return search(terms, globalTerms, termWeights, stats, k, filter, counts, null);
+    }
 
-            /* Sort documents by score */
-            docList.sort(
-                    (MutablePair<String, Double> p1, MutablePair<String, Double> p2) ->
-                    {
-                        if (p1.getRight() > p2.getRight())
-                            return 1;
-                        else if (p1.getRight() < p2.getRight())
-                            return -1;
-                        else
-                            return 0;
-                    });
-
-            /* Put the answer in the JSON object */
-            Iterator<MutablePair<String, Double>> docListIterator = docList.iterator();
-            MutablePair<String, Double> p;
-            int counter = 0;
-            while (docListIterator.hasNext()) {
-                JSONObject docObj = new JSONObject();
-                p = docListIterator.next();
-                docObj.put("name", p.left.substring(p.left.lastIndexOf("/") + 1));
-                docObj.put("full_path", p.left);
-                docObj.put("short_path", p.left.substring(p.left.lastIndexOf("/MedicalCollection")));
-                docObj.put("score", p.right);
-                answer.put("doc" + counter++, docObj);
+    /*
+     * Search for already built query terms (see above) within a budget
+     * (see search(query, type, k, filter, counts, budget))
+     */
+    public ArrayList<SearchResult> search(List<String> terms, List<TermInfo> globalTerms, double[] termWeights,
+                                          CollectionStats stats, int k, FacetFilter filter,
+                                          FacetCounts counts, SearchBudget budget) throws IOException {
+        return search(viewFor(stats), terms, globalTerms, termWeights, k, filter, counts, budget);
+    }
+
+    /*
+     * Search for already built query terms (see above) in the shards of a view, with its statistics
+     */
+    private ArrayList<SearchResult> search(View v, List<String> terms, List<TermInfo> globalTerms,
+                                           double[] termWeights, int k, FacetFilter filter, FacetCounts counts,
+                                           SearchBudget budget) throws IOException {
+
+        List<IndexShard> shards = v.shards;
+        List<Similarity> similarities = v.similarities;
+        boolean collapse = config.getBoolean("collapse.enabled", true);
+
+        /* Leave out or defer the terms that add little to the scores (the term weights are the same in every shard) */
+        QueryPlanner.Plan plan = queryPlanner.plan(terms, globalTerms, termWeights,
+                similarities.get(0).scorer(globalTerms, termWeights), v.stats.getDocsNum());
+
+        if (shards.size() == 1)
+            return shards.get(0).search(similarities.get(0), plan.terms, plan.globalTerms, plan.weights,
+                    plan.essentialNum, k, filter, counts, collapse, budget);
+
+        /* Scatter the query to the shards (the first one runs in this thread) and gather their k best */
+        ArrayList<ForkJoinTask<ArrayList<SearchResult>>> tasks = new ArrayList<>();
+        for (int i = 1; i < shards.size(); i++) {
+            IndexShard shard = shards.get(i);
+            Similarity similarity = similarities.get(i);
+            tasks.add(SHARD_POOL.submit(() -> shard.search(similarity, plan.terms, plan.globalTerms, plan.weights,
+                    plan.essentialNum, k, filter, counts, collapse, budget)));
+        }
+        TopResults best = new TopResults(k, collapse); // near-duplicates may be in different shards
+        best.addAll(shards.get(0).search(similarities.get(0), plan.terms, plan.globalTerms, plan.weights,
+                plan.essentialNum, k, filter, counts, collapse, budget));
+        for (ForkJoinTask<ArrayList<SearchResult>> task : tasks) {
+            try {
+                best.addAll(task.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Search was interrupted");
+            } catch (ExecutionException e) {
+                throw new IOException("Searching a shard failed", e.getCause());
             }
+        }
+
+        return best.getResults(); // best documents first
+    }
 
+    /*
+     * Snippets (titles and passages with the query terms highlighted) of the
+     * results of a query of this searcher, in the order of the results
+     */
+    public ArrayList<Snippet> snippets(List<SearchResult> results, String query, String type) throws IOException {
+        Set<String> queryTerms = queryBuilder.build(query, type).keySet();
+        ArrayList<Snippet> ret = new ArrayList<>();
+        for (SearchResult r : results) {
+            IndexShard shard = shardOf(r.getDocId());
+            ret.add(snippetGenerator.make(shard.getDocument(r.getDocId() - shard.getDocBase()), queryTerms));
         }
+        return ret;
+    }
 
-        long endTime = System.nanoTime();
+    /*
+     * The shards that searches use (see view)
+     */
+    List<IndexShard> getShards() { return view.shards; }
 
-        double searchTime = (endTime - startTime) / 1000000.0;
-        searchTime = BigDecimal.valueOf(searchTime).setScale(3, RoundingMode.HALF_UP).doubleValue();
+    /*
+     * Whether a document of the shards is at the given path (or location inside an archive)
+     */
+    boolean hasDocument(String path) {
+        for (IndexShard shard : view.shards) {
+            if (shard.findPath(path) >= 0)
+                return true;
+        }
+        return false;
+    }
 
-        int resultsNum = answer.length();
-        answer.put("time", searchTime);
-        answer.put("results", resultsNum);
-        return answer;
+    /*
+     * Whether a document of the index (not of the shards of the documents added since it
+     * was built, see setMemoryShards) has the given pmcid
+     */
+    boolean hasPmcid(String pmcid) {
+        for (IndexShard shard : shards) {
+            if (shard.hasPmcid(pmcid))
+                return true;
+        }
+        return false;
     }
 
+    /*
+     * The NXML file of the document at the given path, if the index keeps it (the documents
+     * inside tar.gz archives, see DocumentStore.getSource), null otherwise
+     */
+    byte[] getSource(String path) throws IOException {
+        for (IndexShard shard : view.shards) {
+            int doc = shard.findPath(path);
+            if (doc >= 0)
+                return shard.getSource(doc);
+        }
+        return null;
+    }
 
     /*
-     * Takes a query and the type of the searching, makes the appropriate
-     * processing and returns a collection with the query's tokens
+     * The shard of a document (docId is the number in the whole index)
      */
-    private ArrayList<String> makeQueryTokens(String query, String type) throws IOException {
+    IndexShard shardOf(int docId) {
+        List<IndexShard> shards = view.shards;
+        IndexShard ret = shards.get(0);
+        for (IndexShard s : shards) {
+            if (s.getDocBase() <= docId)
+                ret = s;
+        }
+        return ret;
+    }
 
-        String delimiter = "\t\n\r\f ";
-        ArrayList<String> ret = new ArrayList<>();
-        boolean isTypeGiven = false;
-        type = type.toLowerCase();
-        if(type.equals("diagnosis") || type.equals("test") || type.equals("treatment"))
-            isTypeGiven = true;
+    /*
+     * The reranker of the search config (rerank.reranker), created the first time it's needed
+     */
+    private Reranker getReranker() throws IOException {
+        if (reranker == null) {
+            synchronized (this) {
+                if (reranker == null)
+                    reranker = Reranker.forName(config.getString("rerank.reranker", "features"), config, this);
+            }
+        }
+        return reranker;
+    }
+
+    /*
+     * The n best completions of a query that is being typed (see SuggestIndex.suggest)
+     */
+    public List<Suggestion> suggest(String query, int n) throws IOException {
+        return suggestions == null ? new ArrayList<>() : suggestions.suggest(query, n);
+    }
 
-        query = SharedUtilities.getInstance().doLexicalAnalysis(query); // do lexical analysis
+    /*
+     * Add the terms of the vocabulary that are within a few edits of a term that isn't in it
+     * (e.g. a misspelled one) to fuzzyWeights. A term at distance d gets the weight of the
+     * original term multiplied by fuzzy.decay^d, and only the fuzzy.maxTerms closest (then
+     * most frequent) terms are added. Short terms get fewer edits (none up to 2 characters,
+     * 1 up to 5) and matches must keep the first fuzzy.prefixLength characters of the term
+     */
+    private void addFuzzyTerms(View v, String term, double weight, Map<String, Double> fuzzyWeights) {
+        int maxEdits = Math.min(term.length() <= 2 ? 0 : term.length() <= 5 ? 1 : 2, config.getInt("fuzzy.maxEdits", 2));
+        if (maxEdits <= 0)
+            return;
+        String prefix = term.substring(0, Math.min(config.getInt("fuzzy.prefixLength", 1), term.length()));
+        LinkedHashMap<String, Integer> matches = matchTerms(v, new LevenshteinAutomaton(term, maxEdits), prefix);
+
+        ArrayList<Map.Entry<String, Integer>> best = new ArrayList<>(matches.entrySet());
+        HashMap<String, Long> dfs = new HashMap<>();
+        for (Map.Entry<String, Integer> match : best)
+            dfs.put(match.getKey(), getTermStats(v, match.getKey()).getDf());
+        best.sort((m1, m2) -> m1.getValue().equals(m2.getValue()) ?
+                Long.compare(dfs.get(m2.getKey()), dfs.get(m1.getKey())) : m1.getValue() - m2.getValue());
+        double decay = config.getDouble("fuzzy.decay", 0.5);
+        for (int i = 0; i < Math.min(best.size(), config.getInt("fuzzy.maxTerms", 5)); i++)
+            fuzzyWeights.merge(best.get(i).getKey(), weight * Math.pow(decay, best.get(i).getValue()), Math::max);
+    }
 
-        StringTokenizer tokenizer = new StringTokenizer(query, delimiter);
-        while (tokenizer.hasMoreTokens()) {
-            String currentToken = tokenizer.nextToken();
-            if (!SharedUtilities.getInstance().enSwSet.contains(currentToken)
-                    && !SharedUtilities.getInstance().grSwSet.contains(currentToken)) { // accept only non-stopwords
+    /*
+     * The terms of a view that start with prefix and that the automaton accepts, with their edit
+     * distance: those of the index, and those of the documents added since it was built
+     */
+    private LinkedHashMap<String, Integer> matchTerms(View v, LevenshteinAutomaton automaton, String prefix) {
+        LinkedHashMap<String, Integer> ret = getTermDictionary().match(automaton, prefix);
+        if (v.shards.size() > shards.size()) {
+            for (Map.Entry<String, Integer> match : getMemoryDictionary(v).match(automaton, prefix).entrySet())
+                ret.merge(match.getKey(), match.getValue(), Math::min);
+        }
+        return ret;
+    }
 
-                if(isTypeGiven) {
-                    if(!topicImp.contains(currentToken))
-                        continue; // keep only topic important words (medical terms, diseases etc.)
-//                    String[] synonyms = synMap.getSynonyms(currentToken);
-//                    if(synonyms.length != 0)
-//                        ret.add(Stemmer.Stem(synonyms[0])); // add one synonym after doing stemming on it
+    /*
+     * The dictionary of the terms of the shards of the documents added since the index was built.
+     * It's small next to the index's, and it's built once per view, so a new view (after a refresh
+     * of the added documents, see setMemoryShards) gets a new one
+     */
+    private TermDictionary getMemoryDictionary(View v) {
+        if (v.memoryDictionary == null) {
+            synchronized (v) {
+                if (v.memoryDictionary == null) {
+                    HashSet<String> memoryTerms = new HashSet<>();
+                    for (IndexShard shard : v.shards.subList(shards.size(), v.shards.size()))
+                        memoryTerms.addAll(shard.getTerms());
+                    v.memoryDictionary = new TermDictionary(memoryTerms);
                 }
+            }
+        }
+        return v.memoryDictionary;
+    }
 
-                currentToken = Stemmer.Stem(currentToken); // do stemming
-                ret.add(currentToken);
+    /*
+     * The dictionary of the terms of every shard of the index, built the first time it's needed
+     */
+    private TermDictionary getTermDictionary() {
+        if (termDictionary == null) {
+            synchronized (this) {
+                if (termDictionary == null) {
+                    HashSet<String> allTerms = new HashSet<>();
+                    for (IndexShard shard : shards)
+                        allTerms.addAll(shard.getTerms());
+                    termDictionary = new TermDictionary(allTerms);
+                }
             }
         }
+        return termDictionary;
+    }
 
-        if(isTypeGiven)
-            ret.add(Stemmer.Stem(type)); // add the type as a word
+    /*
+     * Statistics of the collection of this searcher's index (and the documents added since it was built)
+     */
+    public CollectionStats getStats() { return view.stats; }
 
-        return ret;
+    /*
+     * Number of documents of this searcher's index, without the documents added since it was built
+     */
+    int getIndexDocsNum() { return (int) stats.getDocsNum(); }
+
+    /*
+     * Search the shards of the documents that were added after the index was built (see
+     * DocumentIngester) too, from the next search on. Their documents count in the statistics
+     * of the collection, so the ranking models of every shard are made again
+     */
+    void setMemoryShards(List<IndexShard> memoryShards) {
+        List<IndexShard> current = view.shards;
+        if (current.size() == shards.size() + memoryShards.size()
+                && current.subList(shards.size(), current.size()).equals(memoryShards))
+            return; // nothing was added since the last time
+        if (memoryShards.isEmpty()) {
+            view = viewFor(stats); // the index alone
+            return;
+        }
+        ArrayList<IndexShard> all = new ArrayList<>(shards);
+        all.addAll(memoryShards);
+        ArrayList<DocumentNorms> norms = new ArrayList<>();
+        for (IndexShard shard : all)
+            norms.add(shard.getNorms());
+        CollectionStats allStats = CollectionStats.of(norms);
+        ArrayList<Similarity> similarities = new ArrayList<>();
+        for (IndexShard shard : all)
+            similarities.add(Similarity.forName(config.getSimilarity(), config, shard.getNorms(), allStats));
+        view = new View(all, allStats, similarities);
+    }
+
+    /*
+     * df and cf of a term in this searcher's index (null if the term isn't in it)
+     */
+    public TermInfo getTermStats(String term) {
+        return getTermStats(view, term);
+    }
+
+    private TermInfo getTermStats(View v, String term) {
+        long df = 0, cf = 0;
+        for (IndexShard shard : v.shards) {
+            TermInfo info = shard.getTermInfo(term);
+            if (info != null) {
+                df += info.getDf();
+                cf += info.getCf();
+            }
+        }
+        return df > 0 ? new TermInfo(df, cf, -1, 0) : null;
+    }
+
+    /*
+     * The view to search with the given collection statistics: the current one if they are its
+     * statistics, otherwise (see search) the shards of the index with ranking models for these
+     * statistics, which are cached, as they rarely change
+     */
+    private View viewFor(CollectionStats collectionStats) {
+        View v = view;
+        if (collectionStats.equals(v.stats))
+            return v;
+        if (collectionStats.equals(stats)) {
+            ArrayList<Similarity> similarities = new ArrayList<>();
+            for (IndexShard shard : shards)
+                similarities.add(shard.getSimilarity());
+            return new View(shards, stats, similarities);
+        }
+        Map.Entry<CollectionStats, List<Similarity>> cached = foreignSimilarities;
+        if (cached != null && cached.getKey().equals(collectionStats))
+            return new View(shards, collectionStats, cached.getValue());
+        ArrayList<Similarity> ret = new ArrayList<>();
+        for (IndexShard shard : shards)
+            ret.add(Similarity.forName(config.getSimilarity(), config, shard.getNorms(), collectionStats));
+        foreignSimilarities = new AbstractMap.SimpleImmutableEntry<>(collectionStats, ret);
+        return new View(shards, collectionStats, ret);
     }
 
 }
@@ -0,0 +1,160 @@
+package Searching;
+
+import Utilities.IndexGenerations;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Shares a Searcher between threads and replaces it when a new index generation
+ * is published. The new searcher is opened and warmed (with the latest queries)
+ * while the old one keeps serving, then swapped in atomically. Queries that are
+ * running on the old searcher finish on it, and its files are closed after the last one
+ */
+public class SearcherManager {
+
+    // Fields
+
+    private volatile Searcher current;
+
+    /*
+     * Latest queries <query, type>, replayed on a new searcher before it goes live
+     */
+    private final ArrayDeque<String[]> recentQueries;
+    private final int warmQueriesNum;
+
+    private ScheduledExecutorService watcher;
+
+    /*
+     * Documents added since the index was built (null without near-real-time ingestion)
+     */
+    private volatile DocumentIngester ingester;
+
+    // Constructor
+
+    public SearcherManager() throws IOException {
+        current = new Searcher();
+        warmQueriesNum = new SearchConfig().getInt("reload.warmQueries", 32);
+        recentQueries = new ArrayDeque<>();
+    }
+
+    // Methods
+
+    /*
+     * Search with the current searcher (see Searcher.search)
+     */
+    public List<SearchResult> search(String query, String type, int k) throws IOException {
+        recordQuery(query, type);
+        Searcher s = acquire();
+        try {
+            return s.search(query, type, k);
+        } finally {
+            release(s);
+        }
+    }
+
+    /*
+     * Remember a query, to warm up the next searcher with it
+     * (for queries that use an acquired searcher directly)
+     */
+    public void recordQuery(String query, String type) {
+        synchronized (recentQueries) {
+            recentQueries.addLast(new String[] {query, type});
+            if (recentQueries.size() > warmQueriesNum)
+                recentQueries.removeFirst();
+        }
+    }
+
+    /*
+     * Get the current searcher. It must be given back with release when it's not needed any more
+     */
+    public Searcher acquire() {
+        while (true) {
+            Searcher s = current;
+            if (s.tryIncRef())
+                return s;
+            // s was swapped out and closed in the meantime, the next read gets the new one
+        }
+    }
+
+    public void release(Searcher s) throws IOException {
+        s.decRef();
+    }
+
+    /*
+     * Open the current index generation if it isn't the one in use. Returns true if the searcher was replaced
+     */
+    public synchronized boolean maybeReload() throws IOException {
+        String dir = IndexGenerations.currentDir();
+        if (dir.equals(current.getIndexDir()))
+            return false;
+
+        Searcher fresh = new Searcher(dir);
+        if (ingester != null)
+            ingester.attach(fresh);
+        warm(fresh);
+
+        Searcher old = current;
+        current = fresh;
+        old.decRef(); // closed when the queries still running on it finish
+        System.out.println("Searcher reloaded: " + dir);
+        return true;
+    }
+
+    /*
+     * Search the documents of an ingester too, with this searcher and the ones that replace it
+     */
+    synchronized void setIngester(DocumentIngester ingester) {
+        this.ingester = ingester;
+        ingester.attach(current);
+    }
+
+    /*
+     * Make the documents ingested since the last refresh searchable (see DocumentIngester.attach)
+     */
+    synchronized void refreshMemory() {
+        if (ingester != null)
+            ingester.attach(current);
+    }
+
+    /*
+     * Run the latest queries on a searcher, so that its postings are in the page cache
+     * and its code is compiled before real queries come
+     */
+    private void warm(Searcher s) throws IOException {
+        List<String[]> queries;
+        synchronized (recentQueries) {
+            queries = new ArrayList<>(recentQueries);
+        }
+        for (String[] q : queries)
+            s.search(q[0], q[1], 10);
+    }
+
+    /*
+     * Check for a new index generation every intervalSeconds, in a background thread
+     */
+    public synchronized void startWatching(long intervalSeconds) {
+        if (watcher != null)
+            return;
+        watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "index-watcher");
+            t.setDaemon(true);
+            return t;
+        });
+        watcher.scheduleWithFixedDelay(() -> {
+            try {
+                maybeReload();
+            } catch (Exception e) {
+                e.printStackTrace(); // keep the old searcher and try again later
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public String getIndexDir() { return current.getIndexDir(); }
+
+}
@@ -0,0 +1,196 @@
+package Searching;
+
+import Utilities.Facet;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static spark.Spark.post;
+
+/*
+ * The internal endpoints of a node that serves a part (shard) of the collection
+ * to a coordinator (see DistributedSearcher). A distributed query takes two requests:
+ * /internal/stats returns the statistics of the shard for the query terms, and
+ * /internal/search scores the shard's documents with the statistics of every shard.
+ * Searches go through the admission control of the node (see AdmissionController)
+ */
+public class ShardServer {
+
+    // Fields
+
+    private final SearcherManager searchers;
+
+    private final AdmissionController admission;
+
+    // Constructor
+
+    public ShardServer(SearcherManager searchers, AdmissionController admission) {
+        this.searchers = searchers;
+        this.admission = admission;
+    }
+
+    // Methods
+
+    /*
+     * Register the endpoints (the Spark server must be configured already)
+     */
+    public void start() {
+
+        /*
+         * { terms: [t1, t2, ...] } -> { docsNum, fieldLens: [...], df: [...], cf: [...] }
+         */
+        post("/internal/stats", (req, res) -> {
+            JSONArray terms = new JSONObject(req.body()).getJSONArray("terms");
+            Searcher s = searchers.acquire();
+            try {
+                JSONObject answer = statsToJSON(s.getStats());
+                JSONArray df = new JSONArray(), cf = new JSONArray();
+                for (int t = 0; t < terms.length(); t++) {
+                    TermInfo info = s.getTermStats(terms.getString(t));
+                    df.put(info == null ? 0 : info.getDf());
+                    cf.put(info == null ? 0 : info.getCf());
+                }
+                answer.put("df", df);
+                answer.put("cf", cf);
+                res.type("application/json");
+                return answer;
+            } finally {
+                searchers.release(s);
+            }
+        });
+
+        /*
+         * { terms, weights, df, cf (of the whole collection), docsNum, fieldLens, k, filter (optional),
+         *   budget: { ms, postings } (optional) }
+         * -> { results: [{ pmcid, path, score, docId, cluster }, ...] (best first), facets: (all facet counts), exact }
+         * or 429/503 if admission control rejects the search
+         */
+        post("/internal/search", (req, res) -> {
+            JSONObject body = new JSONObject(req.body());
+            JSONArray termsJSON = body.getJSONArray("terms");
+            ArrayList<String> terms = new ArrayList<>();
+            ArrayList<TermInfo> globalTerms = new ArrayList<>();
+            double[] weights = new double[termsJSON.length()];
+            for (int t = 0; t < termsJSON.length(); t++) {
+                terms.add(termsJSON.getString(t));
+                globalTerms.add(new TermInfo(body.getJSONArray("df").getLong(t), body.getJSONArray("cf").getLong(t), -1, 0));
+                weights[t] = body.getJSONArray("weights").getDouble(t);
+            }
+
+            FacetFilter filter = body.has("filter") ? filterFromJSON(body.getJSONObject("filter")) : null;
+            FacetCounts counts = new FacetCounts();
+            long millis = body.has("budget") ? body.getJSONObject("budget").getLong("ms") : 0;
+            long postings = body.has("budget") ? body.getJSONObject("budget").getLong("postings") : 0;
+            Searcher s = searchers.acquire();
+            List<SearchResult> results;
+            SearchBudget budget;
+            try {
+                /* The cost of the search: the postings of the terms in this shard, from their df in the whole collection */
+                long cost = 0;
+                for (TermInfo info : globalTerms)
+                    cost += info.getDf();
+                cost = (long) ((double) cost * s.getStats().getDocsNum() / Math.max(body.getLong("docsNum"), 1));
+                AdmissionController.Permit permit = admission.admit(cost);
+                if (!permit.isAdmitted())
+                    return Controller.reject(res, permit);
+                try {
+                    budget = admission.budget(permit, millis, postings);
+                    results = s.search(terms, globalTerms, weights, statsFromJSON(body), body.getInt("k"), filter,
+                            counts, budget);
+                } finally {
+                    admission.release(permit);
+                }
+            } finally {
+                searchers.release(s);
+            }
+
+            JSONArray resultsJSON = new JSONArray();
+            for (SearchResult r : results) {
+                JSONObject r1 = new JSONObject();
+                r1.put("pmcid", r.getPmcid());
+                r1.put("path", r.getPath());
+                r1.put("score", r.getScore());
+                r1.put("docId", r.getDocId());
+                r1.put("cluster", r.getCluster());
+                resultsJSON.put(r1);
+            }
+            res.type("application/json");
+            return new JSONObject().put("results", resultsJSON).put("facets", countsToJSON(counts, 0))
+                    .put("exact", budget == null || budget.isExact());
+        });
+    }
+
+    /*
+     * { docsNum, fieldLens: [total length of every field] }
+     */
+    static JSONObject statsToJSON(CollectionStats stats) {
+        JSONObject ret = new JSONObject();
+        ret.put("docsNum", stats.getDocsNum());
+        JSONArray fieldLens = new JSONArray();
+        for (int f = 0; f < stats.getFieldsNum(); f++)
+            fieldLens.put(stats.getTotalFieldLength(f));
+        ret.put("fieldLens", fieldLens);
+        return ret;
+    }
+
+    static CollectionStats statsFromJSON(JSONObject json) {
+        JSONArray fieldLensJSON = json.getJSONArray("fieldLens");
+        long[] fieldLens = new long[fieldLensJSON.length()];
+        for (int f = 0; f < fieldLens.length; f++)
+            fieldLens[f] = fieldLensJSON.getLong(f);
+        return new CollectionStats(json.getLong("docsNum"), fieldLens);
+    }
+
+    /*
+     * { facet1: [value1, value2, ...], facet2: ... }
+     */
+    static JSONObject filterToJSON(FacetFilter filter) {
+        JSONObject ret = new JSONObject();
+        for (Facet facet : Facet.values()) {
+            if (!filter.getValues(facet).isEmpty())
+                ret.put(facet.getName(), new JSONArray(filter.getValues(facet)));
+        }
+        return ret;
+    }
+
+    static FacetFilter filterFromJSON(JSONObject json) {
+        FacetFilter ret = new FacetFilter();
+        for (String name : json.keySet()) {
+            JSONArray values = json.getJSONArray(name);
+            for (int v = 0; v < values.length(); v++)
+                ret.add(Facet.fromName(name), values.getString(v));
+        }
+        return ret;
+    }
+
+    /*
+     * { facet1: { value1: count1, ... }, ... } with the n most frequent values of every facet (all if n <= 0)
+     */
+    static JSONObject countsToJSON(FacetCounts counts, int n) {
+        JSONObject ret = new JSONObject();
+        for (Facet facet : Facet.values()) {
+            JSONObject values = new JSONObject();
+            for (Map.Entry<String, Integer> value : counts.getTop(facet, n).entrySet())
+                values.put(value.getKey(), value.getValue());
+            ret.put(facet.getName(), values);
+        }
+        return ret;
+    }
+
+    /*
+     * Add counts written with countsToJSON to counts
+     */
+    static void addCountsFromJSON(JSONObject json, FacetCounts counts) {
+        for (Facet facet : Facet.values()) {
+            if (!json.has(facet.getName()))
+                continue;
+            JSONObject values = json.getJSONObject(facet.getName());
+            for (String value : values.keySet())
+                counts.add(facet, value, values.getInt(value));
+        }
+    }
+
+}
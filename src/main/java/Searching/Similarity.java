@@ -0,0 +1,60 @@
+package Searching;
+
+import java.util.List;
+
+/*
+ * A ranking model. The Searcher walks the postings of the query terms once and,
+ * for every posting, asks the query's Scorer for the contribution of the term to
+ * the document's score. Everything that doesn't depend on the posting (idf,
+ * length normalization tables etc.) is computed before the walk
+ */
+public interface Similarity {
+
+    /*
+     * Scores the postings of one query
+     */
+    interface Scorer {
+
+        /*
+         * Contribution of the query term with the given position in the query's
+         * terms list to the score of a document containing it
+         */
+        double score(int term, int doc, int[] fieldTFs);
+
+        /*
+         * Weight of the query term with the given position (its query weight times its idf or
+         * the like), which orders the impact segments of the terms' postings (see IndexShard.search)
+         */
+        double weight(int term);
+
+        /*
+         * Final score of a document, given the sum of its terms' contributions
+         */
+        double finish(int doc, double score);
+    }
+
+    /*
+     * Prepare the scoring of a query with the given (known) terms and their weight in the query.
+     * The df and cf of the terms are the ones of the whole collection
+     * (their tf, or less for terms added by query expansion)
+     */
+    Scorer scorer(List<TermInfo> terms, double[] queryWeights);
+
+    /*
+     * Create the similarity with the given name (as in the search config file) for the
+     * documents of an index, given the statistics of the whole collection
+     */
+    static Similarity forName(String name, SearchConfig config, DocumentNorms norms, CollectionStats stats) {
+        switch (name) {
+            case "cosine":
+                return new CosineSimilarity(config, norms, stats);
+            case "bm25f":
+                return new BM25FSimilarity(config, norms, stats);
+            case "lm":
+                return new DirichletLMSimilarity(config, norms, stats);
+            default:
+                throw new IllegalArgumentException("Unknown similarity: " + name);
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package Searching;
+
+/*
+ * What is shown for a search result: its title and a passage of its text,
+ * as HTML, with the query terms in <b> tags
+ */
+public class Snippet {
+
+    // Fields
+
+    private final String title, text;
+
+    // Constructor
+
+    public Snippet(String title, String text) {
+        this.title = title;
+        this.text = text;
+    }
+
+    // Methods
+
+    public String getTitle() { return title; }
+
+    public String getText() { return text; }
+
+}
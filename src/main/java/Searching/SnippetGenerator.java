@@ -0,0 +1,157 @@
+package Searching;
+
+import Utilities.SharedUtilities;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Makes the snippet of a document for a query: its title and the passage of its
+ * stored text (abstract and beginning of the body) with the most distinct query terms,
+ * with the words that match query terms in <b> tags
+ */
+class SnippetGenerator {
+
+    // Fields
+
+    static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+
+    /*
+     * Length of a passage in words
+     */
+    private final int passageWords;
+
+    // Constructor
+
+    SnippetGenerator(SearchConfig config) {
+        passageWords = Math.max(1, config.getInt("snippets.words", 30));
+    }
+
+    // Methods
+
+    /*
+     * Snippet of a document for the (stemmed) terms of a query
+     */
+    Snippet make(StoredDocument doc, Set<String> queryTerms) throws IOException {
+        HashMap<String, String> stems = new HashMap<>(); // word -> matching query term (or "")
+
+        String title = doc.getTitle();
+        String text = doc.getExcerpt().isEmpty() ? doc.getAbstract()
+                : doc.getAbstract().isEmpty() ? doc.getExcerpt()
+                : doc.getAbstract() + " " + doc.getExcerpt();
+
+        /* Find the words of the text and the query terms they match */
+        ArrayList<int[]> words = new ArrayList<>(); // [start, end] of every word
+        ArrayList<String> matches = new ArrayList<>(); // matched query term of every word (or null)
+        Matcher m = WORD.matcher(text);
+        while (m.find()) {
+            words.add(new int[] {m.start(), m.end()});
+            matches.add(match(m.group(), queryTerms, stems));
+        }
+
+        /* Slide a window over the words, keeping the one with the most distinct (then most) query terms */
+        int n = Math.min(passageWords, words.size());
+        HashMap<String, Integer> counts = new HashMap<>();
+        int matchesNum = 0, bestStart = 0, bestDistinct = -1, bestMatches = -1;
+        for (int end = 0; end < words.size(); end++) {
+            if (matches.get(end) != null) {
+                counts.merge(matches.get(end), 1, Integer::sum);
+                matchesNum++;
+            }
+            int start = end - n + 1;
+            if (start < 0)
+                continue;
+            if (counts.size() > bestDistinct || (counts.size() == bestDistinct && matchesNum > bestMatches)) {
+                bestStart = start;
+                bestDistinct = counts.size();
+                bestMatches = matchesNum;
+            }
+            String first = matches.get(start);
+            if (first != null) {
+                matchesNum--;
+                if (counts.merge(first, -1, Integer::sum) == 0)
+                    counts.remove(first);
+            }
+        }
+
+        StringBuilder passage = new StringBuilder();
+        if (n > 0) {
+            int from = words.get(bestStart)[0], to = words.get(bestStart + n - 1)[1];
+            if (bestStart > 0)
+                passage.append("... ");
+            highlight(passage, text, from, to, words.subList(bestStart, bestStart + n), matches.subList(bestStart, bestStart + n));
+            if (bestStart + n < words.size())
+                passage.append(" ...");
+        }
+
+        /* The title is shown whole */
+        ArrayList<int[]> titleWords = new ArrayList<>();
+        ArrayList<String> titleMatches = new ArrayList<>();
+        m = WORD.matcher(title);
+        while (m.find()) {
+            titleWords.add(new int[] {m.start(), m.end()});
+            titleMatches.add(match(m.group(), queryTerms, stems));
+        }
+        StringBuilder titleHtml = new StringBuilder();
+        highlight(titleHtml, title, 0, title.length(), titleWords, titleMatches);
+
+        return new Snippet(titleHtml.toString(), passage.toString());
+    }
+
+    /*
+     * The query term a word of a document matches (null if none). Words are stemmed only
+     * if they start like a query term (stems are prefixes of their words, apart from the
+     * last letter at most), as stemming every word would be the slowest part of the snippets
+     */
+    static String match(String word, Set<String> queryTerms, HashMap<String, String> stems) throws IOException {
+        String lower = word.toLowerCase();
+        String term = stems.get(lower);
+        if (term == null) {
+            term = "";
+            for (String queryTerm : queryTerms) {
+                if (lower.startsWith(queryTerm.substring(0, Math.max(1, queryTerm.length() - 1)))) {
+                    String stem = SharedUtilities.getInstance().stem(lower);
+                    if (queryTerms.contains(stem))
+                        term = stem;
+                    break;
+                }
+            }
+            stems.put(lower, term);
+        }
+        return term.isEmpty() ? null : term;
+    }
+
+    /*
+     * Append text[from, to) as HTML, with the matching words in <b> tags
+     */
+    private void highlight(StringBuilder out, String text, int from, int to, List<int[]> words, List<String> matches) {
+        int pos = from;
+        for (int i = 0; i < words.size(); i++) {
+            if (matches.get(i) == null)
+                continue;
+            int[] word = words.get(i);
+            escape(out, text, pos, word[0]);
+            out.append("<b>");
+            escape(out, text, word[0], word[1]);
+            out.append("</b>");
+            pos = word[1];
+        }
+        escape(out, text, pos, to);
+    }
+
+    private void escape(StringBuilder out, String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': out.append("&lt;"); break;
+                case '>': out.append("&gt;"); break;
+                case '&': out.append("&amp;"); break;
+                case '"': out.append("&quot;"); break;
+                default: out.append(c);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package Searching;
+
+/*
+ * The text of a document kept in the document store (see Indexing.DocumentStoreWriter)
+ */
+public class StoredDocument {
+
+    // Fields
+
+    private final String title, abstr, excerpt;
+
+    // Constructor
+
+    public StoredDocument(String title, String abstr, String excerpt) {
+        this.title = title;
+        this.abstr = abstr;
+        this.excerpt = excerpt;
+    }
+
+    // Methods
+
+    public String getTitle() { return title; }
+
+    public String getAbstract() { return abstr; }
+
+    /*
+     * The beginning of the body
+     */
+    public String getExcerpt() { return excerpt; }
+
+}
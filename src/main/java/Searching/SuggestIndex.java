@@ -0,0 +1,197 @@
+package Searching;
+
+import Utilities.SharedUtilities;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/*
+ * The query suggestions of an index (SuggestFile.txt, see Indexing.SuggestCompiler), loaded
+ * in memory as they are stored: front coded blocks of words, found by binary search over the
+ * first word of every block. The words with a prefix are a range of blocks, and the most
+ * frequent of them are found without decoding the whole range, going through the blocks in
+ * order of their max df (with a sparse table of the max df of every range of blocks)
+ */
+public class SuggestIndex {
+
+    // Fields
+
+    /*
+     * The blocks of words, and where every block starts
+     */
+    private final byte[] blocks;
+    private final int[] offsets;
+
+    /*
+     * First word and max df of every block
+     */
+    private final String[] firstWords;
+    private final int[] maxDfs;
+
+    /*
+     * maxBlocks[l][b]: the block with the max df among blocks b ... b + 2^l - 1
+     */
+    private final int[][] maxBlocks;
+
+    // Constructor
+
+    public SuggestIndex(String path) throws IOException {
+        byte[] file = Files.readAllBytes(Paths.get(path));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(file));
+        in.readInt(); // words number
+        int blocksNum = in.readInt();
+        offsets = new int[blocksNum];
+        maxDfs = new int[blocksNum];
+        for (int b = 0; b < blocksNum; b++) {
+            offsets[b] = in.readInt();
+            maxDfs[b] = in.readInt();
+        }
+        int header = 8 + 8 * blocksNum;
+        blocks = Arrays.copyOfRange(file, header, file.length);
+
+        firstWords = new String[blocksNum];
+        for (int b = 0; b < blocksNum; b++) {
+            DataInputStream block = openBlock(b);
+            SharedUtilities.getInstance().readVInt(block); // no shared prefix
+            firstWords[b] = block.readUTF();
+        }
+
+        int levels = 1;
+        while ((1 << levels) <= blocksNum)
+            levels++;
+        maxBlocks = new int[levels][];
+        maxBlocks[0] = new int[blocksNum];
+        for (int b = 0; b < blocksNum; b++)
+            maxBlocks[0][b] = b;
+        for (int l = 1; l < levels; l++) {
+            maxBlocks[l] = new int[blocksNum - (1 << l) + 1];
+            for (int b = 0; b < maxBlocks[l].length; b++) {
+                int b1 = maxBlocks[l - 1][b], b2 = maxBlocks[l - 1][b + (1 << (l - 1))];
+                maxBlocks[l][b] = maxDfs[b1] >= maxDfs[b2] ? b1 : b2;
+            }
+        }
+    }
+
+    // Methods
+
+    /*
+     * The n best completions of the last word of a query that is being typed: the words
+     * that start with it, the most frequent first. Nothing if the query ends with a space
+     */
+    public List<Suggestion> suggest(String query, int n) throws IOException {
+        ArrayList<Suggestion> ret = new ArrayList<>();
+        String text = SharedUtilities.getInstance().doLexicalAnalysis(query);
+        if (text.isEmpty() || Character.isWhitespace(text.charAt(text.length() - 1)) || n <= 0 || firstWords.length == 0)
+            return ret;
+        int wordStart = text.length();
+        while (wordStart > 0 && !Character.isWhitespace(text.charAt(wordStart - 1)))
+            wordStart--;
+        String before = text.substring(0, wordStart).trim().replaceAll("\\s+", " ");
+        String prefix = text.substring(wordStart);
+
+        /* Blocks that may have words with the prefix: from the last block starting before it to the last starting with it */
+        int first = Math.max(0, countBlocksBefore(prefix) - 1);
+        int last = countBlocksBefore(prefix + Character.MAX_VALUE) - 1;
+        if (last < first)
+            return ret;
+
+        /* Best first search: ranges of blocks (with their max df) and words, the most frequent first */
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+        candidates.add(new Candidate(first, last));
+        while (!candidates.isEmpty() && ret.size() < n) {
+            Candidate c = candidates.poll();
+            if (c.word != null) {
+                ret.add(new Suggestion(before.isEmpty() ? c.word : before + " " + c.word, c.word, c.stem, c.df));
+                continue;
+            }
+            int block = c.maxBlock;
+            if (block > c.from)
+                candidates.add(new Candidate(c.from, block - 1));
+            if (block < c.to)
+                candidates.add(new Candidate(block + 1, c.to));
+            decodeBlock(block, prefix, candidates);
+        }
+        return ret;
+    }
+
+    /*
+     * Number of blocks whose first word is smaller than word
+     */
+    private int countBlocksBefore(String word) {
+        int low = 0, high = firstWords.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (firstWords[mid].compareTo(word) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /*
+     * Block with the max df among blocks from ... to
+     */
+    private int maxBlock(int from, int to) {
+        int l = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+        int b1 = maxBlocks[l][from], b2 = maxBlocks[l][to - (1 << l) + 1];
+        return maxDfs[b1] >= maxDfs[b2] ? b1 : b2;
+    }
+
+    /*
+     * Add the words of a block that start with prefix to candidates
+     */
+    private void decodeBlock(int block, String prefix, PriorityQueue<Candidate> candidates) throws IOException {
+        DataInputStream in = openBlock(block);
+        String word = "";
+        while (in.available() > 0) {
+            word = word.substring(0, SharedUtilities.getInstance().readVInt(in)) + in.readUTF();
+            String stem = word.substring(0, SharedUtilities.getInstance().readVInt(in)) + in.readUTF();
+            int df = SharedUtilities.getInstance().readVInt(in);
+            if (word.startsWith(prefix))
+                candidates.add(new Candidate(word, stem, df));
+        }
+    }
+
+    private DataInputStream openBlock(int block) {
+        int end = block + 1 < offsets.length ? offsets[block + 1] : blocks.length;
+        return new DataInputStream(new ByteArrayInputStream(blocks, offsets[block], end - offsets[block]));
+    }
+
+    /*
+     * A word or a range of blocks (from ... to) in the search for the best completions.
+     * Candidates are ordered by df (the max df of a range), words before ranges on ties
+     */
+    private class Candidate implements Comparable<Candidate> {
+
+        final String word, stem;
+        final int from, to, maxBlock, df;
+
+        Candidate(String word, String stem, int df) {
+            this.word = word;
+            this.stem = stem;
+            this.df = df;
+            from = to = maxBlock = -1;
+        }
+
+        Candidate(int from, int to) {
+            this.word = this.stem = null;
+            this.from = from;
+            this.to = to;
+            maxBlock = maxBlock(from, to);
+            df = maxDfs[maxBlock];
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (df != other.df)
+                return Integer.compare(other.df, df);
+            if ((word == null) != (other.word == null))
+                return word != null ? -1 : 1;
+            return word != null ? word.compareTo(other.word) : Integer.compare(from, other.from);
+        }
+    }
+
+}
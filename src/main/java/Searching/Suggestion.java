@@ -0,0 +1,44 @@
+package Searching;
+
+/*
+ * A completion of a query that is being typed
+ */
+public class Suggestion {
+
+    // Fields
+
+    /*
+     * The query with its last word completed
+     */
+    private final String text;
+
+    /*
+     * The completed word, as it appears in the documents, and its stem (the index term)
+     */
+    private final String word, stem;
+
+    /*
+     * Number of documents that contain the word
+     */
+    private final int df;
+
+    // Constructor
+
+    public Suggestion(String text, String word, String stem, int df) {
+        this.text = text;
+        this.word = word;
+        this.stem = stem;
+        this.df = df;
+    }
+
+    // Methods
+
+    public String getText() { return text; }
+
+    public String getWord() { return word; }
+
+    public String getStem() { return stem; }
+
+    public int getDf() { return df; }
+
+}
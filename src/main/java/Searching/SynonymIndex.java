@@ -0,0 +1,77 @@
+package Searching;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+
+/*
+ * The synonyms of SynonymsFile.txt (see Indexing.SynonymCompiler). The file is
+ * memory mapped and terms are found with binary search on it, so opening it
+ * costs nothing and only the pages of the looked up terms are ever read.
+ * It's safe to use from many threads (only absolute reads are done)
+ */
+public class SynonymIndex {
+
+    // Fields
+
+    private final MappedByteBuffer buf;
+    private final int termsNum;
+
+    /*
+     * Where the records start (after the offsets)
+     */
+    private final int recordsStart;
+
+    // Constructor
+
+    public SynonymIndex(String path) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(path, "r")) {
+            buf = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+        }
+        termsNum = buf.getInt(0);
+        recordsStart = 4 + 4 * termsNum;
+    }
+
+    // Methods
+
+    /*
+     * Synonyms of a (stemmed) term and their weights, best first (empty if there are none)
+     */
+    public LinkedHashMap<String, Float> getSynonyms(String term) throws IOException {
+        LinkedHashMap<String, Float> ret = new LinkedHashMap<>();
+        int low = 0, high = termsNum - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = recordsStart + buf.getInt(4 + 4 * mid);
+            int c = readUTF(pos).compareTo(term);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                pos += 2 + (buf.getShort(pos) & 0xFFFF); // skip term
+                int synonymsNum = buf.get(pos++) & 0xFF;
+                for (int i = 0; i < synonymsNum; i++) {
+                    String synonym = readUTF(pos);
+                    pos += 2 + (buf.getShort(pos) & 0xFFFF);
+                    ret.put(synonym, buf.getFloat(pos));
+                    pos += 4;
+                }
+                break;
+            }
+        }
+        return ret;
+    }
+
+    /*
+     * Read a string written with DataOutput.writeUTF at position pos
+     */
+    private String readUTF(int pos) throws IOException {
+        byte[] bytes = new byte[2 + (buf.getShort(pos) & 0xFFFF)];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buf.get(pos + i);
+        return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+    }
+
+}
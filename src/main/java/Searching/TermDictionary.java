@@ -0,0 +1,146 @@
+package Searching;
+
+import java.util.*;
+
+/*
+ * The terms of an index, sorted, for lookups that a hash map can't do: it finds the terms
+ * that a LevenshteinAutomaton accepts by running the automaton over the terms in order, as
+ * if they were a trie. Terms share the states of their common prefix with the previous term,
+ * and when a prefix leads to a dead state, the search jumps (with a galloping search) to the
+ * next prefix that doesn't, skipping every term in between. The terms are packed in a single
+ * character array, so that the searches don't chase a String object for every term they look at
+ */
+class TermDictionary {
+
+    // Fields
+
+    /*
+     * The characters of all the terms, sorted, and where every term starts (plus where the last one ends)
+     */
+    private final char[] chars;
+    private final int[] starts;
+
+    private final int termsNum, maxLength;
+
+    // Constructor
+
+    TermDictionary(Collection<String> terms) {
+        String[] sorted = terms.toArray(new String[0]);
+        Arrays.sort(sorted);
+        termsNum = sorted.length;
+        starts = new int[termsNum + 1];
+        int length = 0, max = 0;
+        for (int i = 0; i < termsNum; i++) {
+            starts[i] = length;
+            length += sorted[i].length();
+            max = Math.max(max, sorted[i].length());
+        }
+        starts[termsNum] = length;
+        chars = new char[length];
+        for (int i = 0; i < termsNum; i++)
+            sorted[i].getChars(0, sorted[i].length(), chars, starts[i]);
+        maxLength = max;
+    }
+
+    // Methods
+
+    /*
+     * The terms that start with prefix and that the automaton accepts, with their edit distance
+     */
+    LinkedHashMap<String, Integer> match(LevenshteinAutomaton automaton, String prefix) {
+        LinkedHashMap<String, Integer> ret = new LinkedHashMap<>();
+        int[] states = new int[maxLength + 1]; // states[d]: state after the first d characters of the current term
+        states[0] = automaton.getStart();
+        int previous = -1; // previous term
+        int validDepth = 0; // states of the previous term that are still valid
+        int i = prefix.isEmpty() ? 0 : seek(prefix.toCharArray(), 0, prefix.length() - 1, prefix.charAt(prefix.length() - 1), 0);
+        while (i < termsNum && startsWith(i, prefix)) {
+            int start = starts[i], length = starts[i + 1] - start;
+            int depth = previous < 0 ? 0 : Math.min(sharedPrefix(previous, i), validDepth);
+            boolean isDead = false;
+            while (depth < length) {
+                states[depth + 1] = automaton.step(states[depth], chars[start + depth]);
+                depth++;
+                if (automaton.isDead(states[depth])) {
+                    isDead = true;
+                    break;
+                }
+            }
+            previous = i;
+            validDepth = depth;
+            if (isDead) {
+                /* Jump to the first term with a prefix that may still match: change the last character that
+                   led to a dead state to the next one that doesn't, or else the character before it etc. */
+                int pos = depth - 1;
+                int next = -1;
+                while (pos >= 0 && (next = automaton.nextLiveChar(states[pos], chars[start + pos])) < 0)
+                    pos--;
+                if (pos < 0)
+                    break; // no term after this one can match
+                i = seek(chars, start, pos, (char) next, i + 1);
+                validDepth = pos;
+                continue;
+            }
+            int distance = automaton.getDistance(states[depth]);
+            if (distance >= 0)
+                ret.put(new String(chars, start, length), distance);
+            i++;
+        }
+        return ret;
+    }
+
+    /*
+     * Position of the first term (from position from on) that isn't smaller than the
+     * len characters of base from baseStart on, followed by c
+     */
+    private int seek(char[] base, int baseStart, int len, char c, int from) {
+        int low = from, high = from, step = 1;
+        while (high < termsNum && compare(high, base, baseStart, len, c) < 0) {
+            low = high + 1;
+            high = from + step;
+            step *= 2;
+        }
+        high = Math.min(high, termsNum);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, base, baseStart, len, c) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /*
+     * Compare the i-th term with the len characters of base from baseStart on, followed by c
+     */
+    private int compare(int i, char[] base, int baseStart, int len, char c) {
+        int start = starts[i], length = starts[i + 1] - start;
+        for (int j = 0; j < len; j++) {
+            if (j == length)
+                return -1;
+            int diff = chars[start + j] - base[baseStart + j];
+            if (diff != 0)
+                return diff;
+        }
+        return length == len ? -1 : chars[start + len] - c;
+    }
+
+    private boolean startsWith(int i, String prefix) {
+        if (starts[i + 1] - starts[i] < prefix.length())
+            return false;
+        for (int j = 0; j < prefix.length(); j++) {
+            if (chars[starts[i] + j] != prefix.charAt(j))
+                return false;
+        }
+        return true;
+    }
+
+    private int sharedPrefix(int i1, int i2) {
+        int n = Math.min(starts[i1 + 1] - starts[i1], starts[i2 + 1] - starts[i2]), j = 0;
+        while (j < n && chars[starts[i1] + j] == chars[starts[i2] + j])
+            j++;
+        return j;
+    }
+
+}
@@ -0,0 +1,62 @@
+package Searching;
+
+/*
+ * What the vocabulary (VocabularyFile.txt) keeps for a term
+ */
+public class TermInfo {
+
+    // Fields
+
+    /*
+     * Number of documents that contain the term
+     */
+    private final long df;
+
+    /*
+     * Number of occurrences of the term in the collection (in every field)
+     */
+    private final long cf;
+
+    /*
+     * Pointer to the term's posting data and the size of it (in bytes)
+     */
+    private final long ptr;
+    private final int size;
+
+    /*
+     * Pointer to the term's impact ordered postings (ImpactFile.txt) and the size of them
+     * (0 if the index has none)
+     */
+    private final long impactPtr;
+    private final int impactSize;
+
+    // Constructor
+
+    public TermInfo(long df, long cf, long ptr, int size) {
+        this(df, cf, ptr, size, -1, 0);
+    }
+
+    public TermInfo(long df, long cf, long ptr, int size, long impactPtr, int impactSize) {
+        this.df = df;
+        this.cf = cf;
+        this.ptr = ptr;
+        this.size = size;
+        this.impactPtr = impactPtr;
+        this.impactSize = impactSize;
+    }
+
+    // Methods
+
+    public long getDf() { return df; }
+
+    public long getCf() { return cf; }
+
+    public long getPtr() { return ptr; }
+
+    public int getSize() { return size; }
+
+    public long getImpactPtr() { return impactPtr; }
+
+    public int getImpactSize() { return impactSize; }
+
+}
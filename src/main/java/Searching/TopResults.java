@@ -0,0 +1,80 @@
+package Searching;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/*
+ * Collects the k best results of a search (all of them if k <= 0). With collapsing, a cluster
+ * of near-duplicate documents gets a single result, the best one of the cluster, so that
+ * reprints and versions of an article don't crowd the top results
+ */
+class TopResults {
+
+    // Fields
+
+    private final int k;
+
+    /*
+     * The best results so far, the worst one first
+     */
+    private final PriorityQueue<SearchResult> best = new PriorityQueue<>(IndexShard.BY_SCORE);
+
+    /*
+     * The result of every cluster that is in best (null without collapsing)
+     */
+    private final HashMap<Integer, SearchResult> clusters;
+
+    // Constructor
+
+    TopResults(int k, boolean collapse) {
+        this.k = k;
+        clusters = collapse ? new HashMap<>() : null;
+    }
+
+    // Methods
+
+    /*
+     * Whether a document with this score and pmcid could get in the k best
+     * (checked before making a result for it)
+     */
+    boolean isCompetitive(double score, String pmcid) {
+        if (k <= 0 || best.size() < k)
+            return true;
+        SearchResult worst = best.peek();
+        return score > worst.getScore() || (score == worst.getScore() && pmcid.compareTo(worst.getPmcid()) <= 0);
+    }
+
+    void add(SearchResult r) {
+        if (clusters != null && r.getCluster() >= 0) {
+            SearchResult previous = clusters.get(r.getCluster());
+            if (previous != null) {
+                if (IndexShard.BY_SCORE.compare(r, previous) <= 0)
+                    return; // the cluster already has a better result
+                best.remove(previous);
+            }
+            clusters.put(r.getCluster(), r);
+        }
+        best.add(r);
+        if (k > 0 && best.size() > k) {
+            SearchResult worst = best.poll(); // drop the worst
+            if (clusters != null && worst.getCluster() >= 0)
+                clusters.remove(worst.getCluster());
+        }
+    }
+
+    void addAll(Iterable<SearchResult> results) {
+        for (SearchResult r : results)
+            add(r);
+    }
+
+    /*
+     * The results, best first
+     */
+    ArrayList<SearchResult> getResults() {
+        ArrayList<SearchResult> ret = new ArrayList<>(best);
+        ret.sort(IndexShard.BY_SCORE.reversed());
+        return ret;
+    }
+
+}
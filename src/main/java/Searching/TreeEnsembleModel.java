@@ -0,0 +1,96 @@
+package Searching;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * An ensemble of regression trees (e.g. gradient boosted trees): the sum of the values of
+ * the leaves a document reaches in every tree, times the tree's weight (see RankingModel)
+ */
+class TreeEnsembleModel implements RankingModel {
+
+    // Fields
+
+    /*
+     * A tree, as arrays indexed by node number. A leaf has feature -1
+     */
+    private static class Tree {
+
+        double weight;
+        int[] feature = new int[0], left = new int[0], right = new int[0];
+        double[] threshold = new double[0], value = new double[0];
+
+        void ensureNode(int node) {
+            if (node < feature.length)
+                return;
+            int n = Math.max(node + 1, feature.length * 2);
+            int oldLength = feature.length;
+            feature = Arrays.copyOf(feature, n);
+            Arrays.fill(feature, oldLength, n, -2); // not defined yet
+            left = Arrays.copyOf(left, n);
+            right = Arrays.copyOf(right, n);
+            threshold = Arrays.copyOf(threshold, n);
+            value = Arrays.copyOf(value, n);
+        }
+    }
+
+    private final ArrayList<Tree> trees = new ArrayList<>();
+
+    // Constructor
+
+    TreeEnsembleModel(List<String[]> lines, List<String> featureNames) throws IOException {
+        Tree tree = null;
+        for (String[] line : lines) {
+            if (line[0].equals("tree") && line.length == 2) {
+                tree = new Tree();
+                tree.weight = Double.parseDouble(line[1]);
+                trees.add(tree);
+            } else if (tree != null && line.length == 3 && line[1].equals("leaf")) {
+                int node = Integer.parseInt(line[0]);
+                tree.ensureNode(node);
+                tree.feature[node] = -1;
+                tree.value[node] = Double.parseDouble(line[2]);
+            } else if (tree != null && line.length == 5) {
+                int node = Integer.parseInt(line[0]);
+                tree.ensureNode(node);
+                tree.feature[node] = RankingModel.feature(line[1], featureNames);
+                tree.threshold[node] = Double.parseDouble(line[2]);
+                tree.left[node] = Integer.parseInt(line[3]);
+                tree.right[node] = Integer.parseInt(line[4]);
+                if (tree.left[node] <= node || tree.right[node] <= node)
+                    throw new IOException("The children of a node must come after it: " + String.join(" ", line));
+            } else {
+                throw new IOException("Bad line in tree ranking model: " + String.join(" ", line));
+            }
+        }
+
+        /* Every node that can be reached must be defined */
+        for (int t = 0; t < trees.size(); t++) {
+            Tree tr = trees.get(t);
+            for (int node = 0; node < tr.feature.length; node++) {
+                if (tr.feature[node] >= 0 && (tr.left[node] >= tr.feature.length || tr.feature[tr.left[node]] == -2
+                        || tr.right[node] >= tr.feature.length || tr.feature[tr.right[node]] == -2))
+                    throw new IOException("Tree " + t + " of the ranking model has a missing node under node " + node);
+            }
+            if (tr.feature.length == 0 || tr.feature[0] == -2)
+                throw new IOException("Tree " + t + " of the ranking model has no root");
+        }
+    }
+
+    // Methods
+
+    @Override
+    public double score(double[] features) {
+        double ret = 0.0;
+        for (Tree tree : trees) {
+            int node = 0;
+            while (tree.feature[node] >= 0)
+                node = features[tree.feature[node]] < tree.threshold[node] ? tree.left[node] : tree.right[node];
+            ret += tree.weight * tree.value[node];
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,340 @@
+package Utilities;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/*
+ * Reads the files inside a tar, tar.gz (tgz) or zip archive one after the other, in the order
+ * they are stored, decompressing the archive as a stream, so that a collection can be indexed
+ * without extracting it. A file inside an archive is located by "<archive path>!<entry name>"
+ * (see location), which read can open again later, e.g. to show the document (except inside
+ * a tar.gz, which can only be read from the start: the indexer keeps a copy of these files,
+ * see Indexing.DocumentStoreWriter.addSource)
+ */
+public class ArchiveReader implements Closeable {
+
+    // Fields
+
+    private static final String[] SUFFIXES = {".tar", ".tar.gz", ".tgz", ".zip"};
+    private static final String SEPARATOR = "!";
+
+    private static final int BLOCK = 512;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+
+    /*
+     * The zip stream (null for tar archives)
+     */
+    private final ZipInputStream zip;
+
+    /*
+     * Size of the current tar entry, and what's still unread of it (with the padding of its last block)
+     */
+    private long entrySize, entryRemaining;
+    private boolean entryRead;
+
+    /*
+     * Bytes of a tar archive read or skipped so far
+     */
+    private long position;
+
+    /*
+     * Where the files of the tar archives that read opened start, and their sizes, by archive path
+     * and entry name. Finding them reads only the headers: the files are skipped with seeks
+     */
+    private static final ConcurrentHashMap<String, TarEntries> TAR_ENTRIES = new ConcurrentHashMap<>();
+
+    private static class TarEntries {
+        final long lastModified;
+        final HashMap<String, long[]> entries = new HashMap<>();
+
+        TarEntries(long lastModified) { this.lastModified = lastModified; }
+    }
+
+    // Constructor
+
+    public ArchiveReader(File archive) throws IOException {
+        String name = archive.getName().toLowerCase();
+        InputStream file = new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE);
+        if(name.endsWith(".zip")) {
+            zip = new ZipInputStream(file, StandardCharsets.UTF_8);
+            in = zip;
+        } else {
+            zip = null;
+            in = name.endsWith(".tar") ? file
+                    : new BufferedInputStream(new GZIPInputStream(file, BUFFER_SIZE), BUFFER_SIZE);
+        }
+    }
+
+    // Methods
+
+    /*
+     * Whether a file is an archive that this reader reads (by its name)
+     */
+    public static boolean isArchive(String name) {
+        for(String suffix : SUFFIXES) {
+            if(name.toLowerCase().endsWith(suffix))
+                return true;
+        }
+        return false;
+    }
+
+    /*
+     * Location of a file inside an archive
+     */
+    public static String location(File archive, String entry) {
+        return archive.getAbsolutePath() + SEPARATOR + entry;
+    }
+
+    /*
+     * The archive and the entry name of a location, null if it isn't inside an archive
+     */
+    public static String[] split(String location) {
+        for(int i = location.indexOf(SEPARATOR); i >= 0; i = location.indexOf(SEPARATOR, i + 1)) {
+            if(isArchive(location.substring(0, i)))
+                return new String[] {location.substring(0, i), location.substring(i + 1)};
+        }
+        return null;
+    }
+
+    /*
+     * Whether read can read the file at a location: any file, except one inside a tar.gz (tgz)
+     */
+    public static boolean isReadable(String location) {
+        String[] parts = split(location);
+        return parts == null || parts[0].toLowerCase().endsWith(".tar") || parts[0].toLowerCase().endsWith(".zip");
+    }
+
+    /*
+     * Content of the file at a location, which is either a path or a file inside an archive. A zip
+     * entry is read directly, a tar entry from where it starts, which the first read of an archive
+     * finds for all its entries. A file inside a tar.gz isn't read, as that needs decompressing
+     * the archive up to it (see isReadable)
+     */
+    public static byte[] read(String location) throws IOException {
+        String[] parts = split(location);
+        if(parts == null)
+            return Files.readAllBytes(new File(location).toPath());
+        if(!isReadable(location))
+            throw new IOException("Files inside compressed tar archives can't be read: " + location);
+        if(parts[0].toLowerCase().endsWith(".zip")) {
+            try(ZipFile zipFile = new ZipFile(parts[0], StandardCharsets.UTF_8)) {
+                ZipEntry entry = zipFile.getEntry(parts[1]);
+                if(entry == null)
+                    throw new FileNotFoundException(location);
+                try(InputStream entryIn = zipFile.getInputStream(entry)) {
+                    return readFully(entryIn, entry.getSize());
+                }
+            }
+        }
+        long[] entry = tarEntries(new File(parts[0])).get(parts[1]);
+        if(entry == null)
+            throw new FileNotFoundException(location);
+        if(entry[1] > Integer.MAX_VALUE)
+            throw new IOException("Archive entry too large: " + entry[1] + " bytes");
+        try(RandomAccessFile tar = new RandomAccessFile(parts[0], "r")) {
+            byte[] ret = new byte[(int) entry[1]];
+            tar.seek(entry[0]);
+            tar.readFully(ret);
+            return ret;
+        }
+    }
+
+    /*
+     * Start and size of every file of a tar archive, by name (found again if the archive changed)
+     */
+    private static HashMap<String, long[]> tarEntries(File archive) throws IOException {
+        TarEntries cached = TAR_ENTRIES.get(archive.getAbsolutePath());
+        if(cached != null && cached.lastModified == archive.lastModified())
+            return cached.entries;
+        TarEntries ret = new TarEntries(archive.lastModified());
+        try(ArchiveReader reader = new ArchiveReader(archive)) {
+            for(String name; (name = reader.nextEntry()) != null; )
+                ret.entries.put(name, new long[] {reader.position, reader.entrySize});
+        }
+        TAR_ENTRIES.put(archive.getAbsolutePath(), ret);
+        return ret.entries;
+    }
+
+    /*
+     * Go to the next file of the archive (skipping directories, links etc.) and return its name,
+     * or null at the end of the archive
+     */
+    public String nextEntry() throws IOException {
+        if(zip != null) {
+            for(ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+                if(!entry.isDirectory()) {
+                    entrySize = entry.getSize();
+                    entryRead = false;
+                    return entry.getName();
+                }
+            }
+            return null;
+        }
+
+        skipFully(entryRemaining);
+        String longName = null;
+        byte[] header = new byte[BLOCK];
+        while(true) {
+            if(!readBlock(header) || isZeros(header))
+                return null; // end of the archive
+            long size = octal(header, 124, 12);
+            long padded = (size + BLOCK - 1) / BLOCK * BLOCK;
+            char type = (char) header[156];
+            if(type == 'L') { // GNU long name of the next entry
+                longName = trimNul(new String(readFullyBounded(size), StandardCharsets.UTF_8));
+                skipFully(padded - size);
+            } else if(type == 'x') { // pax header, only the path matters
+                String path = paxPath(readFullyBounded(size));
+                if(path != null)
+                    longName = path;
+                skipFully(padded - size);
+            } else if(type == '0' || type == '\0' || type == '7') { // regular file
+                String name = longName != null ? longName : headerName(header);
+                entrySize = size;
+                entryRemaining = padded;
+                entryRead = false;
+                return name;
+            } else {
+                skipFully(padded); // directories, links, global pax headers etc.
+                longName = null;
+            }
+        }
+    }
+
+    /*
+     * Content of the current file (once)
+     */
+    public byte[] readEntry() throws IOException {
+        if(entryRead)
+            throw new IllegalStateException("The entry was read already");
+        entryRead = true;
+        if(zip != null)
+            return readFully(zip, entrySize);
+        byte[] content = readFullyBounded(entrySize);
+        entryRemaining -= entrySize;
+        return content;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /*
+     * Read all the bytes of a stream (size of them if known, -1 if not)
+     */
+    private static byte[] readFully(InputStream in, long size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? (int) size : BLOCK * 16);
+        byte[] buf = new byte[BUFFER_SIZE];
+        for(int n; (n = in.read(buf)) != -1; )
+            out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    private byte[] readFullyBounded(long size) throws IOException {
+        if(size > Integer.MAX_VALUE)
+            throw new IOException("Archive entry too large: " + size + " bytes");
+        byte[] ret = new byte[(int) size];
+        new DataInputStream(in).readFully(ret);
+        position += size;
+        return ret;
+    }
+
+    private boolean readBlock(byte[] block) throws IOException {
+        int read = 0;
+        while(read < block.length) {
+            int n = in.read(block, read, block.length - read);
+            if(n < 0) {
+                if(read == 0)
+                    return false;
+                throw new EOFException("Truncated tar archive");
+            }
+            read += n;
+        }
+        position += read;
+        return true;
+    }
+
+    private void skipFully(long n) throws IOException {
+        while(n > 0) {
+            long skipped = in.skip(n);
+            if(skipped <= 0) {
+                if(in.read() < 0)
+                    throw new EOFException("Truncated tar archive");
+                skipped = 1;
+            }
+            n -= skipped;
+            position += skipped;
+        }
+    }
+
+    /*
+     * Name of a tar entry from its header: the ustar prefix (if any), then the name
+     */
+    private static String headerName(byte[] header) {
+        String name = trimNul(new String(header, 0, 100, StandardCharsets.UTF_8));
+        String magic = new String(header, 257, 5, StandardCharsets.US_ASCII);
+        if(magic.equals("ustar")) {
+            String prefix = trimNul(new String(header, 345, 155, StandardCharsets.UTF_8));
+            if(!prefix.isEmpty())
+                name = prefix + "/" + name;
+        }
+        return name;
+    }
+
+    /*
+     * The path of a pax header's records ("<length> path=<path>\n"), null if it has none
+     */
+    private static String paxPath(byte[] records) {
+        String text = new String(records, StandardCharsets.UTF_8);
+        for(String record : text.split("\n")) {
+            int space = record.indexOf(' ');
+            if(space >= 0 && record.startsWith("path=", space + 1))
+                return record.substring(space + 1 + "path=".length());
+        }
+        return null;
+    }
+
+    /*
+     * A numeric field of a tar header: octal digits, or base-256 if its first bit is set
+     */
+    private static long octal(byte[] header, int offset, int length) {
+        long ret = 0;
+        if((header[offset] & 0x80) != 0) {
+            for(int i = offset + 1; i < offset + length; i++)
+                ret = (ret << 8) | (header[i] & 0xff);
+            return ret;
+        }
+        for(int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if(b == 0 || (b == ' ' && ret > 0))
+                break; // leading spaces are skipped, trailing ones end the number
+            if(b >= '0' && b <= '7')
+                ret = ret * 8 + (b - '0');
+        }
+        return ret;
+    }
+
+    private static boolean isZeros(byte[] block) {
+        for(byte b : block) {
+            if(b != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static String trimNul(String s) {
+        int nul = s.indexOf('\0');
+        return nul >= 0 ? s.substring(0, nul) : s;
+    }
+
+}
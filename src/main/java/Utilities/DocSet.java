@@ -0,0 +1,413 @@
+package Utilities;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * A compressed set of document numbers, in the style of Roaring bitmaps: documents are
+ * grouped by their high 16 bits into containers, and every container keeps the low 16 bits
+ * either as a sorted array (up to 4096 documents) or as a 65536-bit bitmap (more documents).
+ * So sparse sets take 2 bytes per document and dense ones 1 bit, and sets are intersected
+ * and merged container by container
+ */
+public class DocSet {
+
+    // Fields
+
+    /*
+     * Max documents of an array container (an array of more takes more space than a bitmap)
+     */
+    private static final int ARRAY_MAX = 4096;
+
+    private static final int BITMAP_WORDS = 1024;
+
+    /*
+     * High 16 bits of the documents of every container (sorted), and the containers:
+     * char[] (array container, see sizes) or long[] (bitmap container)
+     */
+    private char[] keys;
+    private Object[] containers;
+
+    /*
+     * Documents in every container
+     */
+    private int[] sizes;
+
+    private int containersNum;
+
+    // Constructor
+
+    public DocSet() {
+        keys = new char[4];
+        containers = new Object[4];
+        sizes = new int[4];
+        containersNum = 0;
+    }
+
+    // Methods
+
+    /*
+     * Add a document. Adding documents in increasing order is the fastest
+     */
+    public void add(int doc) {
+        char key = (char) (doc >>> 16), low = (char) doc;
+        int i = containersNum > 0 && keys[containersNum - 1] == key
+                ? containersNum - 1 : findContainer(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, key, new char[4], 0);
+        }
+
+        if (containers[i] instanceof long[]) {
+            long[] words = (long[]) containers[i];
+            if ((words[low >>> 6] & (1L << low)) == 0) {
+                words[low >>> 6] |= 1L << low;
+                sizes[i]++;
+            }
+            return;
+        }
+
+        char[] values = (char[]) containers[i];
+        int size = sizes[i];
+        int pos = size > 0 && values[size - 1] < low ? -size - 1 : Arrays.binarySearch(values, 0, size, low);
+        if (pos >= 0)
+            return; // already in the set
+        pos = -pos - 1;
+        if (size == ARRAY_MAX) {
+            long[] words = toBitmap(values, size);
+            words[low >>> 6] |= 1L << low;
+            containers[i] = words;
+        } else {
+            if (size == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size * 2));
+            System.arraycopy(values, pos, values, pos + 1, size - pos);
+            values[pos] = low;
+            containers[i] = values;
+        }
+        sizes[i]++;
+    }
+
+    public boolean contains(int doc) {
+        int i = findContainer((char) (doc >>> 16));
+        return i >= 0 && containerContains(i, (char) doc);
+    }
+
+    /*
+     * Number of documents in the set
+     */
+    public int cardinality() {
+        int ret = 0;
+        for (int i = 0; i < containersNum; i++)
+            ret += sizes[i];
+        return ret;
+    }
+
+    public boolean isEmpty() { return containersNum == 0; }
+
+    /*
+     * The documents that are in both sets
+     */
+    public DocSet and(DocSet other) {
+        DocSet ret = new DocSet();
+        int i = 0, j = 0;
+        while (i < containersNum && j < other.containersNum) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                ret.addAnd(keys[i], containers[i], sizes[i], other.containers[j], other.sizes[j]);
+                i++;
+                j++;
+            }
+        }
+        return ret;
+    }
+
+    /*
+     * The documents that are in either set
+     */
+    public DocSet or(DocSet other) {
+        DocSet ret = new DocSet();
+        int i = 0, j = 0;
+        while (i < containersNum || j < other.containersNum) {
+            if (j == other.containersNum || (i < containersNum && keys[i] < other.keys[j])) {
+                ret.insertContainer(ret.containersNum, keys[i], copy(containers[i]), sizes[i]);
+                i++;
+            } else if (i == containersNum || keys[i] > other.keys[j]) {
+                ret.insertContainer(ret.containersNum, other.keys[j], copy(other.containers[j]), other.sizes[j]);
+                j++;
+            } else {
+                ret.addOr(keys[i], containers[i], sizes[i], other.containers[j], other.sizes[j]);
+                i++;
+                j++;
+            }
+        }
+        return ret;
+    }
+
+    /*
+     * A copy of the set, which doesn't change when the set does
+     */
+    public DocSet copy() {
+        DocSet ret = new DocSet();
+        for (int i = 0; i < containersNum; i++)
+            ret.insertContainer(i, keys[i], copy(containers[i]), sizes[i]);
+        return ret;
+    }
+
+    /*
+     * The documents of the set in increasing order
+     */
+    public int[] toArray() {
+        int[] ret = new int[cardinality()];
+        int n = 0;
+        for (int i = 0; i < containersNum; i++) {
+            int high = keys[i] << 16;
+            if (containers[i] instanceof char[]) {
+                char[] values = (char[]) containers[i];
+                for (int v = 0; v < sizes[i]; v++)
+                    ret[n++] = high | values[v];
+            } else {
+                long[] words = (long[]) containers[i];
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        ret[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /*
+     * A Matcher of the set, for testing documents in increasing order (e.g. the documents of
+     * a posting list) faster than with contains. A Matcher must be used by a single thread
+     */
+    public Matcher matcher() { return new Matcher(); }
+
+    public class Matcher {
+
+        private int container = 0;
+        private int pos = 0; // in an array container: first value that may still match
+
+        /*
+         * Is doc in the set? doc must not be smaller than the previous document tested
+         */
+        public boolean matches(int doc) {
+            char key = (char) (doc >>> 16), low = (char) doc;
+            if (container < containersNum && keys[container] != key) {
+                while (container < containersNum && keys[container] < key)
+                    container++;
+                pos = 0;
+            }
+            if (container == containersNum || keys[container] != key)
+                return false;
+            if (containers[container] instanceof long[])
+                return (((long[]) containers[container])[low >>> 6] & (1L << low)) != 0;
+            char[] values = (char[]) containers[container];
+            int size = sizes[container];
+            while (pos < size && values[pos] < low)
+                pos++;
+            return pos < size && values[pos] == low;
+        }
+    }
+
+    /*
+     * Write the set as: <containers number, <key, size, low bits array or bitmap words>...>
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(containersNum);
+        for (int i = 0; i < containersNum; i++) {
+            out.writeChar(keys[i]);
+            out.writeInt(sizes[i]);
+            if (containers[i] instanceof char[]) {
+                char[] values = (char[]) containers[i];
+                for (int v = 0; v < sizes[i]; v++)
+                    out.writeChar(values[v]);
+            } else {
+                for (long word : (long[]) containers[i])
+                    out.writeLong(word);
+            }
+        }
+    }
+
+    /*
+     * Read a set written with write
+     */
+    public static DocSet read(DataInput in) throws IOException {
+        DocSet ret = new DocSet();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            char key = in.readChar();
+            int size = in.readInt();
+            Object container;
+            if (size <= ARRAY_MAX) {
+                char[] values = new char[size];
+                for (int v = 0; v < size; v++)
+                    values[v] = in.readChar();
+                container = values;
+            } else {
+                long[] words = new long[BITMAP_WORDS];
+                for (int w = 0; w < BITMAP_WORDS; w++)
+                    words[w] = in.readLong();
+                container = words;
+            }
+            ret.insertContainer(ret.containersNum, key, container, size);
+        }
+        return ret;
+    }
+
+    private int findContainer(char key) {
+        int low = 0, high = containersNum - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key)
+                low = mid + 1;
+            else if (keys[mid] > key)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    private boolean containerContains(int i, char low) {
+        if (containers[i] instanceof long[])
+            return (((long[]) containers[i])[low >>> 6] & (1L << low)) != 0;
+        return Arrays.binarySearch((char[]) containers[i], 0, sizes[i], low) >= 0;
+    }
+
+    private void insertContainer(int i, char key, Object container, int size) {
+        if (containersNum == keys.length) {
+            keys = Arrays.copyOf(keys, containersNum * 2);
+            containers = Arrays.copyOf(containers, containersNum * 2);
+            sizes = Arrays.copyOf(sizes, containersNum * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, containersNum - i);
+        System.arraycopy(containers, i, containers, i + 1, containersNum - i);
+        System.arraycopy(sizes, i, sizes, i + 1, containersNum - i);
+        keys[i] = key;
+        containers[i] = container;
+        sizes[i] = size;
+        containersNum++;
+    }
+
+    /*
+     * Append the intersection of two containers with the same key (if it isn't empty)
+     */
+    private void addAnd(char key, Object c1, int size1, Object c2, int size2) {
+        if (c1 instanceof long[] && c2 instanceof long[]) {
+            long[] w1 = (long[]) c1, w2 = (long[]) c2, words = new long[BITMAP_WORDS];
+            int size = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                words[w] = w1[w] & w2[w];
+                size += Long.bitCount(words[w]);
+            }
+            if (size > ARRAY_MAX)
+                insertContainer(containersNum, key, words, size);
+            else if (size > 0)
+                insertContainer(containersNum, key, toArray(words, size), size);
+            return;
+        }
+        if (c1 instanceof long[]) { // make c1 the array
+            Object c = c1; c1 = c2; c2 = c;
+            int s = size1; size1 = size2; size2 = s;
+        }
+        char[] values1 = (char[]) c1, values = new char[Math.min(size1, size2)];
+        int size = 0;
+        if (c2 instanceof long[]) {
+            long[] words2 = (long[]) c2;
+            for (int v = 0; v < size1; v++) {
+                if ((words2[values1[v] >>> 6] & (1L << values1[v])) != 0)
+                    values[size++] = values1[v];
+            }
+        } else {
+            char[] values2 = (char[]) c2;
+            int i = 0, j = 0;
+            while (i < size1 && j < size2) {
+                if (values1[i] < values2[j]) {
+                    i++;
+                } else if (values1[i] > values2[j]) {
+                    j++;
+                } else {
+                    values[size++] = values1[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        if (size > 0)
+            insertContainer(containersNum, key, values, size);
+    }
+
+    /*
+     * Append the union of two containers with the same key
+     */
+    private void addOr(char key, Object c1, int size1, Object c2, int size2) {
+        long[] words;
+        if (c1 instanceof long[] || c2 instanceof long[] || size1 + size2 > ARRAY_MAX) {
+            words = c1 instanceof long[] ? ((long[]) c1).clone() : toBitmap((char[]) c1, size1);
+            if (c2 instanceof long[]) {
+                long[] words2 = (long[]) c2;
+                for (int w = 0; w < BITMAP_WORDS; w++)
+                    words[w] |= words2[w];
+            } else {
+                char[] values2 = (char[]) c2;
+                for (int v = 0; v < size2; v++)
+                    words[values2[v] >>> 6] |= 1L << values2[v];
+            }
+            int size = 0;
+            for (long word : words)
+                size += Long.bitCount(word);
+            if (size > ARRAY_MAX)
+                insertContainer(containersNum, key, words, size);
+            else
+                insertContainer(containersNum, key, toArray(words, size), size);
+            return;
+        }
+
+        char[] values1 = (char[]) c1, values2 = (char[]) c2, values = new char[size1 + size2];
+        int i = 0, j = 0, size = 0;
+        while (i < size1 || j < size2) {
+            if (j == size2 || (i < size1 && values1[i] < values2[j])) {
+                values[size++] = values1[i++];
+            } else if (i == size1 || values1[i] > values2[j]) {
+                values[size++] = values2[j++];
+            } else {
+                values[size++] = values1[i++];
+                j++;
+            }
+        }
+        insertContainer(containersNum, key, values, size);
+    }
+
+    private static long[] toBitmap(char[] values, int size) {
+        long[] words = new long[BITMAP_WORDS];
+        for (int v = 0; v < size; v++)
+            words[values[v] >>> 6] |= 1L << values[v];
+        return words;
+    }
+
+    private static char[] toArray(long[] words, int size) {
+        char[] values = new char[size];
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+
+    private static Object copy(Object container) {
+        return container instanceof long[] ? ((long[]) container).clone() : ((char[]) container).clone();
+    }
+
+}
@@ -0,0 +1,41 @@
+package Utilities;
+
+/*
+ * The document metadata that results can be filtered and counted by. Values are
+ * matched exactly (they aren't analyzed like the terms of the Fields)
+ */
+public enum Facet {
+
+    JOURNAL("journal"),
+    PUBLISHER("publisher"),
+    CATEGORIES("categories");
+
+    // Fields
+
+    /*
+     * Name used in the API and in the facets file
+     */
+    private final String name;
+
+    // Constructor
+
+    Facet(String name) {
+        this.name = name;
+    }
+
+    // Methods
+
+    public String getName() { return name; }
+
+    /*
+     * Return the facet of a name (e.g. "journal" -> JOURNAL)
+     */
+    public static Facet fromName(String name) {
+        for(Facet f : values()) {
+            if(f.name.equals(name))
+                return f;
+        }
+        throw new IllegalArgumentException("Unknown facet: " + name);
+    }
+
+}
@@ -0,0 +1,56 @@
+package Utilities;
+
+/*
+ * The sections (tags) of a document that are indexed as separate fields.
+ * Postings keep a term frequency for every field, so that field weights
+ * can be applied at query time
+ */
+public enum Field {
+
+    TITLE("title", 10),
+    PMCID("pmcid", 50),
+    ABSTRACT("abstract", 5),
+    JOURNAL("journal", 3),
+    BODY("body", 1),
+    PUBLISHER("publisher", 3),
+    AUTHORS("authors", 4),
+    CATEGORIES("categories", 3);
+
+    // Fields
+
+    /*
+     * Tag name, as used by the Indexer (multi valued tags get a number suffix, e.g. authors3)
+     */
+    private final String tagName;
+
+    /*
+     * Weight used when no other weight is configured
+     */
+    private final double defaultWeight;
+
+    // Constructor
+
+    Field(String tagName, double defaultWeight) {
+        this.tagName = tagName;
+        this.defaultWeight = defaultWeight;
+    }
+
+    // Methods
+
+    public String getTagName() { return tagName; }
+
+    public double getDefaultWeight() { return defaultWeight; }
+
+    /*
+     * Return the field of a tag name (e.g. "authors3" -> AUTHORS)
+     */
+    public static Field fromTag(String tagName) {
+        String name = tagName.replaceAll("\\d", "");
+        for(Field f : values()) {
+            if(f.tagName.equals(name))
+                return f;
+        }
+        throw new IllegalArgumentException("Unknown tag: " + tagName);
+    }
+
+}
@@ -0,0 +1,152 @@
+package Utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * Index generations: every build of the index goes to a new directory
+ * (gen-1, gen-2, ...) of the index directory, and the file CURRENT names the
+ * generation that searchers should open. A build is published by replacing
+ * CURRENT atomically, so a searcher never sees a half written index.
+ * An index directory without CURRENT holds a single (old layout) index.
+ * A generation may be split into shards (shard-0, shard-1, ...), each one
+ * being the index of a part of the collection
+ */
+public class IndexGenerations {
+
+    // Fields
+
+    private static final String CURRENT = "CURRENT";
+    private static final String PREFIX = "gen-";
+    private static final String SHARD_PREFIX = "shard-";
+
+    /*
+     * Generations kept on disk (the current one and the ones before it), so that
+     * searchers that haven't reloaded yet can still use theirs
+     */
+    private static final int KEPT_GENERATIONS = 2;
+
+    // Methods
+
+    /*
+     * Directory of the current generation
+     */
+    public static String currentDir() throws IOException {
+        File root = new File(PathManager.getInstance().getIndexDirPath());
+        File current = new File(root, CURRENT);
+        if(!current.exists())
+            return root.getPath();
+        String name = new String(Files.readAllBytes(current.toPath()), StandardCharsets.UTF_8).trim();
+        return new File(root, name).getPath();
+    }
+
+    /*
+     * Create the directory of the next generation and return it
+     */
+    public static String newGeneration() throws IOException {
+        File root = new File(PathManager.getInstance().getIndexDirPath());
+        root.mkdirs();
+        int next = 1;
+        for(int gen : generations(root))
+            next = Math.max(next, gen + 1);
+        File dir = new File(root, PREFIX + next);
+        if(!dir.mkdir())
+            throw new IOException("Can't create " + dir);
+        return dir.getPath();
+    }
+
+    /*
+     * Directory of the newest generation if it's newer than the current one (a build
+     * that hasn't been published, e.g. because it crashed), null if there's none
+     */
+    public static String unpublishedDir() throws IOException {
+        File root = new File(PathManager.getInstance().getIndexDirPath());
+        ArrayList<Integer> gens = generations(root);
+        if(gens.isEmpty())
+            return null;
+        int newest = gens.get(gens.size() - 1);
+        File current = new File(root, CURRENT);
+        if(current.exists()) {
+            String name = new String(Files.readAllBytes(current.toPath()), StandardCharsets.UTF_8).trim();
+            if(name.startsWith(PREFIX) && newest <= Integer.parseInt(name.substring(PREFIX.length())))
+                return null;
+        }
+        return new File(root, PREFIX + newest).getPath();
+    }
+
+    /*
+     * Make the generation of dir the current one and delete old generations
+     */
+    public static void publish(String dir) throws IOException {
+        File root = new File(PathManager.getInstance().getIndexDirPath());
+        Path tmp = new File(root, CURRENT + ".tmp").toPath();
+        Files.write(tmp, new File(dir).getName().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, new File(root, CURRENT).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        /* Files that are still open stay readable after deletion (on POSIX systems) */
+        ArrayList<Integer> gens = generations(root);
+        for(int i = 0; i < gens.size() - KEPT_GENERATIONS; i++)
+            delete(new File(root, PREFIX + gens.get(i)));
+    }
+
+    /*
+     * Number of the generation of a directory (0 for an index directory without generations)
+     */
+    public static int number(String dir) {
+        String name = new File(dir).getName();
+        if(name.startsWith(PREFIX) && name.substring(PREFIX.length()).matches("\\d+"))
+            return Integer.parseInt(name.substring(PREFIX.length()));
+        return 0;
+    }
+
+    /*
+     * Directory of the i-th shard of a generation
+     */
+    public static String shardDir(String dir, int i) {
+        return new File(dir, SHARD_PREFIX + i).getPath();
+    }
+
+    /*
+     * Directories of the shards of a generation, in shard order
+     * (just the generation's directory if it isn't sharded)
+     */
+    public static ArrayList<String> shardDirs(String dir) {
+        ArrayList<String> ret = new ArrayList<>();
+        for(int i = 0; new File(shardDir(dir, i)).isDirectory(); i++)
+            ret.add(shardDir(dir, i));
+        if(ret.isEmpty())
+            ret.add(dir);
+        return ret;
+    }
+
+    /*
+     * Numbers of the generations of the index directory, in increasing order
+     */
+    private static ArrayList<Integer> generations(File root) {
+        ArrayList<Integer> ret = new ArrayList<>();
+        String[] names = root.list();
+        if(names == null)
+            return ret;
+        for(String name : names) {
+            if(name.startsWith(PREFIX) && name.substring(PREFIX.length()).matches("\\d+"))
+                ret.add(Integer.parseInt(name.substring(PREFIX.length())));
+        }
+        ret.sort(Integer::compare);
+        return ret;
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if(files != null)
+            Arrays.stream(files).forEach(IndexGenerations::delete); // shards are directories too
+        dir.delete();
+    }
+
+}
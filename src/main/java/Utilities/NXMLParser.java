@@ -0,0 +1,74 @@
+package Utilities;
+
+import gr.uoc.csd.hy463.NXMLFileReader;
+import gr.uoc.csd.hy463.XMLReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/*
+ * Reads the content of an NXML file (a file that the indexer read already, or a file inside an
+ * archive, see ArchiveReader) into an NXMLFileReader, exactly like NXMLFileReader reads a file:
+ * the same tags, the pmcid from the file name if the article has none, lines joined with \n
+ */
+public class NXMLParser {
+
+    // Methods
+
+    /*
+     * Read the content of the NXML file with the given name
+     */
+    public static NXMLFileReader parse(byte[] content, String fileName) throws IOException {
+        StringBuilder text = new StringBuilder(content.length + 64);
+        BufferedReader lines = new BufferedReader(new StringReader(new String(content, StandardCharsets.UTF_8)));
+        for(String line; (line = lines.readLine()) != null; )
+            text.append(line).append('\n');
+
+        XMLReader article = new XMLReader(text.toString());
+        XMLReader front = new XMLReader(article.getFirstTagData("front"));
+        String pmcid = front.getFirstTagDataContains("article-id", "pub-id-type=\"pmc\"");
+        if(pmcid == null)
+            pmcid = fileName.toLowerCase().replace(".nxml", "").replace(".xml", "").trim();
+        NXMLFileReader ret = new NXMLFileReader(XMLReader.removeTags(pmcid));
+        ret.setTitle(tagText(front, "title-group"));
+        ret.setAbstr(tagText(front, "abstract"));
+
+        XMLReader contributors = new XMLReader(orEmpty(front.getFirstTagData("contrib-group")));
+        ArrayList<String> authors = new ArrayList<>();
+        for(int i = contributors.getFirstTagIndex("surname"); i != -1;
+            i = contributors.getFirstTagIndex("surname", i + 1)) {
+            String surname = XMLReader.removeTags(contributors.getFirstTagData("surname", i - 1));
+            String givenNames = XMLReader.removeTags(contributors.getFirstTagData("given-names", i - 1));
+            authors.add(givenNames + " " + surname);
+        }
+        ret.setAuthors(authors);
+
+        XMLReader categories = new XMLReader(orEmpty(front.getFirstTagData("article-categories")));
+        HashSet<String> subjects = new HashSet<>();
+        for(int i = categories.getFirstTagIndex("subject"); i != -1;
+            i = categories.getFirstTagIndex("subject", i + 1))
+            subjects.add(XMLReader.removeTags(categories.getFirstTagData("subject", i - 1)));
+        ret.setCategories(subjects);
+
+        ret.setPublisher(tagText(front, "publisher-name"));
+        ret.setJournal(tagText(front, "journal-title"));
+        ret.setBody(tagText(article, "body"));
+        return ret;
+    }
+
+    /*
+     * Text of the first tag with the given name ("" if there's none)
+     */
+    private static String tagText(XMLReader reader, String tagName) {
+        return XMLReader.removeTags(orEmpty(reader.getFirstTagData(tagName)));
+    }
+
+    private static String orEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+}
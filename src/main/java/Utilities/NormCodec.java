@@ -0,0 +1,80 @@
+package Utilities;
+
+/*
+ * Lossy one byte encodings of per document statistics (field lengths, vector lengths etc.),
+ * so that the statistics of every document fit in memory as byte arrays.
+ * Decoding is done with 256-entry tables
+ */
+public class NormCodec {
+
+    // Fields
+
+    /*
+     * Lengths below this value are encoded exactly
+     */
+    private static final int EXACT_LENGTHS = 64;
+
+    /*
+     * Mantissa bits kept for larger lengths
+     */
+    private static final int MANTISSA_BITS = 4;
+
+    /*
+     * Values are encoded on a log scale: code c (c > 0) stands for 2^((c - VALUE_OFFSET) / VALUE_STEPS)
+     */
+    private static final int VALUE_STEPS = 8, VALUE_OFFSET = 128;
+
+    private static final double[] LENGTH_TABLE = new double[256];
+    private static final double[] VALUE_TABLE = new double[256];
+
+    static {
+        for(int c = 0; c < 256; c++) {
+            LENGTH_TABLE[c] = decodeLengthSlow(c);
+            VALUE_TABLE[c] = c == 0 ? 0.0 : Math.pow(2.0, (c - VALUE_OFFSET) / (double) VALUE_STEPS);
+        }
+    }
+
+    // Methods
+
+    /*
+     * Encode a length (number of tokens): exact below 64, then 4 significant bits (max error 1/16)
+     */
+    public static byte encodeLength(int length) {
+        if(length < EXACT_LENGTHS)
+            return (byte) Math.max(length, 0);
+        int exp = 31 - Integer.numberOfLeadingZeros(length); // >= 6
+        int mantissa = (length >>> (exp - MANTISSA_BITS)) & ((1 << MANTISSA_BITS) - 1);
+        int code = EXACT_LENGTHS + ((exp - 6) << MANTISSA_BITS) + mantissa;
+        return (byte) Math.min(code, 255);
+    }
+
+    public static double decodeLength(byte code) {
+        return LENGTH_TABLE[code & 0xFF];
+    }
+
+    /*
+     * Encode a non-negative real value on a log scale (max relative error about 4.4%,
+     * range 2^-16 to 2^15.9)
+     */
+    public static byte encodeValue(double value) {
+        if(value <= 0.0)
+            return 0;
+        long code = Math.round(Math.log(value) / Math.log(2.0) * VALUE_STEPS) + VALUE_OFFSET;
+        return (byte) Math.max(1, Math.min(code, 255));
+    }
+
+    public static double decodeValue(byte code) {
+        return VALUE_TABLE[code & 0xFF];
+    }
+
+    private static double decodeLengthSlow(int code) {
+        if(code < EXACT_LENGTHS)
+            return code;
+        int exp = ((code - EXACT_LENGTHS) >>> MANTISSA_BITS) + 6;
+        int mantissa = (code - EXACT_LENGTHS) & ((1 << MANTISSA_BITS) - 1);
+        /* middle of the range of lengths that share this code */
+        double low = (double) ((1L << exp) | ((long) mantissa << (exp - MANTISSA_BITS)));
+        return low + ((1L << (exp - MANTISSA_BITS)) - 1) / 2.0;
+    }
+
+}
@@ -11,6 +11,8 @@ public class PathManager {
     private final String collectionPath;
     private final String indexDirPath;
     private final String evalFilesPath;
+    private final String wordNetPath;
+    private final String searchConfigPath;
     private final int numOfFiles;
 
     /*
@@ -24,14 +26,18 @@ public class PathManager {
     }
 
     /*
-     * Private constructor used in a singleton class
+     * Private constructor used in a singleton class.
+     * Every path can be overridden with a "hippocrates.*" system property
+     * (e.g. -Dhippocrates.indexDir=/tmp/index) to run against another collection
      */
     private PathManager() {
         fileNames = new ArrayList<>();
-        wordsPath = "WordLists";
-        collectionPath = "src/main/resources/public/MedicalCollection";
-        indexDirPath = "CollectionIndex";
-        evalFilesPath = "EvalFiles";
+        wordsPath = System.getProperty("hippocrates.wordsDir", "WordLists");
+        collectionPath = System.getProperty("hippocrates.collection", "src/main/resources/public/MedicalCollection");
+        indexDirPath = System.getProperty("hippocrates.indexDir", "CollectionIndex");
+        evalFilesPath = System.getProperty("hippocrates.evalDir", "EvalFiles");
+        wordNetPath = System.getProperty("hippocrates.wordNet", "WordNet/wn_s.pl");
+        searchConfigPath = System.getProperty("hippocrates.searchConfig", "Config/search.properties");
 
         numOfFiles = -1;
     }
@@ -52,5 +58,9 @@ public class PathManager {
 
     public String getEvalFilesPath() { return evalFilesPath; }
 
+    public String getWordNetPath() { return wordNetPath; }
+
+    public String getSearchConfigPath() { return searchConfigPath; }
+
 
 }
@@ -1,7 +1,13 @@
 package Utilities;
 
+import mitos.stemmer.Stemmer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -63,6 +69,120 @@ public class SharedUtilities {
         return ret;
     }
 
+    /*
+     * Write a non-negative int using 1 to 5 bytes (7 bits per byte, high bit set when more bytes follow)
+     */
+    public void writeVInt(DataOutput out, int value) throws IOException {
+        while((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /*
+     * Read an int written with writeVInt
+     */
+    public int readVInt(DataInput in) throws IOException {
+        int b = in.readByte();
+        int value = b & 0x7F;
+        for(int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /*
+     * Write the term frequencies of a posting, one for every Field: a byte with one bit
+     * per field with non-zero frequency, followed by these frequencies (as vints)
+     */
+    public void writeFieldTFs(DataOutput out, int[] fieldTFs) throws IOException {
+        int mask = 0;
+        for(int f = 0; f < fieldTFs.length; f++) {
+            if(fieldTFs[f] != 0)
+                mask |= 1 << f;
+        }
+        out.writeByte(mask);
+        for(int f = 0; f < fieldTFs.length; f++) {
+            if(fieldTFs[f] != 0)
+                writeVInt(out, fieldTFs[f]);
+        }
+    }
+
+    /*
+     * Read the term frequencies of a posting written with writeFieldTFs
+     */
+    public int[] readFieldTFs(DataInput in) throws IOException {
+        int[] fieldTFs = new int[Field.values().length];
+        int mask = in.readByte() & 0xFF;
+        for(int f = 0; mask != 0; f++, mask >>>= 1) {
+            if((mask & 1) != 0)
+                fieldTFs[f] = readVInt(in);
+        }
+        return fieldTFs;
+    }
+
+    /*
+     * The Porter stemmer that the stemmer uses for English tokens, a class of the stemmer's jar that
+     * isn't public, and its add(char[], int) and stem(). Every thread gets its own (see stem), null if
+     * it can't be made, and then every token goes through the shared stemmer
+     */
+    private static final Constructor<?> PORTER;
+    private static final Method PORTER_ADD, PORTER_STEM;
+    private static final ThreadLocal<Object> porters;
+
+    static {
+        Constructor<?> porter = null;
+        Method add = null, stem = null;
+        try {
+            Class<?> porterClass = Class.forName("mitos.stemmer.english.PorterStemmer");
+            porter = porterClass.getConstructor();
+            add = porterClass.getMethod("add", char[].class, int.class);
+            stem = porterClass.getMethod("stem");
+            porter.setAccessible(true);
+            add.setAccessible(true);
+            stem.setAccessible(true);
+        } catch(ReflectiveOperationException | RuntimeException e) {
+            porter = null;
+        }
+        PORTER = porter;
+        PORTER_ADD = add;
+        PORTER_STEM = stem;
+        porters = ThreadLocal.withInitial(() -> {
+            try {
+                return PORTER.newInstance();
+            } catch(ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /*
+     * Stem a token. The stemmer keeps its state in a single shared instance, so calls coming from
+     * different threads must not overlap, except for English tokens (the ones that start with a
+     * printable ASCII character), which are stemmed like Stemmer.Stem does, with the thread's own
+     * Porter stemmer
+     */
+    public String stem(String token) {
+        if(token != null && PORTER != null) {
+            String lower = token.trim().toLowerCase();
+            if(!lower.isEmpty() && lower.charAt(0) >= 33 && lower.charAt(0) <= 126) {
+                Object porter = porters.get();
+                try {
+                    PORTER_ADD.invoke(porter, lower.toCharArray(), lower.length());
+                    PORTER_STEM.invoke(porter);
+                } catch(ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
+                return porter.toString();
+            }
+        }
+        synchronized (Stemmer.class) {
+            return Stemmer.Stem(token);
+        }
+    }
+
     /*
      * Perform the appropriate lexical analysis actions on a string
      */
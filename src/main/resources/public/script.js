@@ -71,12 +71,29 @@ function renderNResults(n) {
     rendered -= n;
 }
 
+function suggest() {
+    var query = document.getElementById("srch-term").value;
+    if(query.trim() === '') {
+        document.getElementById("suggestions").innerHTML = '';
+        return;
+    }
+    $.getJSON("api/suggest", {q: query}, function (data) {
+        if(document.getElementById("srch-term").value !== query)
+            return; // the query has changed in the meantime
+        var options = '';
+        for(var i = 0; i < data.suggestions.length; i++)
+            options += '<option value="' + $('<div>').text(data.suggestions[i].text).html() + '">';
+        document.getElementById("suggestions").innerHTML = options;
+    });
+}
+
 function showContent(id) {
     $("#div3").load(id);
     $('#myModal').modal('toggle');
 }
 
 $( document ).ready(function() {
+    $("#srch-term").on("input", suggest);
     $(".dropdown-menu li a").click(function(){
         var selText = $(this).text();
         typeVar = selText;